@@ -2,8 +2,11 @@ package com.example.aiexcel.config;
 
 import com.example.aiexcel.service.excel.ExcelService;
 import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
 import org.springframework.web.servlet.config.annotation.CorsRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
@@ -15,6 +18,32 @@ public class ServiceConfig {
         return new ExcelServiceImpl();
     }
 
+    /**
+     * 开启JDBC批量插入，异步写入队列每批的插入语句合并发送
+     */
+    @Bean
+    public HibernatePropertiesCustomizer jdbcBatchingCustomizer(
+            @Value("${persistence.write-behind.batch-size:50}") int batchSize) {
+        return properties -> {
+            properties.put("hibernate.jdbc.batch_size", batchSize);
+            properties.put("hibernate.order_inserts", true);
+        };
+    }
+
+    /**
+     * 流式JSON响应（StreamingResponseBody）按异步请求处理，大工作表写出时间可能超过容器默认的超时
+     */
+    @Bean
+    public WebMvcConfigurer streamingResponseConfigurer(
+            @Value("${excel.streaming.timeout-seconds:300}") long timeoutSeconds) {
+        return new WebMvcConfigurer() {
+            @Override
+            public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+                configurer.setDefaultTimeout(timeoutSeconds * 1000);
+            }
+        };
+    }
+
     @Bean
     public WebMvcConfigurer corsConfigurer() {
         return new WebMvcConfigurer() {
@@ -3,18 +3,33 @@ package com.example.aiexcel.controller;
 import com.example.aiexcel.service.AiAdvancedOperationsService;
 import com.example.aiexcel.service.AiExcelIntegrationService;
 import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.excel.filter.FilterExpression;
+import com.example.aiexcel.service.excel.filter.FilterParser;
+import com.example.aiexcel.service.excel.session.WorkbookSessionNotFoundException;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RestController
 @RequestMapping("/api")
 public class AiExcelController {
 
+    private static final int DEFAULT_SORT_PAGE_ROWS = 200;
+    private static final int MAX_SORT_PAGE_ROWS = 1000;
+    private static final int DEFAULT_FILTER_PAGE_ROWS = 200;
+    private static final int MAX_FILTER_PAGE_ROWS = 1000;
+
     @Autowired
     private AiExcelIntegrationService aiExcelIntegrationService;
 
@@ -24,6 +39,9 @@ public class AiExcelController {
     @Autowired
     private AiService aiService;
 
+    @Autowired
+    private WorkbookSessionStore workbookSessionStore;
+
     @PostMapping("/upload")
     public ResponseEntity<Map<String, Object>> uploadExcel(@RequestParam("file") MultipartFile file) {
         try {
@@ -44,10 +62,15 @@ public class AiExcelController {
 
     @PostMapping("/ai/excel-with-ai")
     public ResponseEntity<Map<String, Object>> processExcelWithAI(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestParam("command") String command) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.processExcelWithAI(file, command);
+            // 会话模式下直接修改会话中的工作簿，操作可在会话上撤销和重做
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId,
+                    workbook -> aiExcelIntegrationService.processWorkbookWithAI(sessionId, workbook, command))
+                : aiExcelIntegrationService.processExcelWithAI(requireFile(file), command);
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -153,14 +176,11 @@ public class AiExcelController {
     }
 
     @PostMapping("/excel/get-data")
-    public ResponseEntity<Map<String, Object>> getExcelData(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> getExcelData(@RequestParam("file") MultipartFile file) {
         try {
-            Object[][] excelData = aiExcelIntegrationService.getExcelDataAsArray(file);
-            Map<String, Object> response = Map.of(
-                "success", true,
-                "data", excelData
-            );
-            return ResponseEntity.ok(response);
+            // 逐行写出JSON，不在内存中构建整个数据数组
+            StreamingResponseBody body = aiExcelIntegrationService.streamExcelData(file);
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
                 "success", false,
@@ -199,11 +219,29 @@ public class AiExcelController {
     }
 
     @PostMapping("/excel/sort-data")
-    public ResponseEntity<Map<String, Object>> sortData(@RequestParam("file") MultipartFile file,
-                                                        @RequestParam("sortColumn") String sortColumn,
-                                                        @RequestParam("sortOrder") String sortOrder) {
+    public ResponseEntity<?> sortData(@RequestParam("file") MultipartFile file,
+                                      @RequestParam("sortColumn") String sortColumn,
+                                      @RequestParam(value = "sortOrder", required = false) String sortOrder,
+                                      @RequestParam(value = "hasHeader", defaultValue = "true") boolean hasHeader,
+                                      @RequestParam(value = "format", defaultValue = "preview") String format,
+                                      @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                      @RequestParam(value = "limit", defaultValue = "" + DEFAULT_SORT_PAGE_ROWS) int limit) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.sortExcelData(file, sortColumn, sortOrder);
+            if ("xlsx".equalsIgnoreCase(format)) {
+                // 在本地排序后逐行写出XLSX
+                StreamingResponseBody body = aiExcelIntegrationService.streamSortedWorkbook(file, sortColumn, sortOrder, hasHeader);
+                return ResponseEntity.ok()
+                    .header("Content-Disposition", "attachment; filename=\"sorted_" + file.getOriginalFilename() + "\"")
+                    .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
+                    .body(body);
+            }
+            if (!"preview".equalsIgnoreCase(format)) {
+                throw new IllegalArgumentException("Unknown format: " + format);
+            }
+            if (offset < 0 || limit < 1 || limit > MAX_SORT_PAGE_ROWS) {
+                throw new IllegalArgumentException("offset must be >= 0 and limit between 1 and " + MAX_SORT_PAGE_ROWS);
+            }
+            Map<String, Object> result = aiExcelIntegrationService.sortExcelData(file, sortColumn, sortOrder, hasHeader, offset, limit);
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -221,12 +259,46 @@ public class AiExcelController {
     }
 
     @PostMapping("/excel/filter-data")
-    public ResponseEntity<Map<String, Object>> filterData(@RequestParam("file") MultipartFile file,
-                                                          @RequestParam("filterColumn") String filterColumn,
-                                                          @RequestParam("filterCondition") String filterCondition,
-                                                          @RequestParam("filterValue") String filterValue) {
+    public ResponseEntity<?> filterData(@RequestParam(value = "file", required = false) MultipartFile file,
+                                        @RequestParam(value = "sessionId", required = false) String sessionId,
+                                        @RequestParam(value = "filterColumn", required = false) String filterColumn,
+                                        @RequestParam(value = "filterCondition", required = false) String filterCondition,
+                                        @RequestParam(value = "filterValue", required = false) String filterValue,
+                                        @RequestParam(value = "filter", required = false) String filter,
+                                        @RequestParam(value = "sheet", defaultValue = "0") int sheet,
+                                        @RequestParam(value = "hasHeader", defaultValue = "true") boolean hasHeader,
+                                        @RequestParam(value = "format", defaultValue = "preview") String format,
+                                        @RequestParam(value = "offset", defaultValue = "0") int offset,
+                                        @RequestParam(value = "limit", defaultValue = "" + DEFAULT_FILTER_PAGE_ROWS) int limit) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.filterExcelData(file, filterColumn, filterCondition, filterValue);
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                throw new IllegalArgumentException("Either file or sessionId is required");
+            }
+            // 组合筛选用JSON表达式，单列筛选沿用filterColumn/filterCondition/filterValue
+            FilterExpression expression;
+            if (filter != null && !filter.isBlank()) {
+                expression = FilterParser.parse(filter);
+            } else if (filterColumn != null && filterCondition != null) {
+                expression = FilterParser.comparison(filterColumn, filterCondition, filterValue);
+            } else {
+                throw new IllegalArgumentException("Either filter or filterColumn and filterCondition are required");
+            }
+
+            if ("xlsx".equalsIgnoreCase(format)) {
+                StreamingResponseBody body = aiExcelIntegrationService.streamFilteredWorkbook(file, sessionId, expression, sheet, hasHeader);
+                String fileName = file != null ? file.getOriginalFilename() : sessionId + ".xlsx";
+                return ResponseEntity.ok()
+                    .header("Content-Disposition", "attachment; filename=\"filtered_" + fileName + "\"")
+                    .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
+                    .body(body);
+            }
+            if (!"preview".equalsIgnoreCase(format)) {
+                throw new IllegalArgumentException("Unknown format: " + format);
+            }
+            if (offset < 0 || limit < 1 || limit > MAX_FILTER_PAGE_ROWS) {
+                throw new IllegalArgumentException("offset must be >= 0 and limit between 1 and " + MAX_FILTER_PAGE_ROWS);
+            }
+            Map<String, Object> result = aiExcelIntegrationService.filterExcelData(file, sessionId, expression, sheet, hasHeader, offset, limit);
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -234,6 +306,11 @@ public class AiExcelController {
                 "error", "Error processing Excel file: " + e.getMessage()
             );
             return ResponseEntity.badRequest().body(response);
+        } catch (WorkbookSessionNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+                "success", false,
+                "error", e.getMessage()
+            ));
         } catch (Exception e) {
             Map<String, Object> response = Map.of(
                 "success", false,
@@ -261,7 +338,7 @@ public class AiExcelController {
     }
 
     @PostMapping("/ai/chat")
-    public ResponseEntity<Map<String, Object>> chatWithAI(@RequestBody Map<String, String> request) {
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> chatWithAI(@RequestBody Map<String, String> request) {
         String userMessage = request.get("message");
 
         if (userMessage == null || userMessage.trim().isEmpty()) {
@@ -269,26 +346,23 @@ public class AiExcelController {
                 "success", false,
                 "error", "Message is required"
             );
-            return ResponseEntity.badRequest().body(response);
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(response));
         }
 
-        try {
-            // 使用AI服务回复用户消息
-            String aiResponse = aiExcelIntegrationService.chatWithAI(userMessage);
-
-            Map<String, Object> response = Map.of(
+        // 异步调用AI服务，等待模型响应期间释放Servlet线程
+        return aiExcelIntegrationService.chatWithAIAsync(userMessage)
+            .<ResponseEntity<Map<String, Object>>>thenApply(aiResponse -> ResponseEntity.ok(Map.of(
                 "success", true,
                 "message", aiResponse
-            );
-
-            return ResponseEntity.ok(response);
-        } catch (Exception e) {
-            Map<String, Object> response = Map.of(
-                "success", false,
-                "error", "Error processing AI chat: " + e.getMessage()
-            );
-            return ResponseEntity.badRequest().body(response);
-        }
+            )))
+            .exceptionally(e -> {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                Map<String, Object> response = Map.of(
+                    "success", false,
+                    "error", "Error processing AI chat: " + cause.getMessage()
+                );
+                return ResponseEntity.badRequest().body(response);
+            });
     }
 
     @GetMapping("/health")
@@ -346,31 +420,21 @@ public class AiExcelController {
                     return;
                 }
 
-                // 使用AI服务回复用户消息
-                String aiResponse = aiExcelIntegrationService.chatWithAI(message);
-
                 // 先发送一个开始事件
                 emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
                         .name("start")
                         .data(""));
 
-                // 将AI响应按单词分割模拟流式输出
-                String[] words = aiResponse.split("(?<=\\S)\\s+");
-
-                for (int i = 0; i < words.length; i++) {
-                    String word = words[i];
-                    if (!word.trim().isEmpty()) {
-                        // 添加空格（除了第一个词）
-                        if (i > 0) {
-                            word = " " + word;
-                        }
-
+                // 模型每生成一段内容立即转发；客户端断开时send抛出异常，上游流随之关闭
+                aiExcelIntegrationService.chatWithAIStreaming(message, delta -> {
+                    try {
                         emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
                                 .name("chunk")
-                                .data(word));
-                        Thread.sleep(50); // 模拟打字延迟
+                                .data(delta));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
                     }
-                }
+                });
 
                 // 发送完成事件
                 emitter.send(org.springframework.web.servlet.mvc.method.annotation.SseEmitter.event()
@@ -397,9 +461,13 @@ public class AiExcelController {
 
     // 客户分析API端点
     @PostMapping("/analysis/rfm")
-    public ResponseEntity<Map<String, Object>> performRFMAnalysis(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> performRFMAnalysis(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.performRFMAnalysis(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::performRFMAnalysis)
+                : aiExcelIntegrationService.performRFMAnalysis(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -417,9 +485,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/clv")
-    public ResponseEntity<Map<String, Object>> calculateCustomerLifetimeValue(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> calculateCustomerLifetimeValue(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.calculateCustomerLifetimeValue(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::calculateCustomerLifetimeValue)
+                : aiExcelIntegrationService.calculateCustomerLifetimeValue(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -437,9 +509,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/customer-segmentation")
-    public ResponseEntity<Map<String, Object>> segmentCustomers(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> segmentCustomers(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.segmentCustomers(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::segmentCustomers)
+                : aiExcelIntegrationService.segmentCustomers(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -457,9 +533,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/churn-prediction")
-    public ResponseEntity<Map<String, Object>> predictChurnRisk(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> predictChurnRisk(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.predictChurnRisk(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::predictChurnRisk)
+                : aiExcelIntegrationService.predictChurnRisk(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -477,9 +557,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/cac-clv")
-    public ResponseEntity<Map<String, Object>> calculateCACvsCLV(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> calculateCACvsCLV(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.calculateCACvsCLV(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::calculateCACvsCLV)
+                : aiExcelIntegrationService.calculateCACvsCLV(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -497,9 +581,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/cohort")
-    public ResponseEntity<Map<String, Object>> analyzeCustomerCohorts(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> analyzeCustomerCohorts(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.analyzeCustomerCohorts(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::analyzeCustomerCohorts)
+                : aiExcelIntegrationService.analyzeCustomerCohorts(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -519,10 +607,14 @@ public class AiExcelController {
     // 财务分析API端点
     @PostMapping("/analysis/financial")
     public ResponseEntity<Map<String, Object>> analyzeFinancialStatements(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestParam(value = "type", defaultValue = "comprehensive") String analysisType) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.analyzeFinancialStatements(file, analysisType);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId,
+                    workbook -> aiExcelIntegrationService.analyzeFinancialStatements(workbook, analysisType))
+                : aiExcelIntegrationService.analyzeFinancialStatements(requireFile(file), analysisType);
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -540,9 +632,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/financial-ratios")
-    public ResponseEntity<Map<String, Object>> calculateFinancialRatios(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> calculateFinancialRatios(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.calculateFinancialRatios(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::calculateFinancialRatios)
+                : aiExcelIntegrationService.calculateFinancialRatios(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -560,9 +656,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/profitability")
-    public ResponseEntity<Map<String, Object>> analyzeProfitability(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> analyzeProfitability(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.analyzeProfitability(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::analyzeProfitability)
+                : aiExcelIntegrationService.analyzeProfitability(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -580,9 +680,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/cash-flow")
-    public ResponseEntity<Map<String, Object>> analyzeCashFlow(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> analyzeCashFlow(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.analyzeCashFlow(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::analyzeCashFlow)
+                : aiExcelIntegrationService.analyzeCashFlow(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -600,9 +704,13 @@ public class AiExcelController {
     }
 
     @PostMapping("/analysis/budget-actual")
-    public ResponseEntity<Map<String, Object>> compareBudgetVsActual(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<Map<String, Object>> compareBudgetVsActual(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         try {
-            Map<String, Object> result = aiExcelIntegrationService.compareBudgetVsActual(file);
+            Map<String, Object> result = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, aiExcelIntegrationService::compareBudgetVsActual)
+                : aiExcelIntegrationService.compareBudgetVsActual(requireFile(file));
             return ResponseEntity.ok(result);
         } catch (IOException e) {
             Map<String, Object> response = Map.of(
@@ -729,4 +837,14 @@ public class AiExcelController {
             return ResponseEntity.badRequest().body(response);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 未提供会话ID时必须上传文件
+     */
+    private static MultipartFile requireFile(MultipartFile file) {
+        if (file == null || file.isEmpty()) {
+            throw new IllegalArgumentException("Either file or sessionId is required");
+        }
+        return file;
+    }
+}
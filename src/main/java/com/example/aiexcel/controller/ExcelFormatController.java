@@ -2,6 +2,7 @@ package com.example.aiexcel.controller;
 
 import com.example.aiexcel.model.FormatOptions;
 import com.example.aiexcel.service.ExcelFormatService;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -22,6 +23,9 @@ public class ExcelFormatController {
     @Autowired
     private ExcelFormatService excelFormatService;
 
+    @Autowired
+    private WorkbookSessionStore workbookSessionStore;
+
     private static final Logger logger = LoggerFactory.getLogger(ExcelFormatController.class);
 
     /**
@@ -29,22 +33,23 @@ public class ExcelFormatController {
      */
     @PostMapping("/format-cell")
     public ResponseEntity<Map<String, Object>> formatCell(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestParam("sheetName") String sheetName,
             @RequestParam("row") int row,
             @RequestParam("col") int col,
             @RequestBody Map<String, Object> formatOptions) {
         
         logger.info("Received request to format cell ({}, {}) in sheet {} for file: {}", 
-                   row, col, sheetName, file.getOriginalFilename());
+                   row, col, sheetName, describeSource(file, sessionId));
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
                 Map<String, Object> response = Map.of(
                     "success", false,
-                    "error", "File is empty"
+                    "error", "Either file or sessionId is required"
                 );
                 return ResponseEntity.badRequest().body(response);
             }
@@ -53,7 +58,10 @@ public class ExcelFormatController {
             FormatOptions options = excelFormatService.createFormatOptionsFromMap(formatOptions);
 
             // 格式化单元格
-            boolean success = excelFormatService.formatCell(file, sheetName, row, col, options);
+            boolean success = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId,
+                    workbook -> excelFormatService.formatCell(workbook, sheetName, row, col, options))
+                : excelFormatService.formatCell(file, sheetName, row, col, options);
 
             if (success) {
                 Map<String, Object> response = Map.of(
@@ -85,7 +93,8 @@ public class ExcelFormatController {
      */
     @PostMapping("/format-range")
     public ResponseEntity<Map<String, Object>> formatCellRange(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestParam("sheetName") String sheetName,
             @RequestParam("startRow") int startRow,
             @RequestParam("startCol") int startCol,
@@ -94,15 +103,15 @@ public class ExcelFormatController {
             @RequestBody Map<String, Object> formatOptions) {
         
         logger.info("Received request to format cell range ({}, {}) to ({}, {}) in sheet {} for file: {}", 
-                   startRow, startCol, endRow, endCol, sheetName, file.getOriginalFilename());
+                   startRow, startCol, endRow, endCol, sheetName, describeSource(file, sessionId));
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
                 Map<String, Object> response = Map.of(
                     "success", false,
-                    "error", "File is empty"
+                    "error", "Either file or sessionId is required"
                 );
                 return ResponseEntity.badRequest().body(response);
             }
@@ -111,7 +120,10 @@ public class ExcelFormatController {
             FormatOptions options = excelFormatService.createFormatOptionsFromMap(formatOptions);
 
             // 格式化单元格范围
-            boolean success = excelFormatService.formatCellRange(file, sheetName, startRow, startCol, endRow, endCol, options);
+            boolean success = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId,
+                    workbook -> excelFormatService.formatCellRange(workbook, sheetName, startRow, startCol, endRow, endCol, options))
+                : excelFormatService.formatCellRange(file, sheetName, startRow, startCol, endRow, endCol, options);
 
             if (success) {
                 Map<String, Object> response = Map.of(
@@ -146,21 +158,22 @@ public class ExcelFormatController {
      */
     @PostMapping("/format-row")
     public ResponseEntity<Map<String, Object>> formatRow(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestParam("sheetName") String sheetName,
             @RequestParam("rowIndex") int rowIndex,
             @RequestBody Map<String, Object> formatOptions) {
         
         logger.info("Received request to format row {} in sheet {} for file: {}", 
-                   rowIndex, sheetName, file.getOriginalFilename());
+                   rowIndex, sheetName, describeSource(file, sessionId));
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
                 Map<String, Object> response = Map.of(
                     "success", false,
-                    "error", "File is empty"
+                    "error", "Either file or sessionId is required"
                 );
                 return ResponseEntity.badRequest().body(response);
             }
@@ -169,7 +182,10 @@ public class ExcelFormatController {
             FormatOptions options = excelFormatService.createFormatOptionsFromMap(formatOptions);
 
             // 格式化行
-            boolean success = excelFormatService.formatRow(file, sheetName, rowIndex, options);
+            boolean success = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId,
+                    workbook -> excelFormatService.formatRow(workbook, sheetName, rowIndex, options))
+                : excelFormatService.formatRow(file, sheetName, rowIndex, options);
 
             if (success) {
                 Map<String, Object> response = Map.of(
@@ -201,21 +217,22 @@ public class ExcelFormatController {
      */
     @PostMapping("/format-column")
     public ResponseEntity<Map<String, Object>> formatColumn(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestParam("sheetName") String sheetName,
             @RequestParam("colIndex") int colIndex,
             @RequestBody Map<String, Object> formatOptions) {
         
         logger.info("Received request to format column {} in sheet {} for file: {}", 
-                   colIndex, sheetName, file.getOriginalFilename());
+                   colIndex, sheetName, describeSource(file, sessionId));
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
                 Map<String, Object> response = Map.of(
                     "success", false,
-                    "error", "File is empty"
+                    "error", "Either file or sessionId is required"
                 );
                 return ResponseEntity.badRequest().body(response);
             }
@@ -224,7 +241,10 @@ public class ExcelFormatController {
             FormatOptions options = excelFormatService.createFormatOptionsFromMap(formatOptions);
 
             // 格式化列
-            boolean success = excelFormatService.formatColumn(file, sheetName, colIndex, options);
+            boolean success = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId,
+                    workbook -> excelFormatService.formatColumn(workbook, sheetName, colIndex, options))
+                : excelFormatService.formatColumn(file, sheetName, colIndex, options);
 
             if (success) {
                 Map<String, Object> response = Map.of(
@@ -256,7 +276,8 @@ public class ExcelFormatController {
      */
     @PostMapping("/merge-and-format")
     public ResponseEntity<Map<String, Object>> mergeAndFormatCells(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestParam("sheetName") String sheetName,
             @RequestParam("startRow") int startRow,
             @RequestParam("startCol") int startCol,
@@ -265,15 +286,15 @@ public class ExcelFormatController {
             @RequestBody Map<String, Object> formatOptions) {
         
         logger.info("Received request to merge and format cells from ({}, {}) to ({}, {}) in sheet {} for file: {}", 
-                   startRow, startCol, endRow, endCol, sheetName, file.getOriginalFilename());
+                   startRow, startCol, endRow, endCol, sheetName, describeSource(file, sessionId));
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
                 Map<String, Object> response = Map.of(
                     "success", false,
-                    "error", "File is empty"
+                    "error", "Either file or sessionId is required"
                 );
                 return ResponseEntity.badRequest().body(response);
             }
@@ -282,7 +303,10 @@ public class ExcelFormatController {
             FormatOptions options = excelFormatService.createFormatOptionsFromMap(formatOptions);
 
             // 合并并格式化单元格
-            boolean success = excelFormatService.mergeAndFormatCells(file, sheetName, startRow, startCol, endRow, endCol, options);
+            boolean success = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId,
+                    workbook -> excelFormatService.mergeAndFormatCells(workbook, sheetName, startRow, startCol, endRow, endCol, options))
+                : excelFormatService.mergeAndFormatCells(file, sheetName, startRow, startCol, endRow, endCol, options);
 
             if (success) {
                 Map<String, Object> response = Map.of(
@@ -311,4 +335,14 @@ public class ExcelFormatController {
             return ResponseEntity.badRequest().body(response);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 日志中标识请求使用的工作簿来源
+     */
+    private static String describeSource(MultipartFile file, String sessionId) {
+        if (sessionId != null) {
+            return "session " + sessionId;
+        }
+        return file != null ? file.getOriginalFilename() : null;
+    }
+}
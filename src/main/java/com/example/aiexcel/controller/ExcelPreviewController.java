@@ -1,12 +1,15 @@
 package com.example.aiexcel.controller;
 
 import com.example.aiexcel.service.ExcelPreviewService;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
 import java.util.Map;
@@ -22,31 +25,49 @@ public class ExcelPreviewController {
     @Autowired
     private ExcelPreviewService excelPreviewService;
 
+    @Autowired
+    private WorkbookSessionStore workbookSessionStore;
+
     private static final Logger logger = LoggerFactory.getLogger(ExcelPreviewController.class);
 
+    /**
+     * 窗口预览的默认行数和单次请求的最大行数、列数
+     */
+    private static final int DEFAULT_WINDOW_ROWS = 200;
+    private static final int MAX_WINDOW_ROWS = 1000;
+    private static final int MAX_WINDOW_COLUMNS = 500;
+
     /**
      * 获取Excel文件的预览数据
      */
     @GetMapping("/preview")
-    public ResponseEntity<Map<String, Object>> previewExcel(@RequestParam("file") MultipartFile file) {
-        logger.info("Received request to preview Excel file: {}", file.getOriginalFilename());
+    public ResponseEntity<?> previewExcel(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
+        logger.info("Received request to preview Excel file: {}", describeSource(file, sessionId));
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
                 Map<String, Object> response = Map.of(
                     "success", false,
-                    "error", "File is empty"
+                    "error", "Either file or sessionId is required"
                 );
                 return ResponseEntity.badRequest().body(response);
             }
 
-            // 获取预览数据
-            Map<String, Object> previewData = excelPreviewService.getExcelPreviewData(file);
+            // 预览数据逐行写出；会话中的工作簿在会话锁内复制为只读数据，释放锁后再写出
+            StreamingResponseBody previewData;
+            if (sessionId != null) {
+                previewData = workbookSessionStore.readWorkbook(sessionId,
+                    (session, workbook) -> excelPreviewService.snapshotExcelPreviewData(session, workbook));
+            } else {
+                previewData = excelPreviewService.streamExcelPreviewData(file);
+            }
 
-            logger.info("Successfully returned preview data for file: {}", file.getOriginalFilename());
-            return ResponseEntity.ok(previewData);
+            logger.info("Streaming preview data for file: {}", describeSource(file, sessionId));
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(previewData);
         } catch (IOException e) {
             logger.error("IO error while previewing Excel file: {}", e.getMessage(), e);
             Map<String, Object> response = Map.of(
@@ -64,30 +85,87 @@ public class ExcelPreviewController {
         }
     }
 
+    /**
+     * 按窗口获取工作表预览数据，供前端虚拟滚动按需加载
+     * 只返回[offset, offset + limit)行、[columnOffset, columnOffset + columnLimit)列的数据及工作表总尺寸；
+     * 会话中的工作簿复用缓存的行索引，上传文件时流式读取一遍。
+     */
+    @RequestMapping(value = "/preview/window", method = {RequestMethod.GET, RequestMethod.POST})
+    public ResponseEntity<Map<String, Object>> previewExcelWindow(
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
+            @RequestParam(value = "sheet", defaultValue = "0") int sheet,
+            @RequestParam(value = "offset", defaultValue = "0") int offset,
+            @RequestParam(value = "limit", defaultValue = "" + DEFAULT_WINDOW_ROWS) int limit,
+            @RequestParam(value = "columnOffset", defaultValue = "0") int columnOffset,
+            @RequestParam(value = "columnLimit", required = false) Integer columnLimit) {
+        logger.debug("Received request to preview window of {}: sheet={}, offset={}, limit={}",
+                    describeSource(file, sessionId), sheet, offset, limit);
+
+        try {
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
+                Map<String, Object> response = Map.of(
+                    "success", false,
+                    "error", "Either file or sessionId is required"
+                );
+                return ResponseEntity.badRequest().body(response);
+            }
+
+            int rowLimit = Math.min(limit, MAX_WINDOW_ROWS);
+            Integer effectiveColumnLimit = columnLimit != null ? Math.min(columnLimit, MAX_WINDOW_COLUMNS) : null;
+            Map<String, Object> windowData = sessionId != null
+                ? workbookSessionStore.readWorkbook(sessionId, (session, workbook) ->
+                    excelPreviewService.getExcelPreviewWindow(workbook, session.getRowIndex(sheet), sheet,
+                        offset, rowLimit, columnOffset, effectiveColumnLimit))
+                : excelPreviewService.getExcelPreviewWindow(file, sheet, offset, rowLimit, columnOffset, effectiveColumnLimit);
+
+            return ResponseEntity.ok(windowData);
+        } catch (IOException e) {
+            logger.error("IO error while previewing Excel window: {}", e.getMessage(), e);
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "Error reading Excel file: " + e.getMessage()
+            );
+            return ResponseEntity.badRequest().body(response);
+        } catch (Exception e) {
+            logger.error("Error while previewing Excel window: {}", e.getMessage(), e);
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "Error processing Excel file: " + e.getMessage()
+            );
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
     /**
      * 获取单元格格式信息
      */
     @GetMapping("/cell-format")
     public ResponseEntity<Map<String, Object>> getCellFormat(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestParam("row") int row,
             @RequestParam("col") int col) {
         logger.info("Received request to get cell format for file: {}, row: {}, col: {}", 
-                   file.getOriginalFilename(), row, col);
+                   describeSource(file, sessionId), row, col);
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
                 Map<String, Object> response = Map.of(
                     "success", false,
-                    "error", "File is empty"
+                    "error", "Either file or sessionId is required"
                 );
                 return ResponseEntity.badRequest().body(response);
             }
 
             // 获取单元格格式信息
-            Map<String, Object> formatInfo = excelPreviewService.getCellFormat(file, row, col);
+            Map<String, Object> formatInfo = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId, workbook -> excelPreviewService.getCellFormat(workbook, row, col))
+                : excelPreviewService.getCellFormat(file, row, col);
             formatInfo.put("success", true);
 
             logger.info("Successfully returned format info for cell({}, {})", row, col);
@@ -114,17 +192,18 @@ public class ExcelPreviewController {
      */
     @PostMapping("/bulk-cell-format")
     public ResponseEntity<Map<String, Object>> getBulkCellFormat(
-            @RequestParam("file") MultipartFile file,
+            @RequestParam(value = "file", required = false) MultipartFile file,
+            @RequestParam(value = "sessionId", required = false) String sessionId,
             @RequestBody Map<String, Object> requestBody) {
-        logger.info("Received request to get bulk cell format for file: {}", file.getOriginalFilename());
+        logger.info("Received request to get bulk cell format for file: {}", describeSource(file, sessionId));
 
         try {
-            // 验证文件
-            if (file.isEmpty()) {
-                logger.error("File is empty");
+            // 验证文件：未提供会话ID时必须上传文件
+            if (sessionId == null && (file == null || file.isEmpty())) {
+                logger.error("Neither file nor sessionId provided");
                 Map<String, Object> response = Map.of(
                     "success", false,
-                    "error", "File is empty"
+                    "error", "Either file or sessionId is required"
                 );
                 return ResponseEntity.badRequest().body(response);
             }
@@ -158,8 +237,10 @@ public class ExcelPreviewController {
             }
 
             // 调用服务获取批量格式信息
-            Map<String, Object> formatData = excelPreviewService.getBulkCellFormat(
-                file, startRow, startCol, endRow, endCol);
+            Map<String, Object> formatData = sessionId != null
+                ? workbookSessionStore.withWorkbook(sessionId,
+                    workbook -> excelPreviewService.getBulkCellFormat(workbook, startRow, startCol, endRow, endCol))
+                : excelPreviewService.getBulkCellFormat(file, startRow, startCol, endRow, endCol);
 
             formatData.put("success", true);
 
@@ -182,4 +263,14 @@ public class ExcelPreviewController {
             return ResponseEntity.badRequest().body(response);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 日志中标识请求使用的工作簿来源
+     */
+    private static String describeSource(MultipartFile file, String sessionId) {
+        if (sessionId != null) {
+            return "session " + sessionId;
+        }
+        return file != null ? file.getOriginalFilename() : null;
+    }
+}
@@ -1,13 +1,18 @@
 package com.example.aiexcel.controller;
 
-import com.example.aiexcel.model.OperationHistory;
+import com.example.aiexcel.repository.OperationHistorySummary;
 import com.example.aiexcel.service.OperationHistoryService;
+import com.example.aiexcel.service.excel.session.WorkbookSessionNotFoundException;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
+import com.example.aiexcel.service.persistence.WriteBehindQueue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -22,25 +27,37 @@ public class OperationHistoryController {
     @Autowired
     private OperationHistoryService operationHistoryService;
 
+    @Autowired
+    private WorkbookSessionStore workbookSessionStore;
+
+    @Autowired
+    private WriteBehindQueue writeBehindQueue;
+
     private static final Logger logger = LoggerFactory.getLogger(OperationHistoryController.class);
 
+    private static final int MAX_LIST_PAGE_SIZE = 1000;
+
     /**
-     * 获取文件的操作历史记录
+     * 获取文件的操作历史记录（只含元数据）
+     * 按时间倒序分页，下一页以上一页返回的nextBeforeId作为beforeId
      */
     @GetMapping("/file/{fileId}")
-    public ResponseEntity<Map<String, Object>> getOperationHistory(@PathVariable String fileId) {
+    public ResponseEntity<Map<String, Object>> getOperationHistory(
+            @PathVariable String fileId,
+            @RequestParam(required = false) Long beforeId,
+            @RequestParam(defaultValue = "100") int limit) {
         logger.info("Received request to get operation history for file: {}", fileId);
 
-        try {
-            List<OperationHistory> history = operationHistoryService.getOperationHistory(fileId);
+        if (limit <= 0 || limit > MAX_LIST_PAGE_SIZE) {
+            return limitError();
+        }
 
-            Map<String, Object> response = Map.of(
-                "success", true,
-                "data", history,
-                "count", history.size()
-            );
+        try {
+            // 多取一条用于判断是否还有下一页
+            List<OperationHistorySummary> history = operationHistoryService.getOperationHistory(fileId, beforeId, limit + 1);
+            Map<String, Object> response = page(history, limit);
 
-            logger.info("Successfully returned {} operation history records for file: {}", history.size(), fileId);
+            logger.info("Successfully returned {} operation history records for file: {}", response.get("count"), fileId);
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             logger.error("Error retrieving operation history for file: {}", fileId, e);
@@ -53,22 +70,26 @@ public class OperationHistoryController {
     }
 
     /**
-     * 获取文件的可撤销操作历史记录
+     * 获取文件的可撤销操作历史记录（只含元数据）
+     * 按时间倒序分页，下一页以上一页返回的nextBeforeId作为beforeId
      */
     @GetMapping("/reversible/{fileId}")
-    public ResponseEntity<Map<String, Object>> getReversibleOperations(@PathVariable String fileId) {
+    public ResponseEntity<Map<String, Object>> getReversibleOperations(
+            @PathVariable String fileId,
+            @RequestParam(required = false) Long beforeId,
+            @RequestParam(defaultValue = "100") int limit) {
         logger.info("Received request to get reversible operations for file: {}", fileId);
 
-        try {
-            List<OperationHistory> history = operationHistoryService.getReversibleOperations(fileId);
+        if (limit <= 0 || limit > MAX_LIST_PAGE_SIZE) {
+            return limitError();
+        }
 
-            Map<String, Object> response = Map.of(
-                "success", true,
-                "data", history,
-                "count", history.size()
-            );
+        try {
+            // 多取一条用于判断是否还有下一页
+            List<OperationHistorySummary> history = operationHistoryService.getReversibleOperations(fileId, beforeId, limit + 1);
+            Map<String, Object> response = page(history, limit);
 
-            logger.info("Successfully returned {} reversible operations for file: {}", history.size(), fileId);
+            logger.info("Successfully returned {} reversible operations for file: {}", response.get("count"), fileId);
             return ResponseEntity.ok(response);
         } catch (Exception e) {
             logger.error("Error retrieving reversible operations for file: {}", fileId, e);
@@ -88,7 +109,7 @@ public class OperationHistoryController {
         logger.info("Received request to get {} recent operations for file: {}", count, fileId);
 
         try {
-            List<OperationHistory> history = operationHistoryService.getRecentOperations(fileId, count);
+            List<OperationHistorySummary> history = operationHistoryService.getRecentOperations(fileId, Math.min(count, MAX_LIST_PAGE_SIZE));
 
             Map<String, Object> response = Map.of(
                 "success", true,
@@ -110,13 +131,17 @@ public class OperationHistoryController {
 
     /**
      * 撤销最后一次操作
+     * 直接作用于会话中的工作簿；未指定sessionId时使用fileId作为会话ID（会话模式下的操作历史以会话ID记录）
      */
     @PostMapping("/undo/{fileId}")
-    public ResponseEntity<Map<String, Object>> undoLastOperation(@PathVariable String fileId) {
+    public ResponseEntity<Map<String, Object>> undoLastOperation(
+            @PathVariable String fileId,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         logger.info("Received request to undo last operation for file: {}", fileId);
 
         try {
-            boolean success = operationHistoryService.undoLastOperation(fileId);
+            boolean success = workbookSessionStore.withWorkbook(sessionId != null ? sessionId : fileId,
+                workbook -> operationHistoryService.undoLastOperation(fileId, workbook));
 
             Map<String, Object> response;
             if (success) {
@@ -134,6 +159,8 @@ public class OperationHistoryController {
             }
 
             return ResponseEntity.ok(response);
+        } catch (WorkbookSessionNotFoundException e) {
+            return sessionNotFound(e);
         } catch (Exception e) {
             logger.error("Error undoing last operation for file: {}", fileId, e);
             Map<String, Object> response = Map.of(
@@ -146,13 +173,17 @@ public class OperationHistoryController {
 
     /**
      * 重做最后一次撤销的操作
+     * 在会话中的工作簿上重新执行记录的命令，sessionId的默认值同撤销
      */
     @PostMapping("/redo/{fileId}")
-    public ResponseEntity<Map<String, Object>> redoLastUndoneOperation(@PathVariable String fileId) {
+    public ResponseEntity<Map<String, Object>> redoLastUndoneOperation(
+            @PathVariable String fileId,
+            @RequestParam(value = "sessionId", required = false) String sessionId) {
         logger.info("Received request to redo last operation for file: {}", fileId);
 
         try {
-            boolean success = operationHistoryService.redoLastUndoneOperation(fileId);
+            boolean success = workbookSessionStore.withWorkbook(sessionId != null ? sessionId : fileId,
+                workbook -> operationHistoryService.redoLastUndoneOperation(fileId, workbook));
 
             Map<String, Object> response;
             if (success) {
@@ -170,6 +201,8 @@ public class OperationHistoryController {
             }
 
             return ResponseEntity.ok(response);
+        } catch (WorkbookSessionNotFoundException e) {
+            return sessionNotFound(e);
         } catch (Exception e) {
             logger.error("Error redoing last operation for file: {}", fileId, e);
             Map<String, Object> response = Map.of(
@@ -206,4 +239,47 @@ public class OperationHistoryController {
             return ResponseEntity.badRequest().body(response);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 异步写入队列的状态：队列深度、已写入、失败和重试次数
+     */
+    @GetMapping("/persistence/stats")
+    public ResponseEntity<Map<String, Object>> getPersistenceStats() {
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "data", writeBehindQueue.getStats()
+        ));
+    }
+
+    /**
+     * 截取一页数据；查询时多取了一条，多出的一条说明还有下一页
+     */
+    private static Map<String, Object> page(List<OperationHistorySummary> history, int limit) {
+        boolean hasMore = history.size() > limit;
+        List<OperationHistorySummary> data = hasMore ? history.subList(0, limit) : history;
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("data", data);
+        response.put("count", data.size());
+        response.put("hasMore", hasMore);
+        if (hasMore) {
+            response.put("nextBeforeId", data.get(data.size() - 1).getId());
+        }
+        return response;
+    }
+
+    private static ResponseEntity<Map<String, Object>> limitError() {
+        return ResponseEntity.badRequest().body(Map.of(
+            "success", false,
+            "error", "limit must be between 1 and " + MAX_LIST_PAGE_SIZE
+        ));
+    }
+
+    private ResponseEntity<Map<String, Object>> sessionNotFound(WorkbookSessionNotFoundException e) {
+        logger.warn(e.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+            "success", false,
+            "error", e.getMessage()
+        ));
+    }
+}
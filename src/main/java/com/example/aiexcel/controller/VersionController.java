@@ -1,7 +1,9 @@
 package com.example.aiexcel.controller;
 
 import com.example.aiexcel.model.FileVersion;
+import com.example.aiexcel.repository.FileVersionSummary;
 import com.example.aiexcel.service.VersionService;
+import com.example.aiexcel.service.excel.diff.WorkbookDiffResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,6 +14,7 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -28,6 +31,10 @@ public class VersionController {
 
     private static final Logger logger = LoggerFactory.getLogger(VersionController.class);
 
+    private static final int MAX_COMPARE_PAGE_SIZE = 1000;
+
+    private static final int MAX_LIST_PAGE_SIZE = 1000;
+
     /**
      * 创建新版本
      */
@@ -81,20 +88,40 @@ public class VersionController {
     }
 
     /**
-     * 获取文件的所有版本
+     * 获取文件的版本列表（只含元数据）
+     * 按版本号倒序分页，下一页以上一页返回的nextBeforeVersion作为beforeVersion
      */
     @GetMapping("/file/{fileId}")
-    public ResponseEntity<Map<String, Object>> getFileVersions(@PathVariable String fileId) {
+    public ResponseEntity<Map<String, Object>> getFileVersions(
+            @PathVariable String fileId,
+            @RequestParam(required = false) Integer beforeVersion,
+            @RequestParam(defaultValue = "100") int limit) {
         logger.info("Received request to get versions for file: {}", fileId);
 
-        try {
-            List<FileVersion> versions = versionService.getFileVersions(fileId);
-
+        if (limit <= 0 || limit > MAX_LIST_PAGE_SIZE) {
             Map<String, Object> response = Map.of(
-                "success", true,
-                "data", versions,
-                "count", versions.size()
+                "success", false,
+                "error", "limit must be between 1 and " + MAX_LIST_PAGE_SIZE
             );
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        try {
+            // 多取一条用于判断是否还有下一页
+            List<FileVersionSummary> versions = versionService.getFileVersions(fileId, beforeVersion, limit + 1);
+            boolean hasMore = versions.size() > limit;
+            if (hasMore) {
+                versions = versions.subList(0, limit);
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("data", versions);
+            response.put("count", versions.size());
+            response.put("hasMore", hasMore);
+            if (hasMore) {
+                response.put("nextBeforeVersion", versions.get(versions.size() - 1).getVersionNumber());
+            }
 
             logger.info("Successfully returned {} versions for file: {}", versions.size(), fileId);
             return ResponseEntity.ok(response);
@@ -265,9 +292,8 @@ public class VersionController {
         try {
             FileVersion version = versionService.getVersion(fileId, versionNumber);
             
-            if (version != null && version.getFileContent() != null) {
-                // 解码文件内容
-                byte[] fileContent = java.util.Base64.getDecoder().decode(version.getFileContent());
+            byte[] fileContent = version != null ? versionService.getVersionContent(version) : null;
+            if (fileContent != null) {
                 ByteArrayResource resource = new ByteArrayResource(fileContent);
 
                 return ResponseEntity.ok()
@@ -287,16 +313,27 @@ public class VersionController {
 
     /**
      * 比较两个版本
+     * 返回单元格级变化，按offset/limit分页，统计信息覆盖全部变化
      */
     @GetMapping("/compare/{fileId}")
     public ResponseEntity<Map<String, Object>> compareVersions(
             @PathVariable String fileId,
             @RequestParam Integer version1,
-            @RequestParam Integer version2) {
+            @RequestParam Integer version2,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "100") int limit) {
         logger.info("Received request to compare versions {} and {} for file: {}", version1, version2, fileId);
 
+        if (offset < 0 || limit <= 0 || limit > MAX_COMPARE_PAGE_SIZE) {
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "offset must be >= 0 and limit must be between 1 and " + MAX_COMPARE_PAGE_SIZE
+            );
+            return ResponseEntity.badRequest().body(response);
+        }
+
         try {
-            String comparison = versionService.compareVersions(fileId, version1, version2);
+            WorkbookDiffResult comparison = versionService.compareVersions(fileId, version1, version2, offset, limit);
 
             if (comparison != null) {
                 Map<String, Object> response = Map.of(
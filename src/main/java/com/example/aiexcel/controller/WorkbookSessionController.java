@@ -0,0 +1,142 @@
+package com.example.aiexcel.controller;
+
+import com.example.aiexcel.service.excel.session.WorkbookSession;
+import com.example.aiexcel.service.excel.session.WorkbookSessionNotFoundException;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 工作簿会话控制器
+ * 上传一次文件得到会话ID，之后预览、格式设置和分析接口传入sessionId即可复用已解析的工作簿
+ */
+@RestController
+@RequestMapping("/api/excel/sessions")
+public class WorkbookSessionController {
+
+    @Autowired
+    private WorkbookSessionStore workbookSessionStore;
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkbookSessionController.class);
+
+    /**
+     * 上传文件并创建会话
+     */
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> createSession(@RequestParam("file") MultipartFile file) {
+        logger.info("Received request to create workbook session for file: {}", file.getOriginalFilename());
+
+        if (file.isEmpty()) {
+            logger.error("File is empty");
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "File is empty"
+            );
+            return ResponseEntity.badRequest().body(response);
+        }
+
+        try {
+            WorkbookSession session = workbookSessionStore.create(file);
+            List<String> sheetNames = workbookSessionStore.withWorkbook(session.getId(), workbook -> {
+                List<String> names = new ArrayList<>();
+                for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+                    names.add(workbook.getSheetName(i));
+                }
+                return names;
+            });
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("sessionId", session.getId());
+            response.put("fileName", session.getFileName());
+            response.put("sheetNames", sheetNames);
+            return ResponseEntity.ok(response);
+        } catch (Exception e) {
+            logger.error("Error creating workbook session: {}", e.getMessage(), e);
+            Map<String, Object> response = Map.of(
+                "success", false,
+                "error", "Error reading Excel file: " + e.getMessage()
+            );
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+
+    /**
+     * 获取会话信息
+     */
+    @GetMapping("/{sessionId}")
+    public ResponseEntity<Map<String, Object>> getSession(@PathVariable String sessionId) {
+        try {
+            WorkbookSession session = workbookSessionStore.getSession(sessionId);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("sessionId", session.getId());
+            response.put("fileName", session.getFileName());
+            response.put("createdAt", session.getCreatedAt());
+            response.put("lastAccessTime", session.getLastAccessTime());
+            response.put("resident", session.isResident());
+            return ResponseEntity.ok(response);
+        } catch (WorkbookSessionNotFoundException e) {
+            return notFound(e);
+        }
+    }
+
+    /**
+     * 下载会话中的工作簿（包含在会话中做过的格式修改）
+     */
+    @GetMapping(value = "/{sessionId}/download", produces = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet")
+    public ResponseEntity<byte[]> downloadSession(@PathVariable String sessionId) {
+        try {
+            WorkbookSession session = workbookSessionStore.getSession(sessionId);
+            byte[] fileContent = workbookSessionStore.withWorkbook(sessionId, (Workbook workbook) -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                workbook.write(out);
+                return out.toByteArray();
+            });
+            String fileName = session.getFileName() != null ? session.getFileName() : "workbook.xlsx";
+            return ResponseEntity.ok()
+                .header("Content-Disposition", "attachment; filename=\"" + fileName + "\"")
+                .body(fileContent);
+        } catch (WorkbookSessionNotFoundException e) {
+            logger.warn(e.getMessage());
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        } catch (Exception e) {
+            logger.error("Error downloading workbook session {}: {}", sessionId, e.getMessage(), e);
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    /**
+     * 关闭会话，释放工作簿
+     */
+    @DeleteMapping("/{sessionId}")
+    public ResponseEntity<Map<String, Object>> deleteSession(@PathVariable String sessionId) {
+        if (!workbookSessionStore.remove(sessionId)) {
+            return notFound(new WorkbookSessionNotFoundException(sessionId));
+        }
+        return ResponseEntity.ok(Map.of(
+            "success", true,
+            "message", "Session closed"
+        ));
+    }
+
+    private ResponseEntity<Map<String, Object>> notFound(WorkbookSessionNotFoundException e) {
+        logger.warn(e.getMessage());
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(Map.of(
+            "success", false,
+            "error", e.getMessage()
+        ));
+    }
+}
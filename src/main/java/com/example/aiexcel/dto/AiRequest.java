@@ -10,6 +10,8 @@ public class AiRequest {
     private Integer maxTokens;
     private Boolean stream;
     private Map<String, Object> parameters;
+    // 是否允许缓存该请求的响应；聊天等非确定性回复应关闭
+    private boolean cacheable = true;
 
     // Constructors
     public AiRequest() {}
@@ -71,6 +73,14 @@ public class AiRequest {
         this.parameters = parameters;
     }
 
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public void setCacheable(boolean cacheable) {
+        this.cacheable = cacheable;
+    }
+
     // Inner Message class
     public static class Message {
         private String role;
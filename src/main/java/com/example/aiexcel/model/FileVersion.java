@@ -11,12 +11,17 @@ import java.time.LocalDateTime;
  * 用于存储Excel文件的版本历史
  */
 @Entity
-@Table(name = "file_versions")
+@Table(name = "file_versions", uniqueConstraints = @UniqueConstraint(
+    name = FileVersion.VERSION_NUMBER_CONSTRAINT, columnNames = {"file_id", "version_number"}))
 @EntityListeners(AuditingEntityListener.class)
 public class FileVersion {
 
+    public static final String VERSION_NUMBER_CONSTRAINT = "uk_file_versions_file_version";
+
+    // 使用序列分配ID（每次预取一段），插入才能按JDBC批量发送；IDENTITY会逐条插入
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "file_versions_seq")
+    @SequenceGenerator(name = "file_versions_seq", sequenceName = "file_versions_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "file_id", nullable = false)
@@ -28,12 +33,20 @@ public class FileVersion {
     @Column(name = "file_name", nullable = false)
     private String fileName;
 
-    @Column(name = "file_content", length = 100000) // 存储Base64编码的文件内容
-    private String fileContent;
+    @Column(name = "content_hash", length = 64) // 文件内容在BlobStore中的SHA-256哈希
+    private String contentHash;
 
     @Column(name = "file_size")
     private Long fileSize;
 
+    // 增量版本的基准版本号；为空表示关键帧，contentHash指向完整文件，否则指向相对基准版本的单元格差异
+    @Column(name = "base_version_number")
+    private Integer baseVersionNumber;
+
+    // 距最近关键帧的增量层数，关键帧为0
+    @Column(name = "delta_depth")
+    private Integer deltaDepth = 0;
+
     @Column(name = "change_description", length = 1000)
     private String changeDescription;
 
@@ -47,15 +60,19 @@ public class FileVersion {
     @Column(name = "is_current", nullable = false)
     private Boolean isCurrent = false;
 
+    // 异步写入任务的唯一键，任务重试时据此跳过已写入的版本
+    @Column(name = "task_key", length = 64, unique = true)
+    private String taskKey;
+
     // Constructors
     public FileVersion() {}
 
-    public FileVersion(String fileId, Integer versionNumber, String fileName, String fileContent, 
+    public FileVersion(String fileId, Integer versionNumber, String fileName, String contentHash, 
                        Long fileSize, String changeDescription, String userId) {
         this.fileId = fileId;
         this.versionNumber = versionNumber;
         this.fileName = fileName;
-        this.fileContent = fileContent;
+        this.contentHash = contentHash;
         this.fileSize = fileSize;
         this.changeDescription = changeDescription;
         this.userId = userId;
@@ -95,12 +112,32 @@ public class FileVersion {
         this.fileName = fileName;
     }
 
-    public String getFileContent() {
-        return fileContent;
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public Integer getBaseVersionNumber() {
+        return baseVersionNumber;
+    }
+
+    public void setBaseVersionNumber(Integer baseVersionNumber) {
+        this.baseVersionNumber = baseVersionNumber;
+    }
+
+    public Integer getDeltaDepth() {
+        return deltaDepth;
+    }
+
+    public void setDeltaDepth(Integer deltaDepth) {
+        this.deltaDepth = deltaDepth;
     }
 
-    public void setFileContent(String fileContent) {
-        this.fileContent = fileContent;
+    public boolean isKeyframe() {
+        return baseVersionNumber == null;
     }
 
     public Long getFileSize() {
@@ -142,4 +179,12 @@ public class FileVersion {
     public void setIsCurrent(Boolean isCurrent) {
         this.isCurrent = isCurrent;
     }
-}
\ No newline at end of file
+
+    public String getTaskKey() {
+        return taskKey;
+    }
+
+    public void setTaskKey(String taskKey) {
+        this.taskKey = taskKey;
+    }
+}
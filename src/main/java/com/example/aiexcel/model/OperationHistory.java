@@ -15,8 +15,12 @@ import java.time.LocalDateTime;
 @EntityListeners(AuditingEntityListener.class)
 public class OperationHistory {
 
+    public static final int MAX_PARAMETERS_LENGTH = 10000;
+
+    // 使用序列分配ID（每次预取一段），插入才能按JDBC批量发送；IDENTITY会逐条插入
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "operation_history_seq")
+    @SequenceGenerator(name = "operation_history_seq", sequenceName = "operation_history_seq", allocationSize = 50)
     private Long id;
 
     @Column(name = "file_id", nullable = false)
@@ -25,14 +29,33 @@ public class OperationHistory {
     @Column(name = "operation_type", nullable = false)
     private String operationType;
 
-    @Column(name = "parameters", length = 10000)
+    @Column(name = "parameters", length = MAX_PARAMETERS_LENGTH)
     private String parameters;
 
-    @Column(name = "file_content_before", length = 50000)
-    private String fileContentBefore;
+    // 异步写入任务的唯一键，任务重试时据此跳过已写入的记录
+    @Column(name = "task_key", length = 64, unique = true)
+    private String taskKey;
+
+    // 以下内容都保存在BlobStore中，这里只记录SHA-256哈希
+    @Column(name = "content_before_hash", length = 64)
+    private String contentBeforeHash;
+
+    @Column(name = "content_before_size")
+    private Long contentBeforeSize;
+
+    @Column(name = "content_after_hash", length = 64)
+    private String contentAfterHash;
 
-    @Column(name = "file_content_after", length = 50000)
-    private String fileContentAfter;
+    @Column(name = "content_after_size")
+    private Long contentAfterSize;
+
+    // 变更日志（WorkbookChangeJournal的JSON），有日志时不保存操作前的完整文件
+    @Column(name = "change_journal_hash", length = 64)
+    private String changeJournalHash;
+
+    // 执行过的命令列表（CommandResult的JSON），重做时按顺序重新执行
+    @Column(name = "command_log_hash", length = 64)
+    private String commandLogHash;
 
     @Column(name = "user_id")
     private String userId;
@@ -44,15 +67,17 @@ public class OperationHistory {
     @Column(name = "reversible", nullable = false)
     private boolean reversible = true;
 
+    // 已撤销、可重做
+    @Column(name = "undone", nullable = false)
+    private boolean undone = false;
+
     // Constructors
     public OperationHistory() {}
 
-    public OperationHistory(String fileId, String operationType, String parameters, String fileContentBefore, String fileContentAfter) {
+    public OperationHistory(String fileId, String operationType, String parameters) {
         this.fileId = fileId;
         this.operationType = operationType;
         this.parameters = parameters;
-        this.fileContentBefore = fileContentBefore;
-        this.fileContentAfter = fileContentAfter;
         this.createdAt = LocalDateTime.now();
     }
 
@@ -89,20 +114,60 @@ public class OperationHistory {
         this.parameters = parameters;
     }
 
-    public String getFileContentBefore() {
-        return fileContentBefore;
+    public String getContentBeforeHash() {
+        return contentBeforeHash;
+    }
+
+    public void setContentBeforeHash(String contentBeforeHash) {
+        this.contentBeforeHash = contentBeforeHash;
+    }
+
+    public Long getContentBeforeSize() {
+        return contentBeforeSize;
+    }
+
+    public void setContentBeforeSize(Long contentBeforeSize) {
+        this.contentBeforeSize = contentBeforeSize;
+    }
+
+    public String getContentAfterHash() {
+        return contentAfterHash;
     }
 
-    public void setFileContentBefore(String fileContentBefore) {
-        this.fileContentBefore = fileContentBefore;
+    public void setContentAfterHash(String contentAfterHash) {
+        this.contentAfterHash = contentAfterHash;
     }
 
-    public String getFileContentAfter() {
-        return fileContentAfter;
+    public Long getContentAfterSize() {
+        return contentAfterSize;
     }
 
-    public void setFileContentAfter(String fileContentAfter) {
-        this.fileContentAfter = fileContentAfter;
+    public void setContentAfterSize(Long contentAfterSize) {
+        this.contentAfterSize = contentAfterSize;
+    }
+
+    public String getChangeJournalHash() {
+        return changeJournalHash;
+    }
+
+    public void setChangeJournalHash(String changeJournalHash) {
+        this.changeJournalHash = changeJournalHash;
+    }
+
+    public String getCommandLogHash() {
+        return commandLogHash;
+    }
+
+    public void setCommandLogHash(String commandLogHash) {
+        this.commandLogHash = commandLogHash;
+    }
+
+    public String getTaskKey() {
+        return taskKey;
+    }
+
+    public void setTaskKey(String taskKey) {
+        this.taskKey = taskKey;
     }
 
     public String getUserId() {
@@ -128,4 +193,12 @@ public class OperationHistory {
     public void setReversible(boolean reversible) {
         this.reversible = reversible;
     }
-}
\ No newline at end of file
+
+    public boolean isUndone() {
+        return undone;
+    }
+
+    public void setUndone(boolean undone) {
+        this.undone = undone;
+    }
+}
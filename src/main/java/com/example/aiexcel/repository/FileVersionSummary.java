@@ -0,0 +1,32 @@
+package com.example.aiexcel.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * 版本列表投影
+ * 只查询元数据列，不读取内容哈希
+ */
+public interface FileVersionSummary {
+
+    Long getId();
+
+    String getFileId();
+
+    Integer getVersionNumber();
+
+    String getFileName();
+
+    Long getFileSize();
+
+    String getChangeDescription();
+
+    String getUserId();
+
+    LocalDateTime getCreatedAt();
+
+    Boolean getIsCurrent();
+
+    Integer getBaseVersionNumber();
+
+    Integer getDeltaDepth();
+}
@@ -0,0 +1,15 @@
+package com.example.aiexcel.repository;
+
+/**
+ * 操作历史引用的BlobStore内容哈希，批量删除记录后据此释放内容
+ */
+public interface OperationHistoryContentRefs {
+
+    String getContentBeforeHash();
+
+    String getContentAfterHash();
+
+    String getChangeJournalHash();
+
+    String getCommandLogHash();
+}
@@ -1,10 +1,13 @@
 package com.example.aiexcel.repository;
 
 import com.example.aiexcel.model.OperationHistory;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -15,6 +18,11 @@ import java.util.List;
 @Repository
 public interface OperationHistoryRepository extends JpaRepository<OperationHistory, Long> {
 
+    /**
+     * 按异步写入任务的唯一键查找记录
+     */
+    OperationHistory findByTaskKey(String taskKey);
+
     /**
      * 根据文件ID获取操作历史记录
      */
@@ -45,4 +53,53 @@ public interface OperationHistoryRepository extends JpaRepository<OperationHisto
      * 获取最新的一条操作记录
      */
     OperationHistory findFirstByFileIdOrderByCreatedAtDesc(String fileId);
+
+    /**
+     * 获取最近一条未撤销的操作记录（下一次撤销的对象）
+     */
+    OperationHistory findFirstByFileIdAndUndoneFalseOrderByIdDesc(String fileId);
+
+    /**
+     * 获取最早一条已撤销的操作记录（下一次重做的对象）
+     */
+    OperationHistory findFirstByFileIdAndUndoneTrueOrderByIdAsc(String fileId);
+
+    /**
+     * 获取所有已撤销的操作记录（重做栈）
+     */
+    List<OperationHistory> findByFileIdAndUndoneTrue(String fileId);
+
+    /**
+     * 分页获取操作历史列表（只含元数据），ID递增分配，按ID倒序即按时间倒序
+     */
+    List<OperationHistorySummary> findByFileIdOrderByIdDesc(String fileId, Pageable pageable);
+
+    /**
+     * 获取ID小于beforeId的下一页操作历史（键集分页）
+     */
+    List<OperationHistorySummary> findByFileIdAndIdLessThanOrderByIdDesc(String fileId, Long beforeId, Pageable pageable);
+
+    /**
+     * 分页获取可撤销的操作历史列表
+     */
+    List<OperationHistorySummary> findByFileIdAndReversibleTrueOrderByIdDesc(String fileId, Pageable pageable);
+
+    /**
+     * 获取ID小于beforeId的下一页可撤销操作历史（键集分页）
+     */
+    List<OperationHistorySummary> findByFileIdAndReversibleTrueAndIdLessThanOrderByIdDesc(String fileId, Long beforeId,
+                                                                                          Pageable pageable);
+
+    /**
+     * 获取文件所有操作历史引用的内容哈希
+     */
+    List<OperationHistoryContentRefs> findContentRefsByFileId(String fileId);
+
+    /**
+     * 批量删除文件的所有操作历史
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM OperationHistory oh WHERE oh.fileId = :fileId")
+    int bulkDeleteByFileId(@Param("fileId") String fileId);
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.example.aiexcel.repository;
+
+import java.time.LocalDateTime;
+
+/**
+ * 操作历史列表投影
+ * 只查询元数据列，不读取操作参数（含完整AI响应）和内容哈希
+ */
+public interface OperationHistorySummary {
+
+    Long getId();
+
+    String getFileId();
+
+    String getOperationType();
+
+    String getUserId();
+
+    LocalDateTime getCreatedAt();
+
+    boolean isReversible();
+
+    boolean isUndone();
+
+    Long getContentBeforeSize();
+
+    Long getContentAfterSize();
+}
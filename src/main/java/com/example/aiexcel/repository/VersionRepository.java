@@ -1,8 +1,13 @@
 package com.example.aiexcel.repository;
 
 import com.example.aiexcel.model.FileVersion;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.List;
 
@@ -22,6 +27,11 @@ public interface VersionRepository extends JpaRepository<FileVersion, Long> {
      */
     List<FileVersion> findByFileIdAndUserIdOrderByVersionNumberDesc(String fileId, String userId);
 
+    /**
+     * 按异步写入任务的唯一键查找版本
+     */
+    FileVersion findByTaskKey(String taskKey);
+
     /**
      * 根据文件ID获取最新版本
      */
@@ -40,5 +50,48 @@ public interface VersionRepository extends JpaRepository<FileVersion, Long> {
     /**
      * 获取最新版本号
      */
-    Integer findMaxVersionNumberByFileId(String fileId);
+    @Query("SELECT MAX(v.versionNumber) FROM FileVersion v WHERE v.fileId = :fileId")
+    Integer findMaxVersionNumberByFileId(@Param("fileId") String fileId);
+
+    /**
+     * 用一条UPDATE语句把指定版本设为当前版本，同时取消原当前版本
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE FileVersion v SET v.isCurrent = CASE WHEN v.versionNumber = :versionNumber THEN true ELSE false END "
+        + "WHERE v.fileId = :fileId AND (v.isCurrent = true OR v.versionNumber = :versionNumber)")
+    int switchCurrentVersion(@Param("fileId") String fileId, @Param("versionNumber") Integer versionNumber);
+
+    /**
+     * 分页获取版本列表（只含元数据）
+     */
+    List<FileVersionSummary> findByFileIdOrderByVersionNumberDesc(String fileId, Pageable pageable);
+
+    /**
+     * 获取版本号小于beforeVersion的下一页版本（键集分页）
+     */
+    List<FileVersionSummary> findByFileIdAndVersionNumberLessThanOrderByVersionNumberDesc(String fileId, Integer beforeVersion,
+                                                                                          Pageable pageable);
+
+    /**
+     * 版本号不大于maxVersion的非当前版本的内容哈希（清理时将被删除的版本）
+     */
+    @Query("SELECT v.contentHash FROM FileVersion v WHERE v.fileId = :fileId AND v.versionNumber <= :maxVersion "
+        + "AND v.isCurrent = false")
+    List<String> findPrunableContentHashes(@Param("fileId") String fileId, @Param("maxVersion") Integer maxVersion);
+
+    /**
+     * 清理后仍保留、但基准版本号不大于maxVersion的增量版本，按版本号从小到大
+     */
+    @Query("SELECT v FROM FileVersion v WHERE v.fileId = :fileId AND v.baseVersionNumber <= :maxVersion "
+        + "AND (v.versionNumber > :maxVersion OR v.isCurrent = true) ORDER BY v.versionNumber ASC")
+    List<FileVersion> findRetainedDeltasBasedAtOrBelow(@Param("fileId") String fileId, @Param("maxVersion") Integer maxVersion);
+
+    /**
+     * 批量删除版本号不大于maxVersion的非当前版本
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM FileVersion v WHERE v.fileId = :fileId AND v.versionNumber <= :maxVersion AND v.isCurrent = false")
+    int bulkDeletePrunable(@Param("fileId") String fileId, @Param("maxVersion") Integer maxVersion);
 }
\ No newline at end of file
@@ -4,6 +4,7 @@ import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.dto.AiResponse;
 import com.example.aiexcel.service.ai.AiService;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.prompt.PromptContextBuilder;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,6 +32,9 @@ public class AiAdvancedOperationsService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private PromptContextBuilder promptContextBuilder;
+
     @Autowired
     private AiExcelCommandParser aiExcelCommandParser;
 
@@ -60,7 +64,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = promptContextBuilder.build(workbook);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -138,7 +142,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = promptContextBuilder.build(workbook);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -216,7 +220,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = promptContextBuilder.build(workbook);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -294,7 +298,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = promptContextBuilder.build(workbook);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -372,7 +376,7 @@ public class AiAdvancedOperationsService {
 
             // 加载工作簿
             Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = promptContextBuilder.build(workbook);
 
             // 构建AI请求
             AiRequest aiRequest = new AiRequest();
@@ -1,6 +1,9 @@
 package com.example.aiexcel.service;
 
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.StructuralEdit;
+import com.example.aiexcel.service.excel.formula.ExpressionEngine;
+import com.example.aiexcel.service.excel.formula.SheetExpressionContext;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,8 +11,10 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.regex.Matcher;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
@@ -20,11 +25,16 @@ import java.util.regex.Pattern;
 public class AiExcelCommandParser {
 
     private final ExcelService excelService;
+    private final ExpressionEngine expressionEngine;
     private static final Logger logger = LoggerFactory.getLogger(AiExcelCommandParser.class);
+    private static final Pattern CELL_REFERENCE_PATTERN = Pattern.compile("[A-Z]+\\d+");
+    // 单条区域命令最多覆盖的单元格数，防止一条命令撑爆内存
+    private static final long MAX_RANGE_CELLS = 1_000_000L;
 
     @Autowired
-    public AiExcelCommandParser(ExcelService excelService) {
+    public AiExcelCommandParser(ExcelService excelService, ExpressionEngine expressionEngine) {
         this.excelService = excelService;
+        this.expressionEngine = expressionEngine;
     }
 
     /**
@@ -51,220 +61,402 @@ public class AiExcelCommandParser {
         // [DELETE_ROW:5] - 删除第5行
         // [DELETE_COLUMN:1] - 删除第1列
         // [APPLY_FORMULA:A1:B1+C1] - 在A1应用公式B1+C1
+        // [SET_RANGE:A2:A100:value] - 将区域内所有单元格设为同一个值；值以=开头时按公式模式填充
+        // [FILL_DOWN:D2:D100:B2*C2] - 以首行为基准填充公式，相对引用逐行偏移
+        // [FILL_SERIES:A2:A100:1,1] - 从起始值按步长填充等差数列（步长缺省为1）
 
-        // 解析设置单元格值的命令
-        Pattern setCellPattern = Pattern.compile("\\[SET_CELL:([A-Z]+\\d+):(.+?)\\]");
-        Matcher setCellMatcher = setCellPattern.matcher(aiResponse);
+        // 一次扫描按出现顺序提取全部命令，结果列表与命令顺序一一对应
+        List<AiExcelCommandTokenizer.Command> commands = AiExcelCommandTokenizer.tokenize(aiResponse);
 
-        while (setCellMatcher.find()) {
-            String cellRef = setCellMatcher.group(1);
-            String value = setCellMatcher.group(2);
+        // 创建缓存队列存储待计算的公式
+        List<FormulaTask> formulaTasks = new ArrayList<>();
+        // 连续的行列插入/删除先收集起来，遇到其他命令前合并为一次压缩执行
+        List<PendingEdit> pendingEdits = new ArrayList<>();
+
+        for (AiExcelCommandTokenizer.Command command : commands) {
+            switch (command.type) {
+                case SET_CELL:
+                    flushStructuralEdits(workbook, pendingEdits, results);
+                    results.add(executeSetCell(workbook, command.target, command.argument));
+                    break;
+                case INSERT_ROW:
+                    results.add(planInsertRow(command.target, command.argument, results.size(), pendingEdits));
+                    break;
+                case INSERT_COLUMN:
+                    results.add(planInsertColumn(command.target, command.argument, results.size(), pendingEdits));
+                    break;
+                case DELETE_ROW:
+                    results.add(planDeleteRow(command.target, results.size(), pendingEdits));
+                    break;
+                case DELETE_COLUMN:
+                    results.add(planDeleteColumn(command.target, results.size(), pendingEdits));
+                    break;
+                case APPLY_FORMULA:
+                    results.add(queueFormula(workbook, command.target, command.argument, results.size(), formulaTasks));
+                    break;
+                case SET_RANGE:
+                    if (command.argument.trim().startsWith("=")) {
+                        results.add(queueRangeFormula(workbook, "SET_RANGE", command.target, command.argument,
+                            results.size(), formulaTasks));
+                    } else {
+                        flushStructuralEdits(workbook, pendingEdits, results);
+                        results.add(executeSetRange(workbook, command.target, command.argument));
+                    }
+                    break;
+                case FILL_DOWN:
+                    results.add(queueRangeFormula(workbook, "FILL_DOWN", command.target, command.argument,
+                        results.size(), formulaTasks));
+                    break;
+                case FILL_SERIES:
+                    flushStructuralEdits(workbook, pendingEdits, results);
+                    results.add(executeFillSeries(workbook, command.target, command.argument));
+                    break;
+                default:
+                    break;
+            }
+        }
+        flushStructuralEdits(workbook, pendingEdits, results);
 
+        // 在处理完其他命令后，按出现顺序统一计算所有公式；同一工作表的任务共用一个表达式上下文
+        Map<String, SheetExpressionContext> expressionContexts = new HashMap<>();
+        for (FormulaTask task : formulaTasks) {
+            if (task.isRange()) {
+                evaluateRangeFormula(workbook, task, expressionContexts, results);
+                continue;
+            }
             try {
-                // 验证单元格引用格式
-                if (!isValidCellReference(cellRef)) {
-                    logger.error("Invalid cell reference format: {}", cellRef);
-                    results.add(new CommandResult(false, "SET_CELL", cellRef + "=" + value, "Invalid cell reference format: " + cellRef));
-                    continue;
-                }
+                SheetExpressionContext context = expressionContexts.computeIfAbsent(task.sheetName,
+                    name -> new SheetExpressionContext(workbook.getSheet(name), excelService.getEvaluationContext(workbook)));
+                Object calculatedResult = calculateFormulaResult(context, task.formula);
+                excelService.updateCell(workbook, task.sheetName, task.row, task.col, calculatedResult);
+                context.notifyCellUpdated(task.row, task.col, calculatedResult);
+                logger.info("Successfully calculated and set result {} to cell {}", calculatedResult, task.cellRef);
 
-                // 解析单元格引用 (如 A1 -> col=0, row=0)
-                CellReference ref = parseCellReference(cellRef);
-                excelService.updateCell(workbook, workbook.getSheetName(0), ref.row, ref.col, value);
-                logger.info("Successfully set cell {} to {}", cellRef, value);
-                results.add(new CommandResult(true, "SET_CELL", cellRef + "=" + value, "Successfully set cell " + cellRef + " to " + value));
+                // 按位置更新结果列表中的消息
+                results.set(task.resultIndex, new CommandResult(true, "APPLY_FORMULA",
+                    task.cellRef + "=" + task.formula,
+                    "Successfully calculated and set result " + calculatedResult + " to cell " + task.cellRef));
             } catch (Exception e) {
-                logger.error("Error setting cell {}: {}", cellRef, e.getMessage(), e);
-                results.add(new CommandResult(false, "SET_CELL", cellRef + "=" + value, "Error setting cell " + cellRef + ": " + e.getMessage()));
+                logger.error("Error processing queued formula for cell {}: {}", task.cellRef, e.getMessage(), e);
+
+                results.set(task.resultIndex, new CommandResult(false, "APPLY_FORMULA",
+                    task.cellRef + "=" + task.formula,
+                    "Error processing formula for cell " + task.cellRef + ": " + e.getMessage()));
             }
         }
 
-        // 解析插入行命令
-        Pattern insertRowPattern = Pattern.compile("\\[INSERT_ROW:(\\d+):(.+?)\\]");
-        Matcher insertRowMatcher = insertRowPattern.matcher(aiResponse);
-
-        while (insertRowMatcher.find()) {
-            String rowIndexStr = insertRowMatcher.group(1);
-            String valuesStr = insertRowMatcher.group(2);
+        logger.info("Completed parsing AI response, processed {} commands", results.size());
+        return results;
+    }
 
-            try {
-                int rowIndex = Integer.parseInt(rowIndexStr);
-                if (rowIndex < 0) {
-                    logger.error("Invalid row index: {}", rowIndex);
-                    results.add(new CommandResult(false, "INSERT_ROW", rowIndexStr + ":" + valuesStr, "Invalid row index: " + rowIndex));
-                    continue;
-                }
+    /**
+     * 设置单元格值
+     */
+    private CommandResult executeSetCell(Workbook workbook, String cellRef, String value) {
+        try {
+            // 验证单元格引用格式
+            if (!isValidCellReference(cellRef)) {
+                logger.error("Invalid cell reference format: {}", cellRef);
+                return new CommandResult(false, "SET_CELL", cellRef + "=" + value, "Invalid cell reference format: " + cellRef);
+            }
 
-                String[] values = valuesStr.split(",", -1); // 使用-1以保留尾随空值
+            // 解析单元格引用 (如 A1 -> col=0, row=0)
+            CellReference ref = parseCellReference(cellRef);
+            excelService.updateCell(workbook, workbook.getSheetName(0), ref.row, ref.col, value);
+            logger.info("Successfully set cell {} to {}", cellRef, value);
+            return new CommandResult(true, "SET_CELL", cellRef + "=" + value, "Successfully set cell " + cellRef + " to " + value);
+        } catch (Exception e) {
+            logger.error("Error setting cell {}: {}", cellRef, e.getMessage(), e);
+            return new CommandResult(false, "SET_CELL", cellRef + "=" + value, "Error setting cell " + cellRef + ": " + e.getMessage());
+        }
+    }
 
-                // 在指定行插入数据
-                insertRow(workbook, rowIndex, values);
-                logger.info("Successfully inserted row at {}", rowIndex);
-                results.add(new CommandResult(true, "INSERT_ROW", rowIndexStr + ":" + valuesStr, "Successfully inserted row at " + rowIndex));
-            } catch (NumberFormatException e) {
-                logger.error("Invalid row index format: {}", rowIndexStr);
-                results.add(new CommandResult(false, "INSERT_ROW", rowIndexStr + ":" + valuesStr, "Invalid row index format: " + rowIndexStr));
-            } catch (Exception e) {
-                logger.error("Error inserting row at {}: {}", rowIndexStr, e.getMessage(), e);
-                results.add(new CommandResult(false, "INSERT_ROW", rowIndexStr + ":" + valuesStr, "Error inserting row at " + rowIndexStr + ": " + e.getMessage()));
+    /**
+     * 将区域内所有单元格设为同一个值，通过updateRange一次写入
+     */
+    private CommandResult executeSetRange(Workbook workbook, String rangeRef, String value) {
+        try {
+            int[] range = parseRangeReference(rangeRef);
+            int rows = range[2] - range[0] + 1;
+            int cols = range[3] - range[1] + 1;
+            Object cellValue = toCellValues(new String[]{value})[0];
+            Object[][] values = new Object[rows][cols];
+            for (Object[] row : values) {
+                Arrays.fill(row, cellValue);
             }
+            excelService.updateRange(workbook, workbook.getSheetName(0), range[0], range[1], range[2], range[3], values);
+            logger.info("Successfully set range {} to {}", rangeRef, value);
+            return new CommandResult(true, "SET_RANGE", rangeRef + "=" + value, "Successfully set range " + rangeRef + " to " + value);
+        } catch (Exception e) {
+            logger.error("Error setting range {}: {}", rangeRef, e.getMessage(), e);
+            return new CommandResult(false, "SET_RANGE", rangeRef + "=" + value, "Error setting range " + rangeRef + ": " + e.getMessage());
         }
+    }
 
-        // 解析插入列命令
-        Pattern insertColPattern = Pattern.compile("\\[INSERT_COLUMN:(\\d+):(.+?)\\]");
-        Matcher insertColMatcher = insertColPattern.matcher(aiResponse);
-
-        while (insertColMatcher.find()) {
-            String colIndexStr = insertColMatcher.group(1);
-            String valuesStr = insertColMatcher.group(2);
-
-            try {
-                int colIndex = Integer.parseInt(colIndexStr);
-                if (colIndex < 0) {
-                    logger.error("Invalid column index: {}", colIndex);
-                    results.add(new CommandResult(false, "INSERT_COLUMN", colIndexStr + ":" + valuesStr, "Invalid column index: " + colIndex));
-                    continue;
+    /**
+     * 填充等差数列：多行区域沿行方向递增（每列相同），单行区域沿列方向递增
+     */
+    private CommandResult executeFillSeries(Workbook workbook, String rangeRef, String seriesSpec) {
+        try {
+            int[] range = parseRangeReference(rangeRef);
+            String[] parts = seriesSpec.split(",");
+            if (parts.length > 2) {
+                throw new IllegalArgumentException("Series must be 'start' or 'start,step': " + seriesSpec);
+            }
+            double start = Double.parseDouble(parts[0].trim());
+            double step = parts.length == 2 ? Double.parseDouble(parts[1].trim()) : 1;
+            int rows = range[2] - range[0] + 1;
+            int cols = range[3] - range[1] + 1;
+            Object[][] values = new Object[rows][cols];
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    values[r][c] = start + step * (rows > 1 ? r : c);
                 }
-
-                String[] values = valuesStr.split(",", -1);
-
-                // 在指定列插入数据
-                insertColumn(workbook, colIndex, values);
-                logger.info("Successfully inserted column at {}", colIndex);
-                results.add(new CommandResult(true, "INSERT_COLUMN", colIndexStr + ":" + valuesStr, "Successfully inserted column at " + colIndex));
-            } catch (NumberFormatException e) {
-                logger.error("Invalid column index format: {}", colIndexStr);
-                results.add(new CommandResult(false, "INSERT_COLUMN", colIndexStr + ":" + valuesStr, "Invalid column index format: " + colIndexStr));
-            } catch (Exception e) {
-                logger.error("Error inserting column at {}: {}", colIndexStr, e.getMessage(), e);
-                results.add(new CommandResult(false, "INSERT_COLUMN", colIndexStr + ":" + valuesStr, "Error inserting column at " + colIndexStr + ": " + e.getMessage()));
             }
+            excelService.updateRange(workbook, workbook.getSheetName(0), range[0], range[1], range[2], range[3], values);
+            logger.info("Successfully filled series {} into range {}", seriesSpec, rangeRef);
+            return new CommandResult(true, "FILL_SERIES", rangeRef + "=" + seriesSpec, "Successfully filled series " + seriesSpec + " into range " + rangeRef);
+        } catch (Exception e) {
+            logger.error("Error filling series into range {}: {}", rangeRef, e.getMessage(), e);
+            return new CommandResult(false, "FILL_SERIES", rangeRef + "=" + seriesSpec, "Error filling series into range " + rangeRef + ": " + e.getMessage());
         }
+    }
 
-        // 解析删除行命令
-        Pattern deleteRowPattern = Pattern.compile("\\[DELETE_ROW:(\\d+)\\]");
-        Matcher deleteRowMatcher = deleteRowPattern.matcher(aiResponse);
+    /**
+     * 插入行（加入待执行的结构编辑）
+     */
+    private CommandResult planInsertRow(String rowIndexStr, String valuesStr, int resultIndex, List<PendingEdit> pendingEdits) {
+        try {
+            int rowIndex = Integer.parseInt(rowIndexStr);
+            if (rowIndex < 0) {
+                logger.error("Invalid row index: {}", rowIndex);
+                return new CommandResult(false, "INSERT_ROW", rowIndexStr + ":" + valuesStr, "Invalid row index: " + rowIndex);
+            }
 
-        while (deleteRowMatcher.find()) {
-            String rowIndexStr = deleteRowMatcher.group(1);
+            String[] values = valuesStr.split(",", -1); // 使用-1以保留尾随空值
 
-            try {
-                int rowIndex = Integer.parseInt(rowIndexStr);
-                if (rowIndex < 0) {
-                    logger.error("Invalid row index: {}", rowIndex);
-                    results.add(new CommandResult(false, "DELETE_ROW", rowIndexStr, "Invalid row index: " + rowIndex));
-                    continue;
-                }
-
-                // 删除指定行
-                deleteRow(workbook, rowIndex);
-                logger.info("Successfully deleted row {}", rowIndex);
-                results.add(new CommandResult(true, "DELETE_ROW", rowIndexStr, "Successfully deleted row " + rowIndex));
-            } catch (NumberFormatException e) {
-                logger.error("Invalid row index format: {}", rowIndexStr);
-                results.add(new CommandResult(false, "DELETE_ROW", rowIndexStr, "Invalid row index format: " + rowIndexStr));
-            } catch (Exception e) {
-                logger.error("Error deleting row {}: {}", rowIndexStr, e.getMessage(), e);
-                results.add(new CommandResult(false, "DELETE_ROW", rowIndexStr, "Error deleting row " + rowIndexStr + ": " + e.getMessage()));
-            }
+            // 在指定行插入数据
+            pendingEdits.add(new PendingEdit(StructuralEdit.insertRow(rowIndex, toCellValues(values)), resultIndex));
+            logger.info("Successfully inserted row at {}", rowIndex);
+            return new CommandResult(true, "INSERT_ROW", rowIndexStr + ":" + valuesStr, "Successfully inserted row at " + rowIndex);
+        } catch (NumberFormatException e) {
+            logger.error("Invalid row index format: {}", rowIndexStr);
+            return new CommandResult(false, "INSERT_ROW", rowIndexStr + ":" + valuesStr, "Invalid row index format: " + rowIndexStr);
         }
+    }
 
-        // 解析删除列命令
-        Pattern deleteColPattern = Pattern.compile("\\[DELETE_COLUMN:(\\d+)\\]");
-        Matcher deleteColMatcher = deleteColPattern.matcher(aiResponse);
+    /**
+     * 插入列（加入待执行的结构编辑）
+     */
+    private CommandResult planInsertColumn(String colIndexStr, String valuesStr, int resultIndex, List<PendingEdit> pendingEdits) {
+        try {
+            int colIndex = Integer.parseInt(colIndexStr);
+            if (colIndex < 0) {
+                logger.error("Invalid column index: {}", colIndex);
+                return new CommandResult(false, "INSERT_COLUMN", colIndexStr + ":" + valuesStr, "Invalid column index: " + colIndex);
+            }
 
-        while (deleteColMatcher.find()) {
-            String colIndexStr = deleteColMatcher.group(1);
+            String[] values = valuesStr.split(",", -1);
 
-            try {
-                int colIndex = Integer.parseInt(colIndexStr);
-                if (colIndex < 0) {
-                    logger.error("Invalid column index: {}", colIndex);
-                    results.add(new CommandResult(false, "DELETE_COLUMN", colIndexStr, "Invalid column index: " + colIndex));
-                    continue;
-                }
+            // 在指定列插入数据
+            pendingEdits.add(new PendingEdit(StructuralEdit.insertColumn(colIndex, toCellValues(values)), resultIndex));
+            logger.info("Successfully inserted column at {}", colIndex);
+            return new CommandResult(true, "INSERT_COLUMN", colIndexStr + ":" + valuesStr, "Successfully inserted column at " + colIndex);
+        } catch (NumberFormatException e) {
+            logger.error("Invalid column index format: {}", colIndexStr);
+            return new CommandResult(false, "INSERT_COLUMN", colIndexStr + ":" + valuesStr, "Invalid column index format: " + colIndexStr);
+        }
+    }
 
-                // 删除指定列
-                deleteColumn(workbook, colIndex);
-                logger.info("Successfully deleted column {}", colIndex);
-                results.add(new CommandResult(true, "DELETE_COLUMN", colIndexStr, "Successfully deleted column " + colIndex));
-            } catch (NumberFormatException e) {
-                logger.error("Invalid column index format: {}", colIndexStr);
-                results.add(new CommandResult(false, "DELETE_COLUMN", colIndexStr, "Invalid column index format: " + colIndexStr));
-            } catch (Exception e) {
-                logger.error("Error deleting column {}: {}", colIndexStr, e.getMessage(), e);
-                results.add(new CommandResult(false, "DELETE_COLUMN", colIndexStr, "Error deleting column " + colIndexStr + ": " + e.getMessage()));
+    /**
+     * 删除行（加入待执行的结构编辑）
+     */
+    private CommandResult planDeleteRow(String rowIndexStr, int resultIndex, List<PendingEdit> pendingEdits) {
+        try {
+            int rowIndex = Integer.parseInt(rowIndexStr);
+            if (rowIndex < 0) {
+                logger.error("Invalid row index: {}", rowIndex);
+                return new CommandResult(false, "DELETE_ROW", rowIndexStr, "Invalid row index: " + rowIndex);
             }
-        }
 
-        // 解析应用公式命令 - 缓存公式待后续计算
-        Pattern applyFormulaPattern = Pattern.compile("\\[APPLY_FORMULA:([A-Z]+\\d+):(.+?)\\]");
-        Matcher applyFormulaMatcher = applyFormulaPattern.matcher(aiResponse);
+            // 删除指定行
+            pendingEdits.add(new PendingEdit(StructuralEdit.deleteRow(rowIndex), resultIndex));
+            logger.info("Successfully deleted row {}", rowIndex);
+            return new CommandResult(true, "DELETE_ROW", rowIndexStr, "Successfully deleted row " + rowIndex);
+        } catch (NumberFormatException e) {
+            logger.error("Invalid row index format: {}", rowIndexStr);
+            return new CommandResult(false, "DELETE_ROW", rowIndexStr, "Invalid row index format: " + rowIndexStr);
+        }
+    }
 
-        // 创建缓存队列存储待计算的公式
-        java.util.List<FormulaTask> formulaTasks = new java.util.ArrayList<>();
+    /**
+     * 删除列（加入待执行的结构编辑）
+     */
+    private CommandResult planDeleteColumn(String colIndexStr, int resultIndex, List<PendingEdit> pendingEdits) {
+        try {
+            int colIndex = Integer.parseInt(colIndexStr);
+            if (colIndex < 0) {
+                logger.error("Invalid column index: {}", colIndex);
+                return new CommandResult(false, "DELETE_COLUMN", colIndexStr, "Invalid column index: " + colIndex);
+            }
 
-        while (applyFormulaMatcher.find()) {
-            String cellRef = applyFormulaMatcher.group(1);
-            String formula = applyFormulaMatcher.group(2);
+            // 删除指定列
+            pendingEdits.add(new PendingEdit(StructuralEdit.deleteColumn(colIndex), resultIndex));
+            logger.info("Successfully deleted column {}", colIndex);
+            return new CommandResult(true, "DELETE_COLUMN", colIndexStr, "Successfully deleted column " + colIndex);
+        } catch (NumberFormatException e) {
+            logger.error("Invalid column index format: {}", colIndexStr);
+            return new CommandResult(false, "DELETE_COLUMN", colIndexStr, "Invalid column index format: " + colIndexStr);
+        }
+    }
 
-            try {
-                // 验证单元格引用格式
-                if (!isValidCellReference(cellRef)) {
-                    logger.error("Invalid cell reference format: {}", cellRef);
-                    results.add(new CommandResult(false, "APPLY_FORMULA", cellRef + "=" + formula, "Invalid cell reference format: " + cellRef));
-                    continue;
+    /**
+     * 将收集到的行列编辑合并为一次压缩应用到第一个工作表
+     * 执行失败时，把这批编辑对应的结果改为失败
+     */
+    private void flushStructuralEdits(Workbook workbook, List<PendingEdit> pendingEdits, List<CommandResult> results) {
+        if (pendingEdits.isEmpty()) {
+            return;
+        }
+        List<StructuralEdit> edits = new ArrayList<>(pendingEdits.size());
+        for (PendingEdit pending : pendingEdits) {
+            edits.add(pending.edit);
+        }
+        try {
+            excelService.applyStructuralEdits(workbook, workbook.getSheetName(0), edits);
+            logger.debug("Applied {} structural edits in one pass", edits.size());
+        } catch (Exception e) {
+            logger.error("Error applying {} structural edits: {}", edits.size(), e.getMessage(), e);
+            for (PendingEdit pending : pendingEdits) {
+                CommandResult result = results.get(pending.resultIndex);
+                int index = pending.edit.getIndex();
+                String message;
+                switch (pending.edit.getType()) {
+                    case INSERT_ROW:
+                        message = "Error inserting row at " + index + ": " + e.getMessage();
+                        break;
+                    case INSERT_COLUMN:
+                        message = "Error inserting column at " + index + ": " + e.getMessage();
+                        break;
+                    case DELETE_ROW:
+                        message = "Error deleting row " + index + ": " + e.getMessage();
+                        break;
+                    default:
+                        message = "Error deleting column " + index + ": " + e.getMessage();
+                        break;
                 }
-
-                CellReference ref = parseCellReference(cellRef);
-                // 缓存公式任务，待其他操作完成后统一计算
-                FormulaTask task = new FormulaTask(cellRef, ref.row, ref.col, formula, workbook.getSheetName(0));
-                formulaTasks.add(task);
-                logger.info("Queued formula calculation for cell {}: {}", cellRef, formula);
-                results.add(new CommandResult(true, "APPLY_FORMULA", cellRef + "=" + formula, "Formula calculation queued for cell " + cellRef));
-            } catch (Exception e) {
-                logger.error("Error queuing formula for cell {}: {}", cellRef, e.getMessage(), e);
-                results.add(new CommandResult(false, "APPLY_FORMULA", cellRef + "=" + formula, "Error queuing formula for cell " + cellRef + ": " + e.getMessage()));
+                results.set(pending.resultIndex, new CommandResult(false, result.getCommandType(), result.getCommandParams(), message));
             }
         }
+        pendingEdits.clear();
+    }
 
-        // 在处理完其他命令后，统一计算所有公式
-        for (FormulaTask task : formulaTasks) {
+    /**
+     * 将命令中的文本值转换为单元格值：能解析为数字的按数字写入，其余去除首尾空白后按文本写入
+     */
+    private Object[] toCellValues(String[] values) {
+        Object[] cellValues = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) {
+                cellValues[i] = "";
+                continue;
+            }
             try {
-                Object calculatedResult = calculateFormulaResult(workbook, task.sheetName, task.row, task.col, task.formula);
-                excelService.updateCell(workbook, task.sheetName, task.row, task.col, calculatedResult);
-                logger.info("Successfully calculated and set result {} to cell {}", calculatedResult, task.cellRef);
-
-                // 更新结果列表中的消息
-                for (int i = 0; i < results.size(); i++) {
-                    CommandResult result = results.get(i);
-                    if (result.getCommandType().equals("APPLY_FORMULA") &&
-                        result.getCommandParams().startsWith(task.cellRef + "=")) {
-                        results.set(i, new CommandResult(true, "APPLY_FORMULA",
-                            task.cellRef + "=" + task.formula,
-                            "Successfully calculated and set result " + calculatedResult + " to cell " + task.cellRef));
-                        break;
-                    }
-                }
-            } catch (Exception e) {
-                logger.error("Error processing queued formula for cell {}: {}", task.cellRef, e.getMessage(), e);
+                // 尝试解析为数字
+                cellValues[i] = Double.parseDouble(values[i].trim());
+            } catch (NumberFormatException e) {
+                // 非数字则作为字符串
+                cellValues[i] = values[i].trim();
+            }
+        }
+        return cellValues;
+    }
 
-                // 更新结果列表中的消息
-                for (int i = 0; i < results.size(); i++) {
-                    CommandResult result = results.get(i);
-                    if (result.getCommandType().equals("APPLY_FORMULA") &&
-                        result.getCommandParams().startsWith(task.cellRef + "=")) {
-                        results.set(i, new CommandResult(false, "APPLY_FORMULA",
-                            task.cellRef + "=" + task.formula,
-                            "Error processing formula for cell " + task.cellRef + ": " + e.getMessage()));
-                        break;
-                    }
-                }
+    /**
+     * 缓存公式任务，待其他操作完成后统一计算
+     * @param resultIndex 该命令在结果列表中的位置，计算完成后按位置回填结果
+     */
+    private CommandResult queueFormula(Workbook workbook, String cellRef, String formula, int resultIndex,
+                                       List<FormulaTask> formulaTasks) {
+        try {
+            // 验证单元格引用格式
+            if (!isValidCellReference(cellRef)) {
+                logger.error("Invalid cell reference format: {}", cellRef);
+                return new CommandResult(false, "APPLY_FORMULA", cellRef + "=" + formula, "Invalid cell reference format: " + cellRef);
             }
+
+            CellReference ref = parseCellReference(cellRef);
+            formulaTasks.add(new FormulaTask(cellRef, ref.row, ref.col, formula, workbook.getSheetName(0), resultIndex));
+            logger.info("Queued formula calculation for cell {}: {}", cellRef, formula);
+            return new CommandResult(true, "APPLY_FORMULA", cellRef + "=" + formula, "Formula calculation queued for cell " + cellRef);
+        } catch (Exception e) {
+            logger.error("Error queuing formula for cell {}: {}", cellRef, e.getMessage(), e);
+            return new CommandResult(false, "APPLY_FORMULA", cellRef + "=" + formula, "Error queuing formula for cell " + cellRef + ": " + e.getMessage());
         }
+    }
 
-        logger.info("Completed parsing AI response, processed {} commands", results.size());
-        return results;
+    /**
+     * 缓存区域公式任务，公式以区域左上角单元格为基准书写，计算时相对引用按行列偏移
+     */
+    private CommandResult queueRangeFormula(Workbook workbook, String commandType, String rangeRef, String formula,
+                                            int resultIndex, List<FormulaTask> formulaTasks) {
+        try {
+            int[] range = parseRangeReference(rangeRef);
+            formulaTasks.add(new FormulaTask(commandType, rangeRef, range[0], range[1], range[2], range[3], formula,
+                workbook.getSheetName(0), resultIndex));
+            logger.info("Queued formula fill for range {}: {}", rangeRef, formula);
+            return new CommandResult(true, commandType, rangeRef + "=" + formula, "Formula fill queued for range " + rangeRef);
+        } catch (Exception e) {
+            logger.error("Error queuing formula for range {}: {}", rangeRef, e.getMessage(), e);
+            return new CommandResult(false, commandType, rangeRef + "=" + formula, "Error queuing formula for range " + rangeRef + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 计算区域公式任务：公式只编译一次，逐格计算后通过updateRange一次写回
+     */
+    private void evaluateRangeFormula(Workbook workbook, FormulaTask task,
+                                      Map<String, SheetExpressionContext> expressionContexts, List<CommandResult> results) {
+        String params = task.cellRef + "=" + task.formula;
+        try {
+            SheetExpressionContext context = expressionContexts.computeIfAbsent(task.sheetName,
+                name -> new SheetExpressionContext(workbook.getSheet(name), excelService.getEvaluationContext(workbook)));
+            Object[][] values = expressionEngine.evaluateRange(task.formula, context, task.row, task.col, task.lastRow, task.lastCol);
+            excelService.updateRange(workbook, task.sheetName, task.row, task.col, task.lastRow, task.lastCol, values);
+            logger.info("Successfully filled formula {} into range {}", task.formula, task.cellRef);
+            results.set(task.resultIndex, new CommandResult(true, task.commandType, params,
+                "Successfully filled formula " + task.formula + " into range " + task.cellRef));
+        } catch (Exception e) {
+            logger.error("Error processing queued formula for range {}: {}", task.cellRef, e.getMessage(), e);
+            results.set(task.resultIndex, new CommandResult(false, task.commandType, params,
+                "Error processing formula for range " + task.cellRef + ": " + e.getMessage()));
+        }
+    }
+
+    /**
+     * 解析区域引用 (如 A2:C100)
+     * @return {起始行, 起始列, 结束行, 结束列}，均为0基索引
+     */
+    private int[] parseRangeReference(String rangeRef) {
+        int separator = rangeRef.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Invalid range reference format: " + rangeRef);
+        }
+        String startRef = rangeRef.substring(0, separator);
+        String endRef = rangeRef.substring(separator + 1);
+        if (!isValidCellReference(startRef) || !isValidCellReference(endRef)) {
+            throw new IllegalArgumentException("Invalid range reference format: " + rangeRef);
+        }
+        CellReference start = parseCellReference(startRef);
+        CellReference end = parseCellReference(endRef);
+        int firstRow = Math.min(start.row, end.row);
+        int lastRow = Math.max(start.row, end.row);
+        int firstCol = Math.min(start.col, end.col);
+        int lastCol = Math.max(start.col, end.col);
+        if ((long) (lastRow - firstRow + 1) * (lastCol - firstCol + 1) > MAX_RANGE_CELLS) {
+            throw new IllegalArgumentException("Range " + rangeRef + " exceeds " + MAX_RANGE_CELLS + " cells");
+        }
+        return new int[]{firstRow, firstCol, lastRow, lastCol};
     }
 
     /**
@@ -279,8 +471,7 @@ public class AiExcelCommandParser {
         }
 
         // 正则表达式验证单元格引用格式 (如 A1, B2, Z10, AA1, AB2, etc.)
-        Pattern cellPattern = Pattern.compile("[A-Z]+\\d+");
-        return cellPattern.matcher(cellRef.toUpperCase()).matches();
+        return CELL_REFERENCE_PATTERN.matcher(cellRef.toUpperCase()).matches();
     }
     
     /**
@@ -342,234 +533,6 @@ public class AiExcelCommandParser {
         return result - 1; // 转换为0基索引
     }
 
-    /**
-     * 插入一行数据
-     */
-    private void insertRow(Workbook workbook, int rowIndex, String[] values) {
-        if (workbook == null) {
-            logger.error("Workbook cannot be null");
-            throw new IllegalArgumentException("Workbook cannot be null");
-        }
-
-        if (values == null) {
-            logger.warn("Values array is null, inserting empty row at index {}", rowIndex);
-            values = new String[0];
-        }
-
-        org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheetAt(0);
-        if (sheet == null) {
-            logger.error("Sheet at index 0 is null");
-            throw new IllegalStateException("Sheet at index 0 is null");
-        }
-
-        try {
-            // 移动现有行，为新行腾出空间
-            sheet.shiftRows(rowIndex, sheet.getLastRowNum(), 1);
-
-            // 创建新行并设置值
-            org.apache.poi.ss.usermodel.Row row = sheet.createRow(rowIndex);
-            for (int i = 0; i < values.length; i++) {
-                org.apache.poi.ss.usermodel.Cell cell = row.createCell(i);
-                if (values[i] != null) {
-                    try {
-                        // 尝试解析为数字
-                        double numericValue = Double.parseDouble(values[i].trim());
-                        cell.setCellValue(numericValue);
-                    } catch (NumberFormatException e) {
-                        // 非数字则作为字符串
-                        cell.setCellValue(values[i].trim());
-                    }
-                } else {
-                    cell.setCellValue("");
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error inserting row at {}: {}", rowIndex, e.getMessage(), e);
-            throw new RuntimeException("Error inserting row at " + rowIndex + ": " + e.getMessage(), e);
-        }
-    }
-
-    /**
-     * 插入一列数据
-     */
-    private void insertColumn(Workbook workbook, int colIndex, String[] values) {
-        if (workbook == null) {
-            logger.error("Workbook cannot be null");
-            throw new IllegalArgumentException("Workbook cannot be null");
-        }
-
-        if (values == null) {
-            logger.warn("Values array is null, inserting empty column at index {}", colIndex);
-            values = new String[0];
-        }
-
-        org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheetAt(0);
-        if (sheet == null) {
-            logger.error("Sheet at index 0 is null");
-            throw new IllegalStateException("Sheet at index 0 is null");
-        }
-
-        try {
-            // 为每一行插入新列
-            for (int i = 0; i < values.length && i < sheet.getLastRowNum() + 1; i++) {
-                org.apache.poi.ss.usermodel.Row row = sheet.getRow(i);
-                if (row == null) {
-                    row = sheet.createRow(i);
-                }
-
-                // 移动现有单元格
-                for (int j = Math.max(row.getLastCellNum(), colIndex); j > colIndex; j--) {
-                    org.apache.poi.ss.usermodel.Cell srcCell = row.getCell(j - 1);
-                    if (srcCell != null) {
-                        org.apache.poi.ss.usermodel.Cell targetCell = row.getCell(j);
-                        if (targetCell == null) {
-                            targetCell = row.createCell(j);
-                        }
-                        // 复制单元格内容
-                        copyCellContent(srcCell, targetCell);
-                    }
-                }
-
-                // 设置新的单元格值
-                org.apache.poi.ss.usermodel.Cell newCell = row.getCell(colIndex);
-                if (newCell == null) {
-                    newCell = row.createCell(colIndex);
-                }
-                if (values[i] != null) {
-                    try {
-                        // 尝试解析为数字
-                        double numericValue = Double.parseDouble(values[i].trim());
-                        newCell.setCellValue(numericValue);
-                    } catch (NumberFormatException e) {
-                        // 非数字则作为字符串
-                        newCell.setCellValue(values[i].trim());
-                    }
-                } else {
-                    newCell.setCellValue("");
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error inserting column at {}: {}", colIndex, e.getMessage(), e);
-            throw new RuntimeException("Error inserting column at " + colIndex + ": " + e.getMessage(), e);
-        }
-    }
-
-    /**
-     * 删除指定行
-     */
-    private void deleteRow(Workbook workbook, int rowIndex) {
-        if (workbook == null) {
-            logger.error("Workbook cannot be null");
-            throw new IllegalArgumentException("Workbook cannot be null");
-        }
-
-        org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheetAt(0);
-        if (sheet == null) {
-            logger.error("Sheet at index 0 is null");
-            throw new IllegalStateException("Sheet at index 0 is null");
-        }
-
-        try {
-            org.apache.poi.ss.usermodel.Row row = sheet.getRow(rowIndex);
-            if (row != null) {
-                sheet.removeRow(row);
-            }
-            // 重新整理行索引
-            if (rowIndex < sheet.getLastRowNum()) {
-                sheet.shiftRows(rowIndex + 1, sheet.getLastRowNum(), -1);
-            }
-        } catch (Exception e) {
-            logger.error("Error deleting row at {}: {}", rowIndex, e.getMessage(), e);
-            throw new RuntimeException("Error deleting row at " + rowIndex + ": " + e.getMessage(), e);
-        }
-    }
-
-    /**
-     * 删除指定列
-     */
-    private void deleteColumn(Workbook workbook, int colIndex) {
-        if (workbook == null) {
-            logger.error("Workbook cannot be null");
-            throw new IllegalArgumentException("Workbook cannot be null");
-        }
-
-        org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheetAt(0);
-        if (sheet == null) {
-            logger.error("Sheet at index 0 is null");
-            throw new IllegalStateException("Sheet at index 0 is null");
-        }
-
-        try {
-            for (int i = 0; i <= sheet.getLastRowNum(); i++) {
-                org.apache.poi.ss.usermodel.Row row = sheet.getRow(i);
-                if (row != null) {
-                    org.apache.poi.ss.usermodel.Cell cell = row.getCell(colIndex);
-                    if (cell != null) {
-                        row.removeCell(cell);
-                    }
-
-                    // 移动后续列的单元格
-                    for (int j = colIndex; j < row.getLastCellNum(); j++) {
-                        org.apache.poi.ss.usermodel.Cell srcCell = row.getCell(j + 1);
-                        if (srcCell != null) {
-                            org.apache.poi.ss.usermodel.Cell targetCell = row.getCell(j);
-                            if (targetCell == null) {
-                                targetCell = row.createCell(j);
-                            }
-                            copyCellContent(srcCell, targetCell);
-                            row.removeCell(srcCell);
-                        }
-                    }
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error deleting column at {}: {}", colIndex, e.getMessage(), e);
-            throw new RuntimeException("Error deleting column at " + colIndex + ": " + e.getMessage(), e);
-        }
-    }
-
-    /**
-     * 复制单元格内容
-     */
-    private void copyCellContent(org.apache.poi.ss.usermodel.Cell src, org.apache.poi.ss.usermodel.Cell target) {
-        if (src == null || target == null) {
-            logger.warn("Source or target cell is null in copyCellContent");
-            return;
-        }
-
-        try {
-            switch (src.getCellType()) {
-                case STRING:
-                    target.setCellValue(src.getStringCellValue());
-                    break;
-                case NUMERIC:
-                    if (org.apache.poi.ss.usermodel.DateUtil.isCellDateFormatted(src)) {
-                        target.setCellValue(src.getDateCellValue());
-                    } else {
-                        target.setCellValue(src.getNumericCellValue());
-                    }
-                    break;
-                case BOOLEAN:
-                    target.setCellValue(src.getBooleanCellValue());
-                    break;
-                case FORMULA:
-                    target.setCellFormula(src.getCellFormula());
-                    break;
-                case BLANK:
-                    target.setBlank();
-                    break;
-                case ERROR:
-                    target.setCellErrorValue(src.getErrorCellValue());
-                    break;
-                default:
-                    target.setCellValue(src.toString());
-            }
-        } catch (Exception e) {
-            logger.error("Error copying cell content from {} to {}: {}", src.getAddress(), target.getAddress(), e.getMessage(), e);
-            target.setCellValue(src.toString()); // Fallback to string conversion
-        }
-    }
-    
     /**
      * 内部类表示单元格引用
      */
@@ -587,18 +550,51 @@ public class AiExcelCommandParser {
      * 公式任务类 - 用于缓存待计算的公式
      */
     private static class FormulaTask {
+        String commandType;
         String cellRef;
         int row;
         int col;
+        int lastRow;
+        int lastCol;
         String formula;
         String sheetName;
+        int resultIndex;
 
-        FormulaTask(String cellRef, int row, int col, String formula, String sheetName) {
+        FormulaTask(String cellRef, int row, int col, String formula, String sheetName, int resultIndex) {
+            this("APPLY_FORMULA", cellRef, row, col, row, col, formula, sheetName, resultIndex);
+        }
+
+        /**
+         * 区域公式任务，cellRef为区域引用，(row, col)为区域左上角
+         */
+        FormulaTask(String commandType, String cellRef, int row, int col, int lastRow, int lastCol,
+                    String formula, String sheetName, int resultIndex) {
+            this.commandType = commandType;
             this.cellRef = cellRef;
             this.row = row;
             this.col = col;
+            this.lastRow = lastRow;
+            this.lastCol = lastCol;
             this.formula = formula;
             this.sheetName = sheetName;
+            this.resultIndex = resultIndex;
+        }
+
+        boolean isRange() {
+            return !"APPLY_FORMULA".equals(commandType);
+        }
+    }
+
+    /**
+     * 待执行的结构编辑及其在结果列表中的位置
+     */
+    private static class PendingEdit {
+        final StructuralEdit edit;
+        final int resultIndex;
+
+        PendingEdit(StructuralEdit edit, int resultIndex) {
+            this.edit = edit;
+            this.resultIndex = resultIndex;
         }
     }
 
@@ -611,6 +607,9 @@ public class AiExcelCommandParser {
         private String commandParams;
         private String message;
 
+        public CommandResult() {
+        }
+
         public CommandResult(boolean success, String commandType, String commandParams, String message) {
             this.success = success;
             this.commandType = commandType;
@@ -618,6 +617,21 @@ public class AiExcelCommandParser {
             this.message = message;
         }
 
+        /**
+         * 还原为AI响应中的命令文本，例如 [SET_CELL:A1:value]，用于重做时重新执行
+         * 单元格和区域命令的参数形如 目标=值，行列命令的参数与命令格式一致
+         */
+        public String toCommandText() {
+            String params = commandParams;
+            if (!commandType.startsWith("INSERT_") && !commandType.startsWith("DELETE_")) {
+                int separator = params.indexOf('=');
+                if (separator > 0) {
+                    params = params.substring(0, separator) + ":" + params.substring(separator + 1);
+                }
+            }
+            return "[" + commandType + ":" + params + "]";
+        }
+
         // Getters and setters
         public boolean isSuccess() { return success; }
         public void setSuccess(boolean success) { this.success = success; }
@@ -634,226 +648,21 @@ public class AiExcelCommandParser {
 
     /**
      * 计算公式结果
-     * @param workbook Excel工作簿
-     * @param sheetName 工作表名称
-     * @param row 行索引
-     * @param col 列索引
+     * @param context 公式所在工作表的表达式上下文
      * @param formula 公式
      * @return 计算结果
      */
-    private Object calculateFormulaResult(Workbook workbook, String sheetName, int row, int col, String formula) {
+    private Object calculateFormulaResult(SheetExpressionContext context, String formula) {
         if (formula == null || formula.trim().isEmpty()) {
             return null;
         }
 
-        // 去除公式的等号前缀
-        String cleanFormula = formula.trim();
-        if (cleanFormula.startsWith("=")) {
-            cleanFormula = cleanFormula.substring(1);
-        }
-
-        // 根据AI的自然语言命令，我们可能需要处理不同类型的公式
-        // 最常见的是引用其他单元格的运算，如 A1+B1, C1*D1 等
         try {
-            // 对于简单的加法操作（如 A1+B1, B2+D2），我们手动解析并计算
-            if (cleanFormula.contains("+")) {
-                return calculateAddition(workbook, sheetName, cleanFormula);
-            } else if (cleanFormula.contains("-") && !cleanFormula.startsWith("-")) {
-                return calculateSubtraction(workbook, sheetName, cleanFormula);
-            } else if (cleanFormula.contains("*")) {
-                return calculateMultiplication(workbook, sheetName, cleanFormula);
-            } else if (cleanFormula.contains("/")) {
-                return calculateDivision(workbook, sheetName, cleanFormula);
-            } else {
-                // 如果是单个单元格引用或常量，直接返回值
-                return getCellValue(workbook, sheetName, cleanFormula);
-            }
+            // 编译结果按公式文本缓存，同一批任务中的相同公式只解析一次
+            return expressionEngine.evaluate(formula, context);
         } catch (Exception e) {
             logger.error("Error calculating formula '{}': {}", formula, e.getMessage(), e);
             return formula; // 返回原始公式如果无法计算
         }
     }
-
-    /**
-     * 计算加法
-     */
-    private Object calculateAddition(Workbook workbook, String sheetName, String formula) {
-        String[] parts = formula.split("\\+");
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Invalid addition formula: " + formula);
-        }
-
-        Object val1 = getCellValue(workbook, sheetName, parts[0].trim());
-        Object val2 = getCellValue(workbook, sheetName, parts[1].trim());
-
-        // 尝试转换为数字并相加
-        try {
-            double num1 = convertToNumber(val1);
-            double num2 = convertToNumber(val2);
-            return num1 + num2;
-        } catch (NumberFormatException e) {
-            // 如果不能转换为数字，按字符串处理
-            return String.valueOf(val1) + String.valueOf(val2);
-        }
-    }
-
-    /**
-     * 计算减法
-     */
-    private Object calculateSubtraction(Workbook workbook, String sheetName, String formula) {
-        String[] parts = formula.split("-", 2); // 限制分割次数以处理负数
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Invalid subtraction formula: " + formula);
-        }
-
-        Object val1 = getCellValue(workbook, sheetName, parts[0].trim());
-        Object val2 = getCellValue(workbook, sheetName, parts[1].trim());
-
-        // 尝试转换为数字并相减
-        try {
-            double num1 = convertToNumber(val1);
-            double num2 = convertToNumber(val2);
-            return num1 - num2;
-        } catch (NumberFormatException e) {
-            // 如果不能转换为数字，返回错误信息
-            throw new NumberFormatException("Cannot perform subtraction on non-numeric values: " + val1 + " - " + val2);
-        }
-    }
-
-    /**
-     * 计算乘法
-     */
-    private Object calculateMultiplication(Workbook workbook, String sheetName, String formula) {
-        String[] parts = formula.split("\\*");
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Invalid multiplication formula: " + formula);
-        }
-
-        Object val1 = getCellValue(workbook, sheetName, parts[0].trim());
-        Object val2 = getCellValue(workbook, sheetName, parts[1].trim());
-
-        // 尝试转换为数字并相乘
-        try {
-            double num1 = convertToNumber(val1);
-            double num2 = convertToNumber(val2);
-            return num1 * num2;
-        } catch (NumberFormatException e) {
-            // 如果不能转换为数字，返回错误信息
-            throw new NumberFormatException("Cannot perform multiplication on non-numeric values: " + val1 + " * " + val2);
-        }
-    }
-
-    /**
-     * 计算除法
-     */
-    private Object calculateDivision(Workbook workbook, String sheetName, String formula) {
-        String[] parts = formula.split("/");
-        if (parts.length != 2) {
-            throw new IllegalArgumentException("Invalid division formula: " + formula);
-        }
-
-        Object val1 = getCellValue(workbook, sheetName, parts[0].trim());
-        Object val2 = getCellValue(workbook, sheetName, parts[1].trim());
-
-        // 尝试转换为数字并相除
-        try {
-            double num1 = convertToNumber(val1);
-            double num2 = convertToNumber(val2);
-            if (num2 == 0) {
-                throw new ArithmeticException("Division by zero");
-            }
-            return num1 / num2;
-        } catch (NumberFormatException e) {
-            // 如果不能转换为数字，返回错误信息
-            throw new NumberFormatException("Cannot perform division on non-numeric values: " + val1 + " / " + val2);
-        }
-    }
-
-    /**
-     * 获取单元格值
-     */
-    private Object getCellValue(Workbook workbook, String sheetName, String cellRef) {
-        // 如果cellRef 是一个单元格引用 (如 A1, B2)
-        if (isValidCellReference(cellRef)) {
-            CellReference ref = parseCellReference(cellRef);
-            org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheet(sheetName);
-            if (sheet != null) {
-                org.apache.poi.ss.usermodel.Row row = sheet.getRow(ref.row);
-                if (row != null) {
-                    org.apache.poi.ss.usermodel.Cell cell = row.getCell(ref.col);
-                    if (cell != null) {
-                        switch (cell.getCellType()) {
-                            case STRING:
-                                return cell.getStringCellValue();
-                            case NUMERIC:
-                                if (org.apache.poi.ss.usermodel.DateUtil.isCellDateFormatted(cell)) {
-                                    return cell.getDateCellValue();
-                                } else {
-                                    return cell.getNumericCellValue();
-                                }
-                            case BOOLEAN:
-                                return cell.getBooleanCellValue();
-                            case FORMULA:
-                                // 对公式单元格进行计算
-                                org.apache.poi.ss.usermodel.FormulaEvaluator evaluator =
-                                    workbook.getCreationHelper().createFormulaEvaluator();
-                                org.apache.poi.ss.usermodel.CellValue cellValue = evaluator.evaluate(cell);
-                                switch (cellValue.getCellType()) {
-                                    case STRING:
-                                        return cellValue.getStringValue();
-                                    case NUMERIC:
-                                        return cellValue.getNumberValue();
-                                    case BOOLEAN:
-                                        return cellValue.getBooleanValue();
-                                    case ERROR:
-                                        return "#ERROR!";
-                                    default:
-                                        return cellValue.formatAsString();
-                                }
-                            case BLANK:
-                                return "";
-                            case ERROR:
-                                return "#ERROR!";
-                            default:
-                                return cell.toString();
-                        }
-                    }
-                }
-            }
-        } else {
-            // 如果不是单元格引用，可能是常量值
-            // 尝试解析为数字，如果失败则作为字符串返回
-            try {
-                return Double.parseDouble(cellRef);
-            } catch (NumberFormatException e) {
-                return cellRef; // 返回原始字符串
-            }
-        }
-
-        return null;
-    }
-
-    /**
-     * 转换为数字
-     */
-    private double convertToNumber(Object value) {
-        if (value == null) {
-            return 0.0;
-        }
-
-        if (value instanceof Number) {
-            return ((Number) value).doubleValue();
-        }
-
-        if (value instanceof String) {
-            String str = ((String) value).trim();
-            if (str.isEmpty()) {
-                return 0.0;
-            }
-            return Double.parseDouble(str);
-        }
-
-        // 对其他类型尝试转换
-        return Double.parseDouble(value.toString());
-    }
-}
\ No newline at end of file
+}
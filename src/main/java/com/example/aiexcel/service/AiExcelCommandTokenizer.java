@@ -0,0 +1,171 @@
+package com.example.aiexcel.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AI命令扫描器
+ * 一次从左到右扫描AI响应，按出现顺序提取所有 [COMMAND:...] 形式的命令。
+ * 命令格式与原正则保持一致：参数不能跨行，取到第一个 ']' 为止，格式不符的片段按普通文本跳过。
+ */
+class AiExcelCommandTokenizer {
+
+    /**
+     * 支持的命令类型
+     */
+    enum CommandType {
+        SET_CELL, INSERT_ROW, INSERT_COLUMN, DELETE_ROW, DELETE_COLUMN, APPLY_FORMULA,
+        SET_RANGE, FILL_DOWN, FILL_SERIES
+    }
+
+    /**
+     * 解析出的单条命令
+     * target为单元格引用、区域引用（如A2:A100）或行列索引，argument为值、值列表或公式（删除命令为null）
+     */
+    static class Command {
+        final CommandType type;
+        final String target;
+        final String argument;
+        final int position;
+
+        Command(CommandType type, String target, String argument, int position) {
+            this.type = type;
+            this.target = target;
+            this.argument = argument;
+            this.position = position;
+        }
+    }
+
+    private AiExcelCommandTokenizer() {
+    }
+
+    static List<Command> tokenize(String text) {
+        List<Command> commands = new ArrayList<>();
+        int length = text.length();
+        int i = text.indexOf('[');
+        while (i >= 0 && i < length) {
+            int next = i + 1;
+            Command command = readCommand(text, i);
+            if (command != null) {
+                commands.add(command);
+                next = text.indexOf(']', i) + 1;
+            }
+            i = text.indexOf('[', next);
+        }
+        return commands;
+    }
+
+    /**
+     * 尝试从start处的 '[' 读取一条命令
+     * @return 命令；该位置不是合法命令时返回null
+     */
+    private static Command readCommand(String text, int start) {
+        int nameStart = start + 1;
+        int nameEnd = nameStart;
+        int length = text.length();
+        while (nameEnd < length && (isUpper(text.charAt(nameEnd)) || text.charAt(nameEnd) == '_')) {
+            nameEnd++;
+        }
+        if (nameEnd >= length || text.charAt(nameEnd) != ':') {
+            return null;
+        }
+        CommandType type = toCommandType(text, nameStart, nameEnd);
+        if (type == null) {
+            return null;
+        }
+
+        // 参数取到第一个 ']'，中间不允许换行
+        int bodyStart = nameEnd + 1;
+        int bodyEnd = bodyStart;
+        while (bodyEnd < length && text.charAt(bodyEnd) != ']') {
+            char c = text.charAt(bodyEnd);
+            if (c == '\n' || c == '\r') {
+                return null;
+            }
+            bodyEnd++;
+        }
+        if (bodyEnd >= length) {
+            return null;
+        }
+
+        switch (type) {
+            case SET_CELL:
+            case APPLY_FORMULA: {
+                int targetEnd = scanCellReference(text, bodyStart, bodyEnd);
+                return targetEnd > bodyStart && targetEnd + 1 < bodyEnd && text.charAt(targetEnd) == ':'
+                    ? new Command(type, text.substring(bodyStart, targetEnd), text.substring(targetEnd + 1, bodyEnd), start)
+                    : null;
+            }
+            case SET_RANGE:
+            case FILL_DOWN:
+            case FILL_SERIES: {
+                int targetEnd = scanRangeReference(text, bodyStart, bodyEnd);
+                return targetEnd > bodyStart && targetEnd + 1 < bodyEnd && text.charAt(targetEnd) == ':'
+                    ? new Command(type, text.substring(bodyStart, targetEnd), text.substring(targetEnd + 1, bodyEnd), start)
+                    : null;
+            }
+            case INSERT_ROW:
+            case INSERT_COLUMN: {
+                int targetEnd = scanDigits(text, bodyStart, bodyEnd);
+                return targetEnd > bodyStart && targetEnd + 1 < bodyEnd && text.charAt(targetEnd) == ':'
+                    ? new Command(type, text.substring(bodyStart, targetEnd), text.substring(targetEnd + 1, bodyEnd), start)
+                    : null;
+            }
+            default: {
+                int targetEnd = scanDigits(text, bodyStart, bodyEnd);
+                return targetEnd > bodyStart && targetEnd == bodyEnd
+                    ? new Command(type, text.substring(bodyStart, targetEnd), null, start)
+                    : null;
+            }
+        }
+    }
+
+    private static CommandType toCommandType(String text, int start, int end) {
+        for (CommandType type : CommandType.values()) {
+            String name = type.name();
+            if (name.length() == end - start && text.regionMatches(start, name, 0, name.length())) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 扫描形如A1的单元格引用（大写字母后跟数字），返回结束位置
+     */
+    private static int scanCellReference(String text, int start, int end) {
+        int i = start;
+        while (i < end && isUpper(text.charAt(i))) {
+            i++;
+        }
+        if (i == start) {
+            return start;
+        }
+        int digitsEnd = scanDigits(text, i, end);
+        return digitsEnd > i ? digitsEnd : start;
+    }
+
+    /**
+     * 扫描形如A2:C100的区域引用，返回结束位置
+     */
+    private static int scanRangeReference(String text, int start, int end) {
+        int firstEnd = scanCellReference(text, start, end);
+        if (firstEnd == start || firstEnd >= end || text.charAt(firstEnd) != ':') {
+            return start;
+        }
+        int secondEnd = scanCellReference(text, firstEnd + 1, end);
+        return secondEnd > firstEnd + 1 ? secondEnd : start;
+    }
+
+    private static int scanDigits(String text, int start, int end) {
+        int i = start;
+        while (i < end && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isUpper(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+}
@@ -5,19 +5,46 @@ import com.example.aiexcel.dto.AiResponse;
 import com.example.aiexcel.service.ai.AiService;
 import com.example.aiexcel.service.analysis.CustomerAnalysisService;
 import com.example.aiexcel.service.analysis.FinancialAnalysisService;
+import com.example.aiexcel.service.excel.ExcelJsonStreamWriter;
+import com.example.aiexcel.service.excel.ExcelRowCursor;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.SheetRowIndex;
+import com.example.aiexcel.service.excel.ValueWorkbookWriter;
+import com.example.aiexcel.service.excel.WorkbookChangeJournal;
+import com.example.aiexcel.service.excel.filter.FilterContext;
+import com.example.aiexcel.service.excel.filter.FilterExpression;
+import com.example.aiexcel.service.excel.filter.FilterResult;
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+import com.example.aiexcel.service.excel.prompt.PromptContextBuilder;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
+import com.example.aiexcel.service.excel.sort.ExcelSorter;
+import com.example.aiexcel.service.excel.sort.SortKey;
+import com.example.aiexcel.service.excel.sort.SortedRows;
+import com.example.aiexcel.service.persistence.WriteBehindQueue;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 
 @SuppressWarnings("unused")
@@ -32,6 +59,18 @@ public class AiExcelIntegrationService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private ExcelJsonStreamWriter jsonStreamWriter;
+
+    @Autowired
+    private ExcelSorter excelSorter;
+
+    @Autowired
+    private WorkbookSessionStore workbookSessionStore;
+
+    @Autowired
+    private PromptContextBuilder promptContextBuilder;
+
     @Autowired
     private CustomerAnalysisService customerAnalysisService;
 
@@ -56,6 +95,13 @@ public class AiExcelIntegrationService {
     @Autowired
     private FileManagerService fileManagerService;
 
+    @Autowired
+    private WriteBehindQueue writeBehindQueue;
+
+    // 聊天回复是否进入AI响应缓存，默认关闭
+    @Value("${ai.cache.chat-enabled:false}")
+    private boolean cacheChatReplies;
+
     public Map<String, Object> processExcelWithAI(MultipartFile file, String command) throws IOException {
         logger.info("Starting AI Excel processing for command: {}", command);
 
@@ -83,30 +129,12 @@ public class AiExcelIntegrationService {
             Workbook workbook = excelService.loadWorkbook(file);
             logger.debug("Excel file loaded successfully");
 
-            // 3. 获取Excel数据
-            String excelData = excelService.getExcelDataAsString(workbook);
+            // 3. 在Token预算内获取Excel数据概要
+            String excelData = promptContextBuilder.build(workbook);
             logger.debug("Excel data extracted, length: {}", excelData.length());
 
             // 4. 构建AI请求
-            AiRequest aiRequest = new AiRequest();
-            aiRequest.setMessages(Arrays.asList(
-                new AiRequest.Message("system",
-                    "You are an Excel expert assistant. You can analyze Excel data and provide formulas, operations, or insights. " +
-                    "The user will provide Excel data and a command. Respond with the appropriate Excel formula or operation steps. " +
-                    "For formulas, include the actual formula syntax. For operations, provide step-by-step instructions. " +
-                    "Always be precise and accurate. If the user wants to modify the Excel data, provide specific commands in this format: " +
-                    "[SET_CELL:A1:New Value] to set cell A1 to 'New Value', " +
-                    "[INSERT_ROW:3:value1,value2,value3] to insert a row at position 3 with these values, " +
-                    "[INSERT_COLUMN:2:value1,value2,value3] to insert a column at position 2 with these values, " +
-                    "[DELETE_ROW:5] to delete row 5, " +
-                    "[DELETE_COLUMN:1] to delete column 1, " +
-                    "[APPLY_FORMULA:A1:B1+C1] to apply the formula 'B1+C1' in cell A1. " +
-                    "Embed these commands directly in your response when appropriate."),
-                new AiRequest.Message("user",
-                    "Here is the Excel data:\n\n" + excelData + "\n\n" +
-                    "User command: " + command + "\n\n" +
-                    "Please provide the appropriate Excel operations to fulfill this request using the command format mentioned in the system message.")
-            ));
+            AiRequest aiRequest = buildCommandRequest(excelData, command);
 
             logger.debug("Sending request to AI service");
 
@@ -115,34 +143,51 @@ public class AiExcelIntegrationService {
             String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
             logger.debug("AI response received, length: {}", aiResponseContent.length());
 
-            // 保存操作前的工作簿副本用于历史记录
-            Workbook workbookBefore = cloneWorkbook(workbook);
-
             // 6. 解析并执行AI返回的Excel操作命令
-            List<AiExcelCommandParser.CommandResult> commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
-            logger.debug("AI commands executed, {} commands processed", commandResults.size());
+            // 执行期间记录变更日志，操作前的状态由它按需还原，不再复制整本工作簿
+            excelService.beginChangeJournal(workbook);
+            List<AiExcelCommandParser.CommandResult> commandResults;
+            WorkbookChangeJournal journal;
+            try {
+                commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            } finally {
+                journal = excelService.endChangeJournal(workbook);
+            }
+            logger.debug("AI commands executed, {} commands processed, {} cells journaled",
+                commandResults.size(), journal.getCellCount());
 
-            // 6.5. 计算工作簿中所有公式，将结果替换公式
+            // 6.5. 重新计算受本次命令影响的公式，并将结果写回单元格
             excelService.evaluateAllFormulasInWorkbook(workbook);
-            logger.debug("All formulas in workbook have been evaluated and replaced with results");
+            logger.debug("Formulas affected by AI commands have been recalculated");
 
             // 7. 保存修改后的Excel文件
+            // 只编码一次，输出文件、操作历史和版本共用同一份字节
             String outputFileName = "modified_" + file.getOriginalFilename();
             logger.debug("Saving modified workbook to: {}", outputFileName);
-            excelService.saveWorkbook(workbook, outputFileName);
+            byte[] workbookBytes = excelService.getWorkbookAsBytes(workbook);
+            Files.write(Path.of(outputFileName), workbookBytes);
 
             // 8. 生成文件ID（如果之前没有生成）
             String fileId = result.containsKey("fileId") ? (String) result.get("fileId") :
                            file.getOriginalFilename() + "_" + System.currentTimeMillis();
 
-            // 9. 记录操作历史
-            String parameters = "command=" + command + "; aiResponse=" + aiResponseContent;
-            operationHistoryService.recordOperationWithWorkbooks(fileId, "AI_PROCESSING", parameters, workbookBefore, workbook);
-            logger.debug("Operation history recorded for file ID: {}", fileId);
-
-            // 10. 创建新版本
-            versionService.createVersionFromWorkbook(fileId, workbook, "AI processing: " + command, "system", outputFileName);
-            logger.debug("Version created for file ID: {}", fileId);
+            // 9-10. 记录操作历史并创建新版本
+            // 交给异步写入队列，响应不等待内容入库；写入失败时整批回滚，由队列重试
+            // 任务键使重试跳过已写入的记录
+            String parameters = OperationHistoryService.truncateParameters(
+                "command=" + command + "; aiResponse=" + aiResponseContent);
+            String taskKey = UUID.randomUUID().toString();
+            writeBehindQueue.submit(fileId, "AI processing history and version", () -> {
+                operationHistoryService.recordOperationWithJournal(taskKey, fileId, "AI_PROCESSING", parameters,
+                    journal, commandResults, workbookBytes);
+                try {
+                    versionService.createVersionForTask(taskKey, fileId, workbookBytes, "AI processing: " + command,
+                        "system", outputFileName);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            logger.debug("Operation history and version queued for file ID: {}", fileId);
 
             // 11. 构建结果
             result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
@@ -168,6 +213,95 @@ public class AiExcelIntegrationService {
         return result;
     }
 
+    /**
+     * 在会话工作簿上执行AI命令
+     * 工作簿常驻会话，修改直接生效，不重新上传、不编码输出文件；
+     * 操作历史以会话ID为文件ID，只记录变更日志和命令列表，撤销和重做直接作用于会话工作簿。
+     * 调用方需持有会话锁。
+     */
+    public Map<String, Object> processWorkbookWithAI(String sessionId, Workbook workbook, String command) {
+        logger.info("Starting AI processing on session {} for command: {}", sessionId, command);
+
+        Map<String, Object> result = new HashMap<>();
+
+        try {
+            if (command == null || command.trim().isEmpty()) {
+                logger.error("Command is null or empty");
+                result.put("success", false);
+                result.put("error", "Command is required and cannot be empty");
+                return result;
+            }
+
+            String excelData = promptContextBuilder.build(workbook);
+            AiResponse aiResponse = aiService.generateResponse(buildCommandRequest(excelData, command));
+            String aiResponseContent = aiResponse.getChoices()[0].getMessage().getContent();
+
+            excelService.beginChangeJournal(workbook);
+            List<AiExcelCommandParser.CommandResult> commandResults;
+            WorkbookChangeJournal journal;
+            try {
+                commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
+            } finally {
+                journal = excelService.endChangeJournal(workbook);
+            }
+            excelService.evaluateAllFormulasInWorkbook(workbook);
+            logger.debug("AI commands executed on session {}, {} commands processed, {} cells journaled",
+                sessionId, commandResults.size(), journal.getCellCount());
+
+            String parameters = OperationHistoryService.truncateParameters(
+                "command=" + command + "; aiResponse=" + aiResponseContent);
+            String taskKey = UUID.randomUUID().toString();
+            writeBehindQueue.submit(sessionId, "AI processing history", () ->
+                operationHistoryService.recordOperationWithJournal(taskKey, sessionId, "AI_PROCESSING", parameters,
+                    journal, commandResults, null));
+
+            result.put("aiResponse", aiResponseContent);
+            result.put("command", command);
+            result.put("success", true);
+            result.put("commandResults", commandResults);
+            result.put("sessionId", sessionId);
+            result.put("fileId", sessionId);
+
+            logger.info("AI processing completed on session {} for command: {}", sessionId, command);
+        } catch (Exception e) {
+            logger.error("Error during AI processing on session {}: {}", sessionId, e.getMessage(), e);
+            result.put("success", false);
+            result.put("error", "Error occurred: " + e.getMessage());
+        }
+
+        return result;
+    }
+
+    /**
+     * 构建让AI返回Excel操作命令的请求
+     */
+    private AiRequest buildCommandRequest(String excelData, String command) {
+        AiRequest aiRequest = new AiRequest();
+        aiRequest.setMessages(Arrays.asList(
+            new AiRequest.Message("system",
+                "You are an Excel expert assistant. You can analyze Excel data and provide formulas, operations, or insights. " +
+                "The user will provide Excel data and a command. Respond with the appropriate Excel formula or operation steps. " +
+                "For formulas, include the actual formula syntax. For operations, provide step-by-step instructions. " +
+                "Always be precise and accurate. If the user wants to modify the Excel data, provide specific commands in this format: " +
+                "[SET_CELL:A1:New Value] to set cell A1 to 'New Value', " +
+                "[INSERT_ROW:3:value1,value2,value3] to insert a row at position 3 with these values, " +
+                "[INSERT_COLUMN:2:value1,value2,value3] to insert a column at position 2 with these values, " +
+                "[DELETE_ROW:5] to delete row 5, " +
+                "[DELETE_COLUMN:1] to delete column 1, " +
+                "[APPLY_FORMULA:A1:B1+C1] to apply the formula 'B1+C1' in cell A1, " +
+                "[SET_RANGE:A2:A100:value] to set every cell in A2:A100 to the same value, " +
+                "[FILL_DOWN:D2:D100:B2*C2] to fill the formula 'B2*C2' from D2 down to D100 (relative references shift per row, use $ for absolute references; [SET_RANGE:D2:D100:=B2*C2] is equivalent), " +
+                "[FILL_SERIES:A2:A100:1,1] to fill A2:A100 with a numeric series starting at 1 with step 1. " +
+                "Whenever the same value, formula or series applies to more than one cell, use one range command instead of repeating single-cell commands. " +
+                "Embed these commands directly in your response when appropriate."),
+            new AiRequest.Message("user",
+                "Here is the Excel data:\n\n" + excelData + "\n\n" +
+                "User command: " + command + "\n\n" +
+                "Please provide the appropriate Excel operations to fulfill this request using the command format mentioned in the system message.")
+        ));
+        return aiRequest;
+    }
+
     public Map<String, Object> generateExcelFormula(String excelContext, String goal) {
         logger.info("Generating Excel formula for goal: {}", goal);
 
@@ -243,12 +377,9 @@ public class AiExcelIntegrationService {
                 return result;
             }
 
-            // 加载Excel文件
+            // 按Token预算构建表格上下文（流式读取，不构建完整工作簿）
             logger.debug("Loading Excel file for analysis: {}", file.getOriginalFilename());
-            Workbook workbook = excelService.loadWorkbook(file);
-
-            // 获取Excel数据
-            String excelData = excelService.getExcelDataAsString(workbook);
+            String excelData = promptContextBuilder.build(file);
             logger.debug("Excel data extracted for analysis, length: {}", excelData.length());
 
             AiRequest aiRequest = new AiRequest();
@@ -291,11 +422,8 @@ public class AiExcelIntegrationService {
     public Map<String, Object> suggestChartForData(MultipartFile file) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 按Token预算构建表格上下文（流式读取，不构建完整工作簿）
+        String excelData = promptContextBuilder.build(file);
 
         AiRequest aiRequest = new AiRequest();
         aiRequest.setMessages(Arrays.asList(
@@ -318,22 +446,33 @@ public class AiExcelIntegrationService {
         return result;
     }
 
-    public Object[][] getExcelDataAsArray(MultipartFile file) throws IOException {
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 获取Excel数据为数组
-        return excelService.getExcelDataAsArray(workbook);
+    /**
+     * 流式输出第一个工作表的数据：{"success": true, "data": [[...], ...]}
+     * 游标在此打开（文件格式错误在返回响应体之前抛出），响应体逐行拉取并写出，写完后关闭游标。
+     */
+    public StreamingResponseBody streamExcelData(MultipartFile file) throws IOException {
+        ExcelRowCursor cursor = excelService.openRowCursor(file);
+        return out -> {
+            try (cursor; JsonGenerator generator = jsonStreamWriter.createGenerator(out)) {
+                generator.writeStartObject();
+                generator.writeBooleanField("success", true);
+                generator.writeFieldName("data");
+                if (cursor.nextSheet()) { // 获取第一个工作表
+                    jsonStreamWriter.writeRows(generator, cursor, ExcelJsonStreamWriter.HEADER_ROW_WIDTH, false);
+                } else {
+                    generator.writeStartArray();
+                    generator.writeEndArray();
+                }
+                generator.writeEndObject();
+            }
+        };
     }
 
     public Map<String, Object> createChartForData(MultipartFile file, String chartType, String targetColumn) throws IOException {
         Map<String, Object> result = new HashMap<>();
 
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+        // 按Token预算构建表格上下文（流式读取，不构建完整工作簿）
+        String excelData = promptContextBuilder.build(file);
 
         AiRequest aiRequest = new AiRequest();
         aiRequest.setMessages(Arrays.asList(
@@ -359,75 +498,190 @@ public class AiExcelIntegrationService {
         return result;
     }
 
-    public Map<String, Object> sortExcelData(MultipartFile file, String sortColumn, String sortOrder) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+    /**
+     * 在本地对第一个工作表排序，返回排序结果的一个分页窗口
+     * @param sortColumn 逗号分隔的排序列（表头文本或列字母）
+     * @param sortOrder 逗号分隔的排序方向，只给一个时用于所有列
+     * @param hasHeader 第一行是否为表头
+     */
+    public Map<String, Object> sortExcelData(MultipartFile file, String sortColumn, String sortOrder,
+                                             boolean hasHeader, int offset, int limit) throws IOException {
+        List<SortKey> keys = SortKey.parse(sortColumn, sortOrder);
+        try (SortedRows rows = sortFirstSheet(file, keys, hasHeader)) {
+            String[] headers = rows.getHeaders();
+            List<String[]> data = new ArrayList<>();
+            List<Integer> sourceRows = new ArrayList<>();
+            int position = 0;
+            while (data.size() < limit && rows.next()) {
+                if (position++ < offset) {
+                    continue;
+                }
+                Object[] values = rows.getValues();
+                String[] texts = new String[headers.length];
+                for (int i = 0; i < texts.length; i++) {
+                    texts[i] = ExcelRowCursor.formatValue(i < values.length ? values[i] : null);
+                }
+                data.add(texts);
+                sourceRows.add(rows.getRowNumber());
+            }
 
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+            Map<String, Object> result = new HashMap<>();
+            result.put("sheetName", rows.getSheetName());
+            result.put("headers", headers);
+            result.put("data", data);
+            result.put("sourceRows", sourceRows);
+            result.put("totalRows", rows.getRowCount());
+            result.put("rowOffset", offset);
+            result.put("rowCount", data.size());
+            result.put("sortKeys", keys.stream().map(SortKey::toMap).collect(Collectors.toList()));
+            result.put("externalSort", rows.isExternal());
+            result.put("success", true);
+            return result;
+        }
+    }
 
-        // 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * 在本地对第一个工作表排序，以XLSX流式输出全部排序结果
+     * 排序（及参数校验）在返回前完成，写出在响应线程中进行，写完后删除外部排序的临时文件。
+     */
+    public StreamingResponseBody streamSortedWorkbook(MultipartFile file, String sortColumn, String sortOrder,
+                                                      boolean hasHeader) throws IOException {
+        SortedRows rows = sortFirstSheet(file, SortKey.parse(sortColumn, sortOrder), hasHeader);
+        return out -> {
+            try (rows) {
+                excelSorter.writeWorkbook(rows, out);
+            }
+        };
+    }
 
-        AiRequest aiRequest = new AiRequest();
-        aiRequest.setMessages(Arrays.asList(
-            new AiRequest.Message("system",
-                "You are an Excel sorting expert. Provide exact instructions for sorting data " +
-                "in the specified column with the given sort order. Include formulas or operations " +
-                "to apply the sorting in Excel."),
-            new AiRequest.Message("user",
-                "Here is the Excel data:\n\n" + excelData + "\n\n" +
-                "Sort column: " + sortColumn + "\n" +
-                "Sort order: " + sortOrder + "\n\n" +
-                "Please provide step-by-step instructions for sorting this data in Excel, " +
-                "including any Excel formulas or operations needed to accomplish this.")
-        ));
+    private SortedRows sortFirstSheet(MultipartFile file, List<SortKey> keys, boolean hasHeader) throws IOException {
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            if (!cursor.nextSheet()) {
+                throw new IllegalArgumentException("Workbook has no sheets");
+            }
+            return excelSorter.sort(cursor, hasHeader, keys);
+        }
+    }
 
-        AiResponse aiResponse = aiService.generateResponse(aiRequest);
+    /**
+     * 在本地筛选一个工作表，返回满足条件的行的一个分页窗口
+     * 数据来自上传的文件或工作簿会话（二选一）；会话中的数据帧和单列比较的位图被缓存，重复筛选时复用。
+     * @param sheet 工作表索引
+     * @param hasHeader 第一行是否为表头
+     */
+    public Map<String, Object> filterExcelData(MultipartFile file, String sessionId, FilterExpression filter,
+                                               int sheet, boolean hasHeader, int offset, int limit) throws IOException {
+        long start = System.nanoTime();
+        FilterResult filtered = filterSheet(file, sessionId, filter, sheet, hasHeader);
+        SheetFrame frame = filtered.getFrame();
+        BitSet rows = filtered.getRows();
+
+        List<String[]> data = new ArrayList<>();
+        List<Integer> sourceRows = new ArrayList<>();
+        int position = 0;
+        for (int row = rows.nextSetBit(0); row >= 0 && data.size() < limit; row = rows.nextSetBit(row + 1)) {
+            if (position++ < offset) {
+                continue;
+            }
+            String[] texts = new String[frame.getColumnCount()];
+            for (int i = 0; i < texts.length; i++) {
+                texts[i] = frame.getColumn(i).getText(row);
+            }
+            data.add(texts);
+            sourceRows.add(frame.getRowNumber(row));
+        }
 
-        result.put("sortInstructions", aiResponse.getChoices()[0].getMessage().getContent());
-        result.put("sortColumn", sortColumn);
-        result.put("sortOrder", sortOrder);
+        Map<String, Object> result = new HashMap<>();
+        result.put("sheetName", frame.getSheetName());
+        result.put("headers", frame.getHeaders());
+        result.put("data", data);
+        result.put("sourceRows", sourceRows);
+        result.put("matchedRows", filtered.getMatchedCount());
+        result.put("totalRows", frame.getRowCount());
+        result.put("rowOffset", offset);
+        result.put("rowCount", data.size());
+        result.put("filter", filter.describe());
+        result.put("cachedBitmaps", filtered.getCacheHits());
+        result.put("elapsedMs", (System.nanoTime() - start) / 1_000_000);
         result.put("success", true);
-
         return result;
     }
 
-    public Map<String, Object> filterExcelData(MultipartFile file, String filterColumn, String filterCondition, String filterValue) throws IOException {
-        Map<String, Object> result = new HashMap<>();
-
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * 在本地筛选一个工作表，以XLSX流式输出全部满足条件的行
+     * 筛选（及参数校验）在返回前完成，写出时只读取只读的数据帧，不持有会话锁。
+     */
+    public StreamingResponseBody streamFilteredWorkbook(MultipartFile file, String sessionId, FilterExpression filter,
+                                                        int sheet, boolean hasHeader) throws IOException {
+        FilterResult filtered = filterSheet(file, sessionId, filter, sheet, hasHeader);
+        SheetFrame frame = filtered.getFrame();
+        BitSet rows = filtered.getRows();
+        return out -> {
+            int[] next = {rows.nextSetBit(0)};
+            ValueWorkbookWriter.write(frame.getSheetName(), hasHeader ? frame.getHeaders() : null, () -> {
+                if (next[0] < 0) {
+                    return null;
+                }
+                Object[] values = frame.getRow(next[0]);
+                next[0] = rows.nextSetBit(next[0] + 1);
+                return values;
+            }, out);
+        };
+    }
 
-        AiRequest aiRequest = new AiRequest();
-        aiRequest.setMessages(Arrays.asList(
-            new AiRequest.Message("system",
-                "You are an Excel filtering expert. Provide exact instructions for filtering data " +
-                "based on the specified column, condition, and value. Include formulas or operations " +
-                "to apply the filter in Excel."),
-            new AiRequest.Message("user",
-                "Here is the Excel data:\n\n" + excelData + "\n\n" +
-                "Filter column: " + filterColumn + "\n" +
-                "Filter condition: " + filterCondition + "\n" +
-                "Filter value: " + filterValue + "\n\n" +
-                "Please provide step-by-step instructions for filtering this data in Excel, " +
-                "including any Excel formulas or operations needed to accomplish this.")
-        ));
+    private FilterResult filterSheet(MultipartFile file, String sessionId, FilterExpression filter,
+                                     int sheet, boolean hasHeader) throws IOException {
+        if (sessionId != null) {
+            return workbookSessionStore.readWorkbook(sessionId, (session, workbook) -> {
+                if (sheet < 0 || sheet >= workbook.getNumberOfSheets()) {
+                    throw new IllegalArgumentException("Sheet index out of range: " + sheet);
+                }
+                FilterContext context = session.getDerivedData("filter:" + sheet + ":" + hasHeader, wb -> {
+                    SheetRowIndex rowIndex = session.getRowIndex(sheet);
+                    int[] rowNumbers = rowIndex.rowNumbersInWindow(0, rowIndex.getTotalRows());
+                    try (ExcelRowCursor cursor = excelService.openRowCursor(wb, sheet, rowNumbers)) {
+                        cursor.nextSheet();
+                        return FilterContext.cached(SheetFrame.read(cursor, hasHeader));
+                    }
+                });
+                int cacheHits = context.getCacheHits();
+                BitSet rows = context.evaluate(filter);
+                return new FilterResult(context.getFrame(), rows, filter, context.getCacheHits() - cacheHits);
+            });
+        }
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            for (int i = 0; i <= sheet; i++) {
+                if (!cursor.nextSheet()) {
+                    throw new IllegalArgumentException("Sheet index out of range: " + sheet);
+                }
+            }
+            FilterContext context = FilterContext.uncached(SheetFrame.read(cursor, hasHeader));
+            return new FilterResult(context.getFrame(), context.evaluate(filter), filter, 0);
+        }
+    }
 
-        AiResponse aiResponse = aiService.generateResponse(aiRequest);
+    public String chatWithAI(String userMessage) {
+        AiResponse aiResponse = aiService.generateResponse(buildChatRequest(userMessage));
+        return aiResponse.getChoices()[0].getMessage().getContent();
+    }
 
-        result.put("filterInstructions", aiResponse.getChoices()[0].getMessage().getContent());
-        result.put("filterColumn", filterColumn);
-        result.put("filterCondition", filterCondition);
-        result.put("filterValue", filterValue);
-        result.put("success", true);
+    /**
+     * 异步聊天：请求在HTTP传输层的I/O线程上等待，调用线程立即返回
+     */
+    public CompletableFuture<String> chatWithAIAsync(String userMessage) {
+        return aiService.generateResponseAsync(buildChatRequest(userMessage))
+            .thenApply(aiResponse -> aiResponse.getChoices()[0].getMessage().getContent());
+    }
 
-        return result;
+    /**
+     * 流式聊天：模型每生成一段内容就通过onDelta转发，返回完整回复
+     */
+    public String chatWithAIStreaming(String userMessage, Consumer<String> onDelta) {
+        AiResponse aiResponse = aiService.generateStreamingResponse(buildChatRequest(userMessage), onDelta);
+        return aiResponse.getChoices()[0].getMessage().getContent();
     }
 
-    public String chatWithAI(String userMessage) {
+    private AiRequest buildChatRequest(String userMessage) {
         // 检查用户消息是否涉及表格操作
         String[] tableOperationKeywords = {"修改", "设置", "插入", "添加", "删除", "创建", "更新", "替换", "填充", "复制", "粘贴", "移动", "应用公式", "计算", "求和", "平均", "筛选", "排序", "格式化", "cell", "row", "column", "A1", "B2", "C3", "formula"};
 
@@ -455,6 +709,10 @@ public class AiExcelIntegrationService {
                     "[DELETE_ROW:5] - To delete row 5\n" +
                     "[DELETE_COLUMN:1] - To delete column 1\n" +
                     "[APPLY_FORMULA:A1:B1+C1] - To apply the formula 'B1+C1' in cell A1\n" +
+                    "[SET_RANGE:A2:A100:value] - To set every cell in A2:A100 to the same value\n" +
+                    "[FILL_DOWN:D2:D100:B2*C2] - To fill the formula 'B2*C2' from D2 down to D100, shifting relative references per row\n" +
+                    "[FILL_SERIES:A2:A100:1,1] - To fill A2:A100 with a numeric series starting at 1 with step 1\n" +
+                    "Prefer one range command over many single-cell commands when filling more than one cell.\n" +
                     "Embed these commands directly in your response when appropriate.";
         }
 
@@ -463,55 +721,99 @@ public class AiExcelIntegrationService {
             new AiRequest.Message("system", systemMessage),
             new AiRequest.Message("user", userMessage)
         ));
-
-        AiResponse aiResponse = aiService.generateResponse(aiRequest);
-        return aiResponse.getChoices()[0].getMessage().getContent();
+        // 聊天期望每次得到新的回复，默认不走响应缓存
+        aiRequest.setCacheable(cacheChatReplies);
+        return aiRequest;
     }
 
     public Map<String, Object> performRFMAnalysis(MultipartFile file) throws IOException {
         return customerAnalysisService.performRFMAnalysis(file);
     }
 
+    public Map<String, Object> performRFMAnalysis(Workbook workbook) {
+        return customerAnalysisService.performRFMAnalysis(workbook);
+    }
+
     public Map<String, Object> calculateCustomerLifetimeValue(MultipartFile file) throws IOException {
         return customerAnalysisService.calculateCustomerLifetimeValue(file);
     }
 
+    public Map<String, Object> calculateCustomerLifetimeValue(Workbook workbook) {
+        return customerAnalysisService.calculateCustomerLifetimeValue(workbook);
+    }
+
     public Map<String, Object> segmentCustomers(MultipartFile file) throws IOException {
         return customerAnalysisService.segmentCustomers(file);
     }
 
+    public Map<String, Object> segmentCustomers(Workbook workbook) {
+        return customerAnalysisService.segmentCustomers(workbook);
+    }
+
     public Map<String, Object> predictChurnRisk(MultipartFile file) throws IOException {
         return customerAnalysisService.predictChurnRisk(file);
     }
 
+    public Map<String, Object> predictChurnRisk(Workbook workbook) {
+        return customerAnalysisService.predictChurnRisk(workbook);
+    }
+
     public Map<String, Object> calculateCACvsCLV(MultipartFile file) throws IOException {
         return customerAnalysisService.calculateCACvsCLV(file);
     }
 
+    public Map<String, Object> calculateCACvsCLV(Workbook workbook) {
+        return customerAnalysisService.calculateCACvsCLV(workbook);
+    }
+
     public Map<String, Object> analyzeCustomerCohorts(MultipartFile file) throws IOException {
         return customerAnalysisService.analyzeCustomerCohorts(file);
     }
 
+    public Map<String, Object> analyzeCustomerCohorts(Workbook workbook) {
+        return customerAnalysisService.analyzeCustomerCohorts(workbook);
+    }
+
     public Map<String, Object> analyzeFinancialStatements(MultipartFile file, String analysisType) throws IOException {
         return financialAnalysisService.analyzeFinancialStatements(file, analysisType);
     }
 
+    public Map<String, Object> analyzeFinancialStatements(Workbook workbook, String analysisType) {
+        return financialAnalysisService.analyzeFinancialStatements(workbook, analysisType);
+    }
+
     public Map<String, Object> calculateFinancialRatios(MultipartFile file) throws IOException {
         return financialAnalysisService.calculateFinancialRatios(file);
     }
 
+    public Map<String, Object> calculateFinancialRatios(Workbook workbook) {
+        return financialAnalysisService.calculateFinancialRatios(workbook);
+    }
+
     public Map<String, Object> analyzeProfitability(MultipartFile file) throws IOException {
         return financialAnalysisService.analyzeProfitability(file);
     }
 
+    public Map<String, Object> analyzeProfitability(Workbook workbook) {
+        return financialAnalysisService.analyzeProfitability(workbook);
+    }
+
     public Map<String, Object> analyzeCashFlow(MultipartFile file) throws IOException {
         return financialAnalysisService.analyzeCashFlow(file);
     }
 
+    public Map<String, Object> analyzeCashFlow(Workbook workbook) {
+        return financialAnalysisService.analyzeCashFlow(workbook);
+    }
+
     public Map<String, Object> compareBudgetVsActual(MultipartFile file) throws IOException {
         return financialAnalysisService.compareBudgetVsActual(file);
     }
 
+    public Map<String, Object> compareBudgetVsActual(Workbook workbook) {
+        return financialAnalysisService.compareBudgetVsActual(workbook);
+    }
+
     /**
      * 应用AI命令修改Excel并返回工作簿对象
      */
@@ -536,30 +838,12 @@ public class AiExcelIntegrationService {
             Workbook workbook = excelService.loadWorkbook(file);
             logger.debug("Excel file loaded successfully");
 
-            // 3. 获取Excel数据
-            String excelData = excelService.getExcelDataAsString(workbook);
+            // 3. 在Token预算内获取Excel数据概要
+            String excelData = promptContextBuilder.build(workbook);
             logger.debug("Excel data extracted, length: {}", excelData.length());
 
             // 4. 构建AI请求
-            AiRequest aiRequest = new AiRequest();
-            aiRequest.setMessages(Arrays.asList(
-                new AiRequest.Message("system",
-                    "You are an Excel expert assistant. You can analyze Excel data and provide formulas, operations, or insights. " +
-                    "The user will provide Excel data and a command. Respond with the appropriate Excel formula or operation steps. " +
-                    "For formulas, include the actual formula syntax. For operations, provide step-by-step instructions. " +
-                    "Always be precise and accurate. If the user wants to modify the Excel data, provide specific commands in this format: " +
-                    "[SET_CELL:A1:New Value] to set cell A1 to 'New Value', " +
-                    "[INSERT_ROW:3:value1,value2,value3] to insert a row at position 3 with these values, " +
-                    "[INSERT_COLUMN:2:value1,value2,value3] to insert a column at position 2 with these values, " +
-                    "[DELETE_ROW:5] to delete row 5, " +
-                    "[DELETE_COLUMN:1] to delete column 1, " +
-                    "[APPLY_FORMULA:A1:B1+C1] to apply the formula 'B1+C1' in cell A1. " +
-                    "Embed these commands directly in your response when appropriate."),
-                new AiRequest.Message("user",
-                    "Here is the Excel data:\n\n" + excelData + "\n\n" +
-                    "User command: " + command + "\n\n" +
-                    "Please provide the appropriate Excel operations to fulfill this request using the command format mentioned in the system message.")
-            ));
+            AiRequest aiRequest = buildCommandRequest(excelData, command);
 
             logger.debug("Sending request to AI service");
 
@@ -572,9 +856,9 @@ public class AiExcelIntegrationService {
             List<AiExcelCommandParser.CommandResult> commandResults = aiExcelCommandParser.parseAndExecuteCommands(workbook, aiResponseContent);
             logger.debug("AI commands executed, {} commands processed", commandResults.size());
 
-            // 6.5. 计算工作簿中所有公式，将结果替换公式
+            // 6.5. 重新计算受本次命令影响的公式，并将结果写回单元格
             excelService.evaluateAllFormulasInWorkbook(workbook);
-            logger.debug("All formulas in workbook have been evaluated and replaced with results");
+            logger.debug("Formulas affected by AI commands have been recalculated");
 
             logger.info("Excel workbook with AI changes generated successfully for command: {}", command);
 
@@ -603,20 +887,7 @@ public class AiExcelIntegrationService {
      * @return 表头数组
      */
     public String[] getExcelHeaders(MultipartFile file) throws IOException {
-        // 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
-
-        // 通过ExcelService获取表头
-        return excelService.getExcelHeaders(workbook);
-    }
-
-    /**
-     * 克隆工作簿
-     * @param original 原始工作簿
-     * @return 克隆的工作簿
-     */
-    private Workbook cloneWorkbook(Workbook original) throws IOException {
-        byte[] workbookBytes = excelService.getWorkbookAsBytes(original);
-        return excelService.loadWorkbook(new java.io.ByteArrayInputStream(workbookBytes));
+        // 通过ExcelService流式读取表头，只解析第一行
+        return excelService.getExcelHeaders(file);
     }
 }
\ No newline at end of file
@@ -3,7 +3,11 @@ package com.example.aiexcel.service;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.dto.AiResponse;
 import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.excel.ExcelRowCursor;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.frame.ColumnStats;
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+import com.example.aiexcel.service.excel.prompt.PromptContextBuilder;
 import org.apache.poi.ss.usermodel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -11,6 +15,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -26,6 +31,9 @@ public class AiSuggestionService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private PromptContextBuilder promptContextBuilder;
+
     private static final Logger logger = LoggerFactory.getLogger(AiSuggestionService.class);
 
     /**
@@ -45,9 +53,8 @@ public class AiSuggestionService {
                 return result;
             }
 
-            // 加载Excel数据
-            org.apache.poi.ss.usermodel.Workbook workbook = excelService.loadWorkbook(file);
-            String excelData = excelService.getExcelDataAsString(workbook);
+            // 按Token预算构建表格上下文（流式读取，不构建完整工作簿）
+            String excelData = promptContextBuilder.build(file);
 
             // 构建AI请求
             List<AiRequest.Message> messages = new ArrayList<>();
@@ -115,10 +122,11 @@ public class AiSuggestionService {
                 return result;
             }
 
-            org.apache.poi.ss.usermodel.Workbook workbook = excelService.loadWorkbook(file);
-            Sheet sheet = workbook.getSheetAt(0);
-
-            Map<String, DataTypeStats> dataTypeAnalysis = analyzeSheetDataTypes(sheet);
+            // 流式读取第一个工作表为列式数据帧，不构建完整工作簿
+            DataTypeStats formulaCells = new DataTypeStats();
+            SheetFrame frame = readFirstSheetFrame(file, formulaCells);
+            List<ColumnStats> columnStats = frame.stats();
+            Map<String, DataTypeStats> dataTypeAnalysis = analyzeSheetDataTypes(columnStats, formulaCells);
 
             // 构建AI请求以获取针对特定数据类型的建议
             StringBuilder analysisSummary = new StringBuilder();
@@ -126,6 +134,10 @@ public class AiSuggestionService {
                 analysisSummary.append(entry.getKey()).append(": ")
                               .append(entry.getValue().toString()).append("\n");
             }
+            analysisSummary.append("\nColumns:\n");
+            for (ColumnStats stats : columnStats) {
+                analysisSummary.append("- ").append(stats.toMap()).append("\n");
+            }
 
             List<AiRequest.Message> messages = new ArrayList<>();
             messages.add(new AiRequest.Message("system",
@@ -151,6 +163,7 @@ public class AiSuggestionService {
             result.put("success", true);
             result.put("data", suggestions);
             result.put("dataTypeAnalysis", dataTypeAnalysis);
+            result.put("columnProfiles", columnStats.stream().map(ColumnStats::toMap).toList());
             result.put("rawResponse", aiResponseContent);
 
             logger.info("Successfully analyzed data types and provided suggestions for file: {}", file.getOriginalFilename());
@@ -339,44 +352,50 @@ public class AiSuggestionService {
         return parsed;
     }
 
+    /**
+     * 读取第一个工作表为数据帧，首行作为表头；同时统计公式单元格数
+     * @param formulaCells 累加公式单元格数
+     */
+    private SheetFrame readFirstSheetFrame(MultipartFile file, DataTypeStats formulaCells) throws IOException {
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            if (!cursor.nextSheet()) {
+                throw new IllegalArgumentException("Workbook contains no sheets");
+            }
+            SheetFrame.Builder builder = new SheetFrame.Builder(cursor.getSheetName());
+            boolean headerPending = true;
+            while (cursor.nextRow()) {
+                formulaCells.add(cursor.getRowFormulaCount());
+                if (headerPending) {
+                    builder.setHeader(cursor.getRowIndex(), cursor.getRowValues());
+                    headerPending = false;
+                } else {
+                    builder.addRow(cursor.getRowIndex(), cursor.getRowValues());
+                }
+            }
+            return builder.build();
+        }
+    }
+
     /**
      * 分析工作表中的数据类型
+     * 汇总数据帧各列的统计；公式单元格按其计算结果的类型计入，另在formula中单独计数，
+     * 空值按数据区域（数据行数 × 列数）内未填写的单元格计。
      */
-    private Map<String, DataTypeStats> analyzeSheetDataTypes(Sheet sheet) {
+    private Map<String, DataTypeStats> analyzeSheetDataTypes(List<ColumnStats> columnStats, DataTypeStats formulaCells) {
         Map<String, DataTypeStats> typeStats = new HashMap<>();
         typeStats.put("text", new DataTypeStats());
         typeStats.put("number", new DataTypeStats());
         typeStats.put("date", new DataTypeStats());
         typeStats.put("boolean", new DataTypeStats());
-        typeStats.put("formula", new DataTypeStats());
+        typeStats.put("formula", formulaCells);
         typeStats.put("empty", new DataTypeStats());
 
-        for (Row row : sheet) {
-            for (Cell cell : row) {
-                switch (cell.getCellType()) {
-                    case STRING:
-                        typeStats.get("text").increment();
-                        break;
-                    case NUMERIC:
-                        if (DateUtil.isCellDateFormatted(cell)) {
-                            typeStats.get("date").increment();
-                        } else {
-                            typeStats.get("number").increment();
-                        }
-                        break;
-                    case BOOLEAN:
-                        typeStats.get("boolean").increment();
-                        break;
-                    case FORMULA:
-                        typeStats.get("formula").increment();
-                        break;
-                    case BLANK:
-                        typeStats.get("empty").increment();
-                        break;
-                    default:
-                        break;
-                }
-            }
+        for (ColumnStats stats : columnStats) {
+            typeStats.get("text").add(stats.getTextCount());
+            typeStats.get("number").add(stats.getNumberCount());
+            typeStats.get("date").add(stats.getDateCount());
+            typeStats.get("boolean").add(stats.getBooleanCount());
+            typeStats.get("empty").add(stats.getNullCount());
         }
 
         return typeStats;
@@ -439,6 +458,10 @@ public class AiSuggestionService {
             count++;
         }
 
+        public void add(int n) {
+            count += n;
+        }
+
         public void incrementEmpty() {
             emptyCount++;
         }
@@ -28,8 +28,21 @@ public class ExcelFormatService {
      * 格式化单个单元格
      */
     public boolean formatCell(MultipartFile file, String sheetName, int rowIndex, int colIndex, FormatOptions formatOptions) {
+        Workbook workbook;
+        try {
+            workbook = excelService.loadWorkbook(file);
+        } catch (Exception e) {
+            logger.error("Error loading workbook {}", file.getOriginalFilename(), e);
+            return false;
+        }
+        return formatCell(workbook, sheetName, rowIndex, colIndex, formatOptions);
+    }
+
+    /**
+     * 格式化单个单元格（已加载的工作簿，修改保留在该工作簿中）
+     */
+    public boolean formatCell(Workbook workbook, String sheetName, int rowIndex, int colIndex, FormatOptions formatOptions) {
         try {
-            Workbook workbook = excelService.loadWorkbook(file);
             Sheet sheet = workbook.getSheet(sheetName);
             if (sheet == null) {
                 logger.error("Sheet {} not found", sheetName);
@@ -68,8 +81,22 @@ public class ExcelFormatService {
      */
     public boolean formatCellRange(MultipartFile file, String sheetName, int startRow, int startCol, 
                                   int endRow, int endCol, FormatOptions formatOptions) {
+        Workbook workbook;
+        try {
+            workbook = excelService.loadWorkbook(file);
+        } catch (Exception e) {
+            logger.error("Error loading workbook {}", file.getOriginalFilename(), e);
+            return false;
+        }
+        return formatCellRange(workbook, sheetName, startRow, startCol, endRow, endCol, formatOptions);
+    }
+
+    /**
+     * 格式化单元格范围（已加载的工作簿，修改保留在该工作簿中）
+     */
+    public boolean formatCellRange(Workbook workbook, String sheetName, int startRow, int startCol, 
+                                  int endRow, int endCol, FormatOptions formatOptions) {
         try {
-            Workbook workbook = excelService.loadWorkbook(file);
             Sheet sheet = workbook.getSheet(sheetName);
             if (sheet == null) {
                 logger.error("Sheet {} not found", sheetName);
@@ -108,8 +135,21 @@ public class ExcelFormatService {
      * 格式化整行
      */
     public boolean formatRow(MultipartFile file, String sheetName, int rowIndex, FormatOptions formatOptions) {
+        Workbook workbook;
+        try {
+            workbook = excelService.loadWorkbook(file);
+        } catch (Exception e) {
+            logger.error("Error loading workbook {}", file.getOriginalFilename(), e);
+            return false;
+        }
+        return formatRow(workbook, sheetName, rowIndex, formatOptions);
+    }
+
+    /**
+     * 格式化整行（已加载的工作簿，修改保留在该工作簿中）
+     */
+    public boolean formatRow(Workbook workbook, String sheetName, int rowIndex, FormatOptions formatOptions) {
         try {
-            Workbook workbook = excelService.loadWorkbook(file);
             Sheet sheet = workbook.getSheet(sheetName);
             if (sheet == null) {
                 logger.error("Sheet {} not found", sheetName);
@@ -150,8 +190,21 @@ public class ExcelFormatService {
      * 格式化整列
      */
     public boolean formatColumn(MultipartFile file, String sheetName, int colIndex, FormatOptions formatOptions) {
+        Workbook workbook;
+        try {
+            workbook = excelService.loadWorkbook(file);
+        } catch (Exception e) {
+            logger.error("Error loading workbook {}", file.getOriginalFilename(), e);
+            return false;
+        }
+        return formatColumn(workbook, sheetName, colIndex, formatOptions);
+    }
+
+    /**
+     * 格式化整列（已加载的工作簿，修改保留在该工作簿中）
+     */
+    public boolean formatColumn(Workbook workbook, String sheetName, int colIndex, FormatOptions formatOptions) {
         try {
-            Workbook workbook = excelService.loadWorkbook(file);
             Sheet sheet = workbook.getSheet(sheetName);
             if (sheet == null) {
                 logger.error("Sheet {} not found", sheetName);
@@ -194,8 +247,22 @@ public class ExcelFormatService {
      */
     public boolean mergeAndFormatCells(MultipartFile file, String sheetName, int startRow, int startCol, 
                                       int endRow, int endCol, FormatOptions formatOptions) {
+        Workbook workbook;
+        try {
+            workbook = excelService.loadWorkbook(file);
+        } catch (Exception e) {
+            logger.error("Error loading workbook {}", file.getOriginalFilename(), e);
+            return false;
+        }
+        return mergeAndFormatCells(workbook, sheetName, startRow, startCol, endRow, endCol, formatOptions);
+    }
+
+    /**
+     * 合并单元格并应用格式（已加载的工作簿，修改保留在该工作簿中）
+     */
+    public boolean mergeAndFormatCells(Workbook workbook, String sheetName, int startRow, int startCol, 
+                                      int endRow, int endCol, FormatOptions formatOptions) {
         try {
-            Workbook workbook = excelService.loadWorkbook(file);
             Sheet sheet = workbook.getSheet(sheetName);
             if (sheet == null) {
                 logger.error("Sheet {} not found", sheetName);
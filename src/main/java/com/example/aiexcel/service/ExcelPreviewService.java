@@ -1,14 +1,23 @@
 package com.example.aiexcel.service;
 
+import com.example.aiexcel.service.excel.ExcelJsonStreamWriter;
+import com.example.aiexcel.service.excel.ExcelRowCursor;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.SheetRowIndex;
+import com.example.aiexcel.service.excel.WorkbookEvaluationContext;
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+import com.example.aiexcel.service.excel.session.WorkbookSession;
+import com.fasterxml.jackson.core.JsonGenerator;
 import org.apache.poi.ss.usermodel.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 
 /**
@@ -21,119 +30,280 @@ public class ExcelPreviewService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private ExcelJsonStreamWriter jsonStreamWriter;
+
     private static final Logger logger = LoggerFactory.getLogger(ExcelPreviewService.class);
 
     /**
-     * 获取Excel文件的预览数据
+     * 流式输出Excel文件的预览数据
+     * 先流式遍历一遍第一个工作表得到总行数、最大列数和表头（文件格式错误在此时抛出），
+     * 返回的响应体再遍历一遍，逐行写出补齐到最大列数的数据，不在内存中构建整个工作表。
      * @param file Excel文件
-     * @return 预览数据
+     * @return 写出预览JSON的响应体
      */
-    public Map<String, Object> getExcelPreviewData(MultipartFile file) throws IOException {
+    public StreamingResponseBody streamExcelPreviewData(MultipartFile file) throws IOException {
         logger.info("Getting Excel preview data for file: {}", file.getOriginalFilename());
 
-        // 加载工作簿
-        Workbook workbook = excelService.loadWorkbook(file);
-        Sheet sheet = workbook.getSheetAt(0); // 默认获取第一个工作表
+        PreviewShape shape;
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            shape = scanPreviewShape(cursor);
+        }
+        return out -> {
+            try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+                writePreviewData(shape, out, generator -> {
+                    if (cursor.nextSheet()) {
+                        jsonStreamWriter.writeRows(generator, cursor, shape.maxCols, true);
+                    } else {
+                        generator.writeStartArray();
+                        generator.writeEndArray();
+                    }
+                });
+            }
+        };
+    }
 
-        // 获取数据
-        Object[][] data = getSheetData(sheet);
-        String[] headers = getHeaders(sheet);
+    /**
+     * 复制会话工作簿的预览数据，返回写出预览JSON的响应体
+     * 需在会话锁内调用：第一个工作表复制为只读的列式数据帧（缓存在会话中，工作簿未修改期间复用），
+     * 总行数和最大列数取自行索引；返回的响应体只读取数据帧，写出时不持有会话锁，不阻塞其他请求。
+     */
+    public StreamingResponseBody snapshotExcelPreviewData(WorkbookSession session, Workbook workbook) throws IOException {
+        SheetRowIndex index = session.getRowIndex(0);
+        SheetFrame frame = session.getDerivedData("preview:0", wb -> {
+            try (ExcelRowCursor cursor = excelService.openRowCursor(wb, 0,
+                    index.rowNumbersInWindow(0, index.getTotalRows()))) {
+                cursor.nextSheet();
+                return SheetFrame.read(cursor, false);
+            }
+        });
+        // 表头按第0行原有的宽度，不取数据帧补齐后的宽度
+        Object[] headerRow = readRows(workbook, 0, index.rowNumbersInWindow(0, 1)).get(0);
+        PreviewShape shape = new PreviewShape(index.getSheetName(), index.getTotalRows(), index.getTotalColumns(),
+            toHeaders(headerRow));
+        return out -> writePreviewData(shape, out,
+            generator -> jsonStreamWriter.writeRows(generator, frame, shape.maxCols, true));
+    }
 
-        // 获取数据统计信息
-        int totalRows = data.length;
-        int totalColumns = headers.length;
-        String sheetName = sheet.getSheetName();
+    /**
+     * 遍历第一个工作表，统计预览所需的尺寸和表头
+     */
+    private PreviewShape scanPreviewShape(ExcelRowCursor cursor) throws IOException {
+        if (!cursor.nextSheet()) { // 默认获取第一个工作表
+            return new PreviewShape("", 0, 0, new String[0]);
+        }
+        int totalRows = 0;
+        int maxCols = 0;
+        Object[] headerRow = null;
+        while (cursor.nextRow()) {
+            Object[] values = cursor.getRowValues();
+            if (cursor.getRowIndex() == 0) {
+                headerRow = values;
+            }
+            totalRows = cursor.getRowIndex() + 1;
+            maxCols = Math.max(maxCols, values.length);
+        }
+        return new PreviewShape(cursor.getSheetName(), totalRows, maxCols, toHeaders(headerRow));
+    }
 
-        // 构建响应
-        Map<String, Object> response = new HashMap<>();
-        response.put("data", data);
-        response.put("headers", headers);
-        response.put("rowCount", totalRows);
-        response.put("columnCount", totalColumns);
-        response.put("sheetName", sheetName);
-        response.put("success", true);
+    private void writePreviewData(PreviewShape shape, OutputStream out, RowsWriter rows) throws IOException {
+        try (JsonGenerator generator = jsonStreamWriter.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeBooleanField("success", true);
+            generator.writeStringField("sheetName", shape.sheetName);
+            generator.writeNumberField("rowCount", shape.totalRows);
+            generator.writeNumberField("columnCount", shape.headers.length);
+            generator.writeArrayFieldStart("headers");
+            for (String header : shape.headers) {
+                generator.writeString(header);
+            }
+            generator.writeEndArray();
+            generator.writeFieldName("data");
+            rows.write(generator);
+            generator.writeEndObject();
+        }
 
-        logger.info("Successfully retrieved preview data for sheet: {}, rows: {}, cols: {}", 
-                   sheetName, totalRows, totalColumns);
+        logger.info("Successfully streamed preview data for sheet: {}, rows: {}, cols: {}",
+                   shape.sheetName, shape.totalRows, shape.headers.length);
+    }
 
-        return response;
+    /**
+     * 写出预览的data数组
+     */
+    @FunctionalInterface
+    private interface RowsWriter {
+        void write(JsonGenerator generator) throws IOException;
     }
 
     /**
-     * 获取工作表数据
+     * 预览的工作表尺寸和表头，在写出数据前确定
      */
-    private Object[][] getSheetData(Sheet sheet) {
-        if (sheet == null) {
-            return new Object[0][0];
+    private static final class PreviewShape {
+        final String sheetName;
+        final int totalRows;
+        final int maxCols;
+        final String[] headers;
+
+        PreviewShape(String sheetName, int totalRows, int maxCols, String[] headers) {
+            this.sheetName = sheetName;
+            this.totalRows = totalRows;
+            this.maxCols = maxCols;
+            this.headers = headers;
         }
+    }
 
-        int lastRowNum = sheet.getLastRowNum();
-        if (lastRowNum < 0) {
-            return new Object[0][0];
+    /**
+     * 获取上传文件中某个工作表的窗口预览数据
+     * 单次流式遍历该工作表：只保留窗口内的行，同时统计总行数和总列数。
+     * @param sheetIndex 工作表索引（从0开始）
+     * @param rowOffset 窗口起始行（从0开始）
+     * @param rowLimit 窗口行数
+     * @param columnOffset 窗口起始列（从0开始）
+     * @param columnLimit 窗口列数，为null时到最后一列
+     * @return 窗口数据及工作表总尺寸
+     */
+    public Map<String, Object> getExcelPreviewWindow(MultipartFile file, int sheetIndex, int rowOffset, int rowLimit,
+                                                     int columnOffset, Integer columnLimit) throws IOException {
+        validateWindow(sheetIndex, rowOffset, rowLimit, columnOffset, columnLimit);
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            while (cursor.nextSheet()) {
+                if (cursor.getSheetIndex() != sheetIndex) {
+                    continue;
+                }
+                Map<Integer, Object[]> windowRows = new HashMap<>();
+                Object[] headerRow = null;
+                int totalRows = 0;
+                int totalColumns = 0;
+                while (cursor.nextRow()) {
+                    int rowIndex = cursor.getRowIndex();
+                    Object[] values = cursor.getRowValues();
+                    totalRows = rowIndex + 1;
+                    totalColumns = Math.max(totalColumns, values.length);
+                    if (rowIndex == 0) {
+                        headerRow = values;
+                    }
+                    if (rowIndex >= rowOffset && rowIndex - rowOffset < rowLimit) {
+                        windowRows.put(rowIndex, values);
+                    }
+                }
+                return buildWindowResponse(cursor.getSheetName(), sheetIndex, totalRows, totalColumns,
+                    rowOffset, rowLimit, columnOffset, columnLimit, headerRow, windowRows);
+            }
         }
+        throw new IllegalArgumentException("Sheet index out of range: " + sheetIndex);
+    }
 
-        // 计算最大列数
-        int maxCols = 0;
-        for (int i = 0; i <= lastRowNum; i++) {
-            Row row = sheet.getRow(i);
-            if (row != null && row.getLastCellNum() > maxCols) {
-                maxCols = row.getLastCellNum();
-            }
+    /**
+     * 获取已加载工作簿中某个工作表的窗口预览数据
+     * 借助行索引直接定位窗口内的非空行，单次请求的开销只与窗口大小相关。
+     * @param index 该工作表的行索引，调用方可在工作簿未修改期间缓存复用
+     */
+    public Map<String, Object> getExcelPreviewWindow(Workbook workbook, SheetRowIndex index, int sheetIndex,
+                                                     int rowOffset, int rowLimit,
+                                                     int columnOffset, Integer columnLimit) throws IOException {
+        validateWindow(sheetIndex, rowOffset, rowLimit, columnOffset, columnLimit);
+        if (sheetIndex >= workbook.getNumberOfSheets()) {
+            throw new IllegalArgumentException("Sheet index out of range: " + sheetIndex);
         }
 
-        // 创建数据数组
-        Object[][] data = new Object[lastRowNum + 1][maxCols];
+        Map<Integer, Object[]> windowRows = readRows(workbook, sheetIndex, index.rowNumbersInWindow(rowOffset, rowLimit));
+        // 表头始终取第0行，窗口不含第0行时单独读取
+        Object[] headerRow = rowOffset == 0
+            ? windowRows.get(0)
+            : readRows(workbook, sheetIndex, index.rowNumbersInWindow(0, 1)).get(0);
+        return buildWindowResponse(index.getSheetName(), sheetIndex, index.getTotalRows(), index.getTotalColumns(),
+            rowOffset, rowLimit, columnOffset, columnLimit, headerRow, windowRows);
+    }
 
-        for (int i = 0; i <= lastRowNum; i++) {
-            Row row = sheet.getRow(i);
-            if (row != null) {
-                for (int j = 0; j < maxCols; j++) {
-                    Cell cell = row.getCell(j);
-                    data[i][j] = getCellValueAsString(cell);
-                }
-            } else {
-                // 空行填充空字符串
-                for (int j = 0; j < maxCols; j++) {
-                    data[i][j] = "";
+    private Map<Integer, Object[]> readRows(Workbook workbook, int sheetIndex, int[] rowNumbers) throws IOException {
+        Map<Integer, Object[]> rows = new HashMap<>();
+        if (rowNumbers.length == 0) {
+            return rows;
+        }
+        try (ExcelRowCursor cursor = excelService.openRowCursor(workbook, sheetIndex, rowNumbers)) {
+            if (cursor.nextSheet()) {
+                while (cursor.nextRow()) {
+                    rows.put(cursor.getRowIndex(), cursor.getRowValues());
                 }
             }
         }
+        return rows;
+    }
 
-        return data;
+    private void validateWindow(int sheetIndex, int rowOffset, int rowLimit, int columnOffset, Integer columnLimit) {
+        if (sheetIndex < 0 || rowOffset < 0 || rowLimit < 0 || columnOffset < 0
+                || (columnLimit != null && columnLimit < 0)) {
+            throw new IllegalArgumentException("Preview window parameters must not be negative");
+        }
     }
 
     /**
-     * 获取表头
+     * 构建窗口预览响应：窗口行数和列数截断到工作表总尺寸，缺失的行和单元格填充空字符串
      */
-    private String[] getHeaders(Sheet sheet) {
-        if (sheet == null || sheet.getFirstRowNum() < 0) {
-            return new String[0];
+    private Map<String, Object> buildWindowResponse(String sheetName, int sheetIndex, int totalRows, int totalColumns,
+                                                    int rowOffset, int rowLimit, int columnOffset, Integer columnLimit,
+                                                    Object[] headerRow, Map<Integer, Object[]> windowRows) {
+        int rowCount = (int) Math.max(0, Math.min((long) rowLimit, (long) totalRows - rowOffset));
+        long columnEnd = columnLimit != null ? Math.min((long) columnOffset + columnLimit, totalColumns) : totalColumns;
+        int columnCount = (int) Math.max(0, columnEnd - columnOffset);
+
+        Object[][] data = new Object[rowCount][columnCount];
+        for (int i = 0; i < rowCount; i++) {
+            Object[] values = windowRows.get(rowOffset + i);
+            for (int j = 0; j < columnCount; j++) {
+                int col = columnOffset + j;
+                data[i][j] = values != null && col < values.length ? ExcelRowCursor.formatValue(values[col]) : "";
+            }
         }
 
-        Row firstRow = sheet.getRow(sheet.getFirstRowNum());
-        if (firstRow == null) {
-            return new String[0];
+        String[] headers = new String[columnCount];
+        for (int j = 0; j < columnCount; j++) {
+            int col = columnOffset + j;
+            String header = headerRow != null && col < headerRow.length ? ExcelRowCursor.formatValue(headerRow[col]) : "";
+            // 如果表头单元格为空，使用列字母作为表头
+            headers[j] = header.trim().isEmpty() ? getColumnLetter(col + 1) : header;
         }
 
-        int lastCellNum = firstRow.getLastCellNum();
-        String[] headers = new String[lastCellNum];
+        Map<String, Object> response = new HashMap<>();
+        response.put("data", data);
+        response.put("headers", headers);
+        response.put("sheetName", sheetName);
+        response.put("sheetIndex", sheetIndex);
+        response.put("rowOffset", rowOffset);
+        response.put("rowCount", rowCount);
+        response.put("columnOffset", columnOffset);
+        response.put("columnCount", columnCount);
+        response.put("totalRows", totalRows);
+        response.put("totalColumns", totalColumns);
+        response.put("success", true);
+
+        logger.debug("Preview window of sheet {}: rows {}+{}, columns {}+{} of {}x{}",
+            sheetName, rowOffset, rowCount, columnOffset, columnCount, totalRows, totalColumns);
+        return response;
+    }
 
-        for (int i = 0; i < lastCellNum; i++) {
-            Cell cell = firstRow.getCell(i);
-            headers[i] = getCellValueAsString(cell);
-            if (headers[i] == null || headers[i].trim().isEmpty()) {
+    /**
+     * 由首行数据生成表头
+     */
+    private String[] toHeaders(Object[] firstRow) {
+        if (firstRow == null) {
+            return new String[0];
+        }
+        String[] headers = new String[firstRow.length];
+        for (int i = 0; i < firstRow.length; i++) {
+            headers[i] = ExcelRowCursor.formatValue(firstRow[i]);
+            if (headers[i].trim().isEmpty()) {
                 // 如果表头单元格为空，使用列字母作为表头
                 headers[i] = getColumnLetter(i + 1);
             }
         }
-
         return headers;
     }
 
     /**
      * 获取单元格值的字符串表示
      */
-    private String getCellValueAsString(Cell cell) {
+    private String getCellValueAsString(Cell cell, WorkbookEvaluationContext evaluationContext) {
         if (cell == null) {
             return "";
         }
@@ -157,10 +327,8 @@ public class ExcelPreviewService {
                     return String.valueOf(cell.getBooleanCellValue());
                 case FORMULA:
                     // 对于公式单元格，返回计算结果而不是公式本身
-                    // 需要获取所在工作簿以创建公式计算器
-                    Workbook workbook = cell.getSheet().getWorkbook();
-                    FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-                    CellValue cellValue = evaluator.evaluate(cell);
+                    // 使用工作簿共享的公式计算上下文，避免每个单元格新建计算器
+                    CellValue cellValue = evaluationContext.evaluate(cell);
                     switch (cellValue.getCellType()) {
                         case STRING:
                             return cellValue.getStringValue();
@@ -221,7 +389,13 @@ public class ExcelPreviewService {
      * @return 格式信息
      */
     public Map<String, Object> getCellFormat(MultipartFile file, int row, int col) throws IOException {
-        Workbook workbook = excelService.loadWorkbook(file);
+        return getCellFormat(excelService.loadWorkbook(file), row, col);
+    }
+
+    /**
+     * 获取已加载工作簿中单元格的格式信息
+     */
+    public Map<String, Object> getCellFormat(Workbook workbook, int row, int col) {
         Sheet sheet = workbook.getSheetAt(0);
         Row sheetRow = sheet.getRow(row);
         
@@ -286,8 +460,15 @@ public class ExcelPreviewService {
      * @return 格式信息
      */
     public Map<String, Object> getBulkCellFormat(MultipartFile file, int startRow, int startCol, int endRow, int endCol) throws IOException {
-        Workbook workbook = excelService.loadWorkbook(file);
+        return getBulkCellFormat(excelService.loadWorkbook(file), startRow, startCol, endRow, endCol);
+    }
+
+    /**
+     * 获取已加载工作簿中单元格范围的格式信息
+     */
+    public Map<String, Object> getBulkCellFormat(Workbook workbook, int startRow, int startCol, int endRow, int endCol) {
         Sheet sheet = workbook.getSheetAt(0);
+        WorkbookEvaluationContext evaluationContext = excelService.getEvaluationContext(workbook);
 
         Map<String, Object> result = new HashMap<>();
         Map<String, Object> formatData = new HashMap<>();
@@ -325,7 +506,7 @@ public class ExcelPreviewService {
                     cellFormat.put("dataType", dataType);
 
                     // 获取原始值
-                    cellFormat.put("value", getCellValueAsString(cell));
+                    cellFormat.put("value", getCellValueAsString(cell, evaluationContext));
                 } else {
                     // 空单元格的默认格式
                     cellFormat.put("backgroundColor", "");
@@ -1,20 +1,30 @@
 package com.example.aiexcel.service;
 
 import com.example.aiexcel.model.OperationHistory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.aiexcel.repository.OperationHistoryContentRefs;
 import com.example.aiexcel.repository.OperationHistoryRepository;
+import com.example.aiexcel.repository.OperationHistorySummary;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.WorkbookChangeJournal;
+import com.example.aiexcel.service.persistence.WriteBehindQueue;
+import com.example.aiexcel.service.storage.BlobStore;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-
-import java.util.Base64;
 import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * 操作历史记录服务
@@ -29,22 +39,28 @@ public class OperationHistoryService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private AiExcelCommandParser aiExcelCommandParser;
+
+    @Autowired
+    private WriteBehindQueue writeBehindQueue;
+
     private static final Logger logger = LoggerFactory.getLogger(OperationHistoryService.class);
 
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
     /**
      * 记录操作历史
      */
     public OperationHistory recordOperation(String fileId, String operationType, String parameters, 
                                            MultipartFile fileBefore, MultipartFile fileAfter) {
         try {
-            String contentBefore = fileBefore != null ? encodeFileContent(fileBefore) : null;
-            String contentAfter = fileAfter != null ? encodeFileContent(fileAfter) : null;
-
-            OperationHistory history = new OperationHistory(fileId, operationType, parameters, contentBefore, contentAfter);
-            history = operationHistoryRepository.save(history);
-
-            logger.info("Recorded operation: {} for file: {}", operationType, fileId);
-            return history;
+            byte[] contentBefore = fileBefore != null ? fileBefore.getBytes() : null;
+            byte[] contentAfter = fileAfter != null ? fileAfter.getBytes() : null;
+            return saveOperation(null, fileId, operationType, parameters, contentBefore, contentAfter, null, null);
         } catch (Exception e) {
             logger.error("Error recording operation for file: {}", fileId, e);
             return null;
@@ -57,14 +73,9 @@ public class OperationHistoryService {
     public OperationHistory recordOperationWithWorkbooks(String fileId, String operationType, String parameters, 
                                                         Workbook workbookBefore, Workbook workbookAfter) {
         try {
-            String contentBefore = workbookBefore != null ? encodeWorkbookContent(workbookBefore) : null;
-            String contentAfter = workbookAfter != null ? encodeWorkbookContent(workbookAfter) : null;
-
-            OperationHistory history = new OperationHistory(fileId, operationType, parameters, contentBefore, contentAfter);
-            history = operationHistoryRepository.save(history);
-
-            logger.info("Recorded operation: {} for file: {}", operationType, fileId);
-            return history;
+            byte[] contentBefore = workbookBefore != null ? excelService.getWorkbookAsBytes(workbookBefore) : null;
+            byte[] contentAfter = workbookAfter != null ? excelService.getWorkbookAsBytes(workbookAfter) : null;
+            return saveOperation(null, fileId, operationType, parameters, contentBefore, contentAfter, null, null);
         } catch (Exception e) {
             logger.error("Error recording operation for file: {}", fileId, e);
             return null;
@@ -72,11 +83,72 @@ public class OperationHistoryService {
     }
 
     /**
-     * 获取文件的操作历史列表
+     * 记录操作历史，传入变更日志、执行过的命令和已编码好的操作后文件
+     * 操作前的状态不再保存完整文件，需要时由操作后文件和变更日志还原；
+     * 变更日志即撤销所需的逆操作（旧单元格值、被删除的行列），命令列表用于重做。
+     * 会话模式下工作簿常驻内存，workbookAfter可以为null，撤销和重做直接作用于会话工作簿。
+     * 由异步写入队列调用：同一taskKey的记录已存在时直接返回，失败时抛出异常使所在事务回滚后由队列重试。
+     * @param taskKey 写入任务的唯一键
      */
-    public List<OperationHistory> getOperationHistory(String fileId) {
+    public OperationHistory recordOperationWithJournal(String taskKey, String fileId, String operationType,
+                                                      String parameters, WorkbookChangeJournal journal,
+                                                      List<AiExcelCommandParser.CommandResult> commands,
+                                                      byte[] workbookAfter) {
+        OperationHistory existing = operationHistoryRepository.findByTaskKey(taskKey);
+        if (existing != null) {
+            logger.debug("Operation for task {} already recorded as {}", taskKey, existing.getId());
+            return existing;
+        }
+        String commandLog;
         try {
-            List<OperationHistory> history = operationHistoryRepository.findByFileIdOrderByCreatedAtDesc(fileId);
+            commandLog = commands != null ? MAPPER.writeValueAsString(commands) : null;
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize command log", e);
+        }
+        OperationHistory history = saveOperation(taskKey, fileId, operationType, parameters, null, workbookAfter,
+            journal != null ? journal.toJson() : null, commandLog);
+        logger.debug("Operation {} journaled {} cells", history.getId(), journal != null ? journal.getCellCount() : 0);
+        return history;
+    }
+
+    /**
+     * 截断过长的操作参数，使其能放入parameters列；超长时写入会因约束失败，重试也无法成功
+     */
+    public static String truncateParameters(String parameters) {
+        if (parameters == null || parameters.length() <= OperationHistory.MAX_PARAMETERS_LENGTH) {
+            return parameters;
+        }
+        String marker = "...(truncated)";
+        return parameters.substring(0, OperationHistory.MAX_PARAMETERS_LENGTH - marker.length()) + marker;
+    }
+
+    /**
+     * 还原操作前的工作簿
+     * 优先使用保存的完整文件，否则在操作后文件上回放变更日志
+     * @return 操作前的工作簿，无法还原时返回null
+     */
+    public Workbook reconstructWorkbookBefore(OperationHistory operation) throws IOException {
+        if (operation.getContentBeforeHash() != null) {
+            return loadWorkbook(operation.getContentBeforeHash());
+        }
+        if (operation.getChangeJournalHash() == null || operation.getContentAfterHash() == null) {
+            return null;
+        }
+        Workbook workbook = loadWorkbook(operation.getContentAfterHash());
+        WorkbookChangeJournal.fromJson(blobStore.getString(operation.getChangeJournalHash())).revert(workbook, excelService);
+        return workbook;
+    }
+
+    /**
+     * 获取文件的操作历史列表（只含元数据），按时间倒序分页
+     * @param beforeId 上一页最后一条记录的ID，为null时从最新一条开始
+     */
+    public List<OperationHistorySummary> getOperationHistory(String fileId, Long beforeId, int limit) {
+        try {
+            PageRequest page = PageRequest.of(0, limit);
+            List<OperationHistorySummary> history = beforeId != null
+                ? operationHistoryRepository.findByFileIdAndIdLessThanOrderByIdDesc(fileId, beforeId, page)
+                : operationHistoryRepository.findByFileIdOrderByIdDesc(fileId, page);
             logger.debug("Retrieved {} operation history records for file: {}", history.size(), fileId);
             return history;
         } catch (Exception e) {
@@ -86,11 +158,14 @@ public class OperationHistoryService {
     }
 
     /**
-     * 获取文件的可撤销操作历史列表
+     * 获取文件的可撤销操作历史列表（只含元数据），按时间倒序分页
      */
-    public List<OperationHistory> getReversibleOperations(String fileId) {
+    public List<OperationHistorySummary> getReversibleOperations(String fileId, Long beforeId, int limit) {
         try {
-            List<OperationHistory> history = operationHistoryRepository.findByFileIdAndReversibleTrueOrderByCreatedAtDesc(fileId);
+            PageRequest page = PageRequest.of(0, limit);
+            List<OperationHistorySummary> history = beforeId != null
+                ? operationHistoryRepository.findByFileIdAndReversibleTrueAndIdLessThanOrderByIdDesc(fileId, beforeId, page)
+                : operationHistoryRepository.findByFileIdAndReversibleTrueOrderByIdDesc(fileId, page);
             logger.debug("Retrieved {} reversible operation history records for file: {}", history.size(), fileId);
             return history;
         } catch (Exception e) {
@@ -100,17 +175,14 @@ public class OperationHistoryService {
     }
 
     /**
-     * 获取最近的N条操作历史
+     * 获取最近的N条操作历史，只查询N条
      */
-    public List<OperationHistory> getRecentOperations(String fileId, int count) {
+    public List<OperationHistorySummary> getRecentOperations(String fileId, int count) {
+        if (count <= 0) {
+            return List.of();
+        }
         try {
-            //Pageable pageable = PageRequest.of(0, count, Sort.by(Sort.Direction.DESC, "createdAt"));
-            // 由于Spring Data JPA不直接支持top N查询的Pageable，我们使用另一种方式
-            List<OperationHistory> allHistory = operationHistoryRepository.findByFileIdOrderByCreatedAtDesc(fileId);
-            if (allHistory.size() <= count) {
-                return allHistory;
-            }
-            return allHistory.subList(0, count);
+            return operationHistoryRepository.findByFileIdOrderByIdDesc(fileId, PageRequest.of(0, count));
         } catch (Exception e) {
             logger.error("Error retrieving recent operations for file: {}", fileId, e);
             return List.of();
@@ -119,10 +191,14 @@ public class OperationHistoryService {
 
     /**
      * 撤销上一次操作
+     * 在会话工作簿上回放该操作的变更日志（逆操作），代价与变更的单元格数成正比
+     * @param workbook 文件对应的会话工作簿，调用方需持有会话锁
      */
-    public boolean undoLastOperation(String fileId) {
+    public boolean undoLastOperation(String fileId, Workbook workbook) {
         try {
-            OperationHistory lastOperation = operationHistoryRepository.findFirstByFileIdOrderByCreatedAtDesc(fileId);
+            // 先写完排队中的记录，撤销的对象必须是最近一次操作
+            writeBehindQueue.flush();
+            OperationHistory lastOperation = operationHistoryRepository.findFirstByFileIdAndUndoneFalseOrderByIdDesc(fileId);
             if (lastOperation == null) {
                 logger.warn("No operation found to undo for file: {}", fileId);
                 return false;
@@ -133,15 +209,18 @@ public class OperationHistoryService {
                 return false;
             }
 
-            // 恢复到操作前的状态
-            // 这里需要从历史记录中恢复文件内容
-            String contentBefore = lastOperation.getFileContentBefore();
-            if (contentBefore == null || contentBefore.isEmpty()) {
-                logger.warn("No previous content to restore for operation: {} on file: {}", lastOperation.getId(), fileId);
+            if (lastOperation.getChangeJournalHash() == null) {
+                logger.warn("No change journal to revert for operation: {} on file: {}", lastOperation.getId(), fileId);
                 return false;
             }
 
-            // 标记此操作为已撤销，可能需要重做记录
+            WorkbookChangeJournal undoJournal = WorkbookChangeJournal.fromJson(
+                blobStore.getString(lastOperation.getChangeJournalHash()));
+            undoJournal.revert(workbook, excelService);
+            // 只重算依赖于还原单元格的公式
+            excelService.evaluateFormulasAffectedBy(workbook, undoJournal);
+
+            lastOperation.setUndone(true);
             lastOperation.setReversible(false);
             operationHistoryRepository.save(lastOperation);
 
@@ -155,13 +234,56 @@ public class OperationHistoryService {
 
     /**
      * 重做上次被撤销的操作
-     * 注意：在当前实现中，重做功能需要额外的逻辑，这里简化处理
+     * 在会话工作簿上按顺序重新执行记录的命令，并记录新的变更日志供再次撤销
+     * @param workbook 文件对应的会话工作簿，调用方需持有会话锁
      */
-    public boolean redoLastUndoneOperation(String fileId) {
-        logger.warn("Redo functionality is not fully implemented in this version");
-        // TODO: 实现重做功能
-        // 重做功能需要更复杂的实现，比如记录撤销操作的历史，然后可以重新应用
-        return false;
+    public boolean redoLastUndoneOperation(String fileId, Workbook workbook) {
+        try {
+            writeBehindQueue.flush();
+            OperationHistory operation = operationHistoryRepository.findFirstByFileIdAndUndoneTrueOrderByIdAsc(fileId);
+            if (operation == null) {
+                logger.warn("No undone operation found to redo for file: {}", fileId);
+                return false;
+            }
+
+            if (operation.getCommandLogHash() == null) {
+                logger.warn("No command log to replay for operation: {} on file: {}", operation.getId(), fileId);
+                return false;
+            }
+
+            List<AiExcelCommandParser.CommandResult> commands = MAPPER.readValue(
+                blobStore.getString(operation.getCommandLogHash()),
+                new TypeReference<List<AiExcelCommandParser.CommandResult>>() {});
+            // 只重放当初执行成功的命令
+            String commandText = commands.stream()
+                .filter(AiExcelCommandParser.CommandResult::isSuccess)
+                .map(AiExcelCommandParser.CommandResult::toCommandText)
+                .collect(Collectors.joining("\n"));
+
+            excelService.beginChangeJournal(workbook);
+            WorkbookChangeJournal journal;
+            try {
+                aiExcelCommandParser.parseAndExecuteCommands(workbook, commandText);
+            } finally {
+                journal = excelService.endChangeJournal(workbook);
+            }
+            excelService.evaluateFormulasAffectedBy(workbook, journal);
+
+            // 重做后的逆操作可能与最初不同（例如中间有过其他修改），替换为新的变更日志
+            String previousJournal = operation.getChangeJournalHash();
+            operation.setChangeJournalHash(blobStore.put(journal.toJson()));
+            blobStore.release(previousJournal);
+            operation.setUndone(false);
+            operation.setReversible(true);
+            operationHistoryRepository.save(operation);
+
+            logger.info("Redid operation: {} for file: {}, {} cells journaled",
+                operation.getOperationType(), fileId, journal.getCellCount());
+            return true;
+        } catch (Exception e) {
+            logger.error("Error redoing operation for file: {}", fileId, e);
+            return false;
+        }
     }
 
     /**
@@ -181,52 +303,113 @@ public class OperationHistoryService {
      */
     public void clearOperationHistory(String fileId) {
         try {
-            List<OperationHistory> histories = operationHistoryRepository.findByFileIdOrderByCreatedAtDesc(fileId);
-            operationHistoryRepository.deleteAll(histories);
-            logger.info("Cleared operation history for file: {}", fileId);
+            // 排队中的记录也要清除
+            writeBehindQueue.flush();
+            // 只查询内容哈希，用一条DELETE语句删除记录后再释放内容
+            List<OperationHistoryContentRefs> refs = operationHistoryRepository.findContentRefsByFileId(fileId);
+            int deleted = operationHistoryRepository.bulkDeleteByFileId(fileId);
+            for (OperationHistoryContentRefs ref : refs) {
+                blobStore.release(ref.getContentBeforeHash());
+                blobStore.release(ref.getContentAfterHash());
+                blobStore.release(ref.getChangeJournalHash());
+                blobStore.release(ref.getCommandLogHash());
+            }
+            logger.info("Cleared {} operation history records for file: {}", deleted, fileId);
         } catch (Exception e) {
             logger.error("Error clearing operation history for file: {}", fileId, e);
         }
     }
 
     /**
-     * 将MultipartFile编码为Base64字符串
+     * 内容写入BlobStore后保存记录；保存失败时释放已写入的内容
      */
-    private String encodeFileContent(MultipartFile file) throws IOException {
-        byte[] fileBytes = file.getBytes();
-        return Base64.getEncoder().encodeToString(fileBytes);
+    private OperationHistory saveOperation(String taskKey, String fileId, String operationType, String parameters,
+                                           byte[] contentBefore, byte[] contentAfter, String journalJson,
+                                           String commandLogJson) {
+        // 新操作使已撤销的操作无法再重做
+        discardRedoStack(fileId);
+
+        OperationHistory history = new OperationHistory(fileId, operationType, truncateParameters(parameters));
+        history.setTaskKey(taskKey);
+        try {
+            if (contentBefore != null) {
+                history.setContentBeforeHash(blobStore.put(contentBefore));
+                history.setContentBeforeSize((long) contentBefore.length);
+            }
+            if (contentAfter != null) {
+                history.setContentAfterHash(blobStore.put(contentAfter));
+                history.setContentAfterSize((long) contentAfter.length);
+            }
+            if (journalJson != null) {
+                history.setChangeJournalHash(blobStore.put(journalJson));
+            }
+            if (commandLogJson != null) {
+                history.setCommandLogHash(blobStore.put(commandLogJson));
+            }
+            history = operationHistoryRepository.save(history);
+        } catch (RuntimeException e) {
+            releaseContent(history);
+            throw e;
+        }
+        releaseContentOnRollback(history);
+
+        logger.info("Recorded operation: {} for file: {}", operationType, fileId);
+        return history;
     }
 
-    /**
-     * 将Workbook编码为Base64字符串
-     */
-    private String encodeWorkbookContent(Workbook workbook) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            workbook.write(baos);
-            byte[] workbookBytes = baos.toByteArray();
-            return Base64.getEncoder().encodeToString(workbookBytes);
+    private void discardRedoStack(String fileId) {
+        List<OperationHistory> undone = operationHistoryRepository.findByFileIdAndUndoneTrue(fileId);
+        if (undone.isEmpty()) {
+            return;
+        }
+        operationHistoryRepository.deleteAll(undone);
+        for (OperationHistory history : undone) {
+            releaseContentAfterCommit(history);
         }
+        logger.debug("Discarded {} undone operations for file: {}", undone.size(), fileId);
     }
 
     /**
-     * 将Base64字符串解码为字节数组
+     * 内容引用不在数据库事务内，所在事务回滚时（例如同一批的其他写入失败）同样释放
      */
-    private byte[] decodeContent(String encodedContent) {
-        if (encodedContent == null || encodedContent.isEmpty()) {
-            return new byte[0];
+    private void releaseContentOnRollback(OperationHistory history) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
         }
-        return Base64.getDecoder().decode(encodedContent);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    releaseContent(history);
+                }
+            }
+        });
     }
 
     /**
-     * 从编码的内容创建Workbook
+     * 删除记录所在事务提交后才释放内容；事务回滚时记录仍在，重试会再次找到它们，不能提前释放
      */
-    @SuppressWarnings("unused")
-    private Workbook createWorkbookFromContent(String encodedContent) throws IOException {
-        byte[] content = decodeContent(encodedContent);
-        if (content.length == 0) {
-            return null;
+    private void releaseContentAfterCommit(OperationHistory history) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            releaseContent(history);
+            return;
         }
-        return excelService.loadWorkbook(new java.io.ByteArrayInputStream(content));
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                releaseContent(history);
+            }
+        });
+    }
+
+    private void releaseContent(OperationHistory history) {
+        blobStore.release(history.getContentBeforeHash());
+        blobStore.release(history.getContentAfterHash());
+        blobStore.release(history.getChangeJournalHash());
+        blobStore.release(history.getCommandLogHash());
+    }
+
+    private Workbook loadWorkbook(String hash) throws IOException {
+        return excelService.loadWorkbook(new ByteArrayInputStream(blobStore.get(hash)));
     }
-}
\ No newline at end of file
+}
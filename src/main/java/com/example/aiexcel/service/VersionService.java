@@ -1,19 +1,33 @@
 package com.example.aiexcel.service;
 
 import com.example.aiexcel.model.FileVersion;
+import com.example.aiexcel.repository.FileVersionSummary;
 import com.example.aiexcel.repository.VersionRepository;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.WorkbookDelta;
+import com.example.aiexcel.service.excel.diff.WorkbookDiffEngine;
+import com.example.aiexcel.service.excel.diff.WorkbookDiffResult;
+import com.example.aiexcel.service.persistence.VersionNumberAllocator;
+import com.example.aiexcel.service.persistence.WriteBehindQueue;
+import com.example.aiexcel.service.storage.BlobStore;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.util.Base64;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * 文件版本控制服务
@@ -28,6 +42,43 @@ public class VersionService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private BlobStore blobStore;
+
+    @Autowired
+    private WorkbookDiffEngine workbookDiffEngine;
+
+    @Autowired
+    private WriteBehindQueue writeBehindQueue;
+
+    @Autowired
+    private VersionNumberAllocator versionNumberAllocator;
+
+    /**
+     * 每隔多少个版本保存一次完整文件，其余版本只保存相对上一版本的差异
+     */
+    @Value("${version.keyframe-interval:10}")
+    private int keyframeInterval;
+
+    /**
+     * 缓存最近比较过的版本对，翻页时直接截取，不必重建两个工作簿并重新比较
+     */
+    @Value("${version.diff.cache-size:32}")
+    private int diffCacheSize;
+
+    /**
+     * 每个缓存条目最多保存的单元格变化数，超出部分的分页仍重新比较
+     */
+    @Value("${version.diff.cache-max-changes:10000}")
+    private int diffCacheMaxChanges;
+
+    private final Map<String, WorkbookDiffResult> diffCache = new LinkedHashMap<String, WorkbookDiffResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, WorkbookDiffResult> eldest) {
+            return size() > diffCacheSize;
+        }
+    };
+
     private static final Logger logger = LoggerFactory.getLogger(VersionService.class);
 
     /**
@@ -35,32 +86,10 @@ public class VersionService {
      */
     public FileVersion createVersion(String fileId, MultipartFile file, String changeDescription, String userId) {
         try {
-            // 获取当前最大版本号
-            Integer maxVersion = versionRepository.findMaxVersionNumberByFileId(fileId);
-            Integer newVersionNumber = (maxVersion != null) ? maxVersion + 1 : 1;
-
-            // 编码文件内容
-            String encodedContent = encodeFileContent(file);
-
-            // 创建版本记录
-            FileVersion version = new FileVersion(
-                fileId, 
-                newVersionNumber, 
-                file.getOriginalFilename(), 
-                encodedContent, 
-                file.getSize(), 
-                changeDescription, 
-                userId
-            );
-
-            // 如果这是第一个版本，标记为当前版本
-            if (newVersionNumber == 1) {
-                version.setIsCurrent(true);
-            }
-
-            version = versionRepository.save(version);
-
-            logger.info("Created version {} for file: {}", newVersionNumber, fileId);
+            // 差异基准取决于已保存的最新版本，先写完排队中的版本
+            writeBehindQueue.flush();
+            FileVersion version = storeVersion(fileId, file.getBytes(), file.getOriginalFilename(), changeDescription, userId, false);
+            logger.info("Created version {} for file: {}", version.getVersionNumber(), fileId);
             return version;
         } catch (Exception e) {
             logger.error("Error creating version for file: {}", fileId, e);
@@ -73,36 +102,22 @@ public class VersionService {
      */
     public FileVersion createVersionFromWorkbook(String fileId, Workbook workbook, String changeDescription, String userId, String fileName) {
         try {
-            // 获取当前最大版本号
-            Integer maxVersion = versionRepository.findMaxVersionNumberByFileId(fileId);
-            Integer newVersionNumber = (maxVersion != null) ? maxVersion + 1 : 1;
-
-            // 编码工作簿内容
-            String encodedContent = encodeWorkbookContent(workbook);
-
-            // 获取文件大小（字节数组长度）
-            byte[] contentBytes = Base64.getDecoder().decode(encodedContent);
-            Long fileSize = (long) contentBytes.length;
-
-            // 创建版本记录
-            FileVersion version = new FileVersion(
-                fileId, 
-                newVersionNumber, 
-                fileName, 
-                encodedContent, 
-                fileSize, 
-                changeDescription, 
-                userId
-            );
-
-            // 如果这是第一个版本，标记为当前版本
-            if (newVersionNumber == 1) {
-                version.setIsCurrent(true);
-            }
-
-            version = versionRepository.save(version);
+            return createVersionFromBytes(fileId, excelService.getWorkbookAsBytes(workbook), changeDescription, userId, fileName);
+        } catch (Exception e) {
+            logger.error("Error creating version from workbook for file: {}", fileId, e);
+            return null;
+        }
+    }
 
-            logger.info("Created version {} for file: {} from workbook", newVersionNumber, fileId);
+    /**
+     * 创建新版本（通过已编码好的工作簿字节）
+     * 调用方已经写出过工作簿时使用，避免重复编码
+     */
+    public FileVersion createVersionFromBytes(String fileId, byte[] content, String changeDescription, String userId, String fileName) {
+        try {
+            writeBehindQueue.flush();
+            FileVersion version = storeVersion(fileId, content, fileName, changeDescription, userId, false);
+            logger.info("Created version {} for file: {} from workbook", version.getVersionNumber(), fileId);
             return version;
         } catch (Exception e) {
             logger.error("Error creating version from workbook for file: {}", fileId, e);
@@ -111,11 +126,32 @@ public class VersionService {
     }
 
     /**
-     * 获取文件的所有版本列表
+     * 由异步写入队列创建版本
+     * 同一taskKey的版本已存在时直接返回；失败时抛出异常使所在事务回滚后由队列重试。
+     * @param taskKey 写入任务的唯一键
+     */
+    public FileVersion createVersionForTask(String taskKey, String fileId, byte[] content, String changeDescription,
+                                            String userId, String fileName) throws IOException {
+        FileVersion existing = versionRepository.findByTaskKey(taskKey);
+        if (existing != null) {
+            logger.debug("Version for task {} already stored as version {}", taskKey, existing.getVersionNumber());
+            return existing;
+        }
+        FileVersion version = storeVersion(fileId, content, fileName, changeDescription, userId, false, taskKey);
+        logger.info("Created version {} for file: {} from workbook", version.getVersionNumber(), fileId);
+        return version;
+    }
+
+    /**
+     * 获取文件的版本列表（只含元数据），按版本号倒序分页
+     * @param beforeVersion 上一页最后一个版本号，为null时从最新版本开始
      */
-    public List<FileVersion> getFileVersions(String fileId) {
+    public List<FileVersionSummary> getFileVersions(String fileId, Integer beforeVersion, int limit) {
         try {
-            List<FileVersion> versions = versionRepository.findByFileIdOrderByVersionNumberDesc(fileId);
+            PageRequest page = PageRequest.of(0, limit);
+            List<FileVersionSummary> versions = beforeVersion != null
+                ? versionRepository.findByFileIdAndVersionNumberLessThanOrderByVersionNumberDesc(fileId, beforeVersion, page)
+                : versionRepository.findByFileIdOrderByVersionNumberDesc(fileId, page);
             logger.debug("Retrieved {} versions for file: {}", versions.size(), fileId);
             return versions;
         } catch (Exception e) {
@@ -157,6 +193,7 @@ public class VersionService {
      */
     public boolean restoreToVersion(String fileId, Integer versionNumber, String userId) {
         try {
+            writeBehindQueue.flush();
             // 获取目标版本
             FileVersion targetVersion = versionRepository.findByFileIdAndVersionNumber(fileId, versionNumber);
             if (targetVersion == null) {
@@ -164,34 +201,32 @@ public class VersionService {
                 return false;
             }
 
-            // 将当前版本标记为非当前
-            FileVersion currentVersion = versionRepository.findByFileIdAndIsCurrentTrue(fileId);
-            if (currentVersion != null) {
-                currentVersion.setIsCurrent(false);
-                versionRepository.save(currentVersion);
+            // 创建恢复操作的记录（作为新版本），并将它设为当前版本
+            String restoreFileName = targetVersion.getFileName() + "_restored_from_v" + versionNumber;
+            String restoreDescription = "Restored from version " + versionNumber;
+            FileVersion restoreVersion;
+            if (targetVersion.isKeyframe()) {
+                // 目标是关键帧时直接共用它的数据块，不额外占用存储
+                restoreVersion = new FileVersion(
+                    fileId,
+                    null,
+                    restoreFileName,
+                    targetVersion.getContentHash(),
+                    targetVersion.getFileSize(),
+                    restoreDescription,
+                    userId
+                );
+                if (restoreVersion.getContentHash() != null) {
+                    blobStore.retain(restoreVersion.getContentHash());
+                }
+                restoreVersion = insertOrRelease(restoreVersion);
+                versionRepository.switchCurrentVersion(fileId, restoreVersion.getVersionNumber());
+            } else {
+                restoreVersion = storeVersion(fileId, getVersionContent(targetVersion), restoreFileName,
+                    restoreDescription, userId, true);
             }
 
-            // 将目标版本标记为当前版本
-            targetVersion.setIsCurrent(true);
-            versionRepository.save(targetVersion);
-
-            // 创建恢复操作的记录（作为新版本）
-            Integer maxVersion = versionRepository.findMaxVersionNumberByFileId(fileId);
-            Integer newVersionNumber = (maxVersion != null) ? maxVersion + 1 : 1;
-
-            FileVersion restoreVersion = new FileVersion(
-                fileId,
-                newVersionNumber,
-                targetVersion.getFileName() + "_restored_from_v" + versionNumber,
-                targetVersion.getFileContent(),
-                targetVersion.getFileSize(),
-                "Restored from version " + versionNumber,
-                userId
-            );
-            restoreVersion.setIsCurrent(true);
-            versionRepository.save(restoreVersion);
-
-            logger.info("Restored file {} to version {}, new version created as {}", fileId, versionNumber, newVersionNumber);
+            logger.info("Restored file {} to version {}, new version created as {}", fileId, versionNumber, restoreVersion.getVersionNumber());
             return true;
         } catch (Exception e) {
             logger.error("Error restoring to version {} for file: {}", versionNumber, fileId, e);
@@ -214,9 +249,9 @@ public class VersionService {
     }
 
     /**
-     * 比较两个版本
+     * 比较两个版本，返回从version1到version2的单元格级变化（分页）
      */
-    public String compareVersions(String fileId, Integer version1, Integer version2) {
+    public WorkbookDiffResult compareVersions(String fileId, Integer version1, Integer version2, int offset, int limit) {
         try {
             FileVersion v1 = versionRepository.findByFileIdAndVersionNumber(fileId, version1);
             FileVersion v2 = versionRepository.findByFileIdAndVersionNumber(fileId, version2);
@@ -226,10 +261,27 @@ public class VersionService {
                 return null;
             }
 
-            // 这里可以实现详细的比较逻辑
-            // 为了简化，我们返回版本信息
-            return String.format("Comparing version %d and version %d of file %s", 
-                                version1, version2, fileId);
+            // 版本号可能在清理后被复用，缓存键同时包含内容哈希
+            String cacheKey = fileId + ":" + version1 + ":" + v1.getContentHash() + ":" + version2 + ":" + v2.getContentHash();
+            WorkbookDiffResult cached;
+            synchronized (diffCache) {
+                cached = diffCache.get(cacheKey);
+            }
+            if (cached != null && cached.covers(offset, limit)) {
+                return cached.page(offset, limit);
+            }
+
+            byte[] content1 = getVersionContent(v1);
+            byte[] content2 = getVersionContent(v2);
+            if ((long) offset + limit > diffCacheMaxChanges) {
+                return workbookDiffEngine.diff(content1, content2, offset, limit);
+            }
+            // 从头收集到缓存上限，后续翻页只截取
+            WorkbookDiffResult full = workbookDiffEngine.diff(content1, content2, 0, diffCacheMaxChanges);
+            synchronized (diffCache) {
+                diffCache.put(cacheKey, full);
+            }
+            return full.page(offset, limit);
         } catch (Exception e) {
             logger.error("Error comparing versions for file: {} (v{} and v{})", fileId, version1, version2, e);
             return null;
@@ -241,23 +293,31 @@ public class VersionService {
      */
     public int cleanupOldVersions(String fileId, int keepLatestCount) {
         try {
-            List<FileVersion> allVersions = versionRepository.findByFileIdOrderByVersionNumberDesc(fileId);
-            
-            if (allVersions.size() <= keepLatestCount) {
+            // 第keepLatestCount + 1新的版本号及更早的版本将被删除（当前版本除外）
+            List<FileVersionSummary> boundary = versionRepository.findByFileIdOrderByVersionNumberDesc(fileId,
+                PageRequest.of(keepLatestCount, 1));
+            if (boundary.isEmpty()) {
                 logger.debug("Not enough versions to clean up for file: {}", fileId);
                 return 0;
             }
+            Integer maxDeleted = boundary.get(0).getVersionNumber();
+            FileVersion currentVersion = versionRepository.findByFileIdAndIsCurrentTrue(fileId);
+            Integer currentNumber = currentVersion != null ? currentVersion.getVersionNumber() : null;
 
-            // 保留最新的几个版本，删除其余的
-            int deletedCount = 0;
-            for (int i = keepLatestCount; i < allVersions.size(); i++) {
-                FileVersion version = allVersions.get(i);
-                if (!version.getIsCurrent()) { // 不删除当前版本
-                    versionRepository.delete(version);
-                    deletedCount++;
+            // 基准版本将被删除的增量版本先转为关键帧；按版本号从小到大处理，后面的增量链随之完整
+            for (FileVersion version : versionRepository.findRetainedDeltasBasedAtOrBelow(fileId, maxDeleted)) {
+                if (!version.getBaseVersionNumber().equals(currentNumber)) {
+                    convertToKeyframe(version);
                 }
             }
 
+            // 只查询内容哈希，用一条DELETE语句删除版本后再释放内容
+            List<String> contentHashes = versionRepository.findPrunableContentHashes(fileId, maxDeleted);
+            int deletedCount = versionRepository.bulkDeletePrunable(fileId, maxDeleted);
+            for (String contentHash : contentHashes) {
+                blobStore.release(contentHash);
+            }
+
             logger.info("Cleaned up {} old versions for file: {}", deletedCount, fileId);
             return deletedCount;
         } catch (Exception e) {
@@ -267,42 +327,172 @@ public class VersionService {
     }
 
     /**
-     * 将MultipartFile编码为Base64字符串
+     * 读取版本的文件内容
+     * 关键帧直接读取；增量版本从最近的关键帧开始依次应用各层差异后重新编码
+     * @return 文件字节，版本没有内容时返回null
      */
-    private String encodeFileContent(MultipartFile file) throws IOException {
-        byte[] fileBytes = file.getBytes();
-        return Base64.getEncoder().encodeToString(fileBytes);
+    public byte[] getVersionContent(FileVersion version) throws IOException {
+        if (version.getContentHash() == null) {
+            return null;
+        }
+        if (version.isKeyframe()) {
+            return blobStore.get(version.getContentHash());
+        }
+        try (Workbook workbook = reconstructWorkbook(version)) {
+            return excelService.getWorkbookAsBytes(workbook);
+        }
     }
 
     /**
-     * 将Workbook编码为Base64字符串
+     * 从版本内容创建Workbook
      */
-    private String encodeWorkbookContent(Workbook workbook) throws IOException {
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            workbook.write(baos);
-            byte[] workbookBytes = baos.toByteArray();
-            return Base64.getEncoder().encodeToString(workbookBytes);
+    public Workbook createWorkbookFromVersion(FileVersion version) throws IOException {
+        byte[] content = getVersionContent(version);
+        if (content == null || content.length == 0) {
+            return null;
         }
+        return excelService.loadWorkbook(new ByteArrayInputStream(content));
     }
 
     /**
-     * 将Base64字符串解码为字节数组
+     * 保存新版本
+     * 与上一版本的单元格差异比完整文件小时保存为增量版本；没有上一版本、距关键帧已达keyframeInterval层、
+     * 或变化无法按单元格表达时保存完整文件作为关键帧
      */
-    private byte[] decodeContent(String encodedContent) {
-        if (encodedContent == null || encodedContent.isEmpty()) {
-            return new byte[0];
+    private FileVersion storeVersion(String fileId, byte[] content, String fileName, String changeDescription,
+                                     String userId, boolean current) throws IOException {
+        return storeVersion(fileId, content, fileName, changeDescription, userId, current, null);
+    }
+
+    private FileVersion storeVersion(String fileId, byte[] content, String fileName, String changeDescription,
+                                     String userId, boolean current, String taskKey) throws IOException {
+        // 以已保存的最新版本为差异基准；版本号在插入时才分配，基准不一定是紧邻的上一个版本号
+        FileVersion previous = versionRepository.findTopByFileIdOrderByVersionNumberDesc(fileId);
+        byte[] delta = null;
+        if (previous != null && previous.getContentHash() != null && depthOf(previous) + 1 < keyframeInterval) {
+            delta = computeDelta(previous, content);
         }
-        return Base64.getDecoder().decode(encodedContent);
+
+        // 内容写入BlobStore，版本记录只保存哈希
+        String contentHash = blobStore.put(delta != null ? delta : content);
+        FileVersion version = new FileVersion(
+            fileId,
+            null,
+            fileName,
+            contentHash,
+            (long) content.length,
+            changeDescription,
+            userId
+        );
+        version.setTaskKey(taskKey);
+        if (delta != null) {
+            version.setBaseVersionNumber(previous.getVersionNumber());
+            version.setDeltaDepth(depthOf(previous) + 1);
+        }
+
+        version = insertOrRelease(version);
+
+        // 如果这是第一个版本，标记为当前版本；插入可能尚未刷新，先刷新再执行更新语句
+        if (current || version.getVersionNumber() == 1) {
+            versionRepository.flush();
+            versionRepository.switchCurrentVersion(fileId, version.getVersionNumber());
+            version.setIsCurrent(true);
+        }
+        logger.debug("Stored version {} of file {} as {} ({} bytes)", version.getVersionNumber(), fileId,
+            delta != null ? "delta" : "keyframe", delta != null ? delta.length : content.length);
+        return version;
     }
 
     /**
-     * 从编码的内容创建Workbook
+     * 计算上一版本到新内容的差异
+     * @return 序列化后的差异；无法表达或不比完整文件小时返回null
      */
-    public Workbook createWorkbookFromVersionContent(String encodedContent) throws IOException {
-        byte[] content = decodeContent(encodedContent);
-        if (content.length == 0) {
-            return null;
+    private byte[] computeDelta(FileVersion previous, byte[] content) throws IOException {
+        try (Workbook base = reconstructWorkbook(previous);
+             Workbook target = excelService.loadWorkbook(new ByteArrayInputStream(content))) {
+            WorkbookDelta delta = WorkbookDelta.compute(base, target);
+            if (delta == null) {
+                return null;
+            }
+            byte[] bytes = delta.toBytes();
+            return bytes.length < content.length ? bytes : null;
+        }
+    }
+
+    /**
+     * 加载最近的关键帧并按顺序应用到目标版本为止的各层差异
+     */
+    private Workbook reconstructWorkbook(FileVersion version) throws IOException {
+        Deque<FileVersion> chain = new ArrayDeque<>();
+        FileVersion current = version;
+        while (!current.isKeyframe()) {
+            chain.push(current);
+            FileVersion base = versionRepository.findByFileIdAndVersionNumber(current.getFileId(), current.getBaseVersionNumber());
+            if (base == null) {
+                throw new IOException("Base version " + current.getBaseVersionNumber() + " of version "
+                    + current.getVersionNumber() + " not found for file: " + current.getFileId());
+            }
+            current = base;
+        }
+
+        Workbook workbook = excelService.loadWorkbook(new ByteArrayInputStream(blobStore.get(current.getContentHash())));
+        while (!chain.isEmpty()) {
+            WorkbookDelta.fromBytes(blobStore.get(chain.pop().getContentHash())).apply(workbook);
+        }
+        return workbook;
+    }
+
+    /**
+     * 把增量版本改存为完整文件，用于其基准版本即将被删除时
+     */
+    private void convertToKeyframe(FileVersion version) throws IOException {
+        String deltaHash = version.getContentHash();
+        version.setContentHash(blobStore.put(getVersionContent(version)));
+        version.setBaseVersionNumber(null);
+        version.setDeltaDepth(0);
+        saveOrRelease(version);
+        blobStore.release(deltaHash);
+        logger.debug("Converted version {} of file {} to keyframe", version.getVersionNumber(), version.getFileId());
+    }
+
+    private static int depthOf(FileVersion version) {
+        return version.getDeltaDepth() != null ? version.getDeltaDepth() : 0;
+    }
+
+    /**
+     * 分配版本号并插入新版本；插入失败时释放该记录对数据块的引用
+     * 在外层事务（例如异步写入的一批）中插入时，插入要到提交时才真正写入，因此在事务回滚后释放
+     */
+    private FileVersion insertOrRelease(FileVersion version) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            String contentHash = version.getContentHash();
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_ROLLED_BACK) {
+                        blobStore.release(contentHash);
+                    }
+                }
+            });
+            return versionNumberAllocator.insert(version);
+        }
+        try {
+            return versionNumberAllocator.insert(version);
+        } catch (RuntimeException e) {
+            blobStore.release(version.getContentHash());
+            throw e;
+        }
+    }
+
+    /**
+     * 保存版本记录；保存失败时释放该记录对数据块的引用
+     */
+    private FileVersion saveOrRelease(FileVersion version) {
+        try {
+            return versionRepository.save(version);
+        } catch (RuntimeException e) {
+            blobStore.release(version.getContentHash());
+            throw e;
         }
-        return excelService.loadWorkbook(new java.io.ByteArrayInputStream(content));
     }
-}
\ No newline at end of file
+}
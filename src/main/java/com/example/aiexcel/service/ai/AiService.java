@@ -3,8 +3,21 @@ package com.example.aiexcel.service.ai;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.dto.AiResponse;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 public interface AiService {
     AiResponse generateResponse(AiRequest request);
+
+    /**
+     * 异步调用模型，等待响应期间不占用调用线程
+     */
+    CompletableFuture<AiResponse> generateResponseAsync(AiRequest request);
     AiResponse generateStreamingResponse(AiRequest request);
+
+    /**
+     * 以流式方式调用模型，每收到一段增量内容就回调onDelta，结束后返回拼接好的完整响应
+     */
+    AiResponse generateStreamingResponse(AiRequest request, Consumer<String> onDelta);
     boolean testConnection();
 }
\ No newline at end of file
@@ -0,0 +1,61 @@
+package com.example.aiexcel.service.ai.cache;
+
+import com.example.aiexcel.dto.AiRequest;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * AI请求的规范化缓存键
+ * 对模型、温度、最大Token数和全部消息（角色+内容）做SHA-256；
+ * 每个字段都带长度前缀写入，不同的字段切分不会得到相同的字节序列。
+ */
+public final class AiRequestKey {
+
+    private AiRequestKey() {
+    }
+
+    /**
+     * @param defaultModel 请求未指定模型时实际使用的模型，保证两种写法命中同一条缓存
+     */
+    public static String of(AiRequest request, String defaultModel) {
+        MessageDigest digest = newDigest();
+        String model = request.getModel() == null || request.getModel().isEmpty() ? defaultModel : request.getModel();
+        update(digest, model);
+        update(digest, request.getTemperature() == null ? null : Double.toString(request.getTemperature()));
+        update(digest, request.getMaxTokens() == null ? null : Integer.toString(request.getMaxTokens()));
+        List<AiRequest.Message> messages = request.getMessages();
+        update(digest, messages == null ? null : Integer.toString(messages.size()));
+        if (messages != null) {
+            for (AiRequest.Message message : messages) {
+                update(digest, message.getRole());
+                update(digest, message.getContent());
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        if (value == null) {
+            digest.update((byte) 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        digest.update((byte) 1);
+        digest.update(new byte[]{
+            (byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16), (byte) (bytes.length >>> 8), (byte) bytes.length
+        });
+        digest.update(bytes);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
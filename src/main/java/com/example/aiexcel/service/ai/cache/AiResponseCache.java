@@ -0,0 +1,18 @@
+package com.example.aiexcel.service.ai.cache;
+
+import java.time.Duration;
+
+/**
+ * AI响应缓存的存储层
+ * 值为序列化后的响应JSON，键为请求内容的哈希（见 {@link AiRequestKey}）。
+ * 实现应把存储故障当作未命中处理，不能让缓存影响AI调用本身。
+ */
+public interface AiResponseCache {
+
+    /**
+     * @return 缓存的响应JSON，未命中或已过期时返回null
+     */
+    String get(String key);
+
+    void put(String key, String responseJson, Duration ttl);
+}
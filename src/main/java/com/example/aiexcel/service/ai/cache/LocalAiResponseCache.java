@@ -0,0 +1,65 @@
+package com.example.aiexcel.service.ai.cache;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 进程内AI响应缓存
+ * 按访问顺序淘汰的LRU，条目数有上限；每个条目带过期时间，读取时发现过期即删除。
+ */
+public class LocalAiResponseCache implements AiResponseCache {
+
+    private final Map<String, Entry> entries;
+    private final LongSupplier clock;
+
+    public LocalAiResponseCache(int maxEntries) {
+        this(maxEntries, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock 毫秒时钟，测试时可替换
+     */
+    public LocalAiResponseCache(int maxEntries, LongSupplier clock) {
+        this.clock = clock;
+        this.entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public synchronized String get(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= clock.getAsLong()) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.value;
+    }
+
+    @Override
+    public synchronized void put(String key, String responseJson, Duration ttl) {
+        entries.put(key, new Entry(responseJson, clock.getAsLong() + ttl.toMillis()));
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static class Entry {
+        final String value;
+        final long expiresAt;
+
+        Entry(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.aiexcel.service.ai.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+
+/**
+ * 基于Redis的共享AI响应缓存，多个实例之间共享结果
+ * 过期由Redis的TTL负责；Redis不可用时记录警告并按未命中处理。
+ */
+public class RedisAiResponseCache implements AiResponseCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RedisAiResponseCache.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final String keyPrefix;
+
+    public RedisAiResponseCache(StringRedisTemplate redisTemplate, String keyPrefix) {
+        this.redisTemplate = redisTemplate;
+        this.keyPrefix = keyPrefix;
+    }
+
+    @Override
+    public String get(String key) {
+        try {
+            return redisTemplate.opsForValue().get(keyPrefix + key);
+        } catch (RuntimeException e) {
+            logger.warn("Redis AI cache read failed: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, String responseJson, Duration ttl) {
+        try {
+            redisTemplate.opsForValue().set(keyPrefix + key, responseJson, ttl);
+        } catch (RuntimeException e) {
+            logger.warn("Redis AI cache write failed: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.aiexcel.service.ai.impl;
+
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Logger;
+
+/**
+ * AI接口的HTTP传输层
+ * 普通调用走异步客户端：少量I/O线程承载全部在途请求，HTTPS下通过ALPN协商HTTP/2以复用连接，
+ * 等待模型响应期间不占用平台线程。流式转发需要在调用线程上逐行读取，仍使用经典客户端，
+ * 两者都使用显式大小的连接池和连接/响应超时。
+ */
+@Component
+public class AiHttpTransport implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(AiHttpTransport.class.getName());
+
+    private final CloseableHttpAsyncClient asyncClient;
+    private final CloseableHttpClient streamingClient;
+
+    /**
+     * 使用默认参数，供不经过Spring直接构造服务时使用
+     */
+    public AiHttpTransport() {
+        this(200, 100, 10_000, 120_000, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    @Autowired
+    public AiHttpTransport(@Value("${ai.http.max-connections:200}") int maxConnections,
+                           @Value("${ai.http.max-connections-per-route:100}") int maxConnectionsPerRoute,
+                           @Value("${ai.http.connect-timeout-ms:10000}") long connectTimeoutMs,
+                           @Value("${ai.http.response-timeout-ms:120000}") long responseTimeoutMs,
+                           @Value("${ai.http.io-threads:0}") int ioThreads) {
+        ConnectionConfig connectionConfig = ConnectionConfig.custom()
+            .setConnectTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+            .setSocketTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+            .build();
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectionRequestTimeout(Timeout.ofMilliseconds(connectTimeoutMs))
+            .setResponseTimeout(Timeout.ofMilliseconds(responseTimeoutMs))
+            .build();
+        int reactorThreads = ioThreads > 0 ? ioThreads : Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        this.asyncClient = HttpAsyncClients.custom()
+            .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(connectionConfig)
+                .setDefaultTlsConfig(TlsConfig.custom()
+                    .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                    .build())
+                .build())
+            .setIOReactorConfig(IOReactorConfig.custom()
+                .setIoThreadCount(reactorThreads)
+                .build())
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+        this.asyncClient.start();
+
+        this.streamingClient = HttpClients.custom()
+            .setConnectionManager(PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setDefaultConnectionConfig(connectionConfig)
+                .build())
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+
+        logger.info("AI HTTP transport started: maxConnections=" + maxConnections
+            + ", maxConnectionsPerRoute=" + maxConnectionsPerRoute
+            + ", connectTimeoutMs=" + connectTimeoutMs + ", responseTimeoutMs=" + responseTimeoutMs
+            + ", ioThreads=" + reactorThreads);
+    }
+
+    /**
+     * 异步发送请求，响应体完整到达后完成
+     */
+    public CompletableFuture<SimpleHttpResponse> execute(SimpleHttpRequest request) {
+        CompletableFuture<SimpleHttpResponse> future = new CompletableFuture<>();
+        asyncClient.execute(SimpleRequestProducer.create(request), SimpleResponseConsumer.create(),
+            new FutureCallback<SimpleHttpResponse>() {
+                @Override
+                public void completed(SimpleHttpResponse response) {
+                    future.complete(response);
+                }
+
+                @Override
+                public void failed(Exception ex) {
+                    future.completeExceptionally(ex);
+                }
+
+                @Override
+                public void cancelled() {
+                    future.cancel(false);
+                }
+            });
+        return future;
+    }
+
+    /**
+     * 用于流式读取的经典客户端
+     */
+    public CloseableHttpClient getStreamingClient() {
+        return streamingClient;
+    }
+
+    @Override
+    public void close() {
+        asyncClient.close(CloseMode.GRACEFUL);
+        streamingClient.close(CloseMode.GRACEFUL);
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.aiexcel.service.ai.impl;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.cache.AiRequestKey;
+import com.example.aiexcel.service.ai.cache.AiResponseCache;
+import com.example.aiexcel.service.ai.cache.LocalAiResponseCache;
+import com.example.aiexcel.service.ai.cache.RedisAiResponseCache;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 带缓存的AI服务，包装实际调用模型的AiService
+ * 相同的模型、温度、最大Token数和消息内容直接返回缓存结果，不再消耗Token：
+ * 先查进程内LRU缓存，再查可选的Redis共享缓存（命中后回填本地）；
+ * 同一请求并发到达时只向模型发起一次调用，其余请求等待同一个结果。
+ * 只缓存成功的响应；请求标记为不可缓存（如聊天回复）时直接调用模型。
+ */
+@Service
+@Primary
+public class CachingAiService implements AiService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingAiService.class);
+
+    private final AiService delegate;
+    private final AiResponseCache localCache;
+    private final AiResponseCache sharedCache;
+    private final Duration ttl;
+    private final String defaultModel;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ConcurrentMap<String, CompletableFuture<AiResponse>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    @Autowired
+    public CachingAiService(QwenAiService delegate,
+                            @Value("${ai.cache.enabled:true}") boolean enabled,
+                            @Value("${ai.cache.ttl-seconds:3600}") long ttlSeconds,
+                            @Value("${ai.cache.max-entries:1000}") int maxEntries,
+                            @Value("${ai.cache.redis.enabled:false}") boolean redisEnabled,
+                            @Value("${ai.cache.redis.key-prefix:ai:response:}") String redisKeyPrefix,
+                            @Value("${qwen.api.default-model:qwen-max}") String defaultModel,
+                            ObjectProvider<StringRedisTemplate> redisTemplateProvider) {
+        this(delegate,
+            enabled ? new LocalAiResponseCache(maxEntries) : null,
+            enabled && redisEnabled ? createRedisCache(redisTemplateProvider, redisKeyPrefix) : null,
+            Duration.ofSeconds(ttlSeconds),
+            defaultModel);
+        logger.info("AI response cache: enabled={}, ttlSeconds={}, maxEntries={}, redis={}",
+            enabled, ttlSeconds, maxEntries, sharedCache != null);
+    }
+
+    /**
+     * @param localCache  进程内缓存，为null时不缓存
+     * @param sharedCache 共享缓存，为null时只使用进程内缓存
+     */
+    public CachingAiService(AiService delegate, AiResponseCache localCache, AiResponseCache sharedCache,
+                            Duration ttl, String defaultModel) {
+        this.delegate = delegate;
+        this.localCache = localCache;
+        this.sharedCache = localCache != null ? sharedCache : null;
+        this.ttl = ttl;
+        this.defaultModel = defaultModel;
+    }
+
+    private static AiResponseCache createRedisCache(ObjectProvider<StringRedisTemplate> provider, String keyPrefix) {
+        StringRedisTemplate redisTemplate = provider.getIfAvailable();
+        if (redisTemplate == null) {
+            logger.warn("ai.cache.redis.enabled is set but no StringRedisTemplate is available, using local cache only");
+            return null;
+        }
+        return new RedisAiResponseCache(redisTemplate, keyPrefix);
+    }
+
+    @Override
+    public AiResponse generateResponse(AiRequest request) {
+        try {
+            return generateResponseAsync(request).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Error calling AI service", cause);
+        }
+    }
+
+    @Override
+    public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+        if (localCache == null || !request.isCacheable()) {
+            return delegate.generateResponseAsync(request);
+        }
+        String key = AiRequestKey.of(request, defaultModel);
+        AiResponse cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            logger.debug("AI response cache hit: {}", key);
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        // 相同请求已在进行中时直接等待它的结果
+        CompletableFuture<AiResponse> promise = new CompletableFuture<>();
+        CompletableFuture<AiResponse> existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            hits.incrementAndGet();
+            return existing;
+        }
+        misses.incrementAndGet();
+        delegate.generateResponseAsync(request).whenComplete((response, error) -> {
+            inFlight.remove(key, promise);
+            if (error != null) {
+                promise.completeExceptionally(error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error);
+                return;
+            }
+            store(key, response);
+            promise.complete(response);
+        });
+        return promise;
+    }
+
+    @Override
+    public AiResponse generateStreamingResponse(AiRequest request) {
+        return generateStreamingResponse(request, delta -> { });
+    }
+
+    @Override
+    public AiResponse generateStreamingResponse(AiRequest request, Consumer<String> onDelta) {
+        if (localCache == null || !request.isCacheable()) {
+            return delegate.generateStreamingResponse(request, onDelta);
+        }
+        String key = AiRequestKey.of(request, defaultModel);
+        AiResponse cached = lookup(key);
+        if (cached != null) {
+            // 命中时整段内容作为一次增量发出
+            hits.incrementAndGet();
+            String content = contentOf(cached);
+            if (content != null && !content.isEmpty()) {
+                onDelta.accept(content);
+            }
+            return cached;
+        }
+        misses.incrementAndGet();
+        AiResponse response = delegate.generateStreamingResponse(request, onDelta);
+        store(key, response);
+        return response;
+    }
+
+    @Override
+    public boolean testConnection() {
+        return delegate.testConnection();
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    private AiResponse lookup(String key) {
+        String json = localCache.get(key);
+        if (json == null && sharedCache != null) {
+            json = sharedCache.get(key);
+            if (json != null) {
+                localCache.put(key, json, ttl);
+            }
+        }
+        if (json == null) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(json, AiResponse.class);
+        } catch (JsonProcessingException e) {
+            logger.warn("Discarding unreadable cached AI response {}: {}", key, e.getMessage());
+            return null;
+        }
+    }
+
+    private void store(String key, AiResponse response) {
+        if (contentOf(response) == null) {
+            return;
+        }
+        try {
+            String json = objectMapper.writeValueAsString(response);
+            localCache.put(key, json, ttl);
+            if (sharedCache != null) {
+                sharedCache.put(key, json, ttl);
+            }
+        } catch (JsonProcessingException e) {
+            logger.warn("Failed to cache AI response {}: {}", key, e.getMessage());
+        }
+    }
+
+    private static String contentOf(AiResponse response) {
+        if (response == null || response.getChoices() == null || response.getChoices().length == 0
+            || response.getChoices()[0].getMessage() == null) {
+            return null;
+        }
+        return response.getChoices()[0].getMessage().getContent();
+    }
+}
@@ -3,22 +3,30 @@ package com.example.aiexcel.service.ai.impl;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.dto.AiResponse;
 import com.example.aiexcel.service.ai.AiService;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
 import java.util.logging.Logger;
 
 @Service
@@ -31,7 +39,7 @@ public class QwenAiService implements AiService {
     private final String apiKey;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
-    private final CloseableHttpClient httpClient = HttpClients.createDefault();
+    private final AiHttpTransport transport;
 
     private String maskKey(String key) {
         if (key == null) return "<null>";
@@ -46,9 +54,15 @@ public class QwenAiService implements AiService {
         logger.severe(context + ": " + e.getMessage() + "\n" + sw.toString());
     }
 
+    /**
+     * @param transport HTTP传输层，由调用方负责关闭（Spring容器中为共享的单例）
+     */
+    @Autowired
     public QwenAiService(@Value("${qwen.api.api-key:}") String apiKeyFromConfig,
                          @Value("${qwen.api.base-url:https://dashscope.aliyuncs.com/compatible-mode/v1}") String baseUrl,
-                         @Value("${qwen.api.default-model:qwen-max}") String model) {
+                         @Value("${qwen.api.default-model:qwen-max}") String model,
+                         AiHttpTransport transport) {
+        this.transport = transport;
         // 仅使用从配置属性获取的API Key，系统会自动从.env文件加载
         String resolvedKey = apiKeyFromConfig;
         if (resolvedKey == null || resolvedKey.isEmpty()) {
@@ -93,8 +107,10 @@ public class QwenAiService implements AiService {
         this.defaultModel = model;
     }
 
-    @Override
-    public AiResponse generateResponse(AiRequest request) {
+    /**
+     * 构建发往 /chat/completions 的请求体，异步和流式调用共用
+     */
+    private String createRequestBody(AiRequest request) throws IOException {
         // 如果没有设置模型，使用默认模型
         if (request.getModel() == null || request.getModel().isEmpty()) {
             request.setModel(defaultModel);
@@ -106,83 +122,171 @@ public class QwenAiService implements AiService {
             throw new RuntimeException("API Key is not configured. Please set QWEN_API_KEY in .env file.");
         }
 
+        // 创建请求体 - 移除不被Qwen API支持的字段
+        QwenRequest qwenRequest = new QwenRequest();
+        qwenRequest.setModel(request.getModel());
+        qwenRequest.setMessages(request.getMessages());
+        qwenRequest.setTemperature(request.getTemperature());
+        qwenRequest.setMax_tokens(request.getMaxTokens());
+        qwenRequest.setStream(request.getStream());
+
+        String requestBody = objectMapper.writeValueAsString(qwenRequest);
+
+        // 日志：记录请求目标和模型（不记录完整 API Key）
+        try {
+            logger.info("Qwen request -> url=" + apiBaseUrl + "/chat/completions" + ", model=" + qwenRequest.getModel() + ", apiKeyPresent=" + (apiKey != null && !apiKey.isEmpty()));
+            logger.info("Qwen API key (masked): " + maskKey(apiKey));
+            logger.fine("Qwen request body: " + requestBody);
+        } catch (Exception ignore) {
+            // 日志尽力而为，不能让日志抛出异常影响主流程
+        }
+
+        return requestBody;
+    }
+
+    @Override
+    public AiResponse generateResponse(AiRequest request) {
+        // 同步调用复用异步传输，共享同一个连接池
+        try {
+            return generateResponseAsync(request).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            logger.severe("Error calling Qwen API: " + cause.getMessage());
+            throw new RuntimeException("Error calling Qwen API", cause);
+        }
+    }
+
+    @Override
+    public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+        SimpleHttpRequest httpRequest;
         try {
-            // 创建请求体 - 移除不被Qwen API支持的字段
-            QwenRequest qwenRequest = new QwenRequest();
-            qwenRequest.setModel(request.getModel());
-            qwenRequest.setMessages(request.getMessages());
-            qwenRequest.setTemperature(request.getTemperature());
-            qwenRequest.setMax_tokens(request.getMaxTokens());
-            qwenRequest.setStream(request.getStream());
+            httpRequest = SimpleRequestBuilder.post(apiBaseUrl + "/chat/completions")
+                .setHeader("Authorization", "Bearer " + apiKey)
+                .setBody(createRequestBody(request), ContentType.APPLICATION_JSON)
+                .build();
+        } catch (IOException e) {
+            logger.severe("Error calling Qwen API: " + e.getMessage());
+            CompletableFuture<AiResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(new RuntimeException("Error calling Qwen API", e));
+            return failed;
+        } catch (RuntimeException e) {
+            CompletableFuture<AiResponse> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
 
-            String requestBody = objectMapper.writeValueAsString(qwenRequest);
+        // 响应在I/O线程上完成后再解析，等待期间不占用调用线程
+        return transport.execute(httpRequest).thenApply(httpResponse -> {
+            String body = httpResponse.getBodyText() != null ? httpResponse.getBodyText() : "";
+            int status = httpResponse.getCode();
+            if (status != 200) {
+                // 更丰富的错误日志
+                logger.severe("API request failed -> url=" + apiBaseUrl + "/chat/completions" + ", status=" + status + ", model=" + request.getModel());
+                logger.severe("Response body: " + body);
+                logger.severe("API key (masked): " + maskKey(apiKey));
+                throw new RuntimeException("API request failed with status: " + status + ", response: " + body);
+            }
 
-            // 日志：记录请求目标和模型（不记录完整 API Key）
+            // 解析响应
             try {
-                logger.info("Qwen request -> url=" + apiBaseUrl + "/chat/completions" + ", model=" + qwenRequest.getModel() + ", apiKeyPresent=" + (apiKey != null && !apiKey.isEmpty()));
-                logger.info("Qwen API key (masked): " + maskKey(apiKey));
-                logger.fine("Qwen request body: " + requestBody);
-            } catch (Exception ignore) {
-                // 日志尽力而为，不能让日志抛出异常影响主流程
+                return objectMapper.readValue(body, AiResponse.class);
+            } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
+                logger.severe("Error parsing AI response: " + e.getMessage());
+                logger.severe("Response content: " + body);
+                logExceptionWithTrace(e, "Error parsing AI response");
+                throw new RuntimeException("Error parsing AI response", e);
             }
+        });
+    }
 
-            // 创建HTTP请求
+    @Override
+    public AiResponse generateStreamingResponse(AiRequest request) {
+        return generateStreamingResponse(request, delta -> { });
+    }
+
+    @Override
+    public AiResponse generateStreamingResponse(AiRequest request, Consumer<String> onDelta) {
+        request.setStream(true);
+        try {
             HttpPost httpPost = new HttpPost(apiBaseUrl + "/chat/completions");
             httpPost.setHeader("Authorization", "Bearer " + apiKey);
-            httpPost.setHeader("Content-Type", "application/json");
-
-            StringEntity entity = new StringEntity(requestBody, ContentType.APPLICATION_JSON);
-            httpPost.setEntity(entity);
+            httpPost.setHeader("Accept", "text/event-stream");
+            httpPost.setEntity(new StringEntity(createRequestBody(request), ContentType.APPLICATION_JSON));
 
-            // 发送请求，使用 ResponseHandler
-            String responseString = httpClient.execute(httpPost, httpResponse -> {
+            // 逐行读取 text/event-stream，每个 data: 事件携带一段增量内容，收到即回调
+            return transport.getStreamingClient().execute(httpPost, httpResponse -> {
                 HttpEntity responseEntity = httpResponse.getEntity();
-                String body;
-                try {
-                    body = responseEntity != null ? EntityUtils.toString(responseEntity) : "";
-                } catch (org.apache.hc.core5.http.ParseException e) {
-                    logExceptionWithTrace(e, "Error parsing HTTP response");
-                    throw new RuntimeException("Error parsing HTTP response", e);
-                }
-
                 int status = httpResponse.getCode();
                 if (status != 200) {
-                    // 更丰富的错误日志
-                    logger.severe("API request failed -> url=" + apiBaseUrl + "/chat/completions" + ", status=" + status + ", model=" + qwenRequest.getModel());
+                    String body;
+                    try {
+                        body = responseEntity != null ? EntityUtils.toString(responseEntity) : "";
+                    } catch (org.apache.hc.core5.http.ParseException e) {
+                        logExceptionWithTrace(e, "Error parsing HTTP response");
+                        throw new RuntimeException("Error parsing HTTP response", e);
+                    }
+                    logger.severe("Streaming API request failed -> url=" + apiBaseUrl + "/chat/completions" + ", status=" + status + ", model=" + request.getModel());
                     logger.severe("Response body: " + body);
-                    logger.severe("API key (masked): " + maskKey(apiKey));
                     throw new RuntimeException("API request failed with status: " + status + ", response: " + body);
                 }
+                if (responseEntity == null) {
+                    throw new RuntimeException("Streaming API returned an empty body");
+                }
 
-                return body;
-            });
-
-            // 解析响应
-            AiResponse aiResponse;
-            try {
-                aiResponse = objectMapper.readValue(responseString, AiResponse.class);
-            } catch (com.fasterxml.jackson.core.JsonProcessingException e) {
-                logger.severe("Error parsing AI response: " + e.getMessage());
-                logger.severe("Response content: " + responseString);
-                logExceptionWithTrace(e, "Error parsing AI response");
-                throw new RuntimeException("Error parsing AI response", e);
-            }
+                StringBuilder content = new StringBuilder();
+                String id = null;
+                String model = null;
+                String finishReason = null;
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(responseEntity.getContent(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (!line.startsWith("data:")) {
+                            // 空行是事件分隔符，以冒号开头的是注释/心跳
+                            continue;
+                        }
+                        String data = line.substring(5).trim();
+                        if ("[DONE]".equals(data)) {
+                            break;
+                        }
+                        if (data.isEmpty()) {
+                            continue;
+                        }
+                        JsonNode chunk = objectMapper.readTree(data);
+                        if (id == null && chunk.hasNonNull("id")) {
+                            id = chunk.get("id").asText();
+                        }
+                        if (model == null && chunk.hasNonNull("model")) {
+                            model = chunk.get("model").asText();
+                        }
+                        JsonNode choice = chunk.path("choices").path(0);
+                        String delta = choice.path("delta").path("content").asText("");
+                        if (!delta.isEmpty()) {
+                            content.append(delta);
+                            onDelta.accept(delta);
+                        }
+                        if (choice.hasNonNull("finish_reason")) {
+                            finishReason = choice.get("finish_reason").asText();
+                        }
+                    }
+                }
 
-            return aiResponse;
+                AiResponse aiResponse = new AiResponse(content.toString());
+                aiResponse.setId(id);
+                aiResponse.setModel(model);
+                aiResponse.setObject("chat.completion");
+                aiResponse.getChoices()[0].setFinish_reason(finishReason);
+                return aiResponse;
+            });
         } catch (IOException e) {
-            logger.severe("Error calling Qwen API: " + e.getMessage());
+            logger.severe("Error calling Qwen streaming API: " + e.getMessage());
             throw new RuntimeException("Error calling Qwen API", e);
         }
     }
 
-    @Override
-    public AiResponse generateStreamingResponse(AiRequest request) {
-        // 对于流式响应，我们暂时返回非流式的响应
-        // 在实际实现中，这里应该使用 SSE 或 WebSocket 实现真正的流式响应
-        request.setStream(true);
-        return generateResponse(request);
-    }
-
     @Override
     public boolean testConnection() {
         // 检查API密钥 - 仅使用配置属性获取的值
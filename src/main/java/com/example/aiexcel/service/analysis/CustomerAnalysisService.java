@@ -1,5 +1,6 @@
 package com.example.aiexcel.service.analysis;
 
+import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -7,9 +8,15 @@ import java.util.Map;
 
 public interface CustomerAnalysisService {
     Map<String, Object> performRFMAnalysis(MultipartFile file) throws IOException;
+    Map<String, Object> performRFMAnalysis(Workbook workbook);
     Map<String, Object> calculateCustomerLifetimeValue(MultipartFile file) throws IOException;
+    Map<String, Object> calculateCustomerLifetimeValue(Workbook workbook);
     Map<String, Object> segmentCustomers(MultipartFile file) throws IOException;
+    Map<String, Object> segmentCustomers(Workbook workbook);
     Map<String, Object> predictChurnRisk(MultipartFile file) throws IOException;
+    Map<String, Object> predictChurnRisk(Workbook workbook);
     Map<String, Object> calculateCACvsCLV(MultipartFile file) throws IOException;
+    Map<String, Object> calculateCACvsCLV(Workbook workbook);
     Map<String, Object> analyzeCustomerCohorts(MultipartFile file) throws IOException;
+    Map<String, Object> analyzeCustomerCohorts(Workbook workbook);
 }
\ No newline at end of file
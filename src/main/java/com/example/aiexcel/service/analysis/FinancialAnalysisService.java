@@ -1,5 +1,6 @@
 package com.example.aiexcel.service.analysis;
 
+import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
@@ -7,8 +8,13 @@ import java.util.Map;
 
 public interface FinancialAnalysisService {
     Map<String, Object> analyzeFinancialStatements(MultipartFile file, String analysisType) throws IOException;
+    Map<String, Object> analyzeFinancialStatements(Workbook workbook, String analysisType);
     Map<String, Object> calculateFinancialRatios(MultipartFile file) throws IOException;
+    Map<String, Object> calculateFinancialRatios(Workbook workbook);
     Map<String, Object> analyzeProfitability(MultipartFile file) throws IOException;
+    Map<String, Object> analyzeProfitability(Workbook workbook);
     Map<String, Object> analyzeCashFlow(MultipartFile file) throws IOException;
+    Map<String, Object> analyzeCashFlow(Workbook workbook);
     Map<String, Object> compareBudgetVsActual(MultipartFile file) throws IOException;
+    Map<String, Object> compareBudgetVsActual(Workbook workbook);
 }
\ No newline at end of file
@@ -3,6 +3,7 @@ package com.example.aiexcel.service.analysis.impl;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.service.ai.AiService;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.prompt.PromptContextBuilder;
 import com.example.aiexcel.service.analysis.CustomerAnalysisService;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,17 +22,27 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private PromptContextBuilder promptContextBuilder;
+
     @Override
     public Map<String, Object> performRFMAnalysis(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return performRFMAnalysis(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> performRFMAnalysis(Workbook workbook) {
+        return performRFMAnalysis(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> performRFMAnalysis(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行RFM分析
+        // 1. 构建AI请求进行RFM分析
         String prompt = String.format(
             "This is customer transaction data:\n\n%s\n\n" +
             "Perform RFM (Recency, Frequency, Monetary) analysis on this data. " +
@@ -57,10 +68,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("rfmAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "RFM Analysis");
@@ -71,15 +82,22 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
 
     @Override
     public Map<String, Object> calculateCustomerLifetimeValue(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return calculateCustomerLifetimeValue(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> calculateCustomerLifetimeValue(Workbook workbook) {
+        return calculateCustomerLifetimeValue(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> calculateCustomerLifetimeValue(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行CLV计算
+        // 1. 构建AI请求进行CLV计算
         String prompt = String.format(
             "This is customer data:\n\n%s\n\n" +
             "Calculate Customer Lifetime Value (CLV) for the customers. " +
@@ -102,10 +120,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("clvAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Customer Lifetime Value");
@@ -116,15 +134,22 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
 
     @Override
     public Map<String, Object> segmentCustomers(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return segmentCustomers(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> segmentCustomers(Workbook workbook) {
+        return segmentCustomers(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> segmentCustomers(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行客户细分
+        // 1. 构建AI请求进行客户细分
         String prompt = String.format(
             "This is customer data:\n\n%s\n\n" +
             "Perform customer segmentation analysis. " +
@@ -151,10 +176,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("customerSegmentation", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Customer Segmentation");
@@ -165,15 +190,22 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
 
     @Override
     public Map<String, Object> predictChurnRisk(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return predictChurnRisk(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> predictChurnRisk(Workbook workbook) {
+        return predictChurnRisk(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> predictChurnRisk(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行流失风险预测
+        // 1. 构建AI请求进行流失风险预测
         String prompt = String.format(
             "This is customer data:\n\n%s\n\n" +
             "Analyze customer churn risk. " +
@@ -201,10 +233,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("churnAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Churn Risk Prediction");
@@ -215,15 +247,22 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
 
     @Override
     public Map<String, Object> calculateCACvsCLV(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return calculateCACvsCLV(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> calculateCACvsCLV(Workbook workbook) {
+        return calculateCACvsCLV(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> calculateCACvsCLV(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行CAC与CLV分析
+        // 1. 构建AI请求进行CAC与CLV分析
         String prompt = String.format(
             "This is customer acquisition and transaction data:\n\n%s\n\n" +
             "Calculate and analyze Customer Acquisition Cost (CAC) versus Customer Lifetime Value (CLV). " +
@@ -247,10 +286,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("cacClvAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "CAC vs CLV Analysis");
@@ -261,15 +300,22 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
 
     @Override
     public Map<String, Object> analyzeCustomerCohorts(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return analyzeCustomerCohorts(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> analyzeCustomerCohorts(Workbook workbook) {
+        return analyzeCustomerCohorts(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> analyzeCustomerCohorts(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行队列分析
+        // 1. 构建AI请求进行队列分析
         String prompt = String.format(
             "This is customer transaction data with dates:\n\n%s\n\n" +
             "Perform customer cohort analysis. " +
@@ -296,10 +342,10 @@ public class CustomerAnalysisServiceImpl implements CustomerAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("cohortAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Cohort Analysis");
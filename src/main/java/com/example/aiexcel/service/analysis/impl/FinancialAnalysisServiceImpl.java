@@ -3,6 +3,7 @@ package com.example.aiexcel.service.analysis.impl;
 import com.example.aiexcel.dto.AiRequest;
 import com.example.aiexcel.service.ai.AiService;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.prompt.PromptContextBuilder;
 import com.example.aiexcel.service.analysis.FinancialAnalysisService;
 import org.apache.poi.ss.usermodel.Workbook;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,17 +22,27 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
     @Autowired
     private ExcelService excelService;
 
+    @Autowired
+    private PromptContextBuilder promptContextBuilder;
+
     @Override
     public Map<String, Object> analyzeFinancialStatements(MultipartFile file, String analysisType) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return analyzeFinancialStatements(promptContextBuilder.build(file), analysisType);
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> analyzeFinancialStatements(Workbook workbook, String analysisType) {
+        return analyzeFinancialStatements(promptContextBuilder.build(workbook), analysisType);
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> analyzeFinancialStatements(String excelData, String analysisType) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行财务报表分析
+        // 1. 构建AI请求进行财务报表分析
         String prompt = String.format(
             "This is financial data:\n\n%s\n\n" +
             "Perform %s financial statement analysis. " +
@@ -53,10 +64,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("financialAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", analysisType);
@@ -67,15 +78,22 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
 
     @Override
     public Map<String, Object> calculateFinancialRatios(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return calculateFinancialRatios(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> calculateFinancialRatios(Workbook workbook) {
+        return calculateFinancialRatios(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> calculateFinancialRatios(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行财务比率计算
+        // 1. 构建AI请求进行财务比率计算
         String prompt = String.format(
             "This is financial data:\n\n%s\n\n" +
             "Calculate key financial ratios including: " +
@@ -111,10 +129,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("financialRatios", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Financial Ratios");
@@ -125,15 +143,22 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
 
     @Override
     public Map<String, Object> analyzeProfitability(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return analyzeProfitability(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> analyzeProfitability(Workbook workbook) {
+        return analyzeProfitability(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> analyzeProfitability(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行盈利能力分析
+        // 1. 构建AI请求进行盈利能力分析
         String prompt = String.format(
             "This is financial data:\n\n%s\n\n" +
             "Perform comprehensive profitability analysis. " +
@@ -161,10 +186,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("profitabilityAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Profitability Analysis");
@@ -175,15 +200,22 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
 
     @Override
     public Map<String, Object> analyzeCashFlow(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return analyzeCashFlow(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> analyzeCashFlow(Workbook workbook) {
+        return analyzeCashFlow(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> analyzeCashFlow(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行现金流分析
+        // 1. 构建AI请求进行现金流分析
         String prompt = String.format(
             "This is financial data:\n\n%s\n\n" +
             "Perform comprehensive cash flow analysis. " +
@@ -210,10 +242,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("cashFlowAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Cash Flow Analysis");
@@ -224,15 +256,22 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
 
     @Override
     public Map<String, Object> compareBudgetVsActual(MultipartFile file) throws IOException {
-        Map<String, Object> result = new HashMap<>();
+        // 流式读取，不构建完整工作簿
+        return compareBudgetVsActual(promptContextBuilder.build(file));
+    }
 
-        // 1. 加载Excel文件
-        Workbook workbook = excelService.loadWorkbook(file);
+    @Override
+    public Map<String, Object> compareBudgetVsActual(Workbook workbook) {
+        return compareBudgetVsActual(promptContextBuilder.build(workbook));
+    }
 
-        // 2. 获取Excel数据
-        String excelData = excelService.getExcelDataAsString(workbook);
+    /**
+     * @param excelData 按Token预算构建的表格上下文
+     */
+    private Map<String, Object> compareBudgetVsActual(String excelData) {
+        Map<String, Object> result = new HashMap<>();
 
-        // 3. 构建AI请求进行预算与实际对比分析
+        // 1. 构建AI请求进行预算与实际对比分析
         String prompt = String.format(
             "This is budget vs actual financial data:\n\n%s\n\n" +
             "Perform budget vs actual variance analysis. " +
@@ -261,10 +300,10 @@ public class FinancialAnalysisServiceImpl implements FinancialAnalysisService {
             new AiRequest.Message("user", prompt)
         ));
 
-        // 4. 调用AI服务
+        // 2. 调用AI服务
         var aiResponse = aiService.generateResponse(aiRequest);
 
-        // 5. 构建结果
+        // 3. 构建结果
         result.put("budgetActualAnalysis", aiResponse.getChoices()[0].getMessage().getContent());
         result.put("excelDataPreview", excelData.substring(0, Math.min(excelData.length(), 500)) + "...");
         result.put("analysisType", "Budget vs Actual");
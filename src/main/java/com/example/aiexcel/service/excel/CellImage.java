@@ -0,0 +1,113 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.util.Objects;
+
+/**
+ * 单元格内容快照，type为null表示单元格不存在
+ * 公式单元格同时记录缓存的计算结果，还原后不需要重算即可读取。
+ * 供WorkbookChangeJournal和WorkbookDelta序列化使用。
+ */
+class CellImage {
+    int row;
+    int col;
+    CellType type;
+    Object value;
+    String formula;
+    CellType cachedType;
+    Integer style;
+
+    static CellImage of(Cell cell, int row, int col) {
+        CellImage image = new CellImage();
+        image.row = row;
+        image.col = col;
+        if (cell == null) {
+            return image;
+        }
+        image.type = cell.getCellType();
+        image.style = (int) cell.getCellStyle().getIndex();
+        CellType valueType = image.type;
+        if (image.type == CellType.FORMULA) {
+            image.formula = cell.getCellFormula();
+            valueType = image.cachedType = cell.getCachedFormulaResultType();
+        }
+        switch (valueType) {
+            case STRING:
+                image.value = cell.getStringCellValue();
+                break;
+            case NUMERIC:
+                image.value = cell.getNumericCellValue();
+                break;
+            case BOOLEAN:
+                image.value = cell.getBooleanCellValue();
+                break;
+            case ERROR:
+                image.value = (int) cell.getErrorCellValue();
+                break;
+            default:
+                break;
+        }
+        return image;
+    }
+
+    boolean sameContent(CellImage other) {
+        return type == other.type
+            && Objects.equals(value, other.value)
+            && Objects.equals(formula, other.formula)
+            && cachedType == other.cachedType
+            && Objects.equals(style, other.style);
+    }
+
+    void restore(Sheet sheet) {
+        Row r = sheet.getRow(row);
+        if (type == null) {
+            Cell existing = r != null ? r.getCell(col) : null;
+            if (existing != null) {
+                r.removeCell(existing);
+            }
+            return;
+        }
+        if (r == null) {
+            r = sheet.createRow(row);
+        }
+        Cell cell = r.getCell(col);
+        if (cell == null) {
+            cell = r.createCell(col);
+        } else {
+            cell.setBlank(); // 同时去掉公式，否则写入的值只会成为公式的缓存结果
+        }
+        CellType valueType = type;
+        if (type == CellType.FORMULA) {
+            cell.setCellFormula(formula);
+            valueType = cachedType;
+        }
+        // 公式单元格上写入的值即为缓存结果
+        if (valueType != null && value != null) {
+            switch (valueType) {
+                case STRING:
+                    cell.setCellValue((String) value);
+                    break;
+                case NUMERIC:
+                    cell.setCellValue(((Number) value).doubleValue());
+                    break;
+                case BOOLEAN:
+                    cell.setCellValue((Boolean) value);
+                    break;
+                case ERROR:
+                    cell.setCellErrorValue(((Number) value).byteValue());
+                    break;
+                default:
+                    break;
+            }
+        }
+        Workbook workbook = sheet.getWorkbook();
+        if (style != null && style < workbook.getNumCellStyles()) {
+            cell.setCellStyle(workbook.getCellStyleAt(style));
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.aiexcel.service.excel;
+
+/**
+ * 公式计算上下文的作用范围
+ * 在请求线程之外（测试、写入队列线程、会话回调、异步任务）打开一个范围后，
+ * 当前线程对同一工作簿的所有读取和写入共享一个WorkbookEvaluationContext，直到范围关闭。
+ * 嵌套打开时复用外层范围。
+ */
+public interface EvaluationScope extends AutoCloseable {
+
+    @Override
+    void close();
+}
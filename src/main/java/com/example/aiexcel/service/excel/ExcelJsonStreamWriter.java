@@ -0,0 +1,111 @@
+package com.example.aiexcel.service.excel;
+
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 表格数据的流式JSON输出
+ * 从行游标逐行拉取数据并立即写出，不构建完整的二维数组，
+ * 输出占用的内存与工作表行数无关；每写出一定行数刷新一次，首字节在读完最后一行之前发出。
+ * 使用Spring配置的ObjectMapper，单元格值（如日期）的序列化方式与普通JSON响应一致。
+ */
+@Component
+public class ExcelJsonStreamWriter {
+
+    /**
+     * 行宽取第0行的单元格数（第0行缺失时为0），与getExcelDataAsArray一致
+     */
+    public static final int HEADER_ROW_WIDTH = -1;
+
+    private static final int FLUSH_EVERY_ROWS = 500;
+
+    private final ObjectMapper objectMapper;
+
+    @Autowired
+    public ExcelJsonStreamWriter(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * 创建写入输出流的JSON生成器，关闭生成器时不关闭输出流
+     */
+    public JsonGenerator createGenerator(OutputStream out) throws IOException {
+        JsonGenerator generator = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return generator;
+    }
+
+    /**
+     * 把游标当前工作表的剩余行写成二维数组
+     * 缺失的行和行内缺失的单元格补齐到固定宽度，超出宽度的单元格截断。
+     * @param width 行宽，HEADER_ROW_WIDTH表示取第0行的宽度
+     * @param asText true时写出展示用字符串（缺失单元格为空字符串），false时写出原始值（缺失单元格为null）
+     * @return 写出的行数
+     */
+    public int writeRows(JsonGenerator generator, ExcelRowCursor cursor, int width, boolean asText) throws IOException {
+        int written = 0;
+        generator.writeStartArray();
+        while (cursor.nextRow()) {
+            int rowIndex = cursor.getRowIndex();
+            Object[] values = cursor.getRowValues();
+            if (width == HEADER_ROW_WIDTH) {
+                width = rowIndex == 0 ? values.length : 0;
+            }
+            // 缺失的行以空行占位，保持行索引对齐
+            while (written < rowIndex) {
+                writeRow(generator, null, width, asText);
+                written++;
+            }
+            writeRow(generator, values, width, asText);
+            written++;
+            if (written % FLUSH_EVERY_ROWS == 0) {
+                generator.flush();
+            }
+        }
+        generator.writeEndArray();
+        return written;
+    }
+
+    /**
+     * 把只读数据帧的全部行写成二维数组，行号对齐方式与游标版本一致
+     * @return 写出的行数
+     */
+    public int writeRows(JsonGenerator generator, SheetFrame frame, int width, boolean asText) throws IOException {
+        int written = 0;
+        generator.writeStartArray();
+        for (int row = 0; row < frame.getRowCount(); row++) {
+            int rowIndex = frame.getRowNumber(row);
+            while (written < rowIndex) {
+                writeRow(generator, null, width, asText);
+                written++;
+            }
+            writeRow(generator, frame.getRow(row), width, asText);
+            written++;
+            if (written % FLUSH_EVERY_ROWS == 0) {
+                generator.flush();
+            }
+        }
+        generator.writeEndArray();
+        return written;
+    }
+
+    private void writeRow(JsonGenerator generator, Object[] values, int width, boolean asText) throws IOException {
+        generator.writeStartArray();
+        for (int i = 0; i < width; i++) {
+            Object value = values != null && i < values.length ? values[i] : null;
+            if (asText) {
+                generator.writeString(ExcelRowCursor.formatValue(value));
+            } else {
+                generator.writeObject(value);
+            }
+        }
+        generator.writeEndArray();
+    }
+}
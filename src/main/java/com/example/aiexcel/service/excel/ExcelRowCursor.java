@@ -0,0 +1,88 @@
+package com.example.aiexcel.service.excel;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * 只读行游标
+ * 按工作表、按行顺序拉取单元格值，不构建完整的工作簿对象，
+ * 峰值内存只与单行宽度相关，与工作表总行数无关。
+ *
+ * 使用方式：
+ * <pre>
+ * try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+ *     while (cursor.nextSheet()) {
+ *         while (cursor.nextRow()) {
+ *             Object[] values = cursor.getRowValues();
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * 单元格值类型：String、Double、Boolean、Date，空单元格为null，错误单元格为"#ERROR!"。
+ * 公式单元格返回其计算结果。
+ */
+public interface ExcelRowCursor extends Closeable {
+
+    /**
+     * 前进到下一个工作表
+     * @return 是否还有工作表
+     */
+    boolean nextSheet() throws IOException;
+
+    /**
+     * 当前工作表名称
+     */
+    String getSheetName();
+
+    /**
+     * 当前工作表索引（从0开始）
+     */
+    int getSheetIndex();
+
+    /**
+     * 前进到当前工作表的下一个非空行
+     * @return 是否还有行
+     */
+    boolean nextRow() throws IOException;
+
+    /**
+     * 当前行索引（从0开始），缺失的行会被跳过，因此索引可能不连续
+     */
+    int getRowIndex();
+
+    /**
+     * 当前行的单元格值，数组长度为该行最后一个单元格的列索引+1，缺失单元格为null
+     */
+    Object[] getRowValues();
+
+    /**
+     * 当前行中公式单元格的个数（getRowValues中它们的值是计算结果）
+     * 没有公式概念的格式（如CSV）返回0。
+     */
+    default int getRowFormulaCount() {
+        return 0;
+    }
+
+    /**
+     * 将单元格值转换为展示用字符串（整数不带小数位，空值为空字符串）
+     */
+    static String formatValue(Object value) {
+        if (value == null) {
+            return "";
+        }
+        if (value instanceof Double) {
+            double d = (Double) value;
+            // 检查是否为整数
+            if (d == Math.floor(d) && !Double.isInfinite(d)) {
+                return String.valueOf((long) d);
+            }
+            return String.valueOf(d);
+        }
+        if (value instanceof Date) {
+            return value.toString();
+        }
+        return value.toString();
+    }
+}
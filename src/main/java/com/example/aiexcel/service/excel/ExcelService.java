@@ -5,6 +5,7 @@ import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.List;
 
 public interface ExcelService {
     Workbook loadWorkbook(MultipartFile file) throws IOException;
@@ -24,10 +25,30 @@ public interface ExcelService {
     void insertColumn(Workbook workbook, String sheetName, int colIndex, Object[] values);
     void deleteRow(Workbook workbook, String sheetName, int rowIndex);
     void deleteColumn(Workbook workbook, String sheetName, int colIndex);
+    void applyStructuralEdits(Workbook workbook, String sheetName, List<StructuralEdit> edits);
     void applyFormula(Workbook workbook, String sheetName, int rowIndex, int colIndex, String formula);
     String getCellValue(Workbook workbook, String sheetName, int rowIndex, int colIndex);
     int getRowCount(Workbook workbook, String sheetName);
     int getColumnCount(Workbook workbook, String sheetName, int rowIndex);
     String[] getExcelHeaders(Workbook workbook);
     void evaluateAllFormulasInWorkbook(Workbook workbook);
+    void evaluateFormulasAffectedBy(Workbook workbook, WorkbookChangeJournal journal);
+
+    // Shared formula evaluation (one evaluator and value cache per workbook per request or scope)
+    WorkbookEvaluationContext getEvaluationContext(Workbook workbook);
+    void invalidateEvaluationContext(Workbook workbook);
+    EvaluationScope openEvaluationScope();
+
+    // Copy-on-write change journal (before-images of cells written through this service)
+    WorkbookChangeJournal beginChangeJournal(Workbook workbook);
+    WorkbookChangeJournal endChangeJournal(Workbook workbook);
+
+    // Streaming read-only access (event model, no workbook DOM)
+    ExcelRowCursor openRowCursor(MultipartFile file) throws IOException;
+    ExcelRowCursor openRowCursor(InputStream inputStream) throws IOException;
+    ExcelRowCursor openRowCursor(Workbook workbook);
+    ExcelRowCursor openRowCursor(Workbook workbook, int sheetIndex, int[] rowNumbers);
+    String getExcelDataAsString(MultipartFile file) throws IOException;
+    Object[][] getExcelDataAsArray(MultipartFile file) throws IOException;
+    String[] getExcelHeaders(MultipartFile file) throws IOException;
 }
\ No newline at end of file
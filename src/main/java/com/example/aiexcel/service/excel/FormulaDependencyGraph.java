@@ -0,0 +1,564 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.AbstractFunctionPtg;
+import org.apache.poi.ss.formula.ptg.Area3DPtg;
+import org.apache.poi.ss.formula.ptg.AreaErrPtg;
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.formula.ptg.Deleted3DPxg;
+import org.apache.poi.ss.formula.ptg.DeletedArea3DPtg;
+import org.apache.poi.ss.formula.ptg.DeletedRef3DPtg;
+import org.apache.poi.ss.formula.ptg.ExpPtg;
+import org.apache.poi.ss.formula.ptg.NamePtg;
+import org.apache.poi.ss.formula.ptg.NameXPtg;
+import org.apache.poi.ss.formula.ptg.NameXPxg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Pxg;
+import org.apache.poi.ss.formula.ptg.Pxg3D;
+import org.apache.poi.ss.formula.ptg.Ref3DPtg;
+import org.apache.poi.ss.formula.ptg.RefErrorPtg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * 公式依赖图
+ * 解析工作簿中每个公式引用的单元格和区域，建立"被引用单元格 -> 依赖公式"的反向索引，
+ * 用于在修改后只重新计算受影响公式的传递闭包，而不是整个工作簿。
+ *
+ * 单元格引用按工作表、列、行索引；区域引用按列分桶，过宽的区域单独存放。
+ * 每个公式单独记录自己的引用，公式被改写或行列结构变化时只重新解析受影响的公式，不必重建整张图。
+ * 无法静态确定依赖的公式（易失函数、名称、跨工作簿或三维引用、#REF!等）视为每次都需要重新计算。
+ */
+public class FormulaDependencyGraph {
+
+    // 区域跨越的列数超过该值时不再按列分桶，避免整行引用撑大索引
+    private static final int MAX_BUCKETED_AREA_WIDTH = 64;
+
+    // 结果依赖于计算时机或单元格位置、无法通过引用关系追踪的函数
+    private static final Set<String> VOLATILE_FUNCTIONS = new HashSet<>(Arrays.asList(
+        "NOW", "TODAY", "RAND", "RANDBETWEEN", "OFFSET", "INDIRECT", "CELL", "INFO", "ROW", "COLUMN"
+    ));
+
+    private final Workbook workbook;
+    private final Map<CellReference, FormulaNode> formulas = new HashMap<>();
+    private final Set<CellReference> volatileCells = new LinkedHashSet<>();
+    private final Map<String, SheetIndex> sheets = new HashMap<>();
+
+    private FormulaDependencyGraph(Workbook workbook) {
+        this.workbook = workbook;
+    }
+
+    /**
+     * 解析工作簿中的全部公式构建依赖图
+     * @return 依赖图；工作簿类型不支持公式解析时返回null
+     */
+    public static FormulaDependencyGraph build(Workbook workbook) {
+        FormulaParsingWorkbook parsingWorkbook = createParsingWorkbook(workbook);
+        if (parsingWorkbook == null) {
+            return null;
+        }
+
+        FormulaDependencyGraph graph = new FormulaDependencyGraph(workbook);
+        for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
+            Sheet sheet = workbook.getSheetAt(sheetIndex);
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() == CellType.FORMULA) {
+                        graph.addFormulaCell(parsingWorkbook, sheet, sheetIndex, cell);
+                    }
+                }
+            }
+        }
+        return graph;
+    }
+
+    private static FormulaParsingWorkbook createParsingWorkbook(Workbook workbook) {
+        if (workbook instanceof XSSFWorkbook) {
+            return XSSFEvaluationWorkbook.create((XSSFWorkbook) workbook);
+        } else if (workbook instanceof HSSFWorkbook) {
+            return HSSFEvaluationWorkbook.create((HSSFWorkbook) workbook);
+        }
+        return null;
+    }
+
+    /**
+     * 单元格被写入后更新其依赖边：原公式的引用全部移除，当前仍是公式时重新解析
+     */
+    public void updateCell(Cell cell) {
+        Sheet sheet = cell.getSheet();
+        removeFormula(cellKey(sheet.getSheetName(), cell.getRowIndex(), cell.getColumnIndex()));
+        if (cell.getCellType() == CellType.FORMULA) {
+            addFormulaCell(createParsingWorkbook(workbook), sheet, workbook.getSheetIndex(sheet), cell);
+        }
+    }
+
+    /**
+     * 单元格被删除后移除其依赖边
+     */
+    public void removeCell(String sheetName, int rowIndex, int colIndex) {
+        removeFormula(cellKey(sheetName, rowIndex, colIndex));
+    }
+
+    /**
+     * 区域被批量写入后重新解析区域内的公式
+     */
+    public void updateRange(String sheetName, CellRangeAddress region) {
+        for (CellReference formulaCell : getFormulaCellsIn(sheetName, region)) {
+            removeFormula(formulaCell);
+        }
+        Sheet sheet = workbook.getSheet(sheetName);
+        if (sheet != null) {
+            addFormulaCellsIn(createParsingWorkbook(workbook), sheet, region);
+        }
+    }
+
+    /**
+     * 在rowIndex处插入或删除行之后更新依赖图
+     * 只有位于rowIndex及其下方的公式换了位置，只有引用了这些行的公式可能被改写，其余公式的依赖边保持不变。
+     */
+    public void updateAfterRowsShifted(String sheetName, int rowIndex) {
+        SpreadsheetVersion version = workbook.getSpreadsheetVersion();
+        updateAfterShift(sheetName, new CellRangeAddress(rowIndex, version.getLastRowIndex(),
+            0, version.getLastColumnIndex()));
+    }
+
+    /**
+     * 在colIndex处插入或删除列之后更新依赖图（原因同行）
+     */
+    public void updateAfterColumnsShifted(String sheetName, int colIndex) {
+        SpreadsheetVersion version = workbook.getSpreadsheetVersion();
+        updateAfterShift(sheetName, new CellRangeAddress(0, version.getLastRowIndex(),
+            colIndex, version.getLastColumnIndex()));
+    }
+
+    private void updateAfterShift(String sheetName, CellRangeAddress shifted) {
+        // 引用了移动区域的公式位置不变，但引用可能已被调整或变为#REF!；无法追踪的公式也可能引用了该区域
+        Set<CellReference> rewritten = new LinkedHashSet<>(getDependents(sheetName, shifted));
+        rewritten.addAll(volatileCells);
+        for (CellReference formulaCell : getFormulaCellsIn(sheetName, shifted)) {
+            rewritten.remove(formulaCell);
+            removeFormula(formulaCell);
+        }
+        for (CellReference formulaCell : rewritten) {
+            removeFormula(formulaCell);
+        }
+
+        FormulaParsingWorkbook parsingWorkbook = createParsingWorkbook(workbook);
+        Sheet sheet = workbook.getSheet(sheetName);
+        if (sheet != null) {
+            addFormulaCellsIn(parsingWorkbook, sheet, shifted);
+        }
+        for (CellReference formulaCell : rewritten) {
+            Sheet formulaSheet = workbook.getSheet(formulaCell.getSheetName());
+            Row row = formulaSheet != null ? formulaSheet.getRow(formulaCell.getRow()) : null;
+            Cell cell = row != null ? row.getCell(formulaCell.getCol()) : null;
+            if (cell != null && cell.getCellType() == CellType.FORMULA) {
+                addFormulaCell(parsingWorkbook, formulaSheet, workbook.getSheetIndex(formulaSheet), cell);
+            }
+        }
+    }
+
+    private void addFormulaCellsIn(FormulaParsingWorkbook parsingWorkbook, Sheet sheet, CellRangeAddress region) {
+        int sheetIndex = workbook.getSheetIndex(sheet);
+        int lastRow = Math.min(region.getLastRow(), sheet.getLastRowNum());
+        for (int rowIndex = Math.max(region.getFirstRow(), sheet.getFirstRowNum()); rowIndex <= lastRow; rowIndex++) {
+            Row row = sheet.getRow(rowIndex);
+            if (row == null) {
+                continue;
+            }
+            for (Cell cell : row) {
+                if (cell.getColumnIndex() >= region.getFirstColumn() && cell.getColumnIndex() <= region.getLastColumn()
+                    && cell.getCellType() == CellType.FORMULA) {
+                    addFormulaCell(parsingWorkbook, sheet, sheetIndex, cell);
+                }
+            }
+        }
+    }
+
+    private void addFormulaCell(FormulaParsingWorkbook parsingWorkbook, Sheet sheet, int sheetIndex, Cell cell) {
+        String sheetName = sheet.getSheetName();
+        CellReference formulaCell = cellKey(sheetName, cell.getRowIndex(), cell.getColumnIndex());
+        FormulaNode node = new FormulaNode(formulaCell);
+        formulas.put(formulaCell, node);
+        sheetIndex(sheetName).formulaCellsByColumn
+            .computeIfAbsent(cell.getColumnIndex(), k -> new TreeMap<>()).put(cell.getRowIndex(), formulaCell);
+
+        Ptg[] ptgs;
+        try {
+            ptgs = FormulaParser.parse(cell.getCellFormula(), parsingWorkbook, FormulaType.CELL,
+                sheetIndex, cell.getRowIndex());
+        } catch (RuntimeException e) {
+            // 无法解析的公式无法追踪依赖，每次都重新计算
+            volatileCells.add(formulaCell);
+            return;
+        }
+
+        for (Ptg ptg : ptgs) {
+            if (!addReference(sheetName, node, ptg)) {
+                volatileCells.add(formulaCell);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 记录一个公式记号引用的单元格或区域
+     * @return 该记号的依赖能否被静态追踪
+     */
+    private boolean addReference(String formulaSheet, FormulaNode node, Ptg ptg) {
+        if (ptg instanceof RefErrorPtg || ptg instanceof AreaErrPtg
+            || ptg instanceof DeletedRef3DPtg || ptg instanceof DeletedArea3DPtg || ptg instanceof Deleted3DPxg
+            || ptg instanceof NamePtg || ptg instanceof NameXPtg || ptg instanceof NameXPxg
+            || ptg instanceof ExpPtg || ptg instanceof Ref3DPtg || ptg instanceof Area3DPtg) {
+            return false;
+        }
+        if (ptg instanceof AbstractFunctionPtg) {
+            return !VOLATILE_FUNCTIONS.contains(((AbstractFunctionPtg) ptg).getName());
+        }
+        if (!(ptg instanceof RefPtgBase) && !(ptg instanceof AreaPtgBase)) {
+            return true;
+        }
+
+        String targetSheet = formulaSheet;
+        if (ptg instanceof Pxg) {
+            Pxg pxg = (Pxg) ptg;
+            if (pxg.getExternalWorkbookNumber() > 0
+                || (pxg instanceof Pxg3D && ((Pxg3D) pxg).getLastSheetName() != null)) {
+                return false;
+            }
+            int targetIndex = workbook.getSheetIndex(pxg.getSheetName());
+            if (targetIndex < 0) {
+                return false;
+            }
+            targetSheet = workbook.getSheetName(targetIndex);
+        }
+
+        SheetIndex index = sheetIndex(targetSheet);
+        if (ptg instanceof RefPtgBase) {
+            RefPtgBase ref = (RefPtgBase) ptg;
+            CellReference referenced = cellKey(targetSheet, ref.getRow(), ref.getColumn());
+            node.cellReferences.add(referenced);
+            index.cellDependentsByColumn.computeIfAbsent(ref.getColumn(), k -> new TreeMap<>())
+                .computeIfAbsent(ref.getRow(), k -> new LinkedHashSet<>()).add(node.formulaCell);
+        } else {
+            AreaPtgBase area = (AreaPtgBase) ptg;
+            AreaDependency dependency = new AreaDependency(targetSheet, area.getFirstRow(), area.getLastRow(),
+                area.getFirstColumn(), area.getLastColumn(), node.formulaCell);
+            node.areaReferences.add(dependency);
+            if (dependency.isWide()) {
+                index.wideAreaDependents.add(dependency);
+            } else {
+                for (int col = dependency.firstCol; col <= dependency.lastCol; col++) {
+                    index.areaDependentsByColumn.computeIfAbsent(col, k -> new LinkedHashSet<>()).add(dependency);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 移除一个公式及其全部依赖边
+     */
+    private void removeFormula(CellReference formulaCell) {
+        FormulaNode node = formulas.remove(formulaCell);
+        if (node == null) {
+            return;
+        }
+        volatileCells.remove(formulaCell);
+        SheetIndex ownIndex = sheets.get(formulaCell.getSheetName());
+        if (ownIndex != null) {
+            removeFromColumn(ownIndex.formulaCellsByColumn, formulaCell.getCol(), formulaCell.getRow());
+        }
+        for (CellReference referenced : node.cellReferences) {
+            SheetIndex index = sheets.get(referenced.getSheetName());
+            NavigableMap<Integer, Set<CellReference>> column =
+                index != null ? index.cellDependentsByColumn.get((int) referenced.getCol()) : null;
+            Set<CellReference> dependents = column != null ? column.get(referenced.getRow()) : null;
+            if (dependents != null && dependents.remove(formulaCell) && dependents.isEmpty()) {
+                removeFromColumn(index.cellDependentsByColumn, referenced.getCol(), referenced.getRow());
+            }
+        }
+        for (AreaDependency dependency : node.areaReferences) {
+            SheetIndex index = sheets.get(dependency.sheetName);
+            if (index == null) {
+                continue;
+            }
+            if (dependency.isWide()) {
+                index.wideAreaDependents.remove(dependency);
+                continue;
+            }
+            for (int col = dependency.firstCol; col <= dependency.lastCol; col++) {
+                Set<AreaDependency> bucket = index.areaDependentsByColumn.get(col);
+                if (bucket != null && bucket.remove(dependency) && bucket.isEmpty()) {
+                    index.areaDependentsByColumn.remove(col);
+                }
+            }
+        }
+    }
+
+    private static <T> void removeFromColumn(Map<Integer, NavigableMap<Integer, T>> columns, int col, int row) {
+        NavigableMap<Integer, T> column = columns.get(col);
+        if (column != null) {
+            column.remove(row);
+            if (column.isEmpty()) {
+                columns.remove(col);
+            }
+        }
+    }
+
+    private SheetIndex sheetIndex(String sheetName) {
+        return sheets.computeIfAbsent(sheetName, k -> new SheetIndex());
+    }
+
+    /**
+     * 计算需要重新计算的公式单元格：变更区域内的公式、依赖变更区域的公式及其传递闭包，以及所有无法追踪依赖的公式
+     * @param changedRegions 按工作表名分组的变更区域
+     */
+    public Set<CellReference> collectAffectedFormulaCells(Map<String, List<CellRangeAddress>> changedRegions) {
+        Set<CellReference> affected = new LinkedHashSet<>(volatileCells);
+        Deque<CellReference> pending = new ArrayDeque<>(volatileCells);
+
+        for (Map.Entry<String, List<CellRangeAddress>> entry : changedRegions.entrySet()) {
+            String sheetName = entry.getKey();
+            for (CellRangeAddress region : entry.getValue()) {
+                if (region.getNumberOfCells() == 1) {
+                    CellReference changed = cellKey(sheetName, region.getFirstRow(), region.getFirstColumn());
+                    if (formulas.containsKey(changed) && affected.add(changed)) {
+                        pending.add(changed);
+                    }
+                    enqueue(getDependents(sheetName, region.getFirstRow(), region.getFirstColumn()), affected, pending);
+                } else {
+                    enqueue(getFormulaCellsIn(sheetName, region), affected, pending);
+                    enqueue(getDependents(sheetName, region), affected, pending);
+                }
+            }
+        }
+
+        // 沿依赖边扩展到传递闭包
+        while (!pending.isEmpty()) {
+            CellReference cell = pending.poll();
+            enqueue(getDependents(cell.getSheetName(), cell.getRow(), cell.getCol()), affected, pending);
+        }
+        return affected;
+    }
+
+    private void enqueue(Iterable<CellReference> cells, Set<CellReference> affected, Deque<CellReference> pending) {
+        for (CellReference cell : cells) {
+            if (affected.add(cell)) {
+                pending.add(cell);
+            }
+        }
+    }
+
+    /**
+     * 直接引用指定单元格的公式
+     */
+    private List<CellReference> getDependents(String sheetName, int row, int col) {
+        SheetIndex index = sheets.get(sheetName);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        List<CellReference> dependents = new ArrayList<>();
+        NavigableMap<Integer, Set<CellReference>> column = index.cellDependentsByColumn.get(col);
+        if (column != null) {
+            dependents.addAll(column.getOrDefault(row, Collections.emptySet()));
+        }
+        for (AreaDependency dependency : index.areaDependentsByColumn.getOrDefault(col, Collections.emptySet())) {
+            if (dependency.contains(row, col)) {
+                dependents.add(dependency.formulaCell);
+            }
+        }
+        for (AreaDependency dependency : index.wideAreaDependents) {
+            if (dependency.contains(row, col)) {
+                dependents.add(dependency.formulaCell);
+            }
+        }
+        return dependents;
+    }
+
+    /**
+     * 引用了指定区域内任一单元格的公式
+     */
+    private Set<CellReference> getDependents(String sheetName, CellRangeAddress region) {
+        SheetIndex index = sheets.get(sheetName);
+        if (index == null) {
+            return Collections.emptySet();
+        }
+        Set<CellReference> dependents = new LinkedHashSet<>();
+        for (NavigableMap<Integer, Set<CellReference>> column : columnsIn(index.cellDependentsByColumn, region)) {
+            for (Set<CellReference> cells : column.subMap(region.getFirstRow(), true, region.getLastRow(), true).values()) {
+                dependents.addAll(cells);
+            }
+        }
+        for (Set<AreaDependency> bucket : columnsIn(index.areaDependentsByColumn, region)) {
+            for (AreaDependency dependency : bucket) {
+                if (dependency.intersects(region)) {
+                    dependents.add(dependency.formulaCell);
+                }
+            }
+        }
+        for (AreaDependency dependency : index.wideAreaDependents) {
+            if (dependency.intersects(region)) {
+                dependents.add(dependency.formulaCell);
+            }
+        }
+        return dependents;
+    }
+
+    private List<CellReference> getFormulaCellsIn(String sheetName, CellRangeAddress region) {
+        SheetIndex index = sheets.get(sheetName);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        List<CellReference> cells = new ArrayList<>();
+        for (NavigableMap<Integer, CellReference> column : columnsIn(index.formulaCellsByColumn, region)) {
+            cells.addAll(column.subMap(region.getFirstRow(), true, region.getLastRow(), true).values());
+        }
+        return cells;
+    }
+
+    /**
+     * 取出区域列范围内的列索引；区域比已有列多时遍历已有列，避免整行区域逐列查找
+     */
+    private static <T> List<T> columnsIn(Map<Integer, T> columns, CellRangeAddress region) {
+        List<T> result = new ArrayList<>();
+        int width = region.getLastColumn() - region.getFirstColumn() + 1;
+        if (width <= columns.size()) {
+            for (int col = region.getFirstColumn(); col <= region.getLastColumn(); col++) {
+                T column = columns.get(col);
+                if (column != null) {
+                    result.add(column);
+                }
+            }
+        } else {
+            for (Map.Entry<Integer, T> entry : columns.entrySet()) {
+                if (entry.getKey() >= region.getFirstColumn() && entry.getKey() <= region.getLastColumn()) {
+                    result.add(entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 公式直接引用的、与公式位于同一工作表上的列
+     * @return 被引用列的集合；不是已知公式、无法追踪依赖或引用了其他工作表时返回null，调用方应视为可能依赖任意列
+     */
+    public BitSet getReferencedColumns(String sheetName, int row, int col) {
+        CellReference formulaCell = cellKey(sheetName, row, col);
+        FormulaNode node = formulas.get(formulaCell);
+        if (node == null || volatileCells.contains(formulaCell)) {
+            return null;
+        }
+        BitSet columns = new BitSet();
+        for (CellReference referenced : node.cellReferences) {
+            if (!sheetName.equals(referenced.getSheetName())) {
+                return null;
+            }
+            columns.set(referenced.getCol());
+        }
+        for (AreaDependency dependency : node.areaReferences) {
+            if (!sheetName.equals(dependency.sheetName)) {
+                return null;
+            }
+            columns.set(dependency.firstCol, dependency.lastCol + 1);
+        }
+        return columns;
+    }
+
+    public int getFormulaCount() {
+        return formulas.size();
+    }
+
+    private static CellReference cellKey(String sheetName, int row, int col) {
+        return new CellReference(sheetName, row, col, false, false);
+    }
+
+    /**
+     * 一个公式单元格解析出的全部引用，公式改写或移动时据此精确移除旧的依赖边
+     */
+    private static class FormulaNode {
+        final CellReference formulaCell;
+        final List<CellReference> cellReferences = new ArrayList<>();
+        final List<AreaDependency> areaReferences = new ArrayList<>();
+
+        FormulaNode(CellReference formulaCell) {
+            this.formulaCell = formulaCell;
+        }
+    }
+
+    /**
+     * 单个工作表上的索引：本表的公式单元格，以及引用本表单元格/区域的公式
+     */
+    private static class SheetIndex {
+        // 列 -> 行 -> 位于该处的公式单元格
+        final Map<Integer, NavigableMap<Integer, CellReference>> formulaCellsByColumn = new HashMap<>();
+        // 列 -> 行 -> 直接引用该单元格的公式
+        final Map<Integer, NavigableMap<Integer, Set<CellReference>>> cellDependentsByColumn = new HashMap<>();
+        final Map<Integer, Set<AreaDependency>> areaDependentsByColumn = new HashMap<>();
+        final Set<AreaDependency> wideAreaDependents = new LinkedHashSet<>();
+    }
+
+    /**
+     * 公式对一个矩形区域的引用
+     */
+    private static class AreaDependency {
+        final String sheetName;
+        final int firstRow;
+        final int lastRow;
+        final int firstCol;
+        final int lastCol;
+        final CellReference formulaCell;
+
+        AreaDependency(String sheetName, int firstRow, int lastRow, int firstCol, int lastCol,
+                       CellReference formulaCell) {
+            this.sheetName = sheetName;
+            this.firstRow = Math.min(firstRow, lastRow);
+            this.lastRow = Math.max(firstRow, lastRow);
+            this.firstCol = Math.min(firstCol, lastCol);
+            this.lastCol = Math.max(firstCol, lastCol);
+            this.formulaCell = formulaCell;
+        }
+
+        boolean isWide() {
+            return lastCol - firstCol + 1 > MAX_BUCKETED_AREA_WIDTH;
+        }
+
+        boolean contains(int row, int col) {
+            return row >= firstRow && row <= lastRow && col >= firstCol && col <= lastCol;
+        }
+
+        boolean intersects(CellRangeAddress region) {
+            return firstRow <= region.getLastRow() && lastRow >= region.getFirstRow()
+                && firstCol <= region.getLastColumn() && lastCol >= region.getFirstColumn();
+        }
+    }
+}
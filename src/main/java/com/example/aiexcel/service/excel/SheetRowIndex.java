@@ -0,0 +1,92 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.Arrays;
+
+/**
+ * 工作表行索引
+ * 一次遍历记录工作表中所有非空行的行号（升序）和总行数、总列数。
+ * 按行偏移取窗口时二分查找窗口起点，只访问窗口内的非空行，
+ * 单次取数的开销与窗口大小相关，与工作表总行数无关。
+ * 索引对应建立时的工作表内容，工作表被修改后需要重建。
+ */
+public final class SheetRowIndex {
+
+    private final String sheetName;
+    private final int[] rowNumbers;
+    private final int totalRows;
+    private final int totalColumns;
+
+    private SheetRowIndex(String sheetName, int[] rowNumbers, int totalRows, int totalColumns) {
+        this.sheetName = sheetName;
+        this.rowNumbers = rowNumbers;
+        this.totalRows = totalRows;
+        this.totalColumns = totalColumns;
+    }
+
+    /**
+     * 遍历工作表建立索引
+     */
+    public static SheetRowIndex build(Sheet sheet) {
+        int[] rowNumbers = new int[Math.max(sheet.getPhysicalNumberOfRows(), 0)];
+        int count = 0;
+        int maxColumns = 0;
+        for (Row row : sheet) {
+            if (count == rowNumbers.length) {
+                rowNumbers = Arrays.copyOf(rowNumbers, Math.max(16, count * 2));
+            }
+            rowNumbers[count++] = row.getRowNum();
+            maxColumns = Math.max(maxColumns, row.getLastCellNum());
+        }
+        if (count < rowNumbers.length) {
+            rowNumbers = Arrays.copyOf(rowNumbers, count);
+        }
+        int totalRows = count == 0 ? 0 : rowNumbers[count - 1] + 1;
+        return new SheetRowIndex(sheet.getSheetName(), rowNumbers, totalRows, maxColumns);
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    /**
+     * 总行数（最后一个非空行的行号+1），中间缺失的行计为空行
+     */
+    public int getTotalRows() {
+        return totalRows;
+    }
+
+    /**
+     * 总列数（各行最后一个单元格列索引+1的最大值）
+     */
+    public int getTotalColumns() {
+        return totalColumns;
+    }
+
+    /**
+     * 非空行数
+     */
+    public int getPhysicalRowCount() {
+        return rowNumbers.length;
+    }
+
+    /**
+     * 行号落在[firstRow, firstRow + rowCount)内的非空行行号，升序
+     */
+    public int[] rowNumbersInWindow(int firstRow, int rowCount) {
+        if (rowCount <= 0) {
+            return new int[0];
+        }
+        long end = Math.min((long) firstRow + rowCount, totalRows);
+        int from = insertionPoint(firstRow);
+        int to = insertionPoint((int) end);
+        return Arrays.copyOfRange(rowNumbers, from, Math.max(from, to));
+    }
+
+    private int insertionPoint(int rowNumber) {
+        int position = Arrays.binarySearch(rowNumbers, rowNumber);
+        return position >= 0 ? position : -position - 1;
+    }
+}
@@ -0,0 +1,62 @@
+package com.example.aiexcel.service.excel;
+
+/**
+ * 行列结构编辑
+ * 一组编辑按顺序描述，每条编辑的索引都基于前面编辑执行后的表格，
+ * 由 {@link ExcelService#applyStructuralEdits} 归一化后一次性应用。
+ */
+public class StructuralEdit {
+
+    public enum Type {
+        INSERT_ROW, DELETE_ROW, INSERT_COLUMN, DELETE_COLUMN
+    }
+
+    private final Type type;
+    private final int index;
+    private final Object[] values;
+
+    private StructuralEdit(Type type, int index, Object[] values) {
+        this.type = type;
+        this.index = index;
+        this.values = values;
+    }
+
+    public static StructuralEdit insertRow(int rowIndex, Object[] values) {
+        return new StructuralEdit(Type.INSERT_ROW, rowIndex, values);
+    }
+
+    public static StructuralEdit deleteRow(int rowIndex) {
+        return new StructuralEdit(Type.DELETE_ROW, rowIndex, null);
+    }
+
+    public static StructuralEdit insertColumn(int colIndex, Object[] values) {
+        return new StructuralEdit(Type.INSERT_COLUMN, colIndex, values);
+    }
+
+    public static StructuralEdit deleteColumn(int colIndex) {
+        return new StructuralEdit(Type.DELETE_COLUMN, colIndex, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * 插入的行（或列）的值，删除操作为null
+     */
+    public Object[] getValues() {
+        return values;
+    }
+
+    public boolean isRowEdit() {
+        return type == Type.INSERT_ROW || type == Type.DELETE_ROW;
+    }
+
+    public boolean isInsert() {
+        return type == Type.INSERT_ROW || type == Type.INSERT_COLUMN;
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+
+/**
+ * 把逐行产生的单元格值写成只有一个工作表的XLSX
+ * 使用SXSSF按窗口写出，内存占用与行数无关；单元格只写入值（Double、Date、Boolean、String），日期使用日期格式。
+ * 用于排序、筛选等由本地引擎产生的结果表。
+ */
+public final class ValueWorkbookWriter {
+
+    private static final int WINDOW_ROWS = 100;
+
+    /**
+     * 逐行提供单元格值，没有更多行时返回null
+     */
+    @FunctionalInterface
+    public interface RowSource {
+        Object[] nextRow() throws IOException;
+    }
+
+    private ValueWorkbookWriter() {
+    }
+
+    /**
+     * @param headers 表头，为null时不写表头行
+     */
+    public static void write(String sheetName, String[] headers, RowSource rows, OutputStream out) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(WINDOW_ROWS);
+        try {
+            Sheet sheet = workbook.createSheet(sheetName);
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+            int rowIndex = 0;
+            if (headers != null) {
+                Row header = sheet.createRow(rowIndex++);
+                for (int i = 0; i < headers.length; i++) {
+                    header.createCell(i).setCellValue(headers[i]);
+                }
+            }
+            Object[] values;
+            while ((values = rows.nextRow()) != null) {
+                Row row = sheet.createRow(rowIndex++);
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] != null) {
+                        setCellValue(row.createCell(i), values[i], dateStyle);
+                    }
+                }
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    private static void setCellValue(Cell cell, Object value, CellStyle dateStyle) {
+        if (value instanceof Double) {
+            cell.setCellValue((Double) value);
+        } else if (value instanceof Date) {
+            cell.setCellValue((Date) value);
+            cell.setCellStyle(dateStyle);
+        } else if (value instanceof Boolean) {
+            cell.setCellValue((Boolean) value);
+        } else {
+            cell.setCellValue(value.toString());
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.aiexcel.service.excel;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 工作簿变更日志（写时复制）
+ * 单元格第一次被写入前记录它的原始内容；结构编辑记录逆向编辑，以及被删除的行列、公式和合并区域。
+ * 修改后的工作簿加上这份日志即可按需还原出修改前的工作簿，不需要事先复制整本工作簿。
+ * 由 {@link ExcelService#beginChangeJournal} 登记后，经ExcelService写入的修改自动记录。
+ */
+public class WorkbookChangeJournal {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+    private final List<Entry> entries;
+
+    // 当前结构段内已记录过的单元格（按工作表），结构编辑后坐标变化，需要重新记录
+    private final Map<String, Set<Long>> touched = new HashMap<>();
+    private int cellCount;
+
+    public WorkbookChangeJournal() {
+        this(new ArrayList<>());
+    }
+
+    private WorkbookChangeJournal(List<Entry> entries) {
+        this.entries = entries;
+        for (Entry entry : entries) {
+            cellCount += entry.cells.size();
+        }
+    }
+
+    /**
+     * 单元格即将被修改时调用，只在本结构段内第一次修改时记录原始内容
+     */
+    public void recordCell(Sheet sheet, int rowIndex, int colIndex) {
+        if (!touched.computeIfAbsent(sheet.getSheetName(), name -> new HashSet<>()).add(cellKey(rowIndex, colIndex))) {
+            return;
+        }
+        Row row = sheet.getRow(rowIndex);
+        cellEntry(sheet.getSheetName()).add(CellImage.of(row != null ? row.getCell(colIndex) : null, rowIndex, colIndex));
+    }
+
+    /**
+     * 区域即将被整体写入时调用
+     */
+    public void recordRange(Sheet sheet, int firstRow, int firstCol, int lastRow, int lastCol) {
+        for (int r = firstRow; r <= lastRow; r++) {
+            for (int c = firstCol; c <= lastCol; c++) {
+                recordCell(sheet, r, c);
+            }
+        }
+    }
+
+    /**
+     * 一组结构编辑即将应用时调用
+     * 记录逆向编辑；有删除时还记录被删除行列的内容（按编辑前的坐标）、表中的公式和合并区域，
+     * 因为删除会让引用被删区域的公式变成#REF!，逆向插入无法恢复。
+     */
+    public void recordStructuralEdits(Sheet sheet, List<StructuralEdit> edits) {
+        Entry entry = new Entry();
+        entry.sheet = sheet.getSheetName();
+        entry.inverseEdits = new ArrayList<>();
+        boolean hasDelete = false;
+        for (int i = edits.size() - 1; i >= 0; i--) {
+            StructuralEdit edit = edits.get(i);
+            entry.inverseEdits.add(EditImage.inverseOf(edit));
+            hasDelete |= !edit.isInsert();
+        }
+
+        if (hasDelete) {
+            Set<Long> captured = new HashSet<>();
+            for (int i = 0; i < edits.size(); i++) {
+                StructuralEdit edit = edits.get(i);
+                if (edit.isInsert()) {
+                    continue;
+                }
+                int original = toOriginalIndex(edits, i);
+                if (original < 0) {
+                    continue; // 删除的是同一批中插入的行列，逆向插入后即为空
+                }
+                if (edit.isRowEdit()) {
+                    Row row = sheet.getRow(original);
+                    if (row != null) {
+                        for (Cell cell : row) {
+                            capture(entry, captured, cell);
+                        }
+                    }
+                } else {
+                    for (Row row : sheet) {
+                        Cell cell = row.getCell(original);
+                        if (cell != null) {
+                            capture(entry, captured, cell);
+                        }
+                    }
+                }
+            }
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() == CellType.FORMULA) {
+                        capture(entry, captured, cell);
+                    }
+                }
+            }
+            if (sheet.getNumMergedRegions() > 0) {
+                entry.mergedRegions = new ArrayList<>();
+                for (CellRangeAddress region : sheet.getMergedRegions()) {
+                    entry.mergedRegions.add(region.formatAsString());
+                }
+            }
+        }
+
+        entries.add(entry);
+        cellCount += entry.cells.size();
+        touched.remove(sheet.getSheetName());
+    }
+
+    /**
+     * 在修改后的工作簿上按相反顺序撤销记录的修改，得到修改前的工作簿
+     * 还原的单元格逐个通知计算上下文；日志中没有的公式单元格，其缓存结果可能已过期，
+     * 还原后由调用方用 {@link ExcelService#evaluateFormulasAffectedBy} 重算。
+     */
+    public void revert(Workbook workbook, ExcelService excelService) {
+        WorkbookEvaluationContext context = excelService.getEvaluationContext(workbook);
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            Entry entry = entries.get(i);
+            Sheet sheet = workbook.getSheet(entry.sheet);
+            if (sheet == null) {
+                continue;
+            }
+            if (entry.inverseEdits != null) {
+                List<StructuralEdit> inverse = new ArrayList<>(entry.inverseEdits.size());
+                for (EditImage edit : entry.inverseEdits) {
+                    inverse.add(edit.toEdit());
+                }
+                excelService.applyStructuralEdits(workbook, entry.sheet, inverse);
+                if (entry.mergedRegions != null) {
+                    for (int m = sheet.getNumMergedRegions() - 1; m >= 0; m--) {
+                        sheet.removeMergedRegion(m);
+                    }
+                    for (String region : entry.mergedRegions) {
+                        sheet.addMergedRegionUnsafe(CellRangeAddress.valueOf(region));
+                    }
+                }
+            }
+            for (CellImage image : entry.cells) {
+                Row row = sheet.getRow(image.row);
+                Cell existing = row != null ? row.getCell(image.col) : null;
+                if (image.type == null) {
+                    if (existing != null) {
+                        context.notifyDeleteCell(existing);
+                    }
+                    image.restore(sheet);
+                } else {
+                    image.restore(sheet);
+                    context.notifyUpdateCell(sheet.getRow(image.row).getCell(image.col));
+                }
+            }
+        }
+    }
+
+    /**
+     * 是否包含结构编辑；包含时日志中单元格的坐标只在各自的结构段内有效
+     */
+    public boolean hasStructuralEdits() {
+        for (Entry entry : entries) {
+            if (entry.inverseEdits != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 日志中记录的单元格（按工作表），没有结构编辑时坐标在修改前后一致
+     */
+    public Map<String, List<CellRangeAddress>> getCellRegions() {
+        Map<String, List<CellRangeAddress>> regions = new HashMap<>();
+        for (Entry entry : entries) {
+            List<CellRangeAddress> sheetRegions = regions.computeIfAbsent(entry.sheet, name -> new ArrayList<>());
+            for (CellImage image : entry.cells) {
+                sheetRegions.add(new CellRangeAddress(image.row, image.row, image.col, image.col));
+            }
+        }
+        return regions;
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * 日志中记录的单元格数
+     */
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    public String toJson() {
+        try {
+            return MAPPER.writeValueAsString(entries);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize change journal", e);
+        }
+    }
+
+    public static WorkbookChangeJournal fromJson(String json) {
+        try {
+            return new WorkbookChangeJournal(MAPPER.readValue(json, new TypeReference<List<Entry>>() { }));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid change journal", e);
+        }
+    }
+
+    private List<CellImage> cellEntry(String sheetName) {
+        Entry last = entries.isEmpty() ? null : entries.get(entries.size() - 1);
+        if (last == null || last.inverseEdits != null || !last.sheet.equals(sheetName)) {
+            last = new Entry();
+            last.sheet = sheetName;
+            entries.add(last);
+        }
+        cellCount++;
+        return last.cells;
+    }
+
+    private static void capture(Entry entry, Set<Long> captured, Cell cell) {
+        if (captured.add(cellKey(cell.getRowIndex(), cell.getColumnIndex()))) {
+            entry.cells.add(CellImage.of(cell, cell.getRowIndex(), cell.getColumnIndex()));
+        }
+    }
+
+    /**
+     * 把第k条编辑的索引换算回整批编辑之前的坐标；删除的是同一批中插入的行列时返回-1
+     */
+    private static int toOriginalIndex(List<StructuralEdit> edits, int k) {
+        StructuralEdit target = edits.get(k);
+        int index = target.getIndex();
+        for (int i = k - 1; i >= 0; i--) {
+            StructuralEdit edit = edits.get(i);
+            if (edit.isRowEdit() != target.isRowEdit()) {
+                continue;
+            }
+            if (edit.isInsert()) {
+                if (index == edit.getIndex()) {
+                    return -1;
+                }
+                if (index > edit.getIndex()) {
+                    index--;
+                }
+            } else if (index >= edit.getIndex()) {
+                index++;
+            }
+        }
+        return index;
+    }
+
+    private static long cellKey(int row, int col) {
+        return ((long) row << 16) | col;
+    }
+
+    static class Entry {
+        String sheet;
+        List<CellImage> cells = new ArrayList<>();
+        // 以下字段只用于结构编辑
+        List<EditImage> inverseEdits;
+        List<String> mergedRegions;
+    }
+
+    static class EditImage {
+        StructuralEdit.Type type;
+        int index;
+
+        static EditImage inverseOf(StructuralEdit edit) {
+            EditImage image = new EditImage();
+            image.index = edit.getIndex();
+            switch (edit.getType()) {
+                case INSERT_ROW:
+                    image.type = StructuralEdit.Type.DELETE_ROW;
+                    break;
+                case DELETE_ROW:
+                    image.type = StructuralEdit.Type.INSERT_ROW;
+                    break;
+                case INSERT_COLUMN:
+                    image.type = StructuralEdit.Type.DELETE_COLUMN;
+                    break;
+                default:
+                    image.type = StructuralEdit.Type.INSERT_COLUMN;
+                    break;
+            }
+            return image;
+        }
+
+        StructuralEdit toEdit() {
+            switch (type) {
+                case INSERT_ROW:
+                    return StructuralEdit.insertRow(index, null);
+                case DELETE_ROW:
+                    return StructuralEdit.deleteRow(index);
+                case INSERT_COLUMN:
+                    return StructuralEdit.insertColumn(index, null);
+                default:
+                    return StructuralEdit.deleteColumn(index);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.aiexcel.service.excel;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.PropertyAccessor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 两个工作簿之间的单元格级差异
+ * 只记录内容、公式（含缓存结果）或样式不同的单元格在目标工作簿中的状态，应用到源工作簿即得到目标工作簿。
+ * 单元格值和公式以外的任何变化（工作表增删或改名、样式与字体定义、定义名称、列宽、行高、批注、超链接、
+ * 数据验证、条件格式、合并区域、富文本格式段等，见 {@link WorkbookLayoutComparator}）都无法按单元格表达，
+ * compute返回null，调用方应改为保存完整文件。
+ */
+public class WorkbookDelta {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+        .setVisibility(PropertyAccessor.FIELD, JsonAutoDetect.Visibility.ANY);
+
+    // 工作表名 -> 变化的单元格
+    private final Map<String, List<CellImage>> sheets;
+
+    private WorkbookDelta(Map<String, List<CellImage>> sheets) {
+        this.sheets = sheets;
+    }
+
+    /**
+     * 计算从from到to的差异
+     * @return 差异；无法按单元格表达时返回null
+     */
+    public static WorkbookDelta compute(Workbook from, Workbook to) {
+        if (from.getNumberOfSheets() != to.getNumberOfSheets()
+            || from.getNumCellStyles() != to.getNumCellStyles()
+            || !WorkbookLayoutComparator.sameWorkbookLayout(from, to)) {
+            return null;
+        }
+        Map<String, List<CellImage>> sheets = new LinkedHashMap<>();
+        for (int i = 0; i < to.getNumberOfSheets(); i++) {
+            Sheet source = from.getSheetAt(i);
+            Sheet target = to.getSheetAt(i);
+            if (!WorkbookLayoutComparator.sameSheetLayout(source, target)) {
+                return null;
+            }
+            List<CellImage> changes = diffSheet(source, target);
+            if (changes == null) {
+                return null;
+            }
+            if (!changes.isEmpty()) {
+                sheets.put(target.getSheetName(), changes);
+            }
+        }
+        return new WorkbookDelta(sheets);
+    }
+
+    /**
+     * 把差异应用到源工作簿上
+     */
+    public void apply(Workbook workbook) {
+        for (Map.Entry<String, List<CellImage>> entry : sheets.entrySet()) {
+            Sheet sheet = workbook.getSheet(entry.getKey());
+            if (sheet == null) {
+                throw new IllegalStateException("Delta refers to missing sheet: " + entry.getKey());
+            }
+            for (CellImage image : entry.getValue()) {
+                image.restore(sheet);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return sheets.isEmpty();
+    }
+
+    /**
+     * 变化的单元格数
+     */
+    public int getCellCount() {
+        int count = 0;
+        for (List<CellImage> changes : sheets.values()) {
+            count += changes.size();
+        }
+        return count;
+    }
+
+    public byte[] toBytes() {
+        try {
+            return MAPPER.writeValueAsBytes(sheets);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize workbook delta", e);
+        }
+    }
+
+    public static WorkbookDelta fromBytes(byte[] content) {
+        try {
+            return new WorkbookDelta(MAPPER.readValue(content, new TypeReference<LinkedHashMap<String, List<CellImage>>>() { }));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid workbook delta: " + new String(content, 0,
+                Math.min(content.length, 64), StandardCharsets.UTF_8), e);
+        }
+    }
+
+    /**
+     * @return 变化的单元格；有单元格的富文本格式段不同时返回null
+     */
+    private static List<CellImage> diffSheet(Sheet source, Sheet target) {
+        List<CellImage> changes = new ArrayList<>();
+        Set<Long> seen = new HashSet<>();
+        for (Row row : target) {
+            Row sourceRow = source.getRow(row.getRowNum());
+            for (Cell cell : row) {
+                int col = cell.getColumnIndex();
+                seen.add(cellKey(row.getRowNum(), col));
+                Cell sourceCell = sourceRow != null ? sourceRow.getCell(col) : null;
+                if (!WorkbookLayoutComparator.sameRichText(sourceCell, cell)) {
+                    return null;
+                }
+                CellImage after = CellImage.of(cell, row.getRowNum(), col);
+                CellImage before = CellImage.of(sourceCell, row.getRowNum(), col);
+                if (!after.sameContent(before)) {
+                    changes.add(after);
+                }
+            }
+        }
+        // 目标中已不存在的单元格记为删除
+        for (Row row : source) {
+            for (Cell cell : row) {
+                if (!seen.contains(cellKey(row.getRowNum(), cell.getColumnIndex()))) {
+                    changes.add(CellImage.of(null, row.getRowNum(), cell.getColumnIndex()));
+                }
+            }
+        }
+        return changes;
+    }
+
+    private static long cellKey(int row, int col) {
+        return ((long) row << 16) | col;
+    }
+}
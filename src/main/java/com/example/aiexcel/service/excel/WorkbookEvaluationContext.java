@@ -0,0 +1,289 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.FormulaEvaluator;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 工作簿级公式计算上下文
+ * 同一工作簿的所有读取路径共享一个FormulaEvaluator及其结果缓存，
+ * 避免每个公式单元格都新建计算器导致缓存失效、整表提取退化为平方复杂度。
+ * 工作簿被修改后需调用 {@link #notifyUpdateCell(Cell)}、行列结构变化通知方法或 {@link #invalidate()} 清理缓存。
+ *
+ * 对于跟踪变更的上下文（加载工作簿时创建），同时记录自加载以来被修改的区域，
+ * 配合 {@link FormulaDependencyGraph} 只重新计算受影响的公式。
+ *
+ * 注意：FormulaEvaluator不是线程安全的，一个上下文只应在单个请求线程内使用。
+ */
+public class WorkbookEvaluationContext {
+
+    private final Workbook workbook;
+    private final boolean changeTracked;
+    private FormulaEvaluator evaluator;
+    private FormulaDependencyGraph dependencyGraph;
+    // 按工作表记录的变更区域（当前坐标）
+    private final Map<String, List<CellRangeAddress>> changedRegions = new LinkedHashMap<>();
+    private boolean fullRecalculationRequired = false;
+
+    public WorkbookEvaluationContext(Workbook workbook) {
+        this(workbook, false);
+    }
+
+    /**
+     * @param changeTracked 是否从工作簿加载起完整跟踪了全部修改；未跟踪时只能整本重算
+     */
+    public WorkbookEvaluationContext(Workbook workbook, boolean changeTracked) {
+        this.workbook = workbook;
+        this.changeTracked = changeTracked;
+    }
+
+    public Workbook getWorkbook() {
+        return workbook;
+    }
+
+    /**
+     * 获取共享的公式计算器（延迟创建）
+     */
+    public FormulaEvaluator getEvaluator() {
+        if (evaluator == null) {
+            evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        }
+        return evaluator;
+    }
+
+    /**
+     * 计算公式单元格，结果会被缓存直到相关单元格被修改
+     */
+    public CellValue evaluate(Cell cell) {
+        return getEvaluator().evaluate(cell);
+    }
+
+    /**
+     * 通知单元格已被修改，仅失效依赖于该单元格的缓存结果
+     */
+    public void notifyUpdateCell(Cell cell) {
+        if (cell == null) {
+            return;
+        }
+        if (evaluator != null) {
+            evaluator.notifyUpdateCell(cell);
+        }
+        if (dependencyGraph != null) {
+            // 只更新该单元格自身的依赖边（公式被改写、新写入或被值覆盖）
+            dependencyGraph.updateCell(cell);
+        }
+        markChanged(cell.getSheet().getSheetName(),
+            new CellRangeAddress(cell.getRowIndex(), cell.getRowIndex(), cell.getColumnIndex(), cell.getColumnIndex()));
+    }
+
+    /**
+     * 通知单元格即将被删除，需在Row.removeCell之前调用
+     */
+    public void notifyDeleteCell(Cell cell) {
+        if (evaluator != null) {
+            evaluator.notifyDeleteCell(cell);
+        }
+        String sheetName = cell.getSheet().getSheetName();
+        if (dependencyGraph != null) {
+            dependencyGraph.removeCell(sheetName, cell.getRowIndex(), cell.getColumnIndex());
+        }
+        markChanged(sheetName,
+            new CellRangeAddress(cell.getRowIndex(), cell.getRowIndex(), cell.getColumnIndex(), cell.getColumnIndex()));
+    }
+
+    /**
+     * 通知一个矩形区域被批量写入
+     * 批量写入时不逐个单元格通知计算器，而是清空一次结果缓存并记录整个区域为变更
+     * @param formulaOverwritten 区域内是否有公式单元格被改写
+     */
+    public void notifyUpdateRange(String sheetName, CellRangeAddress region, boolean formulaOverwritten) {
+        if (evaluator != null) {
+            evaluator.clearAllCachedResultValues();
+        }
+        if (formulaOverwritten && dependencyGraph != null) {
+            dependencyGraph.updateRange(sheetName, region);
+        }
+        markChanged(sheetName, region);
+    }
+
+    /**
+     * 通知在rowIndex处插入了count行（通过Sheet.shiftRows，公式引用已由POI调整）
+     * 只有新行本身是变更内容，跨越插入点的区域引用会因扩展而包含新行。
+     */
+    public void notifyRowsInserted(String sheetName, int rowIndex, int count) {
+        shiftChangedRows(sheetName, rowIndex, count);
+        markChanged(sheetName, new CellRangeAddress(rowIndex, rowIndex + count - 1, 0, getLastColumnIndex()));
+        structureChanged(sheetName, rowIndex, true);
+    }
+
+    /**
+     * 通知删除了从rowIndex开始的count行（通过Sheet.shiftRows，公式引用已由POI调整）
+     * 原先跨越被删行的区域会收缩，因此删除位置及其上一行标记为变更；直接引用被删单元格的公式会变为#REF!，由依赖图按不可追踪处理。
+     */
+    public void notifyRowsDeleted(String sheetName, int rowIndex, int count) {
+        shiftChangedRows(sheetName, rowIndex, -count);
+        markChanged(sheetName, new CellRangeAddress(Math.max(rowIndex - 1, 0), rowIndex, 0, getLastColumnIndex()));
+        structureChanged(sheetName, rowIndex, true);
+    }
+
+    /**
+     * 通知在colIndex处插入了count列
+     * 列移动是逐单元格复制完成的，公式引用不会被调整，因此插入点及其右侧全部视为变更。
+     */
+    public void notifyColumnsInserted(String sheetName, int colIndex, int count) {
+        shiftChangedColumns(sheetName, colIndex, count);
+        markChanged(sheetName, new CellRangeAddress(0, getLastRowIndex(), colIndex, getLastColumnIndex()));
+        structureChanged(sheetName, colIndex, false);
+    }
+
+    /**
+     * 通知删除了从colIndex开始的count列，删除点及其右侧全部视为变更（原因同插入列）
+     */
+    public void notifyColumnsDeleted(String sheetName, int colIndex, int count) {
+        shiftChangedColumns(sheetName, colIndex, -count);
+        markChanged(sheetName, new CellRangeAddress(0, getLastRowIndex(), colIndex, getLastColumnIndex()));
+        structureChanged(sheetName, colIndex, false);
+    }
+
+    /**
+     * 清空全部缓存结果；无法描述具体变更范围时使用，之后只能整本重算
+     */
+    public void invalidate() {
+        fullRecalculationRequired = true;
+        dependencyGraph = null;
+        if (evaluator != null) {
+            evaluator.clearAllCachedResultValues();
+        }
+    }
+
+    public boolean isChangeTracked() {
+        return changeTracked;
+    }
+
+    /**
+     * 是否只能整本重算：未跟踪变更，或发生过无法描述范围的修改
+     */
+    public boolean requiresFullRecalculation() {
+        return !changeTracked || fullRecalculationRequired;
+    }
+
+    public Map<String, List<CellRangeAddress>> getChangedRegions() {
+        return changedRegions;
+    }
+
+    /**
+     * 获取当前工作簿结构对应的公式依赖图
+     * 首次使用时解析全部公式构建，此后随单元格写入和行列变化增量更新，只有无法描述范围的修改才会丢弃重建。
+     */
+    public FormulaDependencyGraph getDependencyGraph() {
+        if (dependencyGraph == null) {
+            dependencyGraph = FormulaDependencyGraph.build(workbook);
+        }
+        return dependencyGraph;
+    }
+
+    /**
+     * 重新计算完成后清除变更记录
+     */
+    public void clearChanges() {
+        changedRegions.clear();
+        fullRecalculationRequired = false;
+    }
+
+    private void markChanged(String sheetName, CellRangeAddress region) {
+        if (changeTracked) {
+            changedRegions.computeIfAbsent(sheetName, k -> new ArrayList<>()).add(region);
+        }
+    }
+
+    /**
+     * 行列结构变化后清空结果缓存，并让依赖图只重新解析移动区域内以及引用了移动区域的公式
+     */
+    private void structureChanged(String sheetName, int index, boolean rows) {
+        if (dependencyGraph != null) {
+            if (rows) {
+                dependencyGraph.updateAfterRowsShifted(sheetName, index);
+            } else {
+                dependencyGraph.updateAfterColumnsShifted(sheetName, index);
+            }
+        }
+        if (evaluator != null) {
+            evaluator.clearAllCachedResultValues();
+        }
+    }
+
+    /**
+     * 行插入（shift>0）或删除（shift<0）后，将已记录的变更区域换算到新坐标
+     */
+    private void shiftChangedRows(String sheetName, int rowIndex, int shift) {
+        List<CellRangeAddress> regions = changedRegions.get(sheetName);
+        if (regions == null) {
+            return;
+        }
+        int lastRowIndex = getLastRowIndex();
+        for (Iterator<CellRangeAddress> it = regions.iterator(); it.hasNext(); ) {
+            CellRangeAddress region = it.next();
+            int firstRow = shiftIndex(region.getFirstRow(), rowIndex, shift, lastRowIndex, true);
+            int lastRow = shiftIndex(region.getLastRow(), rowIndex, shift, lastRowIndex, false);
+            if (lastRow < firstRow) {
+                it.remove();
+            } else {
+                region.setFirstRow(firstRow);
+                region.setLastRow(lastRow);
+            }
+        }
+    }
+
+    private void shiftChangedColumns(String sheetName, int colIndex, int shift) {
+        List<CellRangeAddress> regions = changedRegions.get(sheetName);
+        if (regions == null) {
+            return;
+        }
+        int lastColumnIndex = getLastColumnIndex();
+        for (Iterator<CellRangeAddress> it = regions.iterator(); it.hasNext(); ) {
+            CellRangeAddress region = it.next();
+            int firstCol = shiftIndex(region.getFirstColumn(), colIndex, shift, lastColumnIndex, true);
+            int lastCol = shiftIndex(region.getLastColumn(), colIndex, shift, lastColumnIndex, false);
+            if (lastCol < firstCol) {
+                it.remove();
+            } else {
+                region.setFirstColumn(firstCol);
+                region.setLastColumn(lastCol);
+            }
+        }
+    }
+
+    /**
+     * 计算区域边界在插入/删除后的新位置；被删除的边界收缩到剩余部分
+     */
+    private static int shiftIndex(int index, int start, int shift, int maxIndex, boolean firstBoundary) {
+        if (index < start) {
+            return index;
+        }
+        if (shift > 0) {
+            return Math.min(index + shift, maxIndex);
+        }
+        int deletedEnd = start - shift - 1;
+        if (index > deletedEnd) {
+            return index + shift;
+        }
+        // 边界落在被删除的范围内：起始边界移到删除点，结束边界移到删除点之前
+        return firstBoundary ? start : start - 1;
+    }
+
+    private int getLastRowIndex() {
+        return workbook.getSpreadsheetVersion().getLastRowIndex();
+    }
+
+    private int getLastColumnIndex() {
+        return workbook.getSpreadsheetVersion().getLastColumnIndex();
+    }
+}
@@ -0,0 +1,347 @@
+package com.example.aiexcel.service.excel;
+
+import org.apache.poi.hssf.usermodel.HSSFRichTextString;
+import org.apache.poi.ss.usermodel.BorderFormatting;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.ConditionalFormatting;
+import org.apache.poi.ss.usermodel.ConditionalFormattingRule;
+import org.apache.poi.ss.usermodel.DataValidation;
+import org.apache.poi.ss.usermodel.DataValidationConstraint;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.FontFormatting;
+import org.apache.poi.ss.usermodel.Hyperlink;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.usermodel.PatternFormatting;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.SheetConditionalFormatting;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.PaneInformation;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.usermodel.extensions.XSSFCellBorder;
+import org.apache.poi.xssf.usermodel.extensions.XSSFCellFill;
+import org.apache.xmlbeans.XmlObject;
+import org.apache.xmlbeans.XmlOptions;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCol;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTCols;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * 比较两个工作簿中单元格值和公式以外的状态
+ * 包括样式与字体定义、定义名称、列宽、行高、批注、超链接、数据验证、条件格式、合并区域、窗格和富文本格式段。
+ * WorkbookDelta只能按单元格记录值、公式和样式索引，这些状态有任何不同都必须保存关键帧。
+ * 各项都转换成可比较的描述字符串，.xlsx直接比较底层XML片段，其他格式比较通用接口上的属性。
+ */
+final class WorkbookLayoutComparator {
+
+    // 同一片段新建时和从文件加载后使用的命名空间前缀不同，序列化时统一省略
+    private static final XmlOptions XML_OPTIONS = new XmlOptions()
+        .setSaveImplicitNamespaces(Map.of("", XSSFRelation.NS_SPREADSHEETML));
+
+    private WorkbookLayoutComparator() {
+    }
+
+    /**
+     * 工作簿级状态是否一致：工作表名和顺序、隐藏状态、样式与字体定义、定义名称
+     */
+    static boolean sameWorkbookLayout(Workbook from, Workbook to) {
+        if (from.getNumberOfSheets() != to.getNumberOfSheets()) {
+            return false;
+        }
+        for (int i = 0; i < from.getNumberOfSheets(); i++) {
+            if (!from.getSheetName(i).equals(to.getSheetName(i))
+                || from.isSheetHidden(i) != to.isSheetHidden(i)
+                || from.isSheetVeryHidden(i) != to.isSheetVeryHidden(i)) {
+                return false;
+            }
+        }
+        return describeStyles(from).equals(describeStyles(to))
+            && describeNames(from).equals(describeNames(to));
+    }
+
+    /**
+     * 工作表级状态是否一致：合并区域、列宽、行高、批注、超链接、数据验证、条件格式、窗格和显示设置
+     */
+    static boolean sameSheetLayout(Sheet from, Sheet to) {
+        return describeMergedRegions(from).equals(describeMergedRegions(to))
+            && describeSheetSettings(from).equals(describeSheetSettings(to))
+            && sameColumns(from, to)
+            && sameRows(from, to)
+            && describeComments(from).equals(describeComments(to))
+            && describeHyperlinks(from).equals(describeHyperlinks(to))
+            && describeValidations(from).equals(describeValidations(to))
+            && describeConditionalFormatting(from).equals(describeConditionalFormatting(to));
+    }
+
+    /**
+     * 两个单元格的富文本格式段是否一致；普通文本和非文本单元格没有格式段
+     */
+    static boolean sameRichText(Cell from, Cell to) {
+        return Objects.equals(describeRichText(from), describeRichText(to));
+    }
+
+    private static String describeRichText(Cell cell) {
+        if (cell == null || cell.getCellType() != CellType.STRING) {
+            return null;
+        }
+        RichTextString text = cell.getRichStringCellValue();
+        if (text.numFormattingRuns() == 0) {
+            return null;
+        }
+        if (text instanceof XSSFRichTextString) {
+            return xml(((XSSFRichTextString) text).getCTRst());
+        }
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < text.numFormattingRuns(); i++) {
+            description.append(text.getIndexOfFormattingRun(i));
+            if (text instanceof HSSFRichTextString) {
+                description.append(':').append(((HSSFRichTextString) text).getFontOfFormattingRun(i));
+            }
+            description.append(';');
+        }
+        return description.toString();
+    }
+
+    private static List<String> describeStyles(Workbook workbook) {
+        List<String> description = new ArrayList<>();
+        if (workbook instanceof XSSFWorkbook) {
+            // .xlsx的样式定义全部在StylesTable中，修改已有样式时直接改写这些XML片段
+            StylesTable styles = ((XSSFWorkbook) workbook).getStylesSource();
+            description.add("formats=" + new TreeMap<>(styles.getNumberFormats()));
+            for (int i = 0; i < styles.getFonts().size(); i++) {
+                description.add("font=" + xml(styles.getFontAt(i).getCTFont()));
+            }
+            for (XSSFCellFill fill : styles.getFills()) {
+                description.add("fill=" + xml(fill.getCTFill()));
+            }
+            for (XSSFCellBorder border : styles.getBorders()) {
+                description.add("border=" + xml(border.getCTBorder()));
+            }
+            for (int i = 0; i < styles.getNumCellStyles(); i++) {
+                description.add("xf=" + xml(((XSSFCellStyle) workbook.getCellStyleAt(i)).getCoreXf()));
+            }
+            for (int i = 0; i < styles._getDXfsSize(); i++) {
+                description.add("dxf=" + xml(styles.getDxfAt(i)));
+            }
+            return description;
+        }
+        for (int i = 0; i < workbook.getNumberOfFonts(); i++) {
+            Font font = workbook.getFontAt(i);
+            description.add("font=" + font.getFontName() + "," + font.getFontHeight() + "," + font.getBold() + ","
+                + font.getItalic() + "," + font.getUnderline() + "," + font.getStrikeout() + "," + font.getColor()
+                + "," + font.getTypeOffset() + "," + font.getCharSet());
+        }
+        for (int i = 0; i < workbook.getNumCellStyles(); i++) {
+            CellStyle style = workbook.getCellStyleAt(i);
+            description.add("style=" + style.getDataFormatString() + "," + style.getFontIndex() + ","
+                + style.getAlignment() + "," + style.getVerticalAlignment() + "," + style.getWrapText() + ","
+                + style.getIndention() + "," + style.getRotation() + "," + style.getHidden() + ","
+                + style.getLocked() + "," + style.getShrinkToFit() + ","
+                + style.getBorderTop() + "," + style.getBorderRight() + "," + style.getBorderBottom() + ","
+                + style.getBorderLeft() + "," + style.getTopBorderColor() + "," + style.getRightBorderColor() + ","
+                + style.getBottomBorderColor() + "," + style.getLeftBorderColor() + ","
+                + style.getFillPattern() + "," + style.getFillForegroundColor() + ","
+                + style.getFillBackgroundColor());
+        }
+        return description;
+    }
+
+    private static List<String> describeNames(Workbook workbook) {
+        List<String> description = new ArrayList<>();
+        for (Name name : workbook.getAllNames()) {
+            description.add(name.getNameName() + "|" + name.getSheetIndex() + "|" + name.getRefersToFormula()
+                + "|" + name.isFunctionName() + "|" + name.getComment());
+        }
+        description.sort(null);
+        return description;
+    }
+
+    private static TreeSet<String> describeMergedRegions(Sheet sheet) {
+        TreeSet<String> regions = new TreeSet<>();
+        for (CellRangeAddress region : sheet.getMergedRegions()) {
+            regions.add(region.formatAsString());
+        }
+        return regions;
+    }
+
+    private static String describeSheetSettings(Sheet sheet) {
+        PaneInformation pane = sheet.getPaneInformation();
+        String paneDescription = pane == null ? "none" : pane.isFreezePane() + "," + pane.getHorizontalSplitPosition()
+            + "," + pane.getVerticalSplitPosition() + "," + pane.getHorizontalSplitTopRow() + ","
+            + pane.getVerticalSplitLeftColumn();
+        return sheet.getDefaultColumnWidth() + "|" + sheet.getDefaultRowHeight() + "|" + paneDescription + "|"
+            + sheet.isDisplayGridlines() + "|" + sheet.isDisplayFormulas() + "|" + sheet.isDisplayZeros() + "|"
+            + sheet.isRightToLeft() + "|" + sheet.isPrintGridlines() + "|" + sheet.getProtect();
+    }
+
+    private static boolean sameColumns(Sheet from, Sheet to) {
+        if (from instanceof XSSFSheet && to instanceof XSSFSheet) {
+            return describeColumns((XSSFSheet) from).equals(describeColumns((XSSFSheet) to));
+        }
+        int lastColumn = Math.max(lastColumnToCompare(from), lastColumnToCompare(to));
+        for (int col = 0; col <= lastColumn; col++) {
+            if (from.getColumnWidth(col) != to.getColumnWidth(col)
+                || from.isColumnHidden(col) != to.isColumnHidden(col)
+                || !Objects.equals(styleIndex(from.getColumnStyle(col)), styleIndex(to.getColumnStyle(col)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * .xlsx的列定义按列展开后比较，相同宽度的列合并成一段还是拆成多段不影响结果
+     */
+    private static Map<Long, String> describeColumns(XSSFSheet sheet) {
+        Map<Long, String> columns = new TreeMap<>();
+        for (CTCols cols : sheet.getCTWorksheet().getColsArray()) {
+            for (CTCol col : cols.getColArray()) {
+                String description = (col.isSetWidth() ? col.getWidth() : "") + "," + col.getHidden() + ","
+                    + col.getStyle() + "," + col.getOutlineLevel() + "," + col.getCollapsed() + ","
+                    + col.getCustomWidth() + "," + col.getBestFit();
+                for (long index = col.getMin(); index <= col.getMax(); index++) {
+                    columns.put(index, description);
+                }
+            }
+        }
+        return columns;
+    }
+
+    private static int lastColumnToCompare(Sheet sheet) {
+        int lastColumn = 0;
+        for (Row row : sheet) {
+            lastColumn = Math.max(lastColumn, row.getLastCellNum());
+        }
+        // .xls最多256列，列宽可以设在没有单元格的列上
+        return Math.max(lastColumn, 255);
+    }
+
+    private static boolean sameRows(Sheet from, Sheet to) {
+        int lastRow = Math.max(from.getLastRowNum(), to.getLastRowNum());
+        for (int r = 0; r <= lastRow; r++) {
+            if (!describeRow(from, from.getRow(r)).equals(describeRow(to, to.getRow(r)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String describeRow(Sheet sheet, Row row) {
+        if (row == null) {
+            return sheet.getDefaultRowHeight() + ",false,null,0";
+        }
+        return row.getHeight() + "," + row.getZeroHeight() + ","
+            + (row.isFormatted() ? styleIndex(row.getRowStyle()) : null) + "," + row.getOutlineLevel();
+    }
+
+    private static Short styleIndex(CellStyle style) {
+        return style != null ? style.getIndex() : null;
+    }
+
+    private static Map<String, String> describeComments(Sheet sheet) {
+        Map<String, String> comments = new TreeMap<>();
+        for (Map.Entry<CellAddress, ? extends Comment> entry : sheet.getCellComments().entrySet()) {
+            Comment comment = entry.getValue();
+            comments.put(entry.getKey().formatAsString(), comment.getAuthor() + "|" + comment.isVisible() + "|"
+                + (comment.getString() != null ? comment.getString().getString() : null));
+        }
+        return comments;
+    }
+
+    private static TreeSet<String> describeHyperlinks(Sheet sheet) {
+        TreeSet<String> hyperlinks = new TreeSet<>();
+        for (Hyperlink hyperlink : sheet.getHyperlinkList()) {
+            hyperlinks.add(new CellRangeAddress(hyperlink.getFirstRow(), hyperlink.getLastRow(),
+                hyperlink.getFirstColumn(), hyperlink.getLastColumn()).formatAsString() + "|"
+                + hyperlink.getType() + "|" + hyperlink.getAddress() + "|" + hyperlink.getLabel());
+        }
+        return hyperlinks;
+    }
+
+    private static List<String> describeValidations(Sheet sheet) {
+        List<String> validations = new ArrayList<>();
+        for (DataValidation validation : sheet.getDataValidations()) {
+            DataValidationConstraint constraint = validation.getValidationConstraint();
+            List<String> regions = new ArrayList<>();
+            for (CellRangeAddress region : validation.getRegions().getCellRangeAddresses()) {
+                regions.add(region.formatAsString());
+            }
+            regions.sort(null);
+            validations.add(regions + "|" + constraint.getValidationType() + "|" + constraint.getOperator() + "|"
+                + constraint.getFormula1() + "|" + constraint.getFormula2() + "|"
+                + Arrays.toString(constraint.getExplicitListValues()) + "|" + validation.getErrorStyle() + "|"
+                + validation.getEmptyCellAllowed() + "|" + validation.getSuppressDropDownArrow() + "|"
+                + validation.getShowErrorBox() + "|" + validation.getShowPromptBox() + "|"
+                + validation.getErrorBoxTitle() + "|" + validation.getErrorBoxText() + "|"
+                + validation.getPromptBoxTitle() + "|" + validation.getPromptBoxText());
+        }
+        validations.sort(null);
+        return validations;
+    }
+
+    private static List<String> describeConditionalFormatting(Sheet sheet) {
+        SheetConditionalFormatting formatting = sheet.getSheetConditionalFormatting();
+        List<String> description = new ArrayList<>();
+        for (int i = 0; i < formatting.getNumConditionalFormattings(); i++) {
+            ConditionalFormatting conditional = formatting.getConditionalFormattingAt(i);
+            StringBuilder entry = new StringBuilder();
+            for (CellRangeAddress region : conditional.getFormattingRanges()) {
+                entry.append(region.formatAsString()).append(' ');
+            }
+            for (int r = 0; r < conditional.getNumberOfRules(); r++) {
+                ConditionalFormattingRule rule = conditional.getRule(r);
+                entry.append('|').append(rule.getConditionType()).append(',').append(rule.getComparisonOperation())
+                    .append(',').append(rule.getFormula1()).append(',').append(rule.getFormula2())
+                    .append(',').append(rule.getPriority()).append(',').append(rule.getStopIfTrue())
+                    .append(',').append(describeFormatting(rule));
+            }
+            description.add(entry.toString());
+        }
+        return description;
+    }
+
+    private static String describeFormatting(ConditionalFormattingRule rule) {
+        StringBuilder description = new StringBuilder();
+        FontFormatting font = rule.getFontFormatting();
+        if (font != null) {
+            description.append("font:").append(font.isBold()).append(font.isItalic()).append(font.getFontColorIndex())
+                .append(font.getFontHeight()).append(font.getUnderlineType());
+        }
+        PatternFormatting pattern = rule.getPatternFormatting();
+        if (pattern != null) {
+            description.append("fill:").append(pattern.getFillPattern()).append(pattern.getFillBackgroundColor())
+                .append(pattern.getFillForegroundColor());
+        }
+        BorderFormatting border = rule.getBorderFormatting();
+        if (border != null) {
+            description.append("border:").append(border.getBorderTop()).append(border.getBorderBottom())
+                .append(border.getBorderLeft()).append(border.getBorderRight());
+        }
+        if (rule.getNumberFormat() != null) {
+            description.append("format:").append(rule.getNumberFormat().getFormat());
+        }
+        return description.toString();
+    }
+
+    private static String xml(XmlObject object) {
+        return object.xmlText(XML_OPTIONS);
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.aiexcel.service.excel.diff;
+
+/**
+ * 单元格级变化
+ * 行号为Excel行号（从1开始），新增单元格没有旧行号，删除的单元格没有新行号。
+ */
+public class CellChange {
+
+    public enum Type {
+        ADDED, REMOVED, MODIFIED
+    }
+
+    private final String sheet;
+    private final Type type;
+    private final String column;
+    private final Integer oldRow;
+    private final Integer newRow;
+    private final String oldValue;
+    private final String newValue;
+
+    CellChange(String sheet, Type type, String column, Integer oldRow, Integer newRow, String oldValue, String newValue) {
+        this.sheet = sheet;
+        this.type = type;
+        this.column = column;
+        this.oldRow = oldRow;
+        this.newRow = newRow;
+        this.oldValue = oldValue;
+        this.newValue = newValue;
+    }
+
+    public String getSheet() {
+        return sheet;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public Integer getOldRow() {
+        return oldRow;
+    }
+
+    public Integer getNewRow() {
+        return newRow;
+    }
+
+    /**
+     * 单元格地址，删除的单元格为旧地址，其余为新地址
+     */
+    public String getAddress() {
+        return column + (newRow != null ? newRow : oldRow);
+    }
+
+    public String getOldValue() {
+        return oldValue;
+    }
+
+    public String getNewValue() {
+        return newValue;
+    }
+}
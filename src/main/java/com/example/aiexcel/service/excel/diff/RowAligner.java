@@ -0,0 +1,157 @@
+package com.example.aiexcel.service.excel.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按行内容哈希对齐两个行序列（Myers差分算法）
+ * 先去掉相同的前缀和后缀，再对中间部分求最短编辑脚本，结果为若干不相同的区段（hunk），
+ * 区段之外的行内容相同，比较时可直接跳过。
+ * 编辑距离超过上限时不再求精确对齐，把中间部分整体作为一个区段按位置逐行比较，
+ * 使记录搜索路径所需的内存（编辑距离的平方）保持有界。
+ */
+final class RowAligner {
+
+    /**
+     * 不相同的区段：旧序列[oldStart, oldEnd)对应新序列[newStart, newEnd)
+     */
+    static final class Hunk {
+        final int oldStart;
+        final int oldEnd;
+        final int newStart;
+        final int newEnd;
+
+        Hunk(int oldStart, int oldEnd, int newStart, int newEnd) {
+            this.oldStart = oldStart;
+            this.oldEnd = oldEnd;
+            this.newStart = newStart;
+            this.newEnd = newEnd;
+        }
+    }
+
+    static final class Alignment {
+        final List<Hunk> hunks;
+        final boolean approximate;
+
+        Alignment(List<Hunk> hunks, boolean approximate) {
+            this.hunks = hunks;
+            this.approximate = approximate;
+        }
+    }
+
+    private RowAligner() {
+    }
+
+    static Alignment align(long[] oldRows, int oldCount, long[] newRows, int newCount, int maxEdits) {
+        int prefix = 0;
+        while (prefix < oldCount && prefix < newCount && oldRows[prefix] == newRows[prefix]) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldCount - prefix && suffix < newCount - prefix
+            && oldRows[oldCount - 1 - suffix] == newRows[newCount - 1 - suffix]) {
+            suffix++;
+        }
+        int n = oldCount - prefix - suffix;
+        int m = newCount - prefix - suffix;
+        List<Hunk> hunks = new ArrayList<>();
+        if (n == 0 && m == 0) {
+            return new Alignment(hunks, false);
+        }
+        if (n == 0 || m == 0) {
+            hunks.add(new Hunk(prefix, prefix + n, prefix, prefix + m));
+            return new Alignment(hunks, false);
+        }
+
+        List<int[]> trace = search(oldRows, newRows, prefix, n, m, maxEdits);
+        if (trace == null) {
+            hunks.add(new Hunk(prefix, prefix + n, prefix, prefix + m));
+            return new Alignment(hunks, true);
+        }
+        backtrack(trace, n, m, prefix, hunks);
+        return new Alignment(hunks, false);
+    }
+
+    /**
+     * 正向搜索，trace.get(d)为第d步后对角线k∈[-d, d]上能到达的最远x（下标k + d）
+     * @return 搜索路径；编辑距离超过上限时返回null
+     */
+    private static List<int[]> search(long[] a, long[] b, int base, int n, int m, int maxEdits) {
+        int max = n + m;
+        int[] v = new int[2 * max + 3];
+        int center = max + 1;
+        List<int[]> trace = new ArrayList<>();
+        for (int d = 0; d <= Math.min(max, maxEdits); d++) {
+            for (int k = -d; k <= d; k += 2) {
+                int x;
+                if (k == -d || (k != d && v[center + k - 1] < v[center + k + 1])) {
+                    x = v[center + k + 1];
+                } else {
+                    x = v[center + k - 1] + 1;
+                }
+                int y = x - k;
+                while (x < n && y < m && a[base + x] == b[base + y]) {
+                    x++;
+                    y++;
+                }
+                v[center + k] = x;
+            }
+            int[] snapshot = new int[2 * d + 1];
+            System.arraycopy(v, center - d, snapshot, 0, snapshot.length);
+            trace.add(snapshot);
+            for (int k = -d; k <= d; k += 2) {
+                if (v[center + k] >= n && v[center + k] - k >= m) {
+                    return trace;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从终点沿搜索路径回溯，把连续的插入和删除合并为区段（按顺序加入hunks）
+     */
+    private static void backtrack(List<int[]> trace, int n, int m, int base, List<Hunk> hunks) {
+        List<Hunk> reversed = new ArrayList<>();
+        int x = n;
+        int y = m;
+        // 当前正在累积的区段（回溯方向，终点在前）
+        int hunkOldEnd = -1;
+        int hunkNewEnd = -1;
+        for (int d = trace.size() - 1; d > 0; d--) {
+            int[] previous = trace.get(d - 1);
+            int k = x - y;
+            int prevK;
+            if (k == -d || (k != d && at(previous, d - 1, k - 1) < at(previous, d - 1, k + 1))) {
+                prevK = k + 1;
+            } else {
+                prevK = k - 1;
+            }
+            int prevX = at(previous, d - 1, prevK);
+            int prevY = prevX - prevK;
+            // 沿对角线回退的部分内容相同，结束当前区段
+            int editEndX = prevK == k + 1 ? prevX : prevX + 1;
+            int editEndY = prevK == k + 1 ? prevY + 1 : prevY;
+            if (x > editEndX && hunkOldEnd >= 0) {
+                reversed.add(new Hunk(base + x, base + hunkOldEnd, base + y, base + hunkNewEnd));
+                hunkOldEnd = -1;
+            }
+            if (hunkOldEnd < 0) {
+                hunkOldEnd = editEndX;
+                hunkNewEnd = editEndY;
+            }
+            x = prevX;
+            y = prevY;
+        }
+        if (hunkOldEnd >= 0) {
+            reversed.add(new Hunk(base + x, base + hunkOldEnd, base + y, base + hunkNewEnd));
+        }
+        for (int i = reversed.size() - 1; i >= 0; i--) {
+            hunks.add(reversed.get(i));
+        }
+    }
+
+    private static int at(int[] snapshot, int d, int k) {
+        return snapshot[k + d];
+    }
+}
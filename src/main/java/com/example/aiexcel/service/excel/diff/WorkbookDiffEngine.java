@@ -0,0 +1,268 @@
+package com.example.aiexcel.service.excel.diff;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import com.example.aiexcel.service.excel.ExcelService;
+import org.apache.poi.ss.util.CellReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 单元格级工作簿比较
+ * 第一遍用行游标流式读取两个工作簿，每个工作表只保留每行内容的64位哈希；
+ * 按哈希做行对齐找出插入、删除和修改的行；
+ * 第二遍只对不相同的区段再次流式读取并逐单元格比较，相同的行直接跳过。
+ * 内存只与行数（每行8字节）、对齐上限和一页结果大小有关，不构建工作簿对象。
+ * 没有内容的行不参与比较，只因空行增删而移动位置的行不算变化。
+ */
+@Component
+public class WorkbookDiffEngine {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkbookDiffEngine.class);
+
+    private final ExcelService excelService;
+    private final int maxAlignmentEdits;
+
+    @Autowired
+    public WorkbookDiffEngine(ExcelService excelService,
+                              @Value("${version.diff.max-alignment-edits:1000}") int maxAlignmentEdits) {
+        this.excelService = excelService;
+        this.maxAlignmentEdits = maxAlignmentEdits;
+    }
+
+    /**
+     * 比较两个版本的文件内容
+     * @param offset 结果分页起始位置
+     * @param limit 每页最多返回的单元格变化数
+     */
+    public WorkbookDiffResult diff(byte[] oldContent, byte[] newContent, int offset, int limit) throws IOException {
+        Map<String, RowHashes> oldSheets = hashRows(oldContent);
+        Map<String, RowHashes> newSheets = hashRows(newContent);
+        WorkbookDiffResult result = new WorkbookDiffResult(offset, limit);
+
+        for (Map.Entry<String, RowHashes> entry : newSheets.entrySet()) {
+            String sheetName = entry.getKey();
+            RowHashes oldRows = oldSheets.get(sheetName);
+            if (oldRows == null) {
+                result.getSheetsAdded().add(sheetName);
+            }
+            diffSheet(sheetName, oldContent, oldRows, newContent, entry.getValue(), result);
+        }
+        for (Map.Entry<String, RowHashes> entry : oldSheets.entrySet()) {
+            if (!newSheets.containsKey(entry.getKey())) {
+                result.getSheetsRemoved().add(entry.getKey());
+                diffSheet(entry.getKey(), oldContent, entry.getValue(), newContent, null, result);
+            }
+        }
+
+        logger.debug("Compared workbooks: {} cell changes, {} rows added, {} removed, {} modified",
+            result.getTotalChanges(), result.getRowsAdded(), result.getRowsRemoved(), result.getRowsModified());
+        return result;
+    }
+
+    private void diffSheet(String sheetName, byte[] oldContent, RowHashes oldRows,
+                           byte[] newContent, RowHashes newRows, WorkbookDiffResult result) throws IOException {
+        RowHashes emptyRows = new RowHashes();
+        RowHashes oldSide = oldRows != null ? oldRows : emptyRows;
+        RowHashes newSide = newRows != null ? newRows : emptyRows;
+        RowAligner.Alignment alignment = RowAligner.align(oldSide.hashes, oldSide.size,
+            newSide.hashes, newSide.size, maxAlignmentEdits);
+        if (alignment.hunks.isEmpty()) {
+            return; // 工作表内容相同，不需要第二遍读取
+        }
+        if (alignment.approximate) {
+            result.getApproximateSheets().add(sheetName);
+        }
+
+        try (RowSequence oldSequence = oldRows != null ? RowSequence.open(excelService, oldContent, sheetName) : RowSequence.EMPTY;
+             RowSequence newSequence = newRows != null ? RowSequence.open(excelService, newContent, sheetName) : RowSequence.EMPTY) {
+            for (RowAligner.Hunk hunk : alignment.hunks) {
+                oldSequence.skipTo(hunk.oldStart);
+                newSequence.skipTo(hunk.newStart);
+                int oldLength = hunk.oldEnd - hunk.oldStart;
+                int newLength = hunk.newEnd - hunk.newStart;
+                int paired = Math.min(oldLength, newLength);
+                // 区段内按位置配对的行视为修改，多出的行为删除或插入
+                for (int i = 0; i < paired; i++) {
+                    oldSequence.next();
+                    newSequence.next();
+                    result.rowModified();
+                    compareRows(sheetName, oldSequence, newSequence, result);
+                }
+                for (int i = paired; i < oldLength; i++) {
+                    oldSequence.next();
+                    result.rowRemoved();
+                    compareRows(sheetName, oldSequence, null, result);
+                }
+                for (int i = paired; i < newLength; i++) {
+                    newSequence.next();
+                    result.rowAdded();
+                    compareRows(sheetName, null, newSequence, result);
+                }
+            }
+        }
+    }
+
+    private static void compareRows(String sheetName, RowSequence oldRow, RowSequence newRow, WorkbookDiffResult result) {
+        Object[] oldValues = oldRow != null ? oldRow.values : new Object[0];
+        Object[] newValues = newRow != null ? newRow.values : new Object[0];
+        Integer oldRowNumber = oldRow != null ? oldRow.rowIndex + 1 : null;
+        Integer newRowNumber = newRow != null ? newRow.rowIndex + 1 : null;
+        int width = Math.max(oldValues.length, newValues.length);
+        for (int col = 0; col < width; col++) {
+            Object before = col < oldValues.length ? oldValues[col] : null;
+            Object after = col < newValues.length ? newValues[col] : null;
+            if (Objects.equals(before, after)) {
+                continue;
+            }
+            String column = CellReference.convertNumToColString(col);
+            if (before == null) {
+                result.add(new CellChange(sheetName, CellChange.Type.ADDED, column, null, newRowNumber,
+                    null, ExcelRowCursor.formatValue(after)));
+            } else if (after == null) {
+                result.add(new CellChange(sheetName, CellChange.Type.REMOVED, column, oldRowNumber, null,
+                    ExcelRowCursor.formatValue(before), null));
+            } else {
+                result.add(new CellChange(sheetName, CellChange.Type.MODIFIED, column, oldRowNumber, newRowNumber,
+                    ExcelRowCursor.formatValue(before), ExcelRowCursor.formatValue(after)));
+            }
+        }
+    }
+
+    /**
+     * 第一遍：按工作表记录每个非空行的内容哈希
+     */
+    private Map<String, RowHashes> hashRows(byte[] content) throws IOException {
+        Map<String, RowHashes> sheets = new LinkedHashMap<>();
+        try (ExcelRowCursor cursor = excelService.openRowCursor(new ByteArrayInputStream(content))) {
+            while (cursor.nextSheet()) {
+                RowHashes rows = new RowHashes();
+                while (cursor.nextRow()) {
+                    Object[] values = cursor.getRowValues();
+                    if (!isEmpty(values)) {
+                        rows.add(hash(values));
+                    }
+                }
+                sheets.put(cursor.getSheetName(), rows);
+            }
+        }
+        return sheets;
+    }
+
+    static boolean isEmpty(Object[] values) {
+        for (Object value : values) {
+            if (value != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 行内容的FNV-1a哈希，包含列位置和值类型，行尾的空单元格不影响结果
+     */
+    static long hash(Object[] values) {
+        long hash = 0xcbf29ce484222325L;
+        for (int col = 0; col < values.length; col++) {
+            Object value = values[col];
+            if (value == null) {
+                continue;
+            }
+            hash = mix(hash, col);
+            hash = mix(hash, value.getClass().getSimpleName().charAt(0));
+            for (byte b : value.toString().getBytes(StandardCharsets.UTF_8)) {
+                hash = mix(hash, b);
+            }
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, int value) {
+        return (hash ^ value) * 0x100000001b3L;
+    }
+
+    /**
+     * 可增长的行哈希数组
+     */
+    private static final class RowHashes {
+        long[] hashes = new long[256];
+        int size;
+
+        void add(long hash) {
+            if (size == hashes.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            hashes[size++] = hash;
+        }
+    }
+
+    /**
+     * 第二遍：定位到指定工作表，按非空行的序号顺序前进
+     */
+    private static class RowSequence implements AutoCloseable {
+
+        static final RowSequence EMPTY = new RowSequence(null);
+
+        private final ExcelRowCursor cursor;
+        private int position = -1;
+        int rowIndex;
+        Object[] values;
+
+        private RowSequence(ExcelRowCursor cursor) {
+            this.cursor = cursor;
+        }
+
+        static RowSequence open(ExcelService excelService, byte[] content, String sheetName) throws IOException {
+            ExcelRowCursor cursor = excelService.openRowCursor(new ByteArrayInputStream(content));
+            try {
+                while (cursor.nextSheet()) {
+                    if (cursor.getSheetName().equals(sheetName)) {
+                        return new RowSequence(cursor);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+            cursor.close();
+            throw new IOException("Sheet not found: " + sheetName);
+        }
+
+        /**
+         * 跳过内容相同的行，使下一次next()读到序号为target的行
+         */
+        void skipTo(int target) throws IOException {
+            while (position + 1 < target) {
+                next();
+            }
+        }
+
+        void next() throws IOException {
+            do {
+                if (cursor == null || !cursor.nextRow()) {
+                    throw new IOException("Row sequence ended unexpectedly");
+                }
+                values = cursor.getRowValues();
+            } while (isEmpty(values));
+            rowIndex = cursor.getRowIndex();
+            position++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.aiexcel.service.excel.diff;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 两个工作簿的差异结果
+ * changes只包含[offset, offset + limit)这一页，统计字段覆盖全部差异。
+ */
+public class WorkbookDiffResult {
+
+    private final int offset;
+    private final int limit;
+    private final List<CellChange> changes = new ArrayList<>();
+    private long totalChanges;
+    private int rowsAdded;
+    private int rowsRemoved;
+    private int rowsModified;
+    private final List<String> sheetsAdded = new ArrayList<>();
+    private final List<String> sheetsRemoved = new ArrayList<>();
+    private final List<String> approximateSheets = new ArrayList<>();
+
+    WorkbookDiffResult(int offset, int limit) {
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    void add(CellChange change) {
+        if (totalChanges >= offset && changes.size() < limit) {
+            changes.add(change);
+        }
+        totalChanges++;
+    }
+
+    /**
+     * 本结果是否已包含[offset, offset + limit)这一页，可直接从中截取而不必重新比较
+     */
+    public boolean covers(int offset, int limit) {
+        return this.offset == 0
+            && (changes.size() == totalChanges || (long) offset + limit <= changes.size());
+    }
+
+    /**
+     * 从从头收集的结果中截取一页，统计字段原样复制
+     */
+    public WorkbookDiffResult page(int offset, int limit) {
+        if (!covers(offset, limit)) {
+            throw new IllegalArgumentException("Page is not covered by this result: " + offset + "+" + limit);
+        }
+        WorkbookDiffResult page = new WorkbookDiffResult(offset, limit);
+        int from = Math.min(offset, changes.size());
+        int to = (int) Math.min((long) offset + limit, changes.size());
+        page.changes.addAll(changes.subList(from, to));
+        page.totalChanges = totalChanges;
+        page.rowsAdded = rowsAdded;
+        page.rowsRemoved = rowsRemoved;
+        page.rowsModified = rowsModified;
+        page.sheetsAdded.addAll(sheetsAdded);
+        page.sheetsRemoved.addAll(sheetsRemoved);
+        page.approximateSheets.addAll(approximateSheets);
+        return page;
+    }
+
+    void rowAdded() {
+        rowsAdded++;
+    }
+
+    void rowRemoved() {
+        rowsRemoved++;
+    }
+
+    void rowModified() {
+        rowsModified++;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public List<CellChange> getChanges() {
+        return changes;
+    }
+
+    public long getTotalChanges() {
+        return totalChanges;
+    }
+
+    public boolean isHasMore() {
+        return offset + changes.size() < totalChanges;
+    }
+
+    public int getRowsAdded() {
+        return rowsAdded;
+    }
+
+    public int getRowsRemoved() {
+        return rowsRemoved;
+    }
+
+    public int getRowsModified() {
+        return rowsModified;
+    }
+
+    public List<String> getSheetsAdded() {
+        return sheetsAdded;
+    }
+
+    public List<String> getSheetsRemoved() {
+        return sheetsRemoved;
+    }
+
+    /**
+     * 差异过大、行对齐退化为按位置逐行比较的工作表
+     */
+    public List<String> getApproximateSheets() {
+        return approximateSheets;
+    }
+}
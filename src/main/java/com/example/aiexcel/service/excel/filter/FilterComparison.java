@@ -0,0 +1,283 @@
+package com.example.aiexcel.service.excel.filter;
+
+import com.example.aiexcel.service.excel.frame.ColumnType;
+import com.example.aiexcel.service.excel.frame.FrameColumn;
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.BitSet;
+import java.util.Locale;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * 单列比较，如 Amount greater_than 100
+ * 构造时把比较值编译为各类型的操作数（数值、日期区间、布尔、文本），求值时按列扫描基本类型数组：
+ * 数值单元格与数值比较，日期单元格与日期比较，文本条件对字典中每个不同的字符串只求值一次。
+ * 文本比较忽略大小写；仅有日期的比较值表示当天整天。
+ */
+public final class FilterComparison implements FilterExpression {
+
+    private static final DateTimeFormatter DATE_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd[ ]['T']HH:mm[:ss]");
+
+    private final String column;
+    private final FilterCondition condition;
+    private final String value;
+
+    // 编译后的比较值，不能按该类型解析时为null
+    private final Double number;
+    private final long[] dateRange;
+    private final Boolean bool;
+    private final String lowerText;
+
+    /**
+     * @param column 表头文本或列字母
+     * @param value 比较值；IS_EMPTY/NOT_EMPTY不需要，EQUALS/NOT_EQUALS的空值表示为空/不为空
+     */
+    public FilterComparison(String column, FilterCondition condition, String value) {
+        if (column == null || column.trim().isEmpty()) {
+            throw new IllegalArgumentException("Filter column is required");
+        }
+        String trimmed = value != null ? value.trim() : "";
+        if (trimmed.isEmpty() && condition == FilterCondition.EQUALS) {
+            condition = FilterCondition.IS_EMPTY;
+        } else if (trimmed.isEmpty() && condition == FilterCondition.NOT_EQUALS) {
+            condition = FilterCondition.NOT_EMPTY;
+        } else if (trimmed.isEmpty() && !condition.isUnary()) {
+            throw new IllegalArgumentException("Filter value is required for condition " + condition.getName());
+        }
+        this.column = column.trim();
+        this.condition = condition;
+        this.value = condition.isUnary() ? null : trimmed;
+        this.number = condition.isUnary() ? null : parseNumber(trimmed);
+        this.dateRange = condition.isUnary() ? null : parseDateRange(trimmed);
+        this.bool = "true".equalsIgnoreCase(trimmed) ? Boolean.TRUE
+            : "false".equalsIgnoreCase(trimmed) ? Boolean.FALSE : null;
+        this.lowerText = trimmed.toLowerCase(Locale.ROOT);
+    }
+
+    private static Double parseNumber(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 日期比较值对应的毫秒区间[start, end)：只有日期时为当天，带时间时精确到秒
+     */
+    private static long[] parseDateRange(String value) {
+        ZoneId zone = ZoneId.systemDefault();
+        try {
+            LocalDate date = LocalDate.parse(value);
+            return new long[]{
+                date.atStartOfDay(zone).toInstant().toEpochMilli(),
+                date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli()
+            };
+        } catch (DateTimeParseException ignored) {
+            // 继续尝试日期时间
+        }
+        try {
+            long start = LocalDateTime.parse(value, DATE_TIME).atZone(zone).toInstant().toEpochMilli();
+            return new long[]{start, start + 1000};
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public FilterCondition getCondition() {
+        return condition;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    @Override
+    public void validate(SheetFrame frame) {
+        if (frame.resolveColumnIndex(column) < 0) {
+            throw new IllegalArgumentException("Unknown filter column: " + column);
+        }
+    }
+
+    @Override
+    public BitSet evaluate(FilterContext context) {
+        return context.comparisonRows(this);
+    }
+
+    /**
+     * 扫描数据帧得到满足条件的行，由FilterContext调用（可能被缓存）
+     */
+    BitSet scan(SheetFrame frame) {
+        validate(frame);
+        int index = frame.resolveColumnIndex(column);
+        // 没有任何数据的列视为全部为空
+        FrameColumn frameColumn = index < frame.getColumnCount() ? frame.getColumn(index) : null;
+        switch (condition) {
+            case IS_EMPTY:
+                return complement(frame, present(frameColumn));
+            case NOT_EMPTY:
+                return present(frameColumn);
+            case EQUALS:
+                return equalRows(frameColumn);
+            case NOT_EQUALS:
+                return complement(frame, equalRows(frameColumn));
+            case GREATER_THAN:
+            case GREATER_OR_EQUAL:
+            case LESS_THAN:
+            case LESS_OR_EQUAL:
+                return orderedRows(frameColumn);
+            case NOT_CONTAINS:
+                return complement(frame, textMatchRows(frameColumn));
+            default:
+                return textMatchRows(frameColumn);
+        }
+    }
+
+    private static BitSet present(FrameColumn column) {
+        return column != null ? column.presentRows() : new BitSet();
+    }
+
+    private static BitSet complement(SheetFrame frame, BitSet rows) {
+        BitSet all = frame.allRows();
+        all.andNot(rows);
+        return all;
+    }
+
+    private BitSet equalRows(FrameColumn column) {
+        BitSet rows = new BitSet();
+        if (column == null) {
+            return rows;
+        }
+        if (number != null) {
+            double operand = number;
+            rows.or(column.scanNumbers(v -> v == operand));
+        }
+        if (dateRange != null) {
+            long start = dateRange[0];
+            long end = dateRange[1];
+            rows.or(column.scanDates(millis -> millis >= start && millis < end));
+        }
+        if (bool != null) {
+            rows.or(column.scanBooleans(bool));
+        }
+        rows.or(column.scanText(text -> text.equalsIgnoreCase(value)));
+        return rows;
+    }
+
+    /**
+     * 大小比较：数值比较值只匹配数值单元格，日期比较值只匹配日期单元格，其他按文本顺序只匹配文本单元格
+     */
+    private BitSet orderedRows(FrameColumn column) {
+        if (column == null) {
+            return new BitSet();
+        }
+        if (number != null) {
+            double operand = number;
+            DoublePredicate predicate;
+            switch (condition) {
+                case GREATER_THAN:
+                    predicate = v -> v > operand;
+                    break;
+                case GREATER_OR_EQUAL:
+                    predicate = v -> v >= operand;
+                    break;
+                case LESS_THAN:
+                    predicate = v -> v < operand;
+                    break;
+                default:
+                    predicate = v -> v <= operand;
+                    break;
+            }
+            return column.scanNumbers(predicate);
+        }
+        if (dateRange != null) {
+            long start = dateRange[0];
+            long end = dateRange[1];
+            LongPredicate predicate;
+            switch (condition) {
+                case GREATER_THAN:
+                    predicate = millis -> millis >= end;
+                    break;
+                case GREATER_OR_EQUAL:
+                    predicate = millis -> millis >= start;
+                    break;
+                case LESS_THAN:
+                    predicate = millis -> millis < start;
+                    break;
+                default:
+                    predicate = millis -> millis < end;
+                    break;
+            }
+            return column.scanDates(predicate);
+        }
+        return column.scanText(text -> {
+            int compared = String.CASE_INSENSITIVE_ORDER.compare(text, value);
+            switch (condition) {
+                case GREATER_THAN:
+                    return compared > 0;
+                case GREATER_OR_EQUAL:
+                    return compared >= 0;
+                case LESS_THAN:
+                    return compared < 0;
+                default:
+                    return compared <= 0;
+            }
+        });
+    }
+
+    /**
+     * 包含/开头是/结尾是：文本单元格按字典求值，数值、日期和布尔单元格按展示文本匹配
+     */
+    private BitSet textMatchRows(FrameColumn column) {
+        if (column == null) {
+            return new BitSet();
+        }
+        Predicate<String> predicate;
+        switch (condition) {
+            case STARTS_WITH:
+                predicate = text -> text.toLowerCase(Locale.ROOT).startsWith(lowerText);
+                break;
+            case ENDS_WITH:
+                predicate = text -> text.toLowerCase(Locale.ROOT).endsWith(lowerText);
+                break;
+            default:
+                predicate = text -> text.toLowerCase(Locale.ROOT).contains(lowerText);
+                break;
+        }
+        BitSet rows = column.scanText(predicate);
+        if (column.getType() != ColumnType.TEXT) {
+            BitSet present = column.presentRows();
+            for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+                if (column.kindAt(row) != ColumnType.TEXT && predicate.test(column.getText(row))) {
+                    rows.set(row);
+                }
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public String describe() {
+        String description = column + " " + condition.getName();
+        if (value != null) {
+            description += " \"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+        }
+        return description;
+    }
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.aiexcel.service.excel.filter;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 筛选条件
+ */
+public enum FilterCondition {
+
+    EQUALS("equals", "=", "==", "eq", "等于"),
+    NOT_EQUALS("not_equals", "!=", "<>", "ne", "不等于"),
+    GREATER_THAN("greater_than", ">", "gt", "大于"),
+    GREATER_OR_EQUAL("greater_or_equal", ">=", "gte", "大于等于"),
+    LESS_THAN("less_than", "<", "lt", "小于"),
+    LESS_OR_EQUAL("less_or_equal", "<=", "lte", "小于等于"),
+    CONTAINS("contains", "包含"),
+    NOT_CONTAINS("not_contains", "不包含"),
+    STARTS_WITH("starts_with", "开头是"),
+    ENDS_WITH("ends_with", "结尾是"),
+    IS_EMPTY("is_empty", "empty", "为空"),
+    NOT_EMPTY("not_empty", "不为空");
+
+    private static final Map<String, FilterCondition> BY_NAME = new HashMap<>();
+
+    static {
+        for (FilterCondition condition : values()) {
+            for (String name : condition.names) {
+                BY_NAME.put(name, condition);
+                BY_NAME.put(name.replace("_", ""), condition);
+            }
+        }
+    }
+
+    private final String[] names;
+
+    FilterCondition(String... names) {
+        this.names = names;
+    }
+
+    /**
+     * 规范名称，如"greater_than"
+     */
+    public String getName() {
+        return names[0];
+    }
+
+    /**
+     * 是否不需要比较值
+     */
+    public boolean isUnary() {
+        return this == IS_EMPTY || this == NOT_EMPTY;
+    }
+
+    /**
+     * 解析条件名称，支持规范名称（大小写、空格和连字符不敏感）、比较符号和中文名称
+     * @throws IllegalArgumentException 无法识别时
+     */
+    public static FilterCondition parse(String name) {
+        if (name != null) {
+            String normalized = name.trim().toLowerCase(Locale.ROOT).replace(' ', '_').replace('-', '_');
+            FilterCondition condition = BY_NAME.get(normalized);
+            if (condition == null) {
+                condition = BY_NAME.get(normalized.replace("_", ""));
+            }
+            if (condition != null) {
+                return condition;
+            }
+        }
+        throw new IllegalArgumentException("Unknown filter condition: " + name);
+    }
+}
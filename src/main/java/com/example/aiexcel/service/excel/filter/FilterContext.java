@@ -0,0 +1,81 @@
+package com.example.aiexcel.service.excel.filter;
+
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 对一个数据帧求值筛选表达式
+ * 缓存模式下按比较的规范文本缓存单列比较的行位图（最近使用的若干个），
+ * 同一会话中重复或部分重复的筛选直接复用位图，不再扫描列；缓存随数据帧一起在工作簿被修改时丢弃。
+ * 不是线程安全的，会话中的实例在会话锁内使用。
+ */
+public final class FilterContext {
+
+    private static final int MAX_CACHED_BITMAPS = 64;
+
+    private final SheetFrame frame;
+    private final Map<String, BitSet> bitmaps;
+    private int cacheHits;
+
+    private FilterContext(SheetFrame frame, boolean cached) {
+        this.frame = frame;
+        this.bitmaps = cached ? new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BitSet> eldest) {
+                return size() > MAX_CACHED_BITMAPS;
+            }
+        } : null;
+    }
+
+    /**
+     * 一次性求值，不缓存位图
+     */
+    public static FilterContext uncached(SheetFrame frame) {
+        return new FilterContext(frame, false);
+    }
+
+    /**
+     * 缓存单列比较的位图，用于会话中反复筛选同一个数据帧
+     */
+    public static FilterContext cached(SheetFrame frame) {
+        return new FilterContext(frame, true);
+    }
+
+    public SheetFrame getFrame() {
+        return frame;
+    }
+
+    /**
+     * 求值表达式，返回满足条件的行位图（调用方持有的副本）
+     * @throws IllegalArgumentException 表达式引用了不存在的列
+     */
+    public BitSet evaluate(FilterExpression expression) {
+        expression.validate(frame);
+        return expression.evaluate(this);
+    }
+
+    /**
+     * 累计的位图缓存命中次数
+     */
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    BitSet comparisonRows(FilterComparison comparison) {
+        if (bitmaps == null) {
+            return comparison.scan(frame);
+        }
+        String key = comparison.describe();
+        BitSet rows = bitmaps.get(key);
+        if (rows != null) {
+            cacheHits++;
+        } else {
+            rows = comparison.scan(frame);
+            bitmaps.put(key, rows);
+        }
+        return (BitSet) rows.clone();
+    }
+}
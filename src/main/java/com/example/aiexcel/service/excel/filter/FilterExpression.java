@@ -0,0 +1,25 @@
+package com.example.aiexcel.service.excel.filter;
+
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+
+import java.util.BitSet;
+
+/**
+ * 筛选表达式：单列比较（FilterComparison）或其AND/OR组合（FilterJunction）
+ * 求值结果是数据帧中满足条件的行位图，调用方可以修改返回的位图。
+ */
+public interface FilterExpression {
+
+    /**
+     * 检查表达式引用的列在数据帧中都能解析
+     * @throws IllegalArgumentException 列不存在时
+     */
+    void validate(SheetFrame frame);
+
+    BitSet evaluate(FilterContext context);
+
+    /**
+     * 规范化的文本形式，相同的表达式得到相同的文本，用作位图缓存的键
+     */
+    String describe();
+}
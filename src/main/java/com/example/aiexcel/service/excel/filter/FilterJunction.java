@@ -0,0 +1,74 @@
+package com.example.aiexcel.service.excel.filter;
+
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * 多个筛选表达式的AND/OR组合，在行位图上做交集/并集
+ */
+public final class FilterJunction implements FilterExpression {
+
+    public enum Operator {
+        AND, OR
+    }
+
+    private final Operator operator;
+    private final List<FilterExpression> children;
+
+    public FilterJunction(Operator operator, List<FilterExpression> children) {
+        if (children.isEmpty()) {
+            throw new IllegalArgumentException("Empty " + operator + " filter");
+        }
+        this.operator = operator;
+        this.children = List.copyOf(children);
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    public List<FilterExpression> getChildren() {
+        return children;
+    }
+
+    @Override
+    public void validate(SheetFrame frame) {
+        for (FilterExpression child : children) {
+            child.validate(frame);
+        }
+    }
+
+    @Override
+    public BitSet evaluate(FilterContext context) {
+        BitSet result = children.get(0).evaluate(context);
+        int rowCount = context.getFrame().getRowCount();
+        for (int i = 1; i < children.size(); i++) {
+            // 结果已确定时不再扫描后面的列
+            if (operator == Operator.AND ? result.isEmpty() : result.cardinality() == rowCount) {
+                break;
+            }
+            BitSet rows = children.get(i).evaluate(context);
+            if (operator == Operator.AND) {
+                result.and(rows);
+            } else {
+                result.or(rows);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public String describe() {
+        return children.stream()
+            .map(FilterExpression::describe)
+            .collect(Collectors.joining(" " + operator + " ", "(", ")"));
+    }
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+}
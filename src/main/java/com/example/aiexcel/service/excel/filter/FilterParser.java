@@ -0,0 +1,73 @@
+package com.example.aiexcel.service.excel.filter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 解析筛选请求
+ * 组合筛选使用JSON树，叶子节点为单列比较，内部节点为"and"/"or"数组，例如：
+ * <pre>
+ * {"and": [{"column": "Region", "condition": "equals", "value": "North"},
+ *          {"or": [{"column": "Amount", "condition": ">", "value": 1000},
+ *                  {"column": "Status", "condition": "is_empty"}]}]}
+ * </pre>
+ */
+public final class FilterParser {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int MAX_DEPTH = 32;
+
+    private FilterParser() {
+    }
+
+    /**
+     * 单列比较
+     */
+    public static FilterExpression comparison(String column, String condition, String value) {
+        return new FilterComparison(column, FilterCondition.parse(condition), value);
+    }
+
+    /**
+     * 解析JSON形式的组合筛选
+     * @throws IllegalArgumentException JSON格式或内容不正确时
+     */
+    public static FilterExpression parse(String json) {
+        JsonNode root;
+        try {
+            root = MAPPER.readTree(json);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Invalid filter JSON: " + e.getOriginalMessage());
+        }
+        return parse(root, 0);
+    }
+
+    private static FilterExpression parse(JsonNode node, int depth) {
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("Filter must be a JSON object");
+        }
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Filter is nested too deeply");
+        }
+        if (node.has("and") || node.has("or")) {
+            FilterJunction.Operator operator = node.has("and") ? FilterJunction.Operator.AND : FilterJunction.Operator.OR;
+            JsonNode items = node.get(operator == FilterJunction.Operator.AND ? "and" : "or");
+            if (!items.isArray()) {
+                throw new IllegalArgumentException("\"" + operator.name().toLowerCase() + "\" must be an array");
+            }
+            List<FilterExpression> children = new ArrayList<>();
+            for (JsonNode item : items) {
+                children.add(parse(item, depth + 1));
+            }
+            return new FilterJunction(operator, children);
+        }
+        JsonNode value = node.get("value");
+        return comparison(
+            node.path("column").asText(null),
+            node.path("condition").asText(null),
+            value == null || value.isNull() ? null : value.asText());
+    }
+}
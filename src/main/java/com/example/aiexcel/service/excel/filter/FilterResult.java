@@ -0,0 +1,50 @@
+package com.example.aiexcel.service.excel.filter;
+
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+
+import java.util.BitSet;
+
+/**
+ * 一次筛选的结果：数据帧和满足条件的行位图
+ * 数据帧只读、位图为本次结果独有，可以在会话锁外读取和输出。
+ */
+public final class FilterResult {
+
+    private final SheetFrame frame;
+    private final BitSet rows;
+    private final FilterExpression expression;
+    private final int cacheHits;
+
+    public FilterResult(SheetFrame frame, BitSet rows, FilterExpression expression, int cacheHits) {
+        this.frame = frame;
+        this.rows = rows;
+        this.expression = expression;
+        this.cacheHits = cacheHits;
+    }
+
+    public SheetFrame getFrame() {
+        return frame;
+    }
+
+    /**
+     * 满足条件的行（数据帧内的行下标）
+     */
+    public BitSet getRows() {
+        return rows;
+    }
+
+    public FilterExpression getExpression() {
+        return expression;
+    }
+
+    public int getMatchedCount() {
+        return rows.cardinality();
+    }
+
+    /**
+     * 本次求值中复用缓存位图的单列比较数
+     */
+    public int getCacheHits() {
+        return cacheHits;
+    }
+}
@@ -0,0 +1,15 @@
+package com.example.aiexcel.service.excel.formula;
+
+/**
+ * 编译后的公式表达式
+ * 表达式树只包含结构，不绑定具体工作表，可以缓存并在不同上下文中重复计算。
+ */
+@FunctionalInterface
+public interface Expression {
+
+    /**
+     * 计算表达式
+     * @return Double、String、Boolean 或 java.util.Date
+     */
+    Object evaluate(ExpressionContext context);
+}
@@ -0,0 +1,579 @@
+package com.example.aiexcel.service.excel.formula;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.util.CellReference;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 公式编译器
+ * 将公式文本分词后按递归下降解析为闭包树，运算符优先级与Excel一致（由低到高）：
+ * 比较 &lt; 连接(&amp;) &lt; 加减 &lt; 乘除 &lt; 乘方 &lt; 正负号。
+ * 支持单元格引用、区域引用以及SUM、AVERAGE、MIN、MAX、COUNT、IF函数。
+ * 不带$的引用是相对引用，按上下文的行列偏移解析，因此同一个编译结果可以填充到整个区域。
+ */
+class ExpressionCompiler {
+
+    private final String formula;
+    private final List<Token> tokens;
+    private int position = 0;
+
+    private ExpressionCompiler(String formula) {
+        this.formula = formula;
+        this.tokens = tokenize(formula);
+    }
+
+    /**
+     * 编译公式（不含前导等号）
+     * @throws IllegalArgumentException 公式语法错误或使用了不支持的函数
+     */
+    static Expression compile(String formula) {
+        ExpressionCompiler compiler = new ExpressionCompiler(formula);
+        Expression expression = compiler.parseComparison();
+        if (compiler.peek().type != TokenType.END) {
+            throw compiler.error("Unexpected token '" + compiler.peek().text + "'");
+        }
+        if (expression instanceof RangeExpression) {
+            throw compiler.error("Range cannot be used as a single value");
+        }
+        return expression;
+    }
+
+    // ---------- 语法分析 ----------
+
+    private Expression parseComparison() {
+        Expression left = parseConcat();
+        while (peek().type == TokenType.OPERATOR && isComparison(peek().text)) {
+            String operator = next().text;
+            Expression lhs = scalar(left);
+            Expression rhs = scalar(parseConcat());
+            left = context -> compare(operator, lhs.evaluate(context), rhs.evaluate(context));
+        }
+        return left;
+    }
+
+    private Expression parseConcat() {
+        Expression left = parseAdditive();
+        while (peekOperator("&")) {
+            next();
+            Expression lhs = scalar(left);
+            Expression rhs = scalar(parseAdditive());
+            left = context -> toText(lhs.evaluate(context)) + toText(rhs.evaluate(context));
+        }
+        return left;
+    }
+
+    private Expression parseAdditive() {
+        Expression left = parseMultiplicative();
+        while (peekOperator("+") || peekOperator("-")) {
+            String operator = next().text;
+            Expression lhs = scalar(left);
+            Expression rhs = scalar(parseMultiplicative());
+            if ("+".equals(operator)) {
+                left = context -> add(lhs.evaluate(context), rhs.evaluate(context));
+            } else {
+                left = context -> toNumber(lhs.evaluate(context)) - toNumber(rhs.evaluate(context));
+            }
+        }
+        return left;
+    }
+
+    private Expression parseMultiplicative() {
+        Expression left = parsePower();
+        while (peekOperator("*") || peekOperator("/")) {
+            String operator = next().text;
+            Expression lhs = scalar(left);
+            Expression rhs = scalar(parsePower());
+            if ("*".equals(operator)) {
+                left = context -> toNumber(lhs.evaluate(context)) * toNumber(rhs.evaluate(context));
+            } else {
+                left = context -> divide(toNumber(lhs.evaluate(context)), toNumber(rhs.evaluate(context)));
+            }
+        }
+        return left;
+    }
+
+    private Expression parsePower() {
+        Expression left = parseUnary();
+        while (peekOperator("^")) {
+            next();
+            Expression lhs = scalar(left);
+            Expression rhs = scalar(parseUnary());
+            left = context -> Math.pow(toNumber(lhs.evaluate(context)), toNumber(rhs.evaluate(context)));
+        }
+        return left;
+    }
+
+    private Expression parseUnary() {
+        if (peekOperator("-")) {
+            next();
+            Expression operand = scalar(parseUnary());
+            return context -> -toNumber(operand.evaluate(context));
+        }
+        if (peekOperator("+")) {
+            next();
+            return parseUnary();
+        }
+        return parsePrimary();
+    }
+
+    private Expression parsePrimary() {
+        Token token = next();
+        switch (token.type) {
+            case NUMBER: {
+                Double value = Double.valueOf(token.text);
+                return context -> value;
+            }
+            case STRING: {
+                String value = token.text;
+                return context -> value;
+            }
+            case CELL: {
+                Reference start = parseCell(token.text);
+                if (peek().type == TokenType.COLON) {
+                    next();
+                    Token end = next();
+                    if (end.type != TokenType.CELL) {
+                        throw error("Expected cell reference after ':'");
+                    }
+                    return new RangeExpression(start, parseCell(end.text));
+                }
+                if (start.rowAbsolute && start.colAbsolute) {
+                    int row = start.row;
+                    int col = start.col;
+                    return context -> context.getCellValue(row, col);
+                }
+                return context -> context.getCellValue(start.row(context), start.col(context));
+            }
+            case IDENTIFIER: {
+                String name = token.text.toUpperCase(Locale.ROOT);
+                if (peek().type == TokenType.LEFT_PAREN) {
+                    next();
+                    return parseFunction(name, parseArguments());
+                }
+                if ("TRUE".equals(name) || "FALSE".equals(name)) {
+                    Boolean value = Boolean.valueOf(name);
+                    return context -> value;
+                }
+                throw error("Unknown name '" + token.text + "'");
+            }
+            case LEFT_PAREN: {
+                Expression inner = parseComparison();
+                expect(TokenType.RIGHT_PAREN, "')'");
+                return inner;
+            }
+            default:
+                throw error("Unexpected token '" + token.text + "'");
+        }
+    }
+
+    private List<Expression> parseArguments() {
+        List<Expression> arguments = new ArrayList<>();
+        if (peek().type == TokenType.RIGHT_PAREN) {
+            next();
+            return arguments;
+        }
+        do {
+            arguments.add(parseComparison());
+        } while (accept(TokenType.COMMA));
+        expect(TokenType.RIGHT_PAREN, "')'");
+        return arguments;
+    }
+
+    private Expression parseFunction(String name, List<Expression> arguments) {
+        switch (name) {
+            case "SUM":
+                return aggregate(arguments, aggregate -> aggregate.sum);
+            case "AVERAGE":
+                return aggregate(arguments, aggregate -> {
+                    if (aggregate.count == 0) {
+                        throw new ArithmeticException("AVERAGE of empty range");
+                    }
+                    return aggregate.sum / aggregate.count;
+                });
+            case "MIN":
+                return aggregate(arguments, aggregate -> aggregate.count == 0 ? 0.0 : aggregate.min);
+            case "MAX":
+                return aggregate(arguments, aggregate -> aggregate.count == 0 ? 0.0 : aggregate.max);
+            case "COUNT":
+                return aggregate(arguments, aggregate -> (double) aggregate.count);
+            case "IF": {
+                if (arguments.size() < 2 || arguments.size() > 3) {
+                    throw error("IF expects 2 or 3 arguments");
+                }
+                Expression condition = scalar(arguments.get(0));
+                Expression whenTrue = scalar(arguments.get(1));
+                Expression whenFalse = arguments.size() == 3 ? scalar(arguments.get(2)) : context -> Boolean.FALSE;
+                return context -> isTrue(condition.evaluate(context))
+                    ? whenTrue.evaluate(context) : whenFalse.evaluate(context);
+            }
+            default:
+                throw error("Unsupported function " + name);
+        }
+    }
+
+    /**
+     * 聚合函数：区域参数按列扫描数值快照，标量参数按数值计入
+     */
+    private Expression aggregate(List<Expression> arguments, AggregateResult result) {
+        if (arguments.isEmpty()) {
+            throw error("Function expects at least one argument");
+        }
+        Expression[] args = arguments.toArray(new Expression[0]);
+        return context -> {
+            NumericColumn.Aggregate aggregate = new NumericColumn.Aggregate();
+            for (Expression argument : args) {
+                if (argument instanceof RangeExpression) {
+                    RangeExpression range = (RangeExpression) argument;
+                    int startRow = range.start.row(context);
+                    int stopRow = range.stop.row(context);
+                    int firstRow = Math.min(startRow, stopRow);
+                    int lastRow = Math.max(startRow, stopRow);
+                    int startCol = range.start.col(context);
+                    int stopCol = range.stop.col(context);
+                    for (int col = Math.min(startCol, stopCol); col <= Math.max(startCol, stopCol); col++) {
+                        context.getNumericColumn(col).aggregate(firstRow, lastRow, aggregate);
+                    }
+                } else {
+                    Object value = argument.evaluate(context);
+                    if (value instanceof String && ((String) value).isEmpty()) {
+                        continue;
+                    }
+                    aggregate.add(toNumber(value));
+                }
+            }
+            return result.apply(aggregate);
+        };
+    }
+
+    @FunctionalInterface
+    private interface AggregateResult {
+        Double apply(NumericColumn.Aggregate aggregate);
+    }
+
+    private Expression scalar(Expression expression) {
+        if (expression instanceof RangeExpression) {
+            throw error("Range cannot be used as a single value");
+        }
+        return expression;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " in formula: " + formula);
+    }
+
+    private Token peek() {
+        return tokens.get(position);
+    }
+
+    private Token next() {
+        Token token = tokens.get(position);
+        if (token.type != TokenType.END) {
+            position++;
+        }
+        return token;
+    }
+
+    private boolean peekOperator(String operator) {
+        Token token = peek();
+        return token.type == TokenType.OPERATOR && token.text.equals(operator);
+    }
+
+    private boolean accept(TokenType type) {
+        if (peek().type == type) {
+            next();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(TokenType type, String description) {
+        if (!accept(type)) {
+            throw error("Expected " + description);
+        }
+    }
+
+    private static boolean isComparison(String operator) {
+        switch (operator) {
+            case "=":
+            case "<>":
+            case "<":
+            case ">":
+            case "<=":
+            case ">=":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private Reference parseCell(String text) {
+        CellReference reference = new CellReference(text);
+        return new Reference(reference.getRow(), reference.getCol(), reference.isRowAbsolute(), reference.isColAbsolute());
+    }
+
+    // ---------- 运行时取值 ----------
+
+    /**
+     * 加法：两侧都能转为数字时相加，否则按字符串拼接（与原有行为保持一致）
+     */
+    private static Object add(Object left, Object right) {
+        try {
+            return toNumber(left) + toNumber(right);
+        } catch (NumberFormatException e) {
+            return String.valueOf(left) + String.valueOf(right);
+        }
+    }
+
+    private static Object divide(double dividend, double divisor) {
+        if (divisor == 0) {
+            throw new ArithmeticException("Division by zero");
+        }
+        return dividend / divisor;
+    }
+
+    static double toNumber(Object value) {
+        if (value == null) {
+            return 0.0;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1.0 : 0.0;
+        }
+        if (value instanceof Date) {
+            return DateUtil.getExcelDate((Date) value);
+        }
+        String text = value.toString().trim();
+        if (text.isEmpty()) {
+            return 0.0;
+        }
+        return Double.parseDouble(text);
+    }
+
+    private static String toText(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value ? "TRUE" : "FALSE";
+        }
+        return ExcelRowCursor.formatValue(value);
+    }
+
+    private static boolean isTrue(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        }
+        if (value instanceof String) {
+            String text = ((String) value).trim();
+            if (text.isEmpty() || "FALSE".equalsIgnoreCase(text)) {
+                return false;
+            }
+            if ("TRUE".equalsIgnoreCase(text)) {
+                return true;
+            }
+        }
+        return toNumber(value) != 0;
+    }
+
+    private static Boolean compare(String operator, Object left, Object right) {
+        int result;
+        if (isNumeric(left) && isNumeric(right)) {
+            result = Double.compare(toNumber(left), toNumber(right));
+        } else {
+            result = toText(left).compareToIgnoreCase(toText(right));
+        }
+        switch (operator) {
+            case "=":
+                return result == 0;
+            case "<>":
+                return result != 0;
+            case "<":
+                return result < 0;
+            case ">":
+                return result > 0;
+            case "<=":
+                return result <= 0;
+            default:
+                return result >= 0;
+        }
+    }
+
+    private static boolean isNumeric(Object value) {
+        return value instanceof Number || value instanceof Date || value instanceof Boolean;
+    }
+
+    // ---------- 词法分析 ----------
+
+    private enum TokenType {
+        NUMBER, STRING, CELL, IDENTIFIER, OPERATOR, LEFT_PAREN, RIGHT_PAREN, COMMA, COLON, END
+    }
+
+    private static class Token {
+        final TokenType type;
+        final String text;
+
+        Token(TokenType type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+    }
+
+    private List<Token> tokenize(String text) {
+        List<Token> result = new ArrayList<>();
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < length && Character.isDigit(text.charAt(i + 1)))) {
+                int start = i;
+                while (i < length && (Character.isDigit(text.charAt(i)) || text.charAt(i) == '.')) {
+                    i++;
+                }
+                if (i < length && (text.charAt(i) == 'e' || text.charAt(i) == 'E')) {
+                    int exponent = i + 1;
+                    if (exponent < length && (text.charAt(exponent) == '+' || text.charAt(exponent) == '-')) {
+                        exponent++;
+                    }
+                    if (exponent < length && Character.isDigit(text.charAt(exponent))) {
+                        i = exponent;
+                        while (i < length && Character.isDigit(text.charAt(i))) {
+                            i++;
+                        }
+                    }
+                }
+                result.add(new Token(TokenType.NUMBER, text.substring(start, i)));
+            } else if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= length) {
+                        throw error("Unterminated string literal");
+                    }
+                    char ch = text.charAt(i++);
+                    if (ch == '"') {
+                        // 连续两个双引号表示转义
+                        if (i < length && text.charAt(i) == '"') {
+                            value.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        value.append(ch);
+                    }
+                }
+                result.add(new Token(TokenType.STRING, value.toString()));
+            } else if (Character.isLetter(c) || c == '$' || c == '_') {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(text.charAt(i))
+                    || text.charAt(i) == '$' || text.charAt(i) == '_' || text.charAt(i) == '.')) {
+                    i++;
+                }
+                String word = text.substring(start, i);
+                boolean cell = isCellReference(word) && (i >= length || text.charAt(i) != '(');
+                result.add(new Token(cell ? TokenType.CELL : TokenType.IDENTIFIER, word));
+            } else if (c == '<' || c == '>') {
+                if (i + 1 < length && (text.charAt(i + 1) == '=' || (c == '<' && text.charAt(i + 1) == '>'))) {
+                    result.add(new Token(TokenType.OPERATOR, text.substring(i, i + 2)));
+                    i += 2;
+                } else {
+                    result.add(new Token(TokenType.OPERATOR, String.valueOf(c)));
+                    i++;
+                }
+            } else if ("+-*/^&=".indexOf(c) >= 0) {
+                result.add(new Token(TokenType.OPERATOR, String.valueOf(c)));
+                i++;
+            } else if (c == '(') {
+                result.add(new Token(TokenType.LEFT_PAREN, "("));
+                i++;
+            } else if (c == ')') {
+                result.add(new Token(TokenType.RIGHT_PAREN, ")"));
+                i++;
+            } else if (c == ',') {
+                result.add(new Token(TokenType.COMMA, ","));
+                i++;
+            } else if (c == ':') {
+                result.add(new Token(TokenType.COLON, ":"));
+                i++;
+            } else {
+                throw error("Unexpected character '" + c + "'");
+            }
+        }
+        result.add(new Token(TokenType.END, ""));
+        return result;
+    }
+
+    private static boolean isCellReference(String word) {
+        int i = 0;
+        int length = word.length();
+        if (i < length && word.charAt(i) == '$') {
+            i++;
+        }
+        int letters = 0;
+        while (i < length && Character.isLetter(word.charAt(i))) {
+            i++;
+            letters++;
+        }
+        if (letters == 0 || letters > 3) {
+            return false;
+        }
+        if (i < length && word.charAt(i) == '$') {
+            i++;
+        }
+        int digits = 0;
+        while (i < length && Character.isDigit(word.charAt(i))) {
+            i++;
+            digits++;
+        }
+        return digits > 0 && i == length;
+    }
+
+    /**
+     * 单元格引用，相对部分（不带$）在计算时加上上下文的行列偏移
+     */
+    private static class Reference {
+        final int row;
+        final int col;
+        final boolean rowAbsolute;
+        final boolean colAbsolute;
+
+        Reference(int row, int col, boolean rowAbsolute, boolean colAbsolute) {
+            this.row = row;
+            this.col = col;
+            this.rowAbsolute = rowAbsolute;
+            this.colAbsolute = colAbsolute;
+        }
+
+        int row(ExpressionContext context) {
+            return rowAbsolute ? row : row + context.getRowOffset();
+        }
+
+        int col(ExpressionContext context) {
+            return colAbsolute ? col : col + context.getColumnOffset();
+        }
+    }
+
+    /**
+     * 区域引用，仅能作为聚合函数的参数
+     */
+    private static class RangeExpression implements Expression {
+        final Reference start;
+        final Reference stop;
+
+        RangeExpression(Reference start, Reference stop) {
+            this.start = start;
+            this.stop = stop;
+        }
+
+        @Override
+        public Object evaluate(ExpressionContext context) {
+            throw new IllegalArgumentException("Range cannot be used as a single value");
+        }
+    }
+}
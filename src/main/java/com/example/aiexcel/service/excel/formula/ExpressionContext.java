@@ -0,0 +1,31 @@
+package com.example.aiexcel.service.excel.formula;
+
+/**
+ * 表达式计算时读取单元格的上下文
+ */
+public interface ExpressionContext {
+
+    /**
+     * 获取单个单元格的值，空单元格返回空字符串
+     */
+    Object getCellValue(int row, int col);
+
+    /**
+     * 获取整列的数值视图，供区域聚合函数做基本类型扫描
+     */
+    NumericColumn getNumericColumn(int col);
+
+    /**
+     * 相对引用的行偏移，公式模式按区域填充时为当前单元格相对于起始单元格的行差
+     */
+    default int getRowOffset() {
+        return 0;
+    }
+
+    /**
+     * 相对引用的列偏移
+     */
+    default int getColumnOffset() {
+        return 0;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.aiexcel.service.excel.formula;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 公式表达式引擎
+ * 按公式文本缓存编译结果，同一公式在批量任务中只解析一次。
+ */
+@Component
+public class ExpressionEngine {
+
+    private static final int MAX_CACHED_EXPRESSIONS = 1024;
+
+    // 按访问顺序淘汰的LRU缓存
+    private final Map<String, Expression> cache = new LinkedHashMap<String, Expression>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Expression> eldest) {
+            return size() > MAX_CACHED_EXPRESSIONS;
+        }
+    };
+
+    /**
+     * 编译公式，允许带前导等号
+     * @throws IllegalArgumentException 公式语法错误或使用了不支持的函数
+     */
+    public Expression compile(String formula) {
+        String text = formula.trim();
+        if (text.startsWith("=")) {
+            text = text.substring(1).trim();
+        }
+        synchronized (cache) {
+            Expression expression = cache.get(text);
+            if (expression != null) {
+                return expression;
+            }
+        }
+        Expression expression = ExpressionCompiler.compile(text);
+        synchronized (cache) {
+            cache.put(text, expression);
+        }
+        return expression;
+    }
+
+    /**
+     * 编译并计算公式
+     */
+    public Object evaluate(String formula, ExpressionContext context) {
+        return compile(formula).evaluate(context);
+    }
+
+    /**
+     * 将以起始单元格为基准书写的公式填充到整个区域并计算
+     * 公式只编译一次，相对引用按行列偏移；单个单元格计算出错时该位置为"#ERROR!"。
+     * @return 按区域行列排列的计算结果，尚未写回工作表
+     * @throws IllegalArgumentException 公式语法错误或使用了不支持的函数
+     */
+    public Object[][] evaluateRange(String formula, SheetExpressionContext context,
+                                    int firstRow, int firstCol, int lastRow, int lastCol) {
+        Expression expression = compile(formula);
+        int rows = lastRow - firstRow + 1;
+        int cols = lastCol - firstCol + 1;
+        RangeFillContext fillContext = new RangeFillContext(context, firstRow, firstCol, rows, cols);
+        context.beginFill();
+        try {
+            for (int r = 0; r < rows; r++) {
+                for (int c = 0; c < cols; c++) {
+                    fillContext.moveTo(r, c);
+                    Object value;
+                    try {
+                        value = expression.evaluate(fillContext);
+                    } catch (RuntimeException e) {
+                        value = "#ERROR!";
+                    }
+                    fillContext.setCurrentValue(value);
+                }
+            }
+        } finally {
+            context.endFill();
+        }
+        return fillContext.getValues();
+    }
+}
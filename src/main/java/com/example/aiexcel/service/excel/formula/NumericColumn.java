@@ -0,0 +1,62 @@
+package com.example.aiexcel.service.excel.formula;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * 单列数值快照
+ * 数值保存在double数组中，present位图标记哪些行是数值单元格（文本、空白不参与聚合，与Excel一致）。
+ */
+public class NumericColumn {
+
+    private double[] values;
+    private final BitSet present;
+
+    public NumericColumn(int capacity) {
+        this.values = new double[Math.max(capacity, 16)];
+        this.present = new BitSet(capacity);
+    }
+
+    public void set(int row, double value) {
+        if (row >= values.length) {
+            values = Arrays.copyOf(values, Math.max(row + 1, values.length * 2));
+        }
+        values[row] = value;
+        present.set(row);
+    }
+
+    public void clear(int row) {
+        present.clear(row);
+    }
+
+    /**
+     * 对[firstRow, lastRow]内的数值做聚合
+     */
+    public void aggregate(int firstRow, int lastRow, Aggregate aggregate) {
+        int end = Math.min(lastRow, present.length() - 1);
+        for (int row = present.nextSetBit(firstRow); row >= 0 && row <= end; row = present.nextSetBit(row + 1)) {
+            aggregate.add(values[row]);
+        }
+    }
+
+    /**
+     * 聚合状态：一次扫描同时得到和、计数、最小值、最大值
+     */
+    public static class Aggregate {
+        double sum;
+        int count;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+
+        void add(double value) {
+            sum += value;
+            count++;
+            if (value < min) {
+                min = value;
+            }
+            if (value > max) {
+                max = value;
+            }
+        }
+    }
+}
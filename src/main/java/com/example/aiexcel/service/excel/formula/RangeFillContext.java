@@ -0,0 +1,71 @@
+package com.example.aiexcel.service.excel.formula;
+
+/**
+ * 公式模式按区域填充时的上下文
+ * 按行优先顺序逐个单元格计算，相对引用随当前位置偏移；
+ * 区域内已算出的结果先缓存在数组中，后续单元格（如累计求和）读取的是新值而不是工作表里的旧值，
+ * 整个区域算完后由调用方一次性写回。
+ */
+class RangeFillContext implements ExpressionContext {
+
+    private final SheetExpressionContext sheetContext;
+    private final int firstRow;
+    private final int firstCol;
+    private final Object[][] values;
+    private int rowOffset;
+    private int colOffset;
+
+    RangeFillContext(SheetExpressionContext sheetContext, int firstRow, int firstCol, int rows, int cols) {
+        this.sheetContext = sheetContext;
+        this.firstRow = firstRow;
+        this.firstCol = firstCol;
+        this.values = new Object[rows][cols];
+    }
+
+    void moveTo(int rowOffset, int colOffset) {
+        this.rowOffset = rowOffset;
+        this.colOffset = colOffset;
+    }
+
+    /**
+     * 记录当前单元格的结果，并同步到工作表上下文的列快照
+     */
+    void setCurrentValue(Object value) {
+        values[rowOffset][colOffset] = value;
+        sheetContext.notifyCellUpdated(firstRow + rowOffset, firstCol + colOffset, value);
+    }
+
+    Object[][] getValues() {
+        return values;
+    }
+
+    @Override
+    public Object getCellValue(int row, int col) {
+        int r = row - firstRow;
+        int c = col - firstCol;
+        if (r >= 0 && r < values.length && c >= 0 && c < values[r].length && isComputed(r, c)) {
+            Object value = values[r][c];
+            return value != null ? value : "";
+        }
+        return sheetContext.getCellValue(row, col);
+    }
+
+    @Override
+    public NumericColumn getNumericColumn(int col) {
+        return sheetContext.getNumericColumn(col);
+    }
+
+    @Override
+    public int getRowOffset() {
+        return rowOffset;
+    }
+
+    @Override
+    public int getColumnOffset() {
+        return colOffset;
+    }
+
+    private boolean isComputed(int r, int c) {
+        return r < rowOffset || (r == rowOffset && c < colOffset);
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.aiexcel.service.excel.formula;
+
+import com.example.aiexcel.service.excel.FormulaDependencyGraph;
+import com.example.aiexcel.service.excel.WorkbookEvaluationContext;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 基于POI工作表的表达式上下文
+ * 列数值快照在首次被区域函数访问时按列扫描一次，之后的聚合只扫描double数组；
+ * 通过本上下文写回的单元格会同步更新快照，因此同一批公式任务可以共用一个上下文。
+ * 含公式的列记录其公式引用了哪些列，写入某列时只丢弃（传递）依赖该列的公式列快照；
+ * 区域填充期间新值尚未写回工作表，依赖列先标记为过期，填充结束后统一丢弃，避免每写一格就重建一次。
+ */
+public class SheetExpressionContext implements ExpressionContext {
+
+    private final Sheet sheet;
+    private final WorkbookEvaluationContext evaluationContext;
+    private final Map<Integer, NumericColumn> columns = new HashMap<>();
+    // 含公式单元格的已加载列 -> 其公式引用的本表列
+    private final Map<Integer, BitSet> formulaColumnInputs = new HashMap<>();
+    // 含无法确定依赖的公式的已加载列，任何写入都可能改变其中的公式结果
+    private final Set<Integer> opaqueFormulaColumns = new HashSet<>();
+    // 依赖已被写入的列、待丢弃的公式列快照
+    private final Set<Integer> staleColumns = new HashSet<>();
+    private boolean filling;
+
+    public SheetExpressionContext(Sheet sheet, WorkbookEvaluationContext evaluationContext) {
+        this.sheet = sheet;
+        this.evaluationContext = evaluationContext;
+    }
+
+    @Override
+    public Object getCellValue(int row, int col) {
+        Row sheetRow = sheet.getRow(row);
+        Cell cell = sheetRow != null ? sheetRow.getCell(col) : null;
+        if (cell == null) {
+            return "";
+        }
+        switch (cell.getCellType()) {
+            case STRING:
+                return cell.getStringCellValue();
+            case NUMERIC:
+                if (DateUtil.isCellDateFormatted(cell)) {
+                    return cell.getDateCellValue();
+                }
+                return cell.getNumericCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case FORMULA:
+                CellValue cellValue = evaluationContext.evaluate(cell);
+                switch (cellValue.getCellType()) {
+                    case STRING:
+                        return cellValue.getStringValue();
+                    case NUMERIC:
+                        return cellValue.getNumberValue();
+                    case BOOLEAN:
+                        return cellValue.getBooleanValue();
+                    case ERROR:
+                        return "#ERROR!";
+                    default:
+                        return cellValue.formatAsString();
+                }
+            case ERROR:
+                return "#ERROR!";
+            default:
+                return "";
+        }
+    }
+
+    @Override
+    public NumericColumn getNumericColumn(int col) {
+        return columns.computeIfAbsent(col, this::loadColumn);
+    }
+
+    /**
+     * 单元格被写入新值后同步列快照，并使依赖该列的公式列快照过期
+     */
+    public void notifyCellUpdated(int row, int col, Object value) {
+        markDependentsStale(col);
+        if (!filling) {
+            dropStaleColumns();
+        }
+        NumericColumn column = columns.get(col);
+        if (column == null) {
+            return;
+        }
+        if (value instanceof Number) {
+            column.set(row, ((Number) value).doubleValue());
+        } else {
+            column.clear(row);
+        }
+    }
+
+    /**
+     * 开始区域填充：填充期间依赖列保持填充前的快照，与尚未写回的工作表一致
+     */
+    void beginFill() {
+        filling = true;
+    }
+
+    /**
+     * 结束区域填充，一次性丢弃填充期间过期的公式列快照，下次访问时按写回后的工作表重建
+     */
+    void endFill() {
+        filling = false;
+        dropStaleColumns();
+    }
+
+    private void markDependentsStale(int col) {
+        Deque<Integer> pending = new ArrayDeque<>();
+        pending.add(col);
+        while (!pending.isEmpty()) {
+            int changed = pending.poll();
+            for (Map.Entry<Integer, BitSet> entry : formulaColumnInputs.entrySet()) {
+                int formulaColumn = entry.getKey();
+                if (staleColumns.contains(formulaColumn)) {
+                    continue;
+                }
+                if (opaqueFormulaColumns.contains(formulaColumn) || entry.getValue().get(changed)) {
+                    staleColumns.add(formulaColumn);
+                    pending.add(formulaColumn);
+                }
+            }
+        }
+    }
+
+    private void dropStaleColumns() {
+        for (Integer col : staleColumns) {
+            columns.remove(col);
+            formulaColumnInputs.remove(col);
+            opaqueFormulaColumns.remove(col);
+        }
+        staleColumns.clear();
+    }
+
+    private NumericColumn loadColumn(int col) {
+        NumericColumn column = new NumericColumn(sheet.getLastRowNum() + 1);
+        FormulaDependencyGraph graph = null;
+        for (Row row : sheet) {
+            Cell cell = row.getCell(col);
+            if (cell == null) {
+                continue;
+            }
+            switch (cell.getCellType()) {
+                case NUMERIC:
+                    column.set(row.getRowNum(), cell.getNumericCellValue());
+                    break;
+                case FORMULA:
+                    if (graph == null) {
+                        graph = evaluationContext.getDependencyGraph();
+                    }
+                    recordFormulaInputs(graph, col, row.getRowNum());
+                    CellValue cellValue = evaluationContext.evaluate(cell);
+                    if (cellValue.getCellType() == CellType.NUMERIC) {
+                        column.set(row.getRowNum(), cellValue.getNumberValue());
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return column;
+    }
+
+    private void recordFormulaInputs(FormulaDependencyGraph graph, int col, int row) {
+        BitSet inputs = formulaColumnInputs.computeIfAbsent(col, k -> new BitSet());
+        if (opaqueFormulaColumns.contains(col)) {
+            return;
+        }
+        BitSet referenced = graph != null ? graph.getReferencedColumns(sheet.getSheetName(), row, col) : null;
+        if (referenced == null) {
+            opaqueFormulaColumns.add(col);
+        } else {
+            inputs.or(referenced);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.aiexcel.service.excel.frame;
+
+import org.apache.poi.ss.util.CellReference;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单列统计结果，由FrameColumn.stats一次扫描得到
+ */
+public class ColumnStats {
+
+    private final int columnIndex;
+    private final String header;
+    private final ColumnType type;
+    private int nullCount;
+    private int numberCount;
+    private int dateCount;
+    private int booleanCount;
+    private int textCount;
+    private int distinctTextCount;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private long minDate = Long.MAX_VALUE;
+    private long maxDate = Long.MIN_VALUE;
+
+    ColumnStats(int columnIndex, String header, ColumnType type) {
+        this.columnIndex = columnIndex;
+        this.header = header;
+        this.type = type;
+    }
+
+    void addNumber(double value) {
+        numberCount++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    void addDate(long millis) {
+        dateCount++;
+        minDate = Math.min(minDate, millis);
+        maxDate = Math.max(maxDate, millis);
+    }
+
+    void addBoolean() {
+        booleanCount++;
+    }
+
+    void addText() {
+        textCount++;
+    }
+
+    void addNull() {
+        nullCount++;
+    }
+
+    void setDistinctTextCount(int distinctTextCount) {
+        this.distinctTextCount = distinctTextCount;
+    }
+
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    public String getHeader() {
+        return header;
+    }
+
+    public ColumnType getType() {
+        return type;
+    }
+
+    public int getNullCount() {
+        return nullCount;
+    }
+
+    public int getNumberCount() {
+        return numberCount;
+    }
+
+    public int getDateCount() {
+        return dateCount;
+    }
+
+    public int getBooleanCount() {
+        return booleanCount;
+    }
+
+    public int getTextCount() {
+        return textCount;
+    }
+
+    public int getValueCount() {
+        return numberCount + dateCount + booleanCount + textCount;
+    }
+
+    public int getDistinctTextCount() {
+        return distinctTextCount;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * 数值最小值，没有数值时为NaN
+     */
+    public double getMin() {
+        return numberCount > 0 ? min : Double.NaN;
+    }
+
+    public double getMax() {
+        return numberCount > 0 ? max : Double.NaN;
+    }
+
+    public double getMean() {
+        return numberCount > 0 ? sum / numberCount : Double.NaN;
+    }
+
+    /**
+     * 最早日期，没有日期时为null
+     */
+    public Date getMinDate() {
+        return dateCount > 0 ? new Date(minDate) : null;
+    }
+
+    public Date getMaxDate() {
+        return dateCount > 0 ? new Date(maxDate) : null;
+    }
+
+    /**
+     * 转换为响应用的Map，只包含有意义的字段
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("column", CellReference.convertNumToColString(columnIndex));
+        if (header != null) {
+            map.put("header", header);
+        }
+        map.put("type", type.name().toLowerCase());
+        map.put("values", getValueCount());
+        map.put("nulls", nullCount);
+        if (numberCount > 0) {
+            map.put("min", getMin());
+            map.put("max", getMax());
+            map.put("mean", getMean());
+            map.put("sum", sum);
+        }
+        if (dateCount > 0) {
+            map.put("minDate", getMinDate());
+            map.put("maxDate", getMaxDate());
+        }
+        if (textCount > 0) {
+            map.put("distinctTexts", distinctTextCount);
+        }
+        return map;
+    }
+}
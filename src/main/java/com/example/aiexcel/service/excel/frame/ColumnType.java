@@ -0,0 +1,14 @@
+package com.example.aiexcel.service.excel.frame;
+
+/**
+ * 列类型，同时用作单元格值类型
+ * 列中全部非空值同类时取该类型，存在多种类型时为MIXED；EMPTY表示没有非空值（或单元格为空）。
+ */
+public enum ColumnType {
+    EMPTY,
+    NUMBER,
+    DATE,
+    BOOLEAN,
+    TEXT,
+    MIXED
+}
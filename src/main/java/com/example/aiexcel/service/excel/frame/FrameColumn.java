@@ -0,0 +1,475 @@
+package com.example.aiexcel.service.excel.frame;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * SheetFrame中的一列，按类型用基本类型数组存储
+ * <ul>
+ *   <li>NUMBER：double[]</li>
+ *   <li>DATE：long[]，毫秒时间戳</li>
+ *   <li>BOOLEAN：位图，置位表示true</li>
+ *   <li>TEXT：int[]字典编码</li>
+ *   <li>MIXED：每行一个类型字节；数值、日期、布尔存在double[]中，文本存字典编码</li>
+ * </ul>
+ * present位图标记非空的行，空值不占用装箱对象。构建时按行追加，出现第二种类型时整列转为MIXED。
+ */
+public class FrameColumn {
+
+    private static final ColumnType[] KINDS = ColumnType.values();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int columnIndex;
+    private final String header;
+    private ColumnType type = ColumnType.EMPTY;
+    private final BitSet present = new BitSet();
+    private int rowCount;
+
+    private double[] numbers;
+    private long[] dates;
+    private BitSet booleans;
+    private int[] codes;
+    private byte[] kinds;
+    private StringDictionary dictionary;
+
+    FrameColumn(int columnIndex, String header) {
+        this.columnIndex = columnIndex;
+        this.header = header;
+    }
+
+    /**
+     * 工作表中的列索引（从0开始）
+     */
+    public int getColumnIndex() {
+        return columnIndex;
+    }
+
+    /**
+     * 表头文本，没有表头行或表头为空时为null
+     */
+    public String getHeader() {
+        return header;
+    }
+
+    public ColumnType getType() {
+        return type;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    // ---------- 构建 ----------
+
+    /**
+     * 追加一个单元格值，行号必须递增；null和空字符串视为空值
+     */
+    void append(int row, Object value) {
+        if (value == null || "".equals(value)) {
+            return;
+        }
+        ColumnType kind = kindOf(value);
+        if (type == ColumnType.EMPTY) {
+            type = kind;
+        } else if (type != kind && type != ColumnType.MIXED) {
+            promoteToMixed();
+        }
+        ensureCapacity(row + 1);
+        switch (type) {
+            case NUMBER:
+                numbers[row] = (Double) value;
+                break;
+            case DATE:
+                dates[row] = ((Date) value).getTime();
+                break;
+            case BOOLEAN:
+                booleans.set(row, (Boolean) value);
+                break;
+            case TEXT:
+                codes[row] = dictionary().encode(value.toString());
+                break;
+            default:
+                kinds[row] = (byte) kind.ordinal();
+                if (kind == ColumnType.TEXT) {
+                    codes[row] = dictionary().encode(value.toString());
+                } else {
+                    numbers[row] = toNumber(kind, value);
+                }
+                break;
+        }
+        present.set(row);
+    }
+
+    /**
+     * 构建结束：记录行数并把数组截断到实际行数
+     */
+    void finish(int rowCount) {
+        this.rowCount = rowCount;
+        if (numbers != null) {
+            numbers = Arrays.copyOf(numbers, rowCount);
+        }
+        if (dates != null) {
+            dates = Arrays.copyOf(dates, rowCount);
+        }
+        if (codes != null) {
+            codes = Arrays.copyOf(codes, rowCount);
+        }
+        if (kinds != null) {
+            kinds = Arrays.copyOf(kinds, rowCount);
+        }
+    }
+
+    private static ColumnType kindOf(Object value) {
+        if (value instanceof Double) {
+            return ColumnType.NUMBER;
+        }
+        if (value instanceof Date) {
+            return ColumnType.DATE;
+        }
+        if (value instanceof Boolean) {
+            return ColumnType.BOOLEAN;
+        }
+        return ColumnType.TEXT;
+    }
+
+    private static double toNumber(ColumnType kind, Object value) {
+        switch (kind) {
+            case DATE:
+                return ((Date) value).getTime();
+            case BOOLEAN:
+                return (Boolean) value ? 1 : 0;
+            default:
+                return (Double) value;
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        int capacity = capacity();
+        if (size <= capacity) {
+            return;
+        }
+        int grown = Math.max(size, Math.max(INITIAL_CAPACITY, capacity * 2));
+        switch (type) {
+            case NUMBER:
+                numbers = grow(numbers, grown);
+                break;
+            case DATE:
+                dates = dates == null ? new long[grown] : Arrays.copyOf(dates, grown);
+                break;
+            case BOOLEAN:
+                if (booleans == null) {
+                    booleans = new BitSet();
+                }
+                break;
+            case TEXT:
+                codes = grow(codes, grown);
+                break;
+            default:
+                numbers = grow(numbers, grown);
+                codes = grow(codes, grown);
+                kinds = kinds == null ? new byte[grown] : Arrays.copyOf(kinds, grown);
+                break;
+        }
+    }
+
+    private int capacity() {
+        switch (type) {
+            case NUMBER:
+                return numbers == null ? 0 : numbers.length;
+            case DATE:
+                return dates == null ? 0 : dates.length;
+            case BOOLEAN:
+                // 位图自动扩展
+                return booleans == null ? 0 : Integer.MAX_VALUE;
+            case TEXT:
+                return codes == null ? 0 : codes.length;
+            default:
+                return kinds == null ? 0 : kinds.length;
+        }
+    }
+
+    private static double[] grow(double[] array, int capacity) {
+        return array == null ? new double[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        return array == null ? new int[capacity] : Arrays.copyOf(array, capacity);
+    }
+
+    /**
+     * 把已有的单一类型数据转换为MIXED存储
+     */
+    private void promoteToMixed() {
+        int capacity = Math.max(present.length(), INITIAL_CAPACITY);
+        ColumnType previous = type;
+        byte[] mixedKinds = new byte[capacity];
+        double[] mixedNumbers = new double[capacity];
+        int[] mixedCodes = new int[capacity];
+        for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+            mixedKinds[row] = (byte) previous.ordinal();
+            switch (previous) {
+                case NUMBER:
+                    mixedNumbers[row] = numbers[row];
+                    break;
+                case DATE:
+                    mixedNumbers[row] = dates[row];
+                    break;
+                case BOOLEAN:
+                    mixedNumbers[row] = booleans.get(row) ? 1 : 0;
+                    break;
+                default:
+                    mixedCodes[row] = codes[row];
+                    break;
+            }
+        }
+        type = ColumnType.MIXED;
+        kinds = mixedKinds;
+        numbers = mixedNumbers;
+        codes = mixedCodes;
+        dates = null;
+        booleans = null;
+    }
+
+    private StringDictionary dictionary() {
+        if (dictionary == null) {
+            dictionary = new StringDictionary();
+        }
+        return dictionary;
+    }
+
+    // ---------- 按行读取 ----------
+
+    public boolean isNull(int row) {
+        return !present.get(row);
+    }
+
+    /**
+     * 单元格值的类型，空值为EMPTY
+     */
+    public ColumnType kindAt(int row) {
+        if (!present.get(row)) {
+            return ColumnType.EMPTY;
+        }
+        return type == ColumnType.MIXED ? KINDS[kinds[row]] : type;
+    }
+
+    /**
+     * 数值视图：数值原样返回，日期为毫秒时间戳，布尔为1/0；文本和空值返回0
+     */
+    public double getNumber(int row) {
+        switch (type) {
+            case NUMBER:
+            case MIXED:
+                return numbers[row];
+            case DATE:
+                return dates[row];
+            case BOOLEAN:
+                return booleans.get(row) ? 1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 日期的毫秒时间戳，只对日期单元格有意义
+     */
+    public long getDate(int row) {
+        return type == ColumnType.DATE ? dates[row] : (long) getNumber(row);
+    }
+
+    public boolean getBoolean(int row) {
+        return getNumber(row) != 0;
+    }
+
+    /**
+     * 文本单元格的字典编码，只对文本单元格有意义
+     */
+    public int getCode(int row) {
+        return codes[row];
+    }
+
+    /**
+     * 文本字典，列中没有文本时为null
+     */
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * 单元格的原始值：Double、Date、Boolean或String，空值为null
+     */
+    public Object getValue(int row) {
+        switch (kindAt(row)) {
+            case NUMBER:
+                return getNumber(row);
+            case DATE:
+                return new Date(getDate(row));
+            case BOOLEAN:
+                return getBoolean(row);
+            case TEXT:
+                return dictionary.decode(codes[row]);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 单元格的展示文本（与预览一致），空值为空字符串
+     */
+    public String getText(int row) {
+        return ExcelRowCursor.formatValue(getValue(row));
+    }
+
+    // ---------- 按列扫描 ----------
+
+    /**
+     * 非空行的位图（副本）
+     */
+    public BitSet presentRows() {
+        return (BitSet) present.clone();
+    }
+
+    /**
+     * 数值单元格中满足条件的行
+     */
+    public BitSet scanNumbers(DoublePredicate predicate) {
+        BitSet matches = new BitSet(rowCount);
+        if (type != ColumnType.NUMBER && type != ColumnType.MIXED) {
+            return matches;
+        }
+        for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+            if ((type == ColumnType.NUMBER || kinds[row] == ColumnType.NUMBER.ordinal()) && predicate.test(numbers[row])) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 日期单元格中毫秒时间戳满足条件的行
+     */
+    public BitSet scanDates(LongPredicate predicate) {
+        BitSet matches = new BitSet(rowCount);
+        if (type != ColumnType.DATE && type != ColumnType.MIXED) {
+            return matches;
+        }
+        for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+            if (type == ColumnType.DATE ? predicate.test(dates[row])
+                    : kinds[row] == ColumnType.DATE.ordinal() && predicate.test((long) numbers[row])) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 布尔单元格中值等于给定值的行
+     */
+    public BitSet scanBooleans(boolean value) {
+        BitSet matches = new BitSet(rowCount);
+        if (type != ColumnType.BOOLEAN && type != ColumnType.MIXED) {
+            return matches;
+        }
+        for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+            if (kindAt(row) == ColumnType.BOOLEAN && getBoolean(row) == value) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * 文本单元格中满足条件的行
+     * 条件对字典中每个不同的字符串只求值一次，逐行只比较编码。
+     */
+    public BitSet scanText(Predicate<String> predicate) {
+        BitSet matches = new BitSet(rowCount);
+        if (dictionary == null) {
+            return matches;
+        }
+        boolean[] accepted = new boolean[dictionary.size()];
+        boolean any = false;
+        for (int code = 0; code < accepted.length; code++) {
+            accepted[code] = predicate.test(dictionary.decode(code));
+            any |= accepted[code];
+        }
+        if (!any) {
+            return matches;
+        }
+        for (int row = present.nextSetBit(0); row >= 0; row = present.nextSetBit(row + 1)) {
+            if ((type == ColumnType.TEXT || kinds[row] == ColumnType.TEXT.ordinal()) && accepted[codes[row]]) {
+                matches.set(row);
+            }
+        }
+        return matches;
+    }
+
+    // ---------- 聚合 ----------
+
+    /**
+     * 统计整列
+     */
+    public ColumnStats stats() {
+        return stats(null);
+    }
+
+    /**
+     * 统计给定行（为null时统计整列）：各类型计数、空值数、数值的和/最值/均值、日期范围、不同文本数
+     */
+    public ColumnStats stats(BitSet rows) {
+        ColumnStats stats = new ColumnStats(columnIndex, header, type);
+        BitSet selected = rows != null ? rows : allRows();
+        BitSet distinctCodes = dictionary != null ? new BitSet(dictionary.size()) : null;
+        for (int row = selected.nextSetBit(0); row >= 0 && row < rowCount; row = selected.nextSetBit(row + 1)) {
+            ColumnType kind = kindAt(row);
+            switch (kind) {
+                case NUMBER:
+                    stats.addNumber(getNumber(row));
+                    break;
+                case DATE:
+                    stats.addDate(getDate(row));
+                    break;
+                case BOOLEAN:
+                    stats.addBoolean();
+                    break;
+                case TEXT:
+                    stats.addText();
+                    distinctCodes.set(codes[row]);
+                    break;
+                default:
+                    stats.addNull();
+                    break;
+            }
+        }
+        if (distinctCodes != null) {
+            stats.setDistinctTextCount(distinctCodes.cardinality());
+        }
+        return stats;
+    }
+
+    private BitSet allRows() {
+        BitSet all = new BitSet(rowCount);
+        all.set(0, rowCount);
+        return all;
+    }
+
+    /**
+     * 估算占用字节数
+     */
+    long estimateBytes() {
+        long bytes = present.size() / 8;
+        bytes += numbers != null ? 8L * numbers.length : 0;
+        bytes += dates != null ? 8L * dates.length : 0;
+        bytes += booleans != null ? booleans.size() / 8 : 0;
+        bytes += codes != null ? 4L * codes.length : 0;
+        bytes += kinds != null ? kinds.length : 0;
+        bytes += dictionary != null ? dictionary.estimateBytes() : 0;
+        return bytes;
+    }
+}
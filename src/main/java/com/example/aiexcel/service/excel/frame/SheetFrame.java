@@ -0,0 +1,254 @@
+package com.example.aiexcel.service.excel.frame;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import org.apache.poi.ss.util.CellReference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 按列存储的工作表数据（列式内存表）
+ * 从行游标读取一次工作表，每列用基本类型数组保存（见FrameColumn），不保留POI单元格和装箱对象；
+ * 画像、排序、筛选和本地统计直接在列数组上扫描。
+ * 帧中的行只包含工作表中存在的数据行（缺失的行被跳过），getRowNumber给出对应的工作表行号。
+ * 构建完成后只读，可在多个请求间共享。
+ */
+public final class SheetFrame {
+
+    private final String sheetName;
+    private final int headerRowNumber;
+    private final int[] rowNumbers;
+    private final List<FrameColumn> columns;
+
+    private SheetFrame(String sheetName, int headerRowNumber, int[] rowNumbers, List<FrameColumn> columns) {
+        this.sheetName = sheetName;
+        this.headerRowNumber = headerRowNumber;
+        this.rowNumbers = rowNumbers;
+        this.columns = Collections.unmodifiableList(columns);
+    }
+
+    /**
+     * 读取游标当前工作表的剩余行（调用前游标应已定位到该工作表）
+     * @param firstRowIsHeader 第一个存在的行是否为表头；表头不计入数据行，其文本作为列名
+     */
+    public static SheetFrame read(ExcelRowCursor cursor, boolean firstRowIsHeader) throws IOException {
+        Builder builder = new Builder(cursor.getSheetName());
+        boolean headerPending = firstRowIsHeader;
+        while (cursor.nextRow()) {
+            if (headerPending) {
+                builder.setHeader(cursor.getRowIndex(), cursor.getRowValues());
+                headerPending = false;
+            } else {
+                builder.addRow(cursor.getRowIndex(), cursor.getRowValues());
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * 逐行构建数据帧，用于需要控制读取过程的场景（如按内存预算分块）
+     */
+    public static final class Builder {
+
+        private final String sheetName;
+        private String[] headers = new String[0];
+        private int headerRowNumber = -1;
+        private int[] rowNumbers = new int[256];
+        private int rowCount;
+        private final List<FrameColumn> columns = new ArrayList<>();
+
+        public Builder(String sheetName) {
+            this.sheetName = sheetName;
+        }
+
+        /**
+         * 设置表头，须在添加数据行之前调用
+         */
+        public Builder setHeader(int rowNumber, Object[] values) {
+            headerRowNumber = rowNumber;
+            headers = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                String header = ExcelRowCursor.formatValue(values[i]).trim();
+                headers[i] = header.isEmpty() ? null : header;
+            }
+            return this;
+        }
+
+        /**
+         * 添加一个数据行
+         * @param rowNumber 该行在工作表中的行号
+         */
+        public Builder addRow(int rowNumber, Object[] values) {
+            if (rowCount == rowNumbers.length) {
+                rowNumbers = Arrays.copyOf(rowNumbers, rowCount * 2);
+            }
+            rowNumbers[rowCount] = rowNumber;
+            for (int col = 0; col < values.length; col++) {
+                if (values[col] == null) {
+                    continue;
+                }
+                while (columns.size() <= col) {
+                    addColumn();
+                }
+                columns.get(col).append(rowCount, values[col]);
+            }
+            rowCount++;
+            return this;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * 已添加数据的估算占用字节数（按已分配的数组容量计）
+         */
+        public long estimateBytes() {
+            long bytes = 4L * rowNumbers.length;
+            for (FrameColumn column : columns) {
+                bytes += column.estimateBytes();
+            }
+            return bytes;
+        }
+
+        public SheetFrame build() {
+            // 表头比数据宽时补齐只有表头的列
+            while (columns.size() < headers.length) {
+                addColumn();
+            }
+            for (FrameColumn column : columns) {
+                column.finish(rowCount);
+            }
+            return new SheetFrame(sheetName, headerRowNumber, Arrays.copyOf(rowNumbers, rowCount), columns);
+        }
+
+        private void addColumn() {
+            int index = columns.size();
+            columns.add(new FrameColumn(index, index < headers.length ? headers[index] : null));
+        }
+    }
+
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    /**
+     * 表头所在的工作表行号，没有表头时为-1
+     */
+    public int getHeaderRowNumber() {
+        return headerRowNumber;
+    }
+
+    /**
+     * 数据行数（不含表头）
+     */
+    public int getRowCount() {
+        return rowNumbers.length;
+    }
+
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    public List<FrameColumn> getColumns() {
+        return columns;
+    }
+
+    public FrameColumn getColumn(int columnIndex) {
+        return columns.get(columnIndex);
+    }
+
+    /**
+     * 按表头文本（忽略大小写）或列字母（如"B"）查找列，找不到时返回null
+     * 表头优先：表头恰好是字母时不会被当作列字母。
+     */
+    public FrameColumn findColumn(String name) {
+        int index = resolveColumnIndex(name);
+        return index >= 0 && index < columns.size() ? columns.get(index) : null;
+    }
+
+    /**
+     * 按表头文本（忽略大小写）或列字母解析列索引，无法解析时返回-1
+     * 列字母可以指向没有任何数据的列（返回的索引可能不小于getColumnCount）。
+     */
+    public int resolveColumnIndex(String name) {
+        if (name == null || name.trim().isEmpty()) {
+            return -1;
+        }
+        String trimmed = name.trim();
+        for (FrameColumn column : columns) {
+            if (column.getHeader() != null && column.getHeader().equalsIgnoreCase(trimmed)) {
+                return column.getColumnIndex();
+            }
+        }
+        if (trimmed.matches("[A-Za-z]{1,3}")) {
+            return CellReference.convertColStringToIndex(trimmed.toUpperCase());
+        }
+        return -1;
+    }
+
+    /**
+     * 帧中第row行对应的工作表行号（从0开始）
+     */
+    public int getRowNumber(int row) {
+        return rowNumbers[row];
+    }
+
+    /**
+     * 各列表头，没有表头的列使用列字母
+     */
+    public String[] getHeaders() {
+        String[] headers = new String[columns.size()];
+        for (int i = 0; i < headers.length; i++) {
+            String header = columns.get(i).getHeader();
+            headers[i] = header != null ? header : CellReference.convertNumToColString(i);
+        }
+        return headers;
+    }
+
+    /**
+     * 一行的原始值，按列顺序，空值为null
+     */
+    public Object[] getRow(int row) {
+        Object[] values = new Object[columns.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = columns.get(i).getValue(row);
+        }
+        return values;
+    }
+
+    /**
+     * 全部数据行的位图，作为筛选的起点
+     */
+    public BitSet allRows() {
+        BitSet all = new BitSet(getRowCount());
+        all.set(0, getRowCount());
+        return all;
+    }
+
+    /**
+     * 各列统计
+     */
+    public List<ColumnStats> stats() {
+        List<ColumnStats> stats = new ArrayList<>(columns.size());
+        for (FrameColumn column : columns) {
+            stats.add(column.stats());
+        }
+        return stats;
+    }
+
+    /**
+     * 估算占用字节数
+     */
+    public long estimateBytes() {
+        long bytes = 4L * rowNumbers.length;
+        for (FrameColumn column : columns) {
+            bytes += column.estimateBytes();
+        }
+        return bytes;
+    }
+}
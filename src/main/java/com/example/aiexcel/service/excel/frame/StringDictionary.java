@@ -0,0 +1,84 @@
+package com.example.aiexcel.service.excel.frame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文本列的字典
+ * 每个不同的字符串只保存一次，列中每行只存一个int编码；编码按首次出现的顺序分配。
+ */
+public class StringDictionary {
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+    private int[] sortRanks;
+
+    /**
+     * 返回字符串的编码，首次出现时分配新编码
+     */
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            codes.put(value, code);
+            values.add(value);
+            sortRanks = null;
+        }
+        return code;
+    }
+
+    /**
+     * 字符串的编码，不在字典中时返回-1
+     */
+    public int codeOf(String value) {
+        Integer code = codes.get(value);
+        return code != null ? code : -1;
+    }
+
+    public String decode(int code) {
+        return values.get(code);
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * 各编码按字符串顺序（忽略大小写，相同时区分大小写）的名次
+     * 比较两个编码的名次即可比较对应字符串，排序时不必反复比较字符串。
+     */
+    public int[] sortRanks() {
+        if (sortRanks == null) {
+            Integer[] order = new Integer[values.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> {
+                String left = values.get(a);
+                String right = values.get(b);
+                int compared = String.CASE_INSENSITIVE_ORDER.compare(left, right);
+                return compared != 0 ? compared : left.compareTo(right);
+            });
+            int[] ranks = new int[order.length];
+            for (int rank = 0; rank < order.length; rank++) {
+                ranks[order[rank]] = rank;
+            }
+            sortRanks = ranks;
+        }
+        return sortRanks;
+    }
+
+    /**
+     * 估算占用字节数（每个字符串按每字符2字节加字符串、映射条目等对象开销计）
+     */
+    long estimateBytes() {
+        long bytes = 0;
+        for (String value : values) {
+            bytes += 88 + 2L * value.length();
+        }
+        return bytes;
+    }
+}
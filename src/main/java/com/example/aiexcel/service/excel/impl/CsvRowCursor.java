@@ -0,0 +1,108 @@
+package com.example.aiexcel.service.excel.impl;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+/**
+ * CSV行游标
+ * 逐行读取CSV输入流，整个文件视为名为Sheet1的单个工作表。
+ */
+class CsvRowCursor implements ExcelRowCursor {
+
+    private static final String SHEET_NAME = "Sheet1";
+
+    private final BufferedReader reader;
+    private boolean sheetOpened = false;
+    private int rowIndex = -1;
+    private Object[] rowValues;
+
+    CsvRowCursor(InputStream inputStream) {
+        this.reader = new BufferedReader(new InputStreamReader(inputStream));
+    }
+
+    @Override
+    public boolean nextSheet() {
+        if (sheetOpened) {
+            return false;
+        }
+        sheetOpened = true;
+        return true;
+    }
+
+    @Override
+    public String getSheetName() {
+        return SHEET_NAME;
+    }
+
+    @Override
+    public int getSheetIndex() {
+        return sheetOpened ? 0 : -1;
+    }
+
+    @Override
+    public boolean nextRow() throws IOException {
+        if (!sheetOpened) {
+            return false;
+        }
+        String line = reader.readLine();
+        if (line == null) {
+            return false;
+        }
+        rowIndex++;
+        String[] values = ExcelServiceImpl.parseCsvLine(line);
+        Object[] row = new Object[values.length];
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i];
+            if (value != null && !value.isEmpty()) {
+                // 尝试将值解析为数字；明显不是数字的文本不走异常路径
+                if (mayBeNumber(value)) {
+                    try {
+                        row[i] = Double.parseDouble(value);
+                    } catch (NumberFormatException e) {
+                        row[i] = value;
+                    }
+                } else {
+                    row[i] = value;
+                }
+            }
+        }
+        rowValues = row;
+        return true;
+    }
+
+    /**
+     * Double.parseDouble能解析的字符串（去掉首尾空白后）只能以符号、数字、小数点或NaN/Infinity开头
+     * 先检查首字符，避免对大量文本单元格构造NumberFormatException。
+     */
+    private static boolean mayBeNumber(String value) {
+        int start = 0;
+        while (start < value.length() && value.charAt(start) <= ' ') {
+            start++;
+        }
+        if (start == value.length()) {
+            return false;
+        }
+        char first = value.charAt(start);
+        return (first >= '0' && first <= '9') || first == '-' || first == '+' || first == '.'
+            || first == 'N' || first == 'I';
+    }
+
+    @Override
+    public int getRowIndex() {
+        return rowIndex;
+    }
+
+    @Override
+    public Object[] getRowValues() {
+        return rowValues;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
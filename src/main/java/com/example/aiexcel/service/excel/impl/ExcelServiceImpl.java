@@ -1,28 +1,53 @@
 package com.example.aiexcel.service.excel.impl;
 
+import com.example.aiexcel.service.excel.EvaluationScope;
+import com.example.aiexcel.service.excel.ExcelRowCursor;
 import com.example.aiexcel.service.excel.ExcelService;
+import com.example.aiexcel.service.excel.FormulaDependencyGraph;
+import com.example.aiexcel.service.excel.StructuralEdit;
+import com.example.aiexcel.service.excel.WorkbookChangeJournal;
+import com.example.aiexcel.service.excel.WorkbookEvaluationContext;
+import org.apache.poi.poifs.filesystem.FileMagic;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellReference;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
 
 public class ExcelServiceImpl implements ExcelService {
     private static final Logger logger = LoggerFactory.getLogger(ExcelServiceImpl.class);
 
+    // 请求范围内的公式计算上下文，按工作簿实例区分，请求结束后随请求属性一起释放
+    private static final String EVALUATION_CONTEXTS_ATTRIBUTE = ExcelServiceImpl.class.getName() + ".EVALUATION_CONTEXTS";
+
+    // 请求线程之外由openEvaluationScope打开的上下文表，范围关闭时清除
+    private static final ThreadLocal<Map<Workbook, WorkbookEvaluationContext>> SCOPED_EVALUATION_CONTEXTS = new ThreadLocal<>();
+
+    // 正在记录变更日志的工作簿，弱引用避免调用方忘记结束记录时泄漏
+    private final Map<Workbook, WorkbookChangeJournal> changeJournals = Collections.synchronizedMap(new WeakHashMap<>());
+
     @Override
     public Workbook loadWorkbook(MultipartFile file) throws IOException {
         String fileName = file.getOriginalFilename();
         if (fileName != null && fileName.toLowerCase().endsWith(".csv")) {
-            return convertCsvToWorkbook(file.getInputStream());
+            return registerEvaluationContext(convertCsvToWorkbook(file.getInputStream()));
         }
         // 使用内部方法避免递归调用
         try (InputStream inputStream = file.getInputStream()) {
-            return WorkbookFactory.create(inputStream);
+            return registerEvaluationContext(WorkbookFactory.create(inputStream));
         } catch (Exception e) {
             throw new IOException("Error loading workbook", e);
         }
@@ -31,7 +56,7 @@ public class ExcelServiceImpl implements ExcelService {
     @Override
     public Workbook loadWorkbook(InputStream inputStream) throws IOException {
         try {
-            return WorkbookFactory.create(inputStream);
+            return registerEvaluationContext(WorkbookFactory.create(inputStream));
         } catch (Exception e) {
             throw new IOException("Error loading workbook", e);
         }
@@ -76,7 +101,7 @@ public class ExcelServiceImpl implements ExcelService {
     /**
      * 解析CSV行，处理包含逗号的值（被引号包围的值）
      */
-    private String[] parseCsvLine(String line) {
+    static String[] parseCsvLine(String line) {
         List<String> values = new ArrayList<>();
         boolean inQuotes = false;
         StringBuilder currentValue = new StringBuilder();
@@ -126,6 +151,7 @@ public class ExcelServiceImpl implements ExcelService {
 
     @Override
     public String getExcelDataAsString(Workbook workbook) {
+        WorkbookEvaluationContext evaluationContext = getEvaluationContext(workbook);
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
             Sheet sheet = workbook.getSheetAt(i);
@@ -149,8 +175,7 @@ public class ExcelServiceImpl implements ExcelService {
                             break;
                         case FORMULA:
                             // 对于公式单元格，添加计算结果而不是公式本身
-                            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-                            CellValue cellValue = evaluator.evaluate(cell);
+                            CellValue cellValue = evaluationContext.evaluate(cell);
                             switch (cellValue.getCellType()) {
                                 case STRING:
                                     sb.append(cellValue.getStringValue()).append("\t");
@@ -185,6 +210,7 @@ public class ExcelServiceImpl implements ExcelService {
 
     @Override
     public Object[][] getExcelDataAsArray(Workbook workbook) {
+        WorkbookEvaluationContext evaluationContext = getEvaluationContext(workbook);
         Sheet sheet = workbook.getSheetAt(0); // 获取第一个工作表
         int lastRowNum = sheet.getLastRowNum();
         Row firstRow = sheet.getRow(0);
@@ -214,8 +240,7 @@ public class ExcelServiceImpl implements ExcelService {
                                 break;
                             case FORMULA:
                                 // 对于公式单元格，返回计算结果而不是公式本身
-                                FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-                                CellValue cellValue = evaluator.evaluate(cell);
+                                CellValue cellValue = evaluationContext.evaluate(cell);
                                 switch (cellValue.getCellType()) {
                                     case STRING:
                                         data[i][j] = cellValue.getStringValue();
@@ -255,6 +280,10 @@ public class ExcelServiceImpl implements ExcelService {
         if (sheet == null) {
             sheet = workbook.createSheet(sheetName);
         }
+        WorkbookChangeJournal journal = changeJournals.get(workbook);
+        if (journal != null) {
+            journal.recordCell(sheet, rowIndex, colIndex);
+        }
 
         Row row = sheet.getRow(rowIndex);
         if (row == null) {
@@ -277,6 +306,7 @@ public class ExcelServiceImpl implements ExcelService {
         } else {
             cell.setCellValue(value != null ? value.toString() : "");
         }
+        notifyCellUpdated(workbook, cell);
     }
 
     @Override
@@ -287,6 +317,14 @@ public class ExcelServiceImpl implements ExcelService {
             sheet = workbook.createSheet(sheetName);
         }
 
+        WorkbookChangeJournal journal = changeJournals.get(workbook);
+        if (journal != null && values.length > 0) {
+            journal.recordRange(sheet, startRowIndex, startColIndex,
+                Math.min(endRowIndex, startRowIndex + values.length - 1), endColIndex);
+        }
+
+        // 整个区域写完后统一通知一次计算上下文
+        boolean formulaOverwritten = false;
         int valueRow = 0;
         for (int i = startRowIndex; i <= endRowIndex && valueRow < values.length; i++) {
             Row row = sheet.getRow(i);
@@ -313,11 +351,19 @@ public class ExcelServiceImpl implements ExcelService {
                 } else {
                     cell.setCellValue(value != null ? value.toString() : "");
                 }
+                formulaOverwritten |= cell.getCellType() == CellType.FORMULA;
 
                 valueCol++;
             }
             valueRow++;
         }
+
+        WorkbookEvaluationContext context = findEvaluationContext(workbook);
+        if (context != null && valueRow > 0) {
+            context.notifyUpdateRange(sheetName,
+                new CellRangeAddress(startRowIndex, startRowIndex + valueRow - 1, startColIndex, endColIndex),
+                formulaOverwritten);
+        }
     }
 
     // Enhanced Excel processing capabilities
@@ -335,6 +381,11 @@ public class ExcelServiceImpl implements ExcelService {
             row = sheet.createRow(rowIndex);
         }
 
+        WorkbookChangeJournal journal = changeJournals.get(workbook);
+        if (journal != null) {
+            journal.recordCell(sheet, rowIndex, colIndex);
+        }
+
         Cell cell = row.getCell(colIndex);
         if (cell == null) {
             cell = row.createCell(colIndex);
@@ -372,6 +423,7 @@ public class ExcelServiceImpl implements ExcelService {
         if (sheet == null) {
             sheet = workbook.createSheet(sheetName);
         }
+        recordStructuralEdits(workbook, sheet, List.of(StructuralEdit.insertRow(rowIndex, values)));
 
         // Shift existing rows down starting from the insertion point
         sheet.shiftRows(rowIndex, sheet.getLastRowNum(), 1);
@@ -402,6 +454,12 @@ public class ExcelServiceImpl implements ExcelService {
                 }
             }
         }
+
+        // 行结构变化，记录新行为变更区域并清空公式缓存结果
+        WorkbookEvaluationContext context = findEvaluationContext(workbook);
+        if (context != null) {
+            context.notifyRowsInserted(sheet.getSheetName(), rowIndex, 1);
+        }
     }
 
     @Override
@@ -410,6 +468,7 @@ public class ExcelServiceImpl implements ExcelService {
         if (sheet == null) {
             sheet = workbook.createSheet(sheetName);
         }
+        recordStructuralEdits(workbook, sheet, List.of(StructuralEdit.insertColumn(colIndex, values)));
 
         // For each row, insert the new column cell at the specified index
         for (int i = 0; i < sheet.getLastRowNum() + 1; i++) {
@@ -459,6 +518,12 @@ public class ExcelServiceImpl implements ExcelService {
                 newCell.setCellValue("");
             }
         }
+
+        // 列结构变化，记录变更区域并清空公式缓存结果
+        WorkbookEvaluationContext context = findEvaluationContext(workbook);
+        if (context != null) {
+            context.notifyColumnsInserted(sheet.getSheetName(), colIndex, 1);
+        }
     }
 
     @Override
@@ -467,6 +532,7 @@ public class ExcelServiceImpl implements ExcelService {
         if (sheet == null) {
             sheet = workbook.createSheet(sheetName);
         }
+        recordStructuralEdits(workbook, sheet, List.of(StructuralEdit.deleteRow(rowIndex)));
 
         Row row = sheet.getRow(rowIndex);
         if (row != null) {
@@ -474,6 +540,11 @@ public class ExcelServiceImpl implements ExcelService {
         }
         // Shift rows up starting from the row after the deleted row
         sheet.shiftRows(rowIndex + 1, sheet.getLastRowNum(), -1);
+
+        WorkbookEvaluationContext context = findEvaluationContext(workbook);
+        if (context != null) {
+            context.notifyRowsDeleted(sheet.getSheetName(), rowIndex, 1);
+        }
     }
 
     @Override
@@ -482,6 +553,7 @@ public class ExcelServiceImpl implements ExcelService {
         if (sheet == null) {
             sheet = workbook.createSheet(sheetName);
         }
+        recordStructuralEdits(workbook, sheet, List.of(StructuralEdit.deleteColumn(colIndex)));
 
         // For each row, delete the cell at the specified index
         for (int i = 0; i <= sheet.getLastRowNum(); i++) {
@@ -507,6 +579,48 @@ public class ExcelServiceImpl implements ExcelService {
                 }
             }
         }
+
+        WorkbookEvaluationContext context = findEvaluationContext(workbook);
+        if (context != null) {
+            context.notifyColumnsDeleted(sheet.getSheetName(), colIndex, 1);
+        }
+    }
+
+    @Override
+    public void applyStructuralEdits(Workbook workbook, String sheetName, List<StructuralEdit> edits) {
+        if (edits == null || edits.isEmpty()) {
+            return;
+        }
+        Sheet sheet = workbook.getSheet(sheetName);
+        if (sheet == null) {
+            sheet = workbook.createSheet(sheetName);
+        }
+
+        recordStructuralEdits(workbook, sheet, edits);
+
+        // 归一化后每个方向只压缩一次，而不是每条编辑移动一次整表
+        StructuralEditPlanner.apply(sheet, edits);
+
+        // 按原顺序通知计算上下文，变更区域与逐条执行时一致
+        WorkbookEvaluationContext context = findEvaluationContext(workbook);
+        if (context != null) {
+            for (StructuralEdit edit : edits) {
+                switch (edit.getType()) {
+                    case INSERT_ROW:
+                        context.notifyRowsInserted(sheetName, edit.getIndex(), 1);
+                        break;
+                    case DELETE_ROW:
+                        context.notifyRowsDeleted(sheetName, edit.getIndex(), 1);
+                        break;
+                    case INSERT_COLUMN:
+                        context.notifyColumnsInserted(sheetName, edit.getIndex(), 1);
+                        break;
+                    default:
+                        context.notifyColumnsDeleted(sheetName, edit.getIndex(), 1);
+                        break;
+                }
+            }
+        }
     }
 
     @Override
@@ -543,8 +657,7 @@ public class ExcelServiceImpl implements ExcelService {
                             return String.valueOf(cell.getBooleanCellValue());
                         case FORMULA:
                             // 对于公式单元格，返回计算结果而不是公式本身
-                            FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-                            CellValue cellValue = evaluator.evaluate(cell);
+                            CellValue cellValue = getEvaluationContext(workbook).evaluate(cell);
                             switch (cellValue.getCellType()) {
                                 case STRING:
                                     return cellValue.getStringValue();
@@ -654,10 +767,8 @@ public class ExcelServiceImpl implements ExcelService {
                     return String.valueOf(cell.getBooleanCellValue());
                 case FORMULA:
                     // 对于公式单元格，返回计算结果而不是公式本身
-                    // 需要获取所在工作簿以创建公式计算器
-                    Workbook workbook = cell.getSheet().getWorkbook();
-                    FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-                    CellValue cellValue = evaluator.evaluate(cell);
+                    // 使用所在工作簿共享的公式计算上下文
+                    CellValue cellValue = getEvaluationContext(cell.getSheet().getWorkbook()).evaluate(cell);
                     switch (cellValue.getCellType()) {
                         case STRING:
                             return cellValue.getStringValue();
@@ -805,15 +916,12 @@ public class ExcelServiceImpl implements ExcelService {
             return;
         }
 
-        // 创建公式计算器
-        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
-
-        // 计算公式并更新单元格值
-        evaluator.evaluateInCell(cell);
+        // 使用共享的公式计算器计算公式并更新单元格值
+        getEvaluationContext(workbook).getEvaluator().evaluateInCell(cell);
     }
 
     /**
-     * 计算单元格公式并将结果设置回单元格（替换公式）
+     * 计算单元格公式并将结果设置回单元格（作为公式的缓存结果）
      * @param workbook 工作簿
      * @param cell 要计算的单元格
      */
@@ -823,13 +931,17 @@ public class ExcelServiceImpl implements ExcelService {
             return;
         }
 
-        // 创建公式计算器
-        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        // 使用共享的公式计算器获取结果
+        storeFormulaResult(cell, getEvaluationContext(workbook).getEvaluator());
+    }
 
-        // 计算公式获取结果
+    /**
+     * 计算公式并根据结果类型设置单元格值
+     * 对公式单元格设置值时POI将其作为缓存结果保存，公式本身保留
+     */
+    private void storeFormulaResult(Cell cell, FormulaEvaluator evaluator) {
         CellValue cellValue = evaluator.evaluate(cell);
 
-        // 根据结果类型设置单元格值（替换原来的公式）
         switch (cellValue.getCellType()) {
             case STRING:
                 cell.setCellValue(cellValue.getStringValue());
@@ -850,45 +962,272 @@ public class ExcelServiceImpl implements ExcelService {
     }
 
     /**
-     * 计算整个工作簿中的所有公式并将结果设置回单元格（替换公式）
+     * 计算工作簿中的公式并将结果设置回单元格
+     * 若自加载以来的修改都已被跟踪，只重新计算受修改影响的公式（依赖图上的传递闭包），
+     * 否则遍历所有工作表整本重算。
      * @param workbook 工作簿
      */
     public void evaluateAllFormulasInWorkbook(Workbook workbook) {
-        FormulaEvaluator evaluator = workbook.getCreationHelper().createFormulaEvaluator();
+        WorkbookEvaluationContext context = getEvaluationContext(workbook);
+        FormulaEvaluator evaluator = context.getEvaluator();
+        FormulaDependencyGraph graph = context.requiresFullRecalculation() ? null : context.getDependencyGraph();
+
+        if (graph == null) {
+            // 遍历所有工作表
+            for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
+                Sheet sheet = workbook.getSheetAt(i);
+                for (Row row : sheet) {
+                    for (Cell cell : row) {
+                        if (cell.getCellType() == CellType.FORMULA) {
+                            storeFormulaResult(cell, evaluator);
+                        }
+                    }
+                }
+            }
+        } else {
+            Set<CellReference> affectedCells = graph.collectAffectedFormulaCells(context.getChangedRegions());
+            for (CellReference ref : affectedCells) {
+                Sheet sheet = workbook.getSheet(ref.getSheetName());
+                Row row = sheet != null ? sheet.getRow(ref.getRow()) : null;
+                Cell cell = row != null ? row.getCell(ref.getCol()) : null;
+                if (cell != null && cell.getCellType() == CellType.FORMULA) {
+                    storeFormulaResult(cell, evaluator);
+                }
+            }
+            logger.debug("Recalculated {} of {} formulas affected by tracked changes",
+                affectedCells.size(), graph.getFormulaCount());
+        }
 
-        // 遍历所有工作表
-        for (int i = 0; i < workbook.getNumberOfSheets(); i++) {
-            org.apache.poi.ss.usermodel.Sheet sheet = workbook.getSheetAt(i);
-
-            // 遍历所有行
-            for (org.apache.poi.ss.usermodel.Row row : sheet) {
-                // 遍历所有单元格
-                for (org.apache.poi.ss.usermodel.Cell cell : row) {
-                    if (cell.getCellType() == CellType.FORMULA) {
-                        // 计算公式并获取结果
-                        CellValue cellValue = evaluator.evaluate(cell);
-
-                        // 根据结果类型设置单元格值（替换原来的公式）
-                        switch (cellValue.getCellType()) {
-                            case STRING:
-                                cell.setCellValue(cellValue.getStringValue());
-                                break;
-                            case NUMERIC:
-                                cell.setCellValue(cellValue.getNumberValue());
-                                break;
-                            case BOOLEAN:
-                                cell.setCellValue(cellValue.getBooleanValue());
-                                break;
-                            case ERROR:
-                                cell.setCellErrorValue(cellValue.getErrorValue());
-                                break;
-                            default:
-                                cell.setCellValue(cellValue.formatAsString());
-                                break;
+        context.clearChanges();
+    }
+
+    /**
+     * 只重新计算依赖于变更日志中单元格的公式
+     * 用于会话工作簿：保存前已全部重算，日志之外的单元格未被修改，因此不需要从加载起跟踪变更。
+     * 日志包含结构编辑时坐标无法对应，整本重算。
+     */
+    @Override
+    public void evaluateFormulasAffectedBy(Workbook workbook, WorkbookChangeJournal journal) {
+        if (journal.hasStructuralEdits()) {
+            invalidateEvaluationContext(workbook);
+            evaluateAllFormulasInWorkbook(workbook);
+            return;
+        }
+        WorkbookEvaluationContext context = getEvaluationContext(workbook);
+        FormulaEvaluator evaluator = context.getEvaluator();
+        FormulaDependencyGraph graph = context.getDependencyGraph();
+        Set<CellReference> affectedCells = graph.collectAffectedFormulaCells(journal.getCellRegions());
+        for (CellReference ref : affectedCells) {
+            Sheet sheet = workbook.getSheet(ref.getSheetName());
+            Row row = sheet != null ? sheet.getRow(ref.getRow()) : null;
+            Cell cell = row != null ? row.getCell(ref.getCol()) : null;
+            if (cell != null && cell.getCellType() == CellType.FORMULA) {
+                storeFormulaResult(cell, evaluator);
+            }
+        }
+        logger.debug("Recalculated {} of {} formulas affected by {} journaled cells",
+            affectedCells.size(), graph.getFormulaCount(), journal.getCellCount());
+        context.clearChanges();
+    }
+
+    @Override
+    public WorkbookEvaluationContext getEvaluationContext(Workbook workbook) {
+        Map<Workbook, WorkbookEvaluationContext> contexts = currentEvaluationContexts();
+        if (contexts == null) {
+            // 既不在请求内也没有打开作用范围：上下文只在本次调用内有效
+            return new WorkbookEvaluationContext(workbook);
+        }
+        return contexts.computeIfAbsent(workbook, WorkbookEvaluationContext::new);
+    }
+
+    @Override
+    public EvaluationScope openEvaluationScope() {
+        if (SCOPED_EVALUATION_CONTEXTS.get() != null) {
+            // 嵌套范围复用外层的上下文，由外层关闭
+            return () -> { };
+        }
+        SCOPED_EVALUATION_CONTEXTS.set(new IdentityHashMap<>());
+        return SCOPED_EVALUATION_CONTEXTS::remove;
+    }
+
+    @Override
+    public WorkbookChangeJournal beginChangeJournal(Workbook workbook) {
+        WorkbookChangeJournal journal = new WorkbookChangeJournal();
+        changeJournals.put(workbook, journal);
+        return journal;
+    }
+
+    @Override
+    public WorkbookChangeJournal endChangeJournal(Workbook workbook) {
+        return changeJournals.remove(workbook);
+    }
+
+    private void recordStructuralEdits(Workbook workbook, Sheet sheet, List<StructuralEdit> edits) {
+        WorkbookChangeJournal journal = changeJournals.get(workbook);
+        if (journal != null) {
+            journal.recordStructuralEdits(sheet, edits);
+        }
+    }
+
+    @Override
+    public void invalidateEvaluationContext(Workbook workbook) {
+        WorkbookEvaluationContext context = findEvaluationContext(workbook);
+        if (context != null) {
+            context.invalidate();
+        }
+    }
+
+    /**
+     * 在请求范围内为新加载的工作簿登记跟踪变更的计算上下文
+     */
+    private Workbook registerEvaluationContext(Workbook workbook) {
+        Map<Workbook, WorkbookEvaluationContext> contexts = currentEvaluationContexts();
+        if (contexts != null) {
+            contexts.put(workbook, new WorkbookEvaluationContext(workbook, true));
+        }
+        return workbook;
+    }
+
+    /**
+     * 单元格被修改后，仅失效依赖该单元格的缓存结果
+     */
+    private void notifyCellUpdated(Workbook workbook, Cell cell) {
+        WorkbookEvaluationContext context = findEvaluationContext(workbook);
+        if (context != null) {
+            context.notifyUpdateCell(cell);
+        }
+    }
+
+    private WorkbookEvaluationContext findEvaluationContext(Workbook workbook) {
+        Map<Workbook, WorkbookEvaluationContext> contexts = currentEvaluationContexts();
+        return contexts != null ? contexts.get(workbook) : null;
+    }
+
+    /**
+     * 当前线程的上下文表：请求线程取请求范围内的表，否则取openEvaluationScope打开的表，都没有时为null
+     */
+    private Map<Workbook, WorkbookEvaluationContext> currentEvaluationContexts() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes != null) {
+            return getRequestEvaluationContexts(attributes);
+        }
+        return SCOPED_EVALUATION_CONTEXTS.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<Workbook, WorkbookEvaluationContext> getRequestEvaluationContexts(RequestAttributes attributes) {
+        Map<Workbook, WorkbookEvaluationContext> contexts = (Map<Workbook, WorkbookEvaluationContext>)
+            attributes.getAttribute(EVALUATION_CONTEXTS_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (contexts == null) {
+            contexts = new IdentityHashMap<>();
+            attributes.setAttribute(EVALUATION_CONTEXTS_ATTRIBUTE, contexts, RequestAttributes.SCOPE_REQUEST);
+        }
+        return contexts;
+    }
+
+    @Override
+    public ExcelRowCursor openRowCursor(MultipartFile file) throws IOException {
+        String fileName = file.getOriginalFilename();
+        if (fileName != null && fileName.toLowerCase().endsWith(".csv")) {
+            return new CsvRowCursor(file.getInputStream());
+        }
+        try (InputStream inputStream = file.getInputStream()) {
+            return openRowCursor(inputStream);
+        }
+    }
+
+    @Override
+    public ExcelRowCursor openRowCursor(InputStream inputStream) throws IOException {
+        InputStream in = FileMagic.prepareToCheckMagic(inputStream);
+        if (FileMagic.valueOf(in) == FileMagic.OOXML) {
+            // XLSX走事件模型，不构建XSSF DOM
+            return XlsxStreamingRowCursor.open(in);
+        }
+        // 其他格式（如.xls）回退到完整加载
+        return new WorkbookRowCursor(new WorkbookEvaluationContext(loadWorkbook(in)), true);
+    }
+
+    @Override
+    public ExcelRowCursor openRowCursor(Workbook workbook) {
+        // 复用工作簿的计算上下文，游标关闭时不关闭调用方持有的工作簿
+        return new WorkbookRowCursor(getEvaluationContext(workbook), false);
+    }
+
+    @Override
+    public ExcelRowCursor openRowCursor(Workbook workbook, int sheetIndex, int[] rowNumbers) {
+        // 只读取指定工作表中给定行号的行，用于按窗口预览
+        return new WorkbookRowCursor(getEvaluationContext(workbook), sheetIndex, rowNumbers);
+    }
+
+    @Override
+    public String getExcelDataAsString(MultipartFile file) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        try (ExcelRowCursor cursor = openRowCursor(file)) {
+            while (cursor.nextSheet()) {
+                sb.append("Sheet: ").append(cursor.getSheetName()).append("\n");
+                while (cursor.nextRow()) {
+                    for (Object value : cursor.getRowValues()) {
+                        if (value != null) {
+                            sb.append(value);
                         }
+                        sb.append("\t");
                     }
+                    sb.append("\n");
+                }
+                sb.append("\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Object[][] getExcelDataAsArray(MultipartFile file) throws IOException {
+        List<Object[]> rows = new ArrayList<>();
+        int lastCellNum = 0;
+        try (ExcelRowCursor cursor = openRowCursor(file)) {
+            if (cursor.nextSheet()) { // 获取第一个工作表
+                while (cursor.nextRow()) {
+                    int rowIndex = cursor.getRowIndex();
+                    // 缺失的行以null占位，保持行索引对齐
+                    while (rows.size() < rowIndex) {
+                        rows.add(null);
+                    }
+                    Object[] values = cursor.getRowValues();
+                    if (rowIndex == 0) {
+                        lastCellNum = values.length;
+                    }
+                    rows.add(values);
+                }
+            }
+        }
+
+        Object[][] data = new Object[rows.size()][lastCellNum];
+        for (int i = 0; i < rows.size(); i++) {
+            Object[] values = rows.get(i);
+            if (values != null) {
+                System.arraycopy(values, 0, data[i], 0, Math.min(values.length, lastCellNum));
+            }
+        }
+        return data;
+    }
+
+    @Override
+    public String[] getExcelHeaders(MultipartFile file) throws IOException {
+        try (ExcelRowCursor cursor = openRowCursor(file)) {
+            // 只读取第一个工作表的第一行
+            if (!cursor.nextSheet() || !cursor.nextRow()) {
+                return new String[0];
+            }
+            Object[] values = cursor.getRowValues();
+            String[] headers = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                headers[i] = ExcelRowCursor.formatValue(values[i]);
+                if (headers[i].trim().isEmpty()) {
+                    // 如果表头单元格为空，使用列字母作为表头
+                    headers[i] = getColumnLetter(i + 1);
                 }
             }
+            return headers;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,819 @@
+package com.example.aiexcel.service.excel.impl;
+
+import com.example.aiexcel.service.excel.StructuralEdit;
+import org.apache.poi.hssf.usermodel.HSSFEvaluationWorkbook;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.formula.FormulaParser;
+import org.apache.poi.ss.formula.FormulaParsingWorkbook;
+import org.apache.poi.ss.formula.FormulaRenderer;
+import org.apache.poi.ss.formula.FormulaRenderingWorkbook;
+import org.apache.poi.ss.formula.FormulaType;
+import org.apache.poi.ss.formula.ptg.Area3DPtg;
+import org.apache.poi.ss.formula.ptg.AreaErrPtg;
+import org.apache.poi.ss.formula.ptg.AreaPtgBase;
+import org.apache.poi.ss.formula.ptg.Deleted3DPxg;
+import org.apache.poi.ss.formula.ptg.Ptg;
+import org.apache.poi.ss.formula.ptg.Pxg;
+import org.apache.poi.ss.formula.ptg.Pxg3D;
+import org.apache.poi.ss.formula.ptg.Ref3DPtg;
+import org.apache.poi.ss.formula.ptg.RefErrorPtg;
+import org.apache.poi.ss.formula.ptg.RefPtgBase;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.ConditionalFormatting;
+import org.apache.poi.ss.usermodel.Hyperlink;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.SheetConditionalFormatting;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFEvaluationWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFRow;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDataValidation;
+import org.openxmlformats.schemas.spreadsheetml.x2006.main.CTDataValidations;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 行列结构编辑规划器
+ * 将一组按顺序描述的插入/删除归一化为"新索引 -> 原索引"的最终布局，然后对工作表做一次压缩：
+ * 公式引用以及合并区域、批注、超链接、数据验证、条件格式等工作表级区域按布局统一改写一次，每个单元格最多移动一次。
+ * 连续的同方向编辑（全是行或全是列）合并为一次处理，总代价为 O(行数 × 列数) 而不是每条命令一次。
+ */
+class StructuralEditPlanner {
+
+    private StructuralEditPlanner() {
+    }
+
+    /**
+     * 按顺序应用一组结构编辑，相邻的同方向编辑合并为一次压缩
+     */
+    static void apply(Sheet sheet, List<StructuralEdit> edits) {
+        int start = 0;
+        while (start < edits.size()) {
+            boolean rows = edits.get(start).isRowEdit();
+            int end = start;
+            while (end < edits.size() && edits.get(end).isRowEdit() == rows) {
+                end++;
+            }
+            List<StructuralEdit> run = edits.subList(start, end);
+            if (rows) {
+                applyRowEdits(sheet, run);
+            } else {
+                applyColumnEdits(sheet, run);
+            }
+            start = end;
+        }
+    }
+
+    private static void applyRowEdits(Sheet sheet, List<StructuralEdit> edits) {
+        int existingRows = sheet.getLastRowNum() + 1;
+        Layout layout = Layout.plan(existingRows, edits, sheet.getWorkbook().getSpreadsheetVersion().getLastRowIndex());
+        if (layout.isIdentity()) {
+            return;
+        }
+        remapFormulas(sheet, layout, true);
+        remapSheetRegions(sheet, layout, true);
+
+        // 上移的行按新索引升序处理，下移的行按降序处理，保证目标位置不会覆盖尚未移动的行。
+        // 移动时在已有的行对象上原地改写单元格内容，避免逐行删除/创建行带来的整表开销
+        for (int n = 0; n < layout.size; n++) {
+            int o = layout.sources[n];
+            if (o >= 0 && o < existingRows && n < o) {
+                moveRow(sheet, o, n);
+            }
+        }
+        for (int n = layout.size - 1; n >= 0; n--) {
+            int o = layout.sources[n];
+            if (o >= 0 && o < existingRows && n > o) {
+                moveRow(sheet, o, n);
+            }
+        }
+
+        // 写入新插入的行，复用的行对象上可能还留着移走的行的行高和行样式
+        for (int n = 0; n < layout.size; n++) {
+            if (layout.sources[n] < 0) {
+                Row row = resetRowFormat(sheet, getOrCreateRow(sheet, n));
+                Object[] values = layout.insertedValues.get(-layout.sources[n] - 1);
+                int valueCount = values != null ? values.length : 0;
+                for (int i = 0; i < valueCount; i++) {
+                    Cell cell = row.getCell(i);
+                    if (cell == null) {
+                        cell = row.createCell(i);
+                    } else {
+                        resetCell(cell);
+                    }
+                    setCellValue(cell, values[i]);
+                }
+                removeCellsFrom(row, valueCount, null);
+            }
+        }
+
+        // 移除被删除且未被覆盖的行：新布局之外的行，以及新位置对应的是原表范围外空行的行
+        List<Row> leftovers = new ArrayList<>();
+        for (Row row : sheet) {
+            int n = row.getRowNum();
+            if (n >= layout.size || layout.sources[n] >= existingRows) {
+                leftovers.add(row);
+            }
+        }
+        for (int i = leftovers.size() - 1; i >= 0; i--) {
+            sheet.removeRow(leftovers.get(i));
+        }
+    }
+
+    /**
+     * 将from行的内容改写到to行，to行原有但from行没有的单元格被移除
+     */
+    private static void moveRow(Sheet sheet, int from, int to) {
+        Row source = sheet.getRow(from);
+        Row target = sheet.getRow(to);
+        if (source == null) {
+            if (target != null) {
+                sheet.removeRow(target);
+            }
+            return;
+        }
+        if (target == null) {
+            target = sheet.createRow(to);
+        }
+        if (source.getRowStyle() != null) {
+            target.setRowStyle(source.getRowStyle());
+        } else {
+            target = resetRowFormat(sheet, target);
+        }
+        target.setHeight(source.getHeight());
+        BitSet written = new BitSet();
+        for (Cell cell : source) {
+            int col = cell.getColumnIndex();
+            Cell targetCell = target.getCell(col);
+            if (targetCell == null) {
+                targetCell = target.createCell(col);
+            }
+            CellSnapshot.of(cell).restore(targetCell);
+            written.set(col);
+        }
+        removeCellsFrom(target, 0, written);
+    }
+
+    /**
+     * 恢复默认行高并清除行样式；HSSF的行不能清除行样式，有行样式时改为重建该行（单元格一并移除）
+     */
+    private static Row resetRowFormat(Sheet sheet, Row row) {
+        row.setHeight((short) -1);
+        if (row.getRowStyle() == null) {
+            return row;
+        }
+        if (row instanceof XSSFRow) {
+            row.setRowStyle(null);
+            return row;
+        }
+        int rowIndex = row.getRowNum();
+        sheet.removeRow(row);
+        return sheet.createRow(rowIndex);
+    }
+
+    private static Row getOrCreateRow(Sheet sheet, int rowIndex) {
+        Row row = sheet.getRow(rowIndex);
+        return row != null ? row : sheet.createRow(rowIndex);
+    }
+
+    /**
+     * 移除行中从firstCol开始、不在keep中的单元格
+     */
+    private static void removeCellsFrom(Row row, int firstCol, BitSet keep) {
+        List<Cell> stale = new ArrayList<>();
+        for (Cell cell : row) {
+            int col = cell.getColumnIndex();
+            if (col >= firstCol && (keep == null || !keep.get(col))) {
+                stale.add(cell);
+            }
+        }
+        for (Cell cell : stale) {
+            row.removeCell(cell);
+        }
+    }
+
+    /**
+     * 清除单元格上的公式，使后续写入的是值而不是公式的缓存结果
+     */
+    private static void resetCell(Cell cell) {
+        if (cell.getCellType() == CellType.FORMULA) {
+            cell.setBlank();
+        }
+    }
+
+    private static void applyColumnEdits(Sheet sheet, List<StructuralEdit> edits) {
+        int existingColumns = 0;
+        for (Row row : sheet) {
+            existingColumns = Math.max(existingColumns, row.getLastCellNum());
+        }
+        Layout layout = Layout.plan(existingColumns, edits, sheet.getWorkbook().getSpreadsheetVersion().getLastColumnIndex());
+        if (layout.isIdentity()) {
+            return;
+        }
+        remapFormulas(sheet, layout, false);
+        remapSheetRegions(sheet, layout, false);
+
+        int firstChanged = layout.firstChangedIndex();
+        int lastRow = sheet.getLastRowNum();
+        for (Object[] columnValues : layout.insertedValues) {
+            if (columnValues != null) {
+                lastRow = Math.max(lastRow, columnValues.length - 1);
+            }
+        }
+
+        // 每行只做一次：取出受影响列的单元格快照，再按新布局原地改写
+        for (int r = 0; r <= lastRow; r++) {
+            Row row = sheet.getRow(r);
+            if (row == null) {
+                if (!hasInsertedValue(layout, r)) {
+                    continue;
+                }
+                row = sheet.createRow(r);
+            }
+            int lastCell = Math.max(row.getLastCellNum(), 0);
+            CellSnapshot[] snapshots = new CellSnapshot[Math.max(lastCell - firstChanged, 0)];
+            for (int c = firstChanged; c < lastCell; c++) {
+                Cell cell = row.getCell(c);
+                if (cell != null) {
+                    snapshots[c - firstChanged] = CellSnapshot.of(cell);
+                }
+            }
+            BitSet written = new BitSet();
+            for (int n = firstChanged; n < layout.size; n++) {
+                int o = layout.sources[n];
+                if (o >= 0) {
+                    if (o >= firstChanged && o < lastCell && snapshots[o - firstChanged] != null) {
+                        snapshots[o - firstChanged].restore(getOrCreateCell(row, n));
+                        written.set(n);
+                    }
+                } else {
+                    Object[] values = layout.insertedValues.get(-o - 1);
+                    if (values != null && r < values.length) {
+                        Cell cell = getOrCreateCell(row, n);
+                        resetCell(cell);
+                        setCellValue(cell, values[r]);
+                        written.set(n);
+                    }
+                }
+            }
+            removeCellsFrom(row, firstChanged, written);
+        }
+    }
+
+    private static Cell getOrCreateCell(Row row, int col) {
+        Cell cell = row.getCell(col);
+        return cell != null ? cell : row.createCell(col);
+    }
+
+    private static boolean hasInsertedValue(Layout layout, int rowIndex) {
+        for (Object[] values : layout.insertedValues) {
+            if (values != null && rowIndex < values.length) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 按布局改写整个工作簿中指向该工作表的公式引用：被删除的单元格变为#REF!，区域按保留的端点收缩或扩展
+     */
+    private static void remapFormulas(Sheet sheet, Layout layout, boolean rows) {
+        Workbook workbook = sheet.getWorkbook();
+        FormulaParsingWorkbook parsingWorkbook;
+        FormulaRenderingWorkbook renderingWorkbook;
+        if (workbook instanceof XSSFWorkbook) {
+            XSSFEvaluationWorkbook evaluationWorkbook = XSSFEvaluationWorkbook.create((XSSFWorkbook) workbook);
+            parsingWorkbook = evaluationWorkbook;
+            renderingWorkbook = evaluationWorkbook;
+        } else if (workbook instanceof HSSFWorkbook) {
+            HSSFEvaluationWorkbook evaluationWorkbook = HSSFEvaluationWorkbook.create((HSSFWorkbook) workbook);
+            parsingWorkbook = evaluationWorkbook;
+            renderingWorkbook = evaluationWorkbook;
+        } else {
+            return;
+        }
+
+        String targetSheet = sheet.getSheetName();
+        for (int sheetIndex = 0; sheetIndex < workbook.getNumberOfSheets(); sheetIndex++) {
+            Sheet formulaSheet = workbook.getSheetAt(sheetIndex);
+            for (Row row : formulaSheet) {
+                for (Cell cell : row) {
+                    if (cell.getCellType() != CellType.FORMULA) {
+                        continue;
+                    }
+                    Ptg[] ptgs;
+                    try {
+                        ptgs = FormulaParser.parse(cell.getCellFormula(), parsingWorkbook, FormulaType.CELL,
+                            sheetIndex, row.getRowNum());
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                    boolean changed = false;
+                    for (int i = 0; i < ptgs.length; i++) {
+                        Ptg ptg = ptgs[i];
+                        if (!(ptg instanceof RefPtgBase) && !(ptg instanceof AreaPtgBase)) {
+                            continue;
+                        }
+                        if (!referencesSheet(ptg, formulaSheet == sheet, targetSheet)) {
+                            continue;
+                        }
+                        Ptg remapped = remapReference(ptg, layout, rows);
+                        if (remapped != null) {
+                            ptgs[i] = remapped;
+                            changed = true;
+                        }
+                    }
+                    if (changed) {
+                        cell.setCellFormula(FormulaRenderer.toFormulaString(renderingWorkbook, ptgs));
+                    }
+                }
+            }
+        }
+    }
+
+    private static boolean referencesSheet(Ptg ptg, boolean sameSheet, String targetSheet) {
+        if (ptg instanceof Pxg) {
+            Pxg pxg = (Pxg) ptg;
+            return pxg.getExternalWorkbookNumber() <= 0
+                && !(pxg instanceof Pxg3D && ((Pxg3D) pxg).getLastSheetName() != null)
+                && targetSheet.equalsIgnoreCase(pxg.getSheetName());
+        }
+        // .xls的三维引用通过外部表索引定位，这里不做改写
+        if (ptg instanceof Ref3DPtg || ptg instanceof Area3DPtg) {
+            return false;
+        }
+        return sameSheet;
+    }
+
+    /**
+     * 改写单个引用
+     * @return 改写后的记号；引用不受影响时返回null
+     */
+    private static Ptg remapReference(Ptg ptg, Layout layout, boolean rows) {
+        if (ptg instanceof RefPtgBase) {
+            RefPtgBase ref = (RefPtgBase) ptg;
+            int index = rows ? ref.getRow() : ref.getColumn();
+            int mapped = layout.map(index);
+            if (mapped == index) {
+                return null;
+            }
+            if (mapped < 0) {
+                return deletedReference(ptg, false);
+            }
+            if (rows) {
+                ref.setRow(mapped);
+            } else {
+                ref.setColumn(mapped);
+            }
+            return ref;
+        }
+
+        AreaPtgBase area = (AreaPtgBase) ptg;
+        int first = rows ? area.getFirstRow() : area.getFirstColumn();
+        int last = rows ? area.getLastRow() : area.getLastColumn();
+        if (first == 0 && last == layout.maxIndex) {
+            // 整行/整列引用保持不变
+            return null;
+        }
+        int newFirst = layout.mapFirst(first, last);
+        int newLast = layout.mapLast(first, last);
+        if (newFirst == first && newLast == last) {
+            return null;
+        }
+        if (newFirst < 0 || newLast < 0) {
+            return deletedReference(ptg, true);
+        }
+        if (rows) {
+            area.setFirstRow(newFirst);
+            area.setLastRow(newLast);
+        } else {
+            area.setFirstColumn(newFirst);
+            area.setLastColumn(newLast);
+        }
+        return area;
+    }
+
+    private static Ptg deletedReference(Ptg ptg, boolean area) {
+        if (ptg instanceof Pxg) {
+            Pxg pxg = (Pxg) ptg;
+            return new Deleted3DPxg(pxg.getExternalWorkbookNumber(), pxg.getSheetName());
+        }
+        return area ? new AreaErrPtg() : new RefErrorPtg();
+    }
+
+    /**
+     * 按布局改写工作表级的区域：合并区域、批注、超链接、数据验证和条件格式
+     * 这些对象不随单元格移动，必须在移动单元格之前按原坐标统一换算
+     */
+    private static void remapSheetRegions(Sheet sheet, Layout layout, boolean rows) {
+        remapMergedRegions(sheet, layout, rows);
+        remapComments(sheet, layout, rows);
+        remapHyperlinks(sheet, layout, rows);
+        remapDataValidations(sheet, layout, rows);
+        remapConditionalFormatting(sheet, layout, rows);
+    }
+
+    /**
+     * 换算单个区域，区域全部被删除时返回null
+     */
+    private static CellRangeAddress remapRange(CellRangeAddress region, Layout layout, boolean rows) {
+        int first = rows ? region.getFirstRow() : region.getFirstColumn();
+        int last = rows ? region.getLastRow() : region.getLastColumn();
+        if (first == 0 && last == layout.maxIndex) {
+            // 整行/整列区域保持不变
+            return region.copy();
+        }
+        int newFirst = layout.mapFirst(first, last);
+        int newLast = layout.mapLast(first, last);
+        if (newFirst < 0 || newLast < 0) {
+            return null;
+        }
+        return rows
+            ? new CellRangeAddress(newFirst, newLast, region.getFirstColumn(), region.getLastColumn())
+            : new CellRangeAddress(region.getFirstRow(), region.getLastRow(), newFirst, newLast);
+    }
+
+    private static void remapMergedRegions(Sheet sheet, Layout layout, boolean rows) {
+        int count = sheet.getNumMergedRegions();
+        if (count == 0) {
+            return;
+        }
+        List<CellRangeAddress> remapped = new ArrayList<>();
+        for (CellRangeAddress region : sheet.getMergedRegions()) {
+            CellRangeAddress moved = remapRange(region, layout, rows);
+            if (moved != null && moved.getNumberOfCells() > 1) {
+                remapped.add(moved);
+            }
+        }
+        List<Integer> indices = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            indices.add(i);
+        }
+        sheet.removeMergedRegions(indices);
+        for (CellRangeAddress region : remapped) {
+            sheet.addMergedRegionUnsafe(region);
+        }
+    }
+
+    /**
+     * 批注按所在单元格移动，所在行列被删除时一并删除
+     * 批注表按地址索引，后移的批注从后往前改写、前移的从前往后改写，避免改写时覆盖尚未移动的批注
+     */
+    private static void remapComments(Sheet sheet, Layout layout, boolean rows) {
+        Map<CellAddress, ? extends Comment> comments = sheet.getCellComments();
+        if (comments.isEmpty()) {
+            return;
+        }
+        List<Comment> forward = new ArrayList<>();
+        List<Comment> backward = new ArrayList<>();
+        for (Map.Entry<CellAddress, ? extends Comment> entry : comments.entrySet()) {
+            CellAddress address = entry.getKey();
+            int index = rows ? address.getRow() : address.getColumn();
+            int mapped = layout.map(index);
+            if (mapped < 0) {
+                Cell cell = getOrCreateCell(getOrCreateRow(sheet, address.getRow()), address.getColumn());
+                cell.removeCellComment();
+            } else if (mapped > index) {
+                backward.add(entry.getValue());
+            } else if (mapped < index) {
+                forward.add(entry.getValue());
+            }
+        }
+        Comparator<Comment> byIndex = Comparator.comparingInt(c -> rows ? c.getRow() : c.getColumn());
+        forward.sort(byIndex);
+        backward.sort(byIndex.reversed());
+        for (List<Comment> group : List.of(forward, backward)) {
+            for (Comment comment : group) {
+                int mapped = layout.map(rows ? comment.getRow() : comment.getColumn());
+                comment.setAddress(rows ? mapped : comment.getRow(), rows ? comment.getColumn() : mapped);
+            }
+        }
+    }
+
+    private static void remapHyperlinks(Sheet sheet, Layout layout, boolean rows) {
+        for (Hyperlink hyperlink : new ArrayList<>(sheet.getHyperlinkList())) {
+            CellRangeAddress region = new CellRangeAddress(hyperlink.getFirstRow(), hyperlink.getLastRow(),
+                hyperlink.getFirstColumn(), hyperlink.getLastColumn());
+            CellRangeAddress moved = remapRange(region, layout, rows);
+            if (moved == null) {
+                removeHyperlink(sheet, hyperlink);
+                continue;
+            }
+            hyperlink.setFirstRow(moved.getFirstRow());
+            hyperlink.setLastRow(moved.getLastRow());
+            hyperlink.setFirstColumn(moved.getFirstColumn());
+            hyperlink.setLastColumn(moved.getLastColumn());
+        }
+    }
+
+    private static void removeHyperlink(Sheet sheet, Hyperlink hyperlink) {
+        if (sheet instanceof XSSFSheet) {
+            ((XSSFSheet) sheet).removeHyperlink(hyperlink.getFirstRow(), hyperlink.getFirstColumn());
+            return;
+        }
+        Row row = sheet.getRow(hyperlink.getFirstRow());
+        Cell cell = row != null ? row.getCell(hyperlink.getFirstColumn()) : null;
+        if (cell != null) {
+            cell.removeHyperlink();
+        }
+    }
+
+    /**
+     * 数据验证的作用区域按布局换算，区域全部被删除的验证规则移除
+     * POI没有提供修改已有验证区域的通用接口，这里直接改写.xlsx的sqref；.xls的验证保持不变
+     */
+    private static void remapDataValidations(Sheet sheet, Layout layout, boolean rows) {
+        if (!(sheet instanceof XSSFSheet)) {
+            return;
+        }
+        CTDataValidations validations = ((XSSFSheet) sheet).getCTWorksheet().getDataValidations();
+        if (validations == null) {
+            return;
+        }
+        for (int i = validations.sizeOfDataValidationArray() - 1; i >= 0; i--) {
+            CTDataValidation validation = validations.getDataValidationArray(i);
+            List<String> remapped = new ArrayList<>();
+            for (Object sqref : validation.getSqref()) {
+                for (String ref : sqref.toString().split(" ")) {
+                    if (ref.isEmpty()) {
+                        continue;
+                    }
+                    CellRangeAddress moved = remapRange(CellRangeAddress.valueOf(ref), layout, rows);
+                    if (moved != null) {
+                        remapped.add(moved.formatAsString());
+                    }
+                }
+            }
+            if (remapped.isEmpty()) {
+                validations.removeDataValidation(i);
+            } else {
+                validation.setSqref(remapped);
+            }
+        }
+        validations.setCount(validations.sizeOfDataValidationArray());
+        if (validations.sizeOfDataValidationArray() == 0) {
+            ((XSSFSheet) sheet).getCTWorksheet().unsetDataValidations();
+        }
+    }
+
+    private static void remapConditionalFormatting(Sheet sheet, Layout layout, boolean rows) {
+        SheetConditionalFormatting formatting = sheet.getSheetConditionalFormatting();
+        for (int i = formatting.getNumConditionalFormattings() - 1; i >= 0; i--) {
+            ConditionalFormatting conditional = formatting.getConditionalFormattingAt(i);
+            List<CellRangeAddress> remapped = new ArrayList<>();
+            for (CellRangeAddress region : conditional.getFormattingRanges()) {
+                CellRangeAddress moved = remapRange(region, layout, rows);
+                if (moved != null) {
+                    remapped.add(moved);
+                }
+            }
+            if (remapped.isEmpty()) {
+                formatting.removeConditionalFormatting(i);
+            } else {
+                conditional.setFormattingRanges(remapped.toArray(new CellRangeAddress[0]));
+            }
+        }
+    }
+
+    private static void setCellValue(Cell cell, Object value) {
+        if (value instanceof String) {
+            cell.setCellValue((String) value);
+        } else if (value instanceof Number) {
+            cell.setCellValue(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            cell.setCellValue((Boolean) value);
+        } else {
+            cell.setCellValue(value != null ? value.toString() : "");
+        }
+    }
+
+    /**
+     * 一组同方向编辑归一化后的最终布局
+     * sources[新索引] 为原索引（>=0），或 -(k+1) 表示第k个插入项。
+     * 超出原表范围的插入会先补齐虚拟的原索引，保证原索引在布局中单调递增。
+     */
+    static class Layout {
+        final int[] sources;
+        final int size;
+        final List<Object[]> insertedValues;
+        final int maxIndex;
+        // 参与布局的原索引数量（含补齐的虚拟索引），大于等于该值的原索引整体平移
+        private final int originalCount;
+        private final int[] oldToNew;
+        private final int[] nextSurvivor;
+        private final int[] previousSurvivor;
+
+        private Layout(int[] sources, int size, List<Object[]> insertedValues, int originalCount, int maxIndex) {
+            this.sources = sources;
+            this.size = size;
+            this.insertedValues = insertedValues;
+            this.originalCount = originalCount;
+            this.maxIndex = maxIndex;
+
+            oldToNew = new int[originalCount];
+            Arrays.fill(oldToNew, -1);
+            for (int n = 0; n < size; n++) {
+                if (sources[n] >= 0) {
+                    oldToNew[sources[n]] = n;
+                }
+            }
+            nextSurvivor = new int[originalCount];
+            int next = -1;
+            for (int o = originalCount - 1; o >= 0; o--) {
+                if (oldToNew[o] >= 0) {
+                    next = o;
+                }
+                nextSurvivor[o] = next;
+            }
+            previousSurvivor = new int[originalCount];
+            int previous = -1;
+            for (int o = 0; o < originalCount; o++) {
+                if (oldToNew[o] >= 0) {
+                    previous = o;
+                }
+                previousSurvivor[o] = previous;
+            }
+        }
+
+        static Layout plan(int count, List<StructuralEdit> edits, int maxIndex) {
+            int[] sources = new int[count + edits.size() + 16];
+            int size = count;
+            for (int i = 0; i < count; i++) {
+                sources[i] = i;
+            }
+            int originalCount = count;
+            List<Object[]> insertedValues = new ArrayList<>();
+
+            for (StructuralEdit edit : edits) {
+                int index = edit.getIndex();
+                if (edit.isInsert()) {
+                    while (size < index) {
+                        sources = ensureCapacity(sources, size + 1);
+                        sources[size++] = originalCount++;
+                    }
+                    sources = ensureCapacity(sources, size + 1);
+                    System.arraycopy(sources, index, sources, index + 1, size - index);
+                    insertedValues.add(edit.getValues());
+                    sources[index] = -insertedValues.size();
+                    size++;
+                } else if (index < size) {
+                    System.arraycopy(sources, index + 1, sources, index, size - index - 1);
+                    size--;
+                }
+            }
+            return new Layout(sources, size, insertedValues, originalCount, maxIndex);
+        }
+
+        private static int[] ensureCapacity(int[] array, int capacity) {
+            return capacity <= array.length ? array : Arrays.copyOf(array, Math.max(capacity, array.length * 2));
+        }
+
+        boolean isIdentity() {
+            if (size != originalCount) {
+                return false;
+            }
+            for (int n = 0; n < size; n++) {
+                if (sources[n] != n) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        int firstChangedIndex() {
+            int n = 0;
+            while (n < size && sources[n] == n) {
+                n++;
+            }
+            return n;
+        }
+
+        /**
+         * 原索引在新布局中的位置，被删除时返回-1
+         */
+        int map(int index) {
+            if (index < originalCount) {
+                return oldToNew[index];
+            }
+            return Math.min(index + size - originalCount, maxIndex);
+        }
+
+        /**
+         * 区域[first, last]中第一个保留下来的索引的新位置，全部被删除时返回-1
+         */
+        int mapFirst(int first, int last) {
+            int survivor = first < originalCount ? nextSurvivor[first] : first;
+            if (survivor < 0) {
+                survivor = originalCount;
+            }
+            return survivor > last ? -1 : map(survivor);
+        }
+
+        /**
+         * 区域[first, last]中最后一个保留下来的索引的新位置，全部被删除时返回-1
+         */
+        int mapLast(int first, int last) {
+            int survivor = last < originalCount ? previousSurvivor[last] : last;
+            return survivor < first ? -1 : map(survivor);
+        }
+    }
+
+    /**
+     * 单元格内容快照，用于在同一工作簿内移动单元格
+     * 带格式的文本保留其富文本格式段；批注和超链接属于工作表级对象，由 {@link #remapSheetRegions} 按布局移动
+     */
+    private static class CellSnapshot {
+        private CellType type;
+        private CellType cachedType;
+        private String stringValue;
+        private RichTextString richValue;
+        private double numericValue;
+        private boolean booleanValue;
+        private byte errorValue;
+        private String formula;
+        private CellStyle style;
+
+        static CellSnapshot of(Cell cell) {
+            CellSnapshot snapshot = new CellSnapshot();
+            snapshot.type = cell.getCellType();
+            snapshot.style = cell.getCellStyle();
+            CellType valueType = snapshot.type;
+            if (valueType == CellType.FORMULA) {
+                snapshot.formula = cell.getCellFormula();
+                valueType = cell.getCachedFormulaResultType();
+                snapshot.cachedType = valueType;
+            }
+            switch (valueType) {
+                case STRING:
+                    if (snapshot.type == CellType.STRING) {
+                        RichTextString richValue = cell.getRichStringCellValue();
+                        if (richValue.numFormattingRuns() > 0) {
+                            snapshot.richValue = richValue;
+                        }
+                    }
+                    snapshot.stringValue = cell.getStringCellValue();
+                    break;
+                case NUMERIC:
+                    snapshot.numericValue = cell.getNumericCellValue();
+                    break;
+                case BOOLEAN:
+                    snapshot.booleanValue = cell.getBooleanCellValue();
+                    break;
+                case ERROR:
+                    snapshot.errorValue = cell.getErrorCellValue();
+                    break;
+                default:
+                    break;
+            }
+            return snapshot;
+        }
+
+        void restore(Cell cell) {
+            cell.setCellStyle(style);
+            CellType valueType = type;
+            if (type != CellType.FORMULA) {
+                resetCell(cell);
+            } else {
+                cell.setCellFormula(formula);
+                valueType = cachedType;
+            }
+            // 对公式单元格设置值时作为缓存结果保存
+            switch (valueType) {
+                case STRING:
+                    if (richValue != null) {
+                        cell.setCellValue(richValue);
+                    } else {
+                        cell.setCellValue(stringValue);
+                    }
+                    break;
+                case NUMERIC:
+                    cell.setCellValue(numericValue);
+                    break;
+                case BOOLEAN:
+                    cell.setCellValue(booleanValue);
+                    break;
+                case ERROR:
+                    cell.setCellErrorValue(errorValue);
+                    break;
+                default:
+                    if (type != CellType.FORMULA) {
+                        cell.setBlank();
+                    }
+                    break;
+            }
+        }
+    }
+}
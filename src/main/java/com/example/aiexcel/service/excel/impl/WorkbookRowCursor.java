@@ -0,0 +1,165 @@
+package com.example.aiexcel.service.excel.impl;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import com.example.aiexcel.service.excel.WorkbookEvaluationContext;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.CellValue;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+
+/**
+ * 基于已加载工作簿的行游标
+ * 用于无法走事件模型的格式（如.xls），与流式游标提供相同的读取接口。
+ * 指定工作表和行号时只遍历该工作表的这些行（窗口预览）。
+ */
+class WorkbookRowCursor implements ExcelRowCursor {
+
+    private final Workbook workbook;
+    private final boolean closeWorkbook;
+    private final WorkbookEvaluationContext evaluationContext;
+    // 窗口模式下只读取的工作表和行号，全量模式下为-1和null
+    private final int windowSheetIndex;
+    private final int[] windowRowNumbers;
+    private int sheetIndex = -1;
+    private Sheet sheet;
+    private Iterator<Row> rows;
+    private int rowIndex = -1;
+    private Object[] rowValues;
+    private int rowFormulaCount;
+
+    WorkbookRowCursor(WorkbookEvaluationContext evaluationContext, boolean closeWorkbook) {
+        this.workbook = evaluationContext.getWorkbook();
+        this.closeWorkbook = closeWorkbook;
+        this.evaluationContext = evaluationContext;
+        this.windowSheetIndex = -1;
+        this.windowRowNumbers = null;
+    }
+
+    WorkbookRowCursor(WorkbookEvaluationContext evaluationContext, int sheetIndex, int[] rowNumbers) {
+        this.workbook = evaluationContext.getWorkbook();
+        this.closeWorkbook = false;
+        this.evaluationContext = evaluationContext;
+        this.windowSheetIndex = sheetIndex;
+        this.windowRowNumbers = rowNumbers;
+    }
+
+    @Override
+    public boolean nextSheet() {
+        boolean windowDone = windowRowNumbers != null && sheetIndex == windowSheetIndex;
+        if (windowDone || sheetIndex + 1 >= workbook.getNumberOfSheets()) {
+            sheet = null;
+            rows = null;
+            return false;
+        }
+        sheetIndex = windowRowNumbers != null ? windowSheetIndex : sheetIndex + 1;
+        sheet = workbook.getSheetAt(sheetIndex);
+        rows = windowRowNumbers != null ? windowRows(sheet, windowRowNumbers) : sheet.rowIterator();
+        rowIndex = -1;
+        rowValues = null;
+        return true;
+    }
+
+    @Override
+    public String getSheetName() {
+        return sheet != null ? sheet.getSheetName() : null;
+    }
+
+    @Override
+    public int getSheetIndex() {
+        return sheetIndex;
+    }
+
+    @Override
+    public boolean nextRow() {
+        if (rows == null || !rows.hasNext()) {
+            return false;
+        }
+        Row row = rows.next();
+        rowIndex = row.getRowNum();
+        int lastCellNum = Math.max(row.getLastCellNum(), 0);
+        Object[] values = new Object[lastCellNum];
+        int formulas = 0;
+        for (Cell cell : row) {
+            values[cell.getColumnIndex()] = getCellValue(cell);
+            if (cell.getCellType() == CellType.FORMULA) {
+                formulas++;
+            }
+        }
+        rowValues = values;
+        rowFormulaCount = formulas;
+        return true;
+    }
+
+    @Override
+    public int getRowIndex() {
+        return rowIndex;
+    }
+
+    @Override
+    public Object[] getRowValues() {
+        return rowValues;
+    }
+
+    @Override
+    public int getRowFormulaCount() {
+        return rowFormulaCount;
+    }
+
+    private static Iterator<Row> windowRows(Sheet sheet, int[] rowNumbers) {
+        return Arrays.stream(rowNumbers)
+            .mapToObj(sheet::getRow)
+            .filter(Objects::nonNull)
+            .iterator();
+    }
+
+    private Object getCellValue(Cell cell) {
+        switch (cell.getCellType()) {
+            case STRING:
+                return cell.getStringCellValue();
+            case NUMERIC:
+                if (DateUtil.isCellDateFormatted(cell)) {
+                    return cell.getDateCellValue();
+                }
+                return cell.getNumericCellValue();
+            case BOOLEAN:
+                return cell.getBooleanCellValue();
+            case FORMULA:
+                // 对于公式单元格，返回计算结果而不是公式本身
+                CellValue cellValue = evaluationContext.evaluate(cell);
+                switch (cellValue.getCellType()) {
+                    case STRING:
+                        return cellValue.getStringValue();
+                    case NUMERIC:
+                        if (DateUtil.isCellDateFormatted(cell)) {
+                            return DateUtil.getJavaDate(cellValue.getNumberValue());
+                        }
+                        return cellValue.getNumberValue();
+                    case BOOLEAN:
+                        return cellValue.getBooleanValue();
+                    case ERROR:
+                        return "#ERROR!";
+                    default:
+                        return cellValue.formatAsString();
+                }
+            case ERROR:
+                return "#ERROR!";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closeWorkbook) {
+            workbook.close();
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package com.example.aiexcel.service.excel.impl;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DateUtil;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 基于事件模型的XLSX行游标
+ * 共享字符串表使用只读SAX解析，工作表XML使用StAX拉取解析，
+ * 不构建XSSF DOM，适用于只读场景下的大文件读取。
+ */
+class XlsxStreamingRowCursor implements ExcelRowCursor {
+
+    private static final Logger logger = LoggerFactory.getLogger(XlsxStreamingRowCursor.class);
+
+    private static final XMLInputFactory XML_INPUT_FACTORY = XMLHelper.newXMLInputFactory();
+
+    private final File tempFile;
+    private final OPCPackage pkg;
+    private final ReadOnlySharedStringsTable sharedStrings;
+    private final StylesTable styles;
+    private final XSSFReader.SheetIterator sheets;
+    private final Map<Integer, Boolean> dateStyleCache = new HashMap<>();
+
+    // 当前行的单元格缓冲区，按行复用
+    private final List<Object> cellBuffer = new ArrayList<>();
+
+    private InputStream sheetStream;
+    private XMLStreamReader reader;
+    private String sheetName;
+    private int sheetIndex = -1;
+    private int rowIndex = -1;
+    private Object[] rowValues;
+    private int rowFormulaCount;
+
+    private XlsxStreamingRowCursor(File tempFile, OPCPackage pkg) throws IOException {
+        this.tempFile = tempFile;
+        this.pkg = pkg;
+        try {
+            XSSFReader xssfReader = new XSSFReader(pkg);
+            this.sharedStrings = new ReadOnlySharedStringsTable(pkg);
+            this.styles = xssfReader.getStylesTable();
+            this.sheets = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Error opening workbook for streaming read", e);
+        }
+    }
+
+    /**
+     * 打开XLSX输入流
+     * 输入流会先落盘为临时文件，以便按条目流式读取压缩包而不是整体解压到内存。
+     * 调用方负责关闭传入的输入流。
+     */
+    static XlsxStreamingRowCursor open(InputStream inputStream) throws IOException {
+        File tempFile = Files.createTempFile("aiexcel-stream-", ".xlsx").toFile();
+        try {
+            Files.copy(inputStream, tempFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            OPCPackage pkg = OPCPackage.open(tempFile, PackageAccess.READ);
+            try {
+                return new XlsxStreamingRowCursor(tempFile, pkg);
+            } catch (IOException e) {
+                pkg.revert();
+                throw e;
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw e;
+        } catch (Exception e) {
+            Files.deleteIfExists(tempFile.toPath());
+            throw new IOException("Error opening workbook for streaming read", e);
+        }
+    }
+
+    @Override
+    public boolean nextSheet() throws IOException {
+        closeSheet();
+        if (!sheets.hasNext()) {
+            return false;
+        }
+        sheetStream = sheets.next();
+        sheetName = sheets.getSheetName();
+        sheetIndex++;
+        rowIndex = -1;
+        rowValues = null;
+        try {
+            reader = XML_INPUT_FACTORY.createXMLStreamReader(sheetStream);
+        } catch (XMLStreamException e) {
+            throw new IOException("Error reading sheet " + sheetName, e);
+        }
+        return true;
+    }
+
+    @Override
+    public String getSheetName() {
+        return sheetName;
+    }
+
+    @Override
+    public int getSheetIndex() {
+        return sheetIndex;
+    }
+
+    @Override
+    public boolean nextRow() throws IOException {
+        if (reader == null) {
+            return false;
+        }
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT && "row".equals(reader.getLocalName())) {
+                    String r = reader.getAttributeValue(null, "r");
+                    rowIndex = r != null ? Integer.parseInt(r) - 1 : rowIndex + 1;
+                    readRow();
+                    return true;
+                }
+                if (event == XMLStreamConstants.END_ELEMENT && "sheetData".equals(reader.getLocalName())) {
+                    break;
+                }
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Error reading row in sheet " + sheetName, e);
+        }
+        closeSheet();
+        return false;
+    }
+
+    @Override
+    public int getRowIndex() {
+        return rowIndex;
+    }
+
+    @Override
+    public Object[] getRowValues() {
+        return rowValues;
+    }
+
+    @Override
+    public int getRowFormulaCount() {
+        return rowFormulaCount;
+    }
+
+    /**
+     * 读取当前row元素中的所有单元格，直到row结束标签
+     */
+    private void readRow() throws XMLStreamException {
+        cellBuffer.clear();
+        rowFormulaCount = 0;
+        int nextCol = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT && "c".equals(reader.getLocalName())) {
+                String ref = reader.getAttributeValue(null, "r");
+                int col = ref != null ? columnIndexOf(ref) : nextCol;
+                Object value = readCell();
+                while (cellBuffer.size() <= col) {
+                    cellBuffer.add(null);
+                }
+                cellBuffer.set(col, value);
+                nextCol = col + 1;
+            } else if (event == XMLStreamConstants.END_ELEMENT && "row".equals(reader.getLocalName())) {
+                break;
+            }
+        }
+        rowValues = cellBuffer.toArray();
+    }
+
+    /**
+     * 读取单个c元素并转换为单元格值
+     */
+    private Object readCell() throws XMLStreamException {
+        String type = reader.getAttributeValue(null, "t");
+        String styleAttr = reader.getAttributeValue(null, "s");
+        String rawValue = null;
+        StringBuilder inlineText = null;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                String name = reader.getLocalName();
+                if ("v".equals(name)) {
+                    rawValue = reader.getElementText();
+                } else if ("f".equals(name)) {
+                    // 共享公式的从属单元格只有空的f元素，同样计为公式
+                    rowFormulaCount++;
+                } else if ("t".equals(name)) {
+                    // 内联字符串 <is><t>..</t></is> 或富文本 <is><r><t>..</t></r></is>
+                    if (inlineText == null) {
+                        inlineText = new StringBuilder();
+                    }
+                    inlineText.append(reader.getElementText());
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT && "c".equals(reader.getLocalName())) {
+                break;
+            }
+        }
+
+        if ("inlineStr".equals(type)) {
+            return inlineText != null ? inlineText.toString() : "";
+        }
+        if (rawValue == null) {
+            return null;
+        }
+        if (type == null || "n".equals(type)) {
+            return toNumericValue(rawValue, styleAttr);
+        }
+        switch (type) {
+            case "s":
+                try {
+                    return sharedStrings.getItemAt(Integer.parseInt(rawValue.trim())).getString();
+                } catch (RuntimeException e) {
+                    logger.warn("Invalid shared string index {} in sheet {}", rawValue, sheetName);
+                    return rawValue;
+                }
+            case "b":
+                return "1".equals(rawValue.trim()) || "true".equalsIgnoreCase(rawValue.trim());
+            case "e":
+                return "#ERROR!";
+            case "str":
+            case "d":
+            default:
+                return rawValue;
+        }
+    }
+
+    private Object toNumericValue(String rawValue, String styleAttr) {
+        double number;
+        try {
+            number = Double.parseDouble(rawValue.trim());
+        } catch (NumberFormatException e) {
+            return rawValue;
+        }
+        if (styleAttr != null && isDateStyle(Integer.parseInt(styleAttr)) && DateUtil.isValidExcelDate(number)) {
+            return DateUtil.getJavaDate(number);
+        }
+        return number;
+    }
+
+    /**
+     * 判断样式是否为日期格式，结果按样式索引缓存
+     */
+    private boolean isDateStyle(int styleIndex) {
+        Boolean cached = dateStyleCache.get(styleIndex);
+        if (cached != null) {
+            return cached;
+        }
+        boolean isDate = false;
+        if (styles != null && styleIndex < styles.getNumCellStyles()) {
+            XSSFCellStyle style = styles.getStyleAt(styleIndex);
+            if (style != null) {
+                isDate = DateUtil.isADateFormat(style.getDataFormat(), style.getDataFormatString());
+            }
+        }
+        dateStyleCache.put(styleIndex, isDate);
+        return isDate;
+    }
+
+    /**
+     * 从单元格引用中提取列索引 (如 B3 -> 1)
+     */
+    private static int columnIndexOf(String cellRef) {
+        int col = 0;
+        for (int i = 0; i < cellRef.length(); i++) {
+            char c = cellRef.charAt(i);
+            if (c < 'A' || c > 'Z') {
+                break;
+            }
+            col = col * 26 + (c - 'A' + 1);
+        }
+        return col - 1;
+    }
+
+    private void closeSheet() throws IOException {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (XMLStreamException e) {
+                logger.debug("Error closing sheet reader: {}", e.getMessage());
+            }
+            reader = null;
+        }
+        if (sheetStream != null) {
+            sheetStream.close();
+            sheetStream = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            closeSheet();
+        } finally {
+            pkg.revert();
+            Files.deleteIfExists(tempFile.toPath());
+        }
+    }
+}
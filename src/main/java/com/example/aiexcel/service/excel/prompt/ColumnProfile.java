@@ -0,0 +1,184 @@
+package com.example.aiexcel.service.excel.prompt;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import org.apache.poi.ss.util.CellReference;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单列统计
+ * 随行流式累加，内存只与去重值上限有关；统计覆盖全部数据行，不受采样影响。
+ */
+class ColumnProfile {
+
+    // 去重计数的上限，超过后只报告"至少N个不同值"
+    private static final int MAX_DISTINCT = 100;
+    private static final int TOP_VALUES = 3;
+
+    private final int columnIndex;
+    private String header;
+    private int blankCount;
+    private int numberCount;
+    private int dateCount;
+    private int booleanCount;
+    private int textCount;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+    private Date minDate;
+    private Date maxDate;
+    private final Map<String, Integer> distinctValues = new HashMap<>();
+    private boolean distinctOverflow;
+
+    ColumnProfile(int columnIndex) {
+        this.columnIndex = columnIndex;
+    }
+
+    void setHeader(String header) {
+        this.header = header;
+    }
+
+    /**
+     * 累加一个数据行中的值
+     */
+    void add(Object value) {
+        if (value == null || (value instanceof String && ((String) value).trim().isEmpty())) {
+            blankCount++;
+            return;
+        }
+        if (value instanceof Double) {
+            double d = (Double) value;
+            numberCount++;
+            sum += d;
+            min = Math.min(min, d);
+            max = Math.max(max, d);
+        } else if (value instanceof Date) {
+            Date date = (Date) value;
+            dateCount++;
+            if (minDate == null || date.before(minDate)) {
+                minDate = date;
+            }
+            if (maxDate == null || date.after(maxDate)) {
+                maxDate = date;
+            }
+        } else if (value instanceof Boolean) {
+            booleanCount++;
+        } else {
+            textCount++;
+        }
+        countDistinct(ExcelRowCursor.formatValue(value));
+    }
+
+    /**
+     * 补记空白：行数据短于本列时该行不会调用add
+     */
+    void addBlanks(int count) {
+        blankCount += count;
+    }
+
+    int getBlankCount() {
+        return blankCount;
+    }
+
+    int getValueCount() {
+        return numberCount + dateCount + booleanCount + textCount;
+    }
+
+    /**
+     * 推断列类型：全部非空值同类时取该类型，否则为mixed
+     */
+    String inferType() {
+        int values = getValueCount();
+        if (values == 0) {
+            return "empty";
+        }
+        if (numberCount == values) {
+            return "number";
+        }
+        if (dateCount == values) {
+            return "date";
+        }
+        if (booleanCount == values) {
+            return "boolean";
+        }
+        if (textCount == values) {
+            return "text";
+        }
+        return "mixed";
+    }
+
+    /**
+     * 生成一行列描述，例如：
+     * - B Amount: number; 998 values, 2 blank; min 1, max 500, mean 42.5, sum 42415
+     */
+    String describe() {
+        StringBuilder sb = new StringBuilder("- ").append(CellReference.convertNumToColString(columnIndex));
+        if (header != null && !header.isEmpty()) {
+            sb.append(' ').append(header);
+        }
+        String type = inferType();
+        sb.append(": ").append(type).append("; ").append(getValueCount()).append(" values");
+        if (blankCount > 0) {
+            sb.append(", ").append(blankCount).append(" blank");
+        }
+        if (numberCount > 0) {
+            sb.append("; min ").append(formatNumber(min))
+                .append(", max ").append(formatNumber(max))
+                .append(", mean ").append(formatNumber(sum / numberCount))
+                .append(", sum ").append(formatNumber(sum));
+        }
+        if (dateCount > 0) {
+            sb.append("; from ").append(minDate).append(" to ").append(maxDate);
+        }
+        if (!"number".equals(type) && !"date".equals(type) && getValueCount() > 0) {
+            sb.append("; ").append(distinctOverflow ? MAX_DISTINCT + "+" : String.valueOf(distinctValues.size()))
+                .append(" distinct");
+            List<Map.Entry<String, Integer>> top = topValues();
+            if (!top.isEmpty()) {
+                sb.append("; top: ");
+                for (int i = 0; i < top.size(); i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(PromptContextBuilder.truncate(top.get(i).getKey())).append(" (").append(top.get(i).getValue()).append(')');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private void countDistinct(String value) {
+        Integer count = distinctValues.get(value);
+        if (count != null) {
+            distinctValues.put(value, count + 1);
+        } else if (distinctValues.size() < MAX_DISTINCT) {
+            distinctValues.put(value, 1);
+        } else {
+            distinctOverflow = true;
+        }
+    }
+
+    /**
+     * 出现次数最多的几个值，次数相同按值排序以保证输出确定
+     */
+    private List<Map.Entry<String, Integer>> topValues() {
+        List<Map.Entry<String, Integer>> entries = new ArrayList<>(distinctValues.entrySet());
+        entries.sort((a, b) -> a.getValue().equals(b.getValue())
+            ? a.getKey().compareTo(b.getKey()) : b.getValue() - a.getValue());
+        return entries.subList(0, Math.min(TOP_VALUES, entries.size()));
+    }
+
+    private static String formatNumber(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        // 保留6位有效数字，避免统计值占用过多Token
+        return new BigDecimal(value).round(new MathContext(6)).stripTrailingZeros().toPlainString();
+    }
+}
@@ -0,0 +1,315 @@
+package com.example.aiexcel.service.excel.prompt;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import com.example.aiexcel.service.excel.ExcelService;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * AI提示词的表格上下文构建器
+ * 代替把整个工作簿逐行拼成文本：一次流式扫描得到每列的类型和统计（覆盖全部行），
+ * 再在Token预算内附上表头、前几行和确定性采样的代表行，并明确注明总行数与展示行数。
+ * 数据量小于预算时所有行原样保留；同一文件总是生成同一段文本，每次AI调用的大小可预期。
+ */
+@Component
+public class PromptContextBuilder {
+
+    static final int MAX_CELL_LENGTH = 64;
+    // 无论采样与否都优先展示的前几行
+    private static final int HEAD_ROWS = 5;
+    // 固定种子保证采样结果可重复
+    private static final long SAMPLE_SEED = 20240601L;
+
+    private final ExcelService excelService;
+    private final int tokenBudget;
+    private final int sampleRows;
+
+    @Autowired
+    public PromptContextBuilder(ExcelService excelService,
+                                @Value("${ai.prompt.token-budget:6000}") int tokenBudget,
+                                @Value("${ai.prompt.sample-rows:50}") int sampleRows) {
+        this.excelService = excelService;
+        this.tokenBudget = tokenBudget;
+        this.sampleRows = sampleRows;
+    }
+
+    public int getTokenBudget() {
+        return tokenBudget;
+    }
+
+    /**
+     * 从上传文件构建上下文（流式读取，不构建完整工作簿）
+     */
+    public String build(MultipartFile file) throws IOException {
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            return build(cursor);
+        }
+    }
+
+    /**
+     * 从已加载的工作簿构建上下文
+     */
+    public String build(Workbook workbook) {
+        try (ExcelRowCursor cursor = excelService.openRowCursor(workbook)) {
+            return build(cursor);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String build(ExcelRowCursor cursor) throws IOException {
+        List<SheetSummary> sheets = new ArrayList<>();
+        while (cursor.nextSheet()) {
+            sheets.add(readSheet(cursor));
+        }
+        return render(sheets);
+    }
+
+    // ---------- 扫描 ----------
+
+    private SheetSummary readSheet(ExcelRowCursor cursor) throws IOException {
+        SheetSummary sheet = new SheetSummary(cursor.getSheetName());
+        Random random = new Random(SAMPLE_SEED);
+        int seenAfterHead = 0;
+        int keptTokens = 0;
+
+        while (cursor.nextRow()) {
+            Object[] values = cursor.getRowValues();
+            if (sheet.dataRows == 0 && sheet.headerRow < 0 && isHeaderRow(values)) {
+                sheet.headerRow = cursor.getRowIndex();
+                for (int col = 0; col < values.length; col++) {
+                    if (values[col] != null) {
+                        sheet.profile(col).setHeader(truncate(values[col].toString()));
+                    }
+                }
+                continue;
+            }
+
+            sheet.dataRows++;
+            for (int col = 0; col < values.length; col++) {
+                sheet.profile(col).add(values[col]);
+            }
+
+            SampledRow row = new SampledRow(cursor.getRowIndex(), formatRow(cursor.getRowIndex(), values));
+            if (sheet.complete) {
+                // 仍在预算内时保留全部行
+                if (keptTokens + row.tokens <= tokenBudget) {
+                    sheet.head.add(row);
+                    keptTokens += row.tokens;
+                    continue;
+                }
+                // 超出预算，转为"前几行 + 蓄水池采样"，已保留的行按到达顺序重放进蓄水池
+                sheet.complete = false;
+                List<SampledRow> kept = new ArrayList<>(sheet.head);
+                sheet.head.clear();
+                for (SampledRow keptRow : kept) {
+                    if (sheet.head.size() < HEAD_ROWS) {
+                        sheet.head.add(keptRow);
+                    } else {
+                        sample(sheet.sampled, keptRow, ++seenAfterHead, random);
+                    }
+                }
+            }
+            if (sheet.head.size() < HEAD_ROWS) {
+                sheet.head.add(row);
+            } else {
+                sample(sheet.sampled, row, ++seenAfterHead, random);
+            }
+        }
+
+        for (ColumnProfile profile : sheet.columns) {
+            profile.addBlanks(sheet.dataRows - profile.getValueCount() - profile.getBlankCount());
+        }
+        return sheet;
+    }
+
+    private void sample(List<SampledRow> reservoir, SampledRow row, int seen, Random random) {
+        if (reservoir.size() < sampleRows) {
+            reservoir.add(row);
+            return;
+        }
+        int slot = random.nextInt(seen);
+        if (slot < sampleRows) {
+            reservoir.set(slot, row);
+        }
+    }
+
+    /**
+     * 首行全部为非空文本时视为表头
+     */
+    private static boolean isHeaderRow(Object[] values) {
+        int texts = 0;
+        for (Object value : values) {
+            if (value == null) {
+                continue;
+            }
+            if (!(value instanceof String) || ((String) value).trim().isEmpty() || "#ERROR!".equals(value)) {
+                return false;
+            }
+            texts++;
+        }
+        return texts > 0;
+    }
+
+    // ---------- 按预算输出 ----------
+
+    private String render(List<SheetSummary> sheets) {
+        String preamble = "Workbook summary: " + sheets.size() + " sheet(s). Column statistics cover all rows; "
+            + "row numbers are Excel row numbers and only the listed rows are shown verbatim.\n\n";
+        int used = TokenEstimator.estimate(preamble);
+
+        // 第一步：各表的概要和列统计，列过多时截断
+        List<String> profiles = new ArrayList<>(sheets.size());
+        for (SheetSummary sheet : sheets) {
+            StringBuilder sb = new StringBuilder();
+            sb.append("Sheet: ").append(sheet.name).append(" (").append(sheet.dataRows).append(" data rows, ")
+                .append(sheet.columns.size()).append(" columns");
+            if (sheet.headerRow >= 0) {
+                sb.append(", header in row ").append(sheet.headerRow + 1);
+            }
+            sb.append(")\n");
+            used += TokenEstimator.estimate(sb);
+            if (!sheet.columns.isEmpty()) {
+                sb.append("Columns:\n");
+                used += TokenEstimator.estimate("Columns:\n");
+            }
+            for (int col = 0; col < sheet.columns.size(); col++) {
+                String line = sheet.columns.get(col).describe() + "\n";
+                int cost = TokenEstimator.estimate(line);
+                if (used + cost > tokenBudget) {
+                    String note = "- ... " + (sheet.columns.size() - col) + " more columns omitted\n";
+                    sb.append(note);
+                    used += TokenEstimator.estimate(note);
+                    break;
+                }
+                sb.append(line);
+                used += cost;
+            }
+            profiles.add(sb.toString());
+        }
+
+        // 第二步：剩余预算按表平分，某表用不完的额度留给后面的表
+        StringBuilder out = new StringBuilder(preamble);
+        int remaining = Math.max(tokenBudget - used, 0);
+        for (int i = 0; i < sheets.size(); i++) {
+            SheetSummary sheet = sheets.get(i);
+            int allowance = remaining / (sheets.size() - i);
+            List<SampledRow> shown = selectRows(sheet, allowance);
+            int shownTokens = 0;
+            for (SampledRow row : shown) {
+                shownTokens += row.tokens;
+            }
+            remaining -= shownTokens;
+
+            out.append(profiles.get(i));
+            if (sheet.dataRows > 0) {
+                if (shown.size() == sheet.dataRows) {
+                    out.append("All ").append(sheet.dataRows).append(" rows:\n");
+                } else {
+                    out.append("Showing ").append(shown.size()).append(" of ").append(sheet.dataRows)
+                        .append(" rows (first rows and a representative sample):\n");
+                }
+                for (SampledRow row : shown) {
+                    out.append(row.text).append('\n');
+                }
+                if (shown.size() < sheet.dataRows) {
+                    out.append("... ").append(sheet.dataRows - shown.size()).append(" more rows not shown\n");
+                }
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * 在额度内挑选展示的行：先取前几行，再按随机顺序取采样行，最后按行号排序输出
+     */
+    private List<SampledRow> selectRows(SheetSummary sheet, int allowance) {
+        List<SampledRow> candidates = new ArrayList<>(sheet.head.size() + sheet.sampled.size());
+        List<SampledRow> rest = new ArrayList<>();
+        for (SampledRow row : sheet.head) {
+            if (candidates.size() < HEAD_ROWS) {
+                candidates.add(row);
+            } else {
+                rest.add(row);
+            }
+        }
+        rest.addAll(sheet.sampled);
+        // 全量保留的行放不下时，固定种子打乱后取前缀，避免只展示开头的连续行
+        Collections.shuffle(rest, new Random(SAMPLE_SEED));
+        candidates.addAll(rest);
+
+        List<SampledRow> shown = new ArrayList<>();
+        int used = 0;
+        for (SampledRow row : candidates) {
+            if (used + row.tokens > allowance) {
+                continue;
+            }
+            shown.add(row);
+            used += row.tokens;
+        }
+        shown.sort(Comparator.comparingInt(row -> row.rowIndex));
+        return shown;
+    }
+
+    private static String formatRow(int rowIndex, Object[] values) {
+        StringBuilder sb = new StringBuilder("row ").append(rowIndex + 1).append(':');
+        for (Object value : values) {
+            sb.append('\t').append(truncate(ExcelRowCursor.formatValue(value)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 截断过长的单元格文本并去掉制表符和换行，保证一行数据占一行
+     */
+    static String truncate(String text) {
+        String value = text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+        return value.length() > MAX_CELL_LENGTH ? value.substring(0, MAX_CELL_LENGTH) + "..." : value;
+    }
+
+    private static class SheetSummary {
+        final String name;
+        final List<ColumnProfile> columns = new ArrayList<>();
+        // 全量模式下保存所有行，采样模式下只保存前几行
+        final List<SampledRow> head = new ArrayList<>();
+        final List<SampledRow> sampled = new ArrayList<>();
+        boolean complete = true;
+        int headerRow = -1;
+        int dataRows;
+
+        SheetSummary(String name) {
+            this.name = name;
+        }
+
+        ColumnProfile profile(int col) {
+            while (columns.size() <= col) {
+                columns.add(new ColumnProfile(columns.size()));
+            }
+            return columns.get(col);
+        }
+    }
+
+    private static class SampledRow {
+        final int rowIndex;
+        final String text;
+        final int tokens;
+
+        SampledRow(int rowIndex, String text) {
+            this.rowIndex = rowIndex;
+            this.text = text;
+            this.tokens = TokenEstimator.estimate(text) + 1;
+        }
+    }
+}
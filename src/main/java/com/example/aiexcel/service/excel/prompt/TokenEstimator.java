@@ -0,0 +1,51 @@
+package com.example.aiexcel.service.excel.prompt;
+
+/**
+ * 确定性的Token估算器
+ * 不依赖具体模型的分词表，按字符类别近似估算，同一文本总是得到同一结果，且偏保守（宁多勿少）：
+ * 连续英文字母每4个字符计1个，连续数字每3个字符计1个，中日韩等宽字符每个计1个，
+ * 其他标点符号、制表符和换行各计1个，空格不计。
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            if (isAsciiLetter(c)) {
+                int start = i;
+                while (i < length && isAsciiLetter(text.charAt(i))) {
+                    i++;
+                }
+                tokens += (i - start + 3) / 4;
+            } else if (c >= '0' && c <= '9') {
+                int start = i;
+                while (i < length && text.charAt(i) >= '0' && text.charAt(i) <= '9') {
+                    i++;
+                }
+                tokens += (i - start + 2) / 3;
+            } else if (c == ' ') {
+                i++;
+            } else {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    i++;
+                }
+                tokens++;
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.aiexcel.service.excel.session;
+
+import com.example.aiexcel.service.excel.SheetRowIndex;
+import org.apache.poi.ss.usermodel.Workbook;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 工作簿会话：一次上传、解析后的工作簿，由WorkbookSessionStore管理
+ * 工作簿可能常驻内存，也可能已溢出到磁盘，下次访问时重新加载。
+ * 对工作簿的所有访问都在会话锁内进行，POI工作簿本身不是线程安全的。
+ */
+public class WorkbookSession {
+
+    private final String id;
+    private final String fileName;
+    private final long createdAt;
+    private final Path spillFile;
+    final ReentrantLock lock = new ReentrantLock();
+
+    // 以下字段在持有lock时修改
+    volatile Workbook workbook;
+    long estimatedBytes;
+    boolean closed;
+    // 各工作表的行索引和其他派生数据，工作簿可能被修改或被重新加载时清空
+    private final Map<Integer, SheetRowIndex> rowIndexes = new HashMap<>();
+    private final Map<String, Object> derivedData = new HashMap<>();
+
+    private volatile long lastAccessTime;
+
+    WorkbookSession(String id, String fileName, long createdAt, Path spillFile) {
+        this.id = id;
+        this.fileName = fileName;
+        this.createdAt = createdAt;
+        this.spillFile = spillFile;
+        this.lastAccessTime = createdAt;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+
+    /**
+     * 工作簿当前是否在内存中
+     */
+    public boolean isResident() {
+        return workbook != null;
+    }
+
+    /**
+     * 常驻内存时的估算占用字节数
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * 工作表的行索引，首次访问时建立，之后在工作簿未被修改期间复用
+     * 只能在WorkbookSessionStore的回调内（持有会话锁时）调用。
+     */
+    public SheetRowIndex getRowIndex(int sheetIndex) {
+        checkAccess();
+        return rowIndexes.computeIfAbsent(sheetIndex, index -> SheetRowIndex.build(workbook.getSheetAt(index)));
+    }
+
+    /**
+     * 由工作簿内容派生的数据（如筛选用的列式数据帧），首次访问时由loader建立，之后在工作簿未被修改期间复用
+     * 只能在WorkbookSessionStore的回调内（持有会话锁时）调用；同一个key必须总是对应同一类型。
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getDerivedData(String key, WorkbookSessionStore.WorkbookCallback<T> loader) throws IOException {
+        checkAccess();
+        Object value = derivedData.get(key);
+        if (value == null) {
+            value = loader.apply(workbook);
+            derivedData.put(key, value);
+        }
+        return (T) value;
+    }
+
+    private void checkAccess() {
+        if (!lock.isHeldByCurrentThread() || workbook == null) {
+            throw new IllegalStateException("Workbook session " + id + " is not accessed by the current thread");
+        }
+    }
+
+    void invalidateDerivedData() {
+        rowIndexes.clear();
+        derivedData.clear();
+    }
+
+    Path getSpillFile() {
+        return spillFile;
+    }
+
+    void touch(long now) {
+        lastAccessTime = now;
+    }
+}
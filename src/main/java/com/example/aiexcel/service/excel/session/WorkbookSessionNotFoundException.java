@@ -0,0 +1,11 @@
+package com.example.aiexcel.service.excel.session;
+
+/**
+ * 会话ID不存在、已过期或已被删除
+ */
+public class WorkbookSessionNotFoundException extends RuntimeException {
+
+    public WorkbookSessionNotFoundException(String sessionId) {
+        super("Workbook session not found or expired: " + sessionId);
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.aiexcel.service.excel.session;
+
+import com.example.aiexcel.service.excel.EvaluationScope;
+import com.example.aiexcel.service.excel.ExcelService;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * 工作簿会话存储
+ * 文件上传一次并解析为工作簿，之后各接口凭会话ID直接访问已解析的工作簿，不再重复上传和解析。
+ * 常驻内存的工作簿总量按估算字节数设上限，超出时把最久未访问的工作簿写入磁盘并释放，
+ * 下次访问时再从磁盘加载；空闲超过超时时间的会话整体删除。
+ */
+@Component
+public class WorkbookSessionStore implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WorkbookSessionStore.class);
+
+    /**
+     * 每个物理单元格的估算内存占用（单元格对象及其XML节点），用于粗略估算工作簿大小
+     */
+    private static final long BYTES_PER_CELL = 512;
+
+    private static final String SPILL_FILE_PREFIX = "session-";
+
+    private final ExcelService excelService;
+    private final long maxResidentBytes;
+    private final long idleTimeoutMillis;
+    private final Path spillDirectory;
+    private final LongSupplier clock;
+    private final ConcurrentMap<String, WorkbookSession> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong residentBytes = new AtomicLong();
+    private ScheduledExecutorService cleaner;
+
+    @Autowired
+    public WorkbookSessionStore(ExcelService excelService,
+                                @Value("${excel.session.max-memory-mb:256}") long maxMemoryMb,
+                                @Value("${excel.session.idle-timeout-seconds:1800}") long idleTimeoutSeconds,
+                                @Value("${excel.session.spill-dir:}") String spillDir) {
+        this(excelService, maxMemoryMb * 1024 * 1024, Duration.ofSeconds(idleTimeoutSeconds),
+            spillDir.isEmpty() ? Path.of(System.getProperty("java.io.tmpdir"), "ai-excel-sessions") : Path.of(spillDir),
+            System::currentTimeMillis);
+        deleteStaleSpillFiles();
+
+        long period = Math.max(1, Math.min(60, idleTimeoutSeconds));
+        cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "workbook-session-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(this::evictIdleSessions, period, period, TimeUnit.SECONDS);
+        logger.info("Workbook session store: maxMemoryMb={}, idleTimeoutSeconds={}, spillDir={}",
+            maxMemoryMb, idleTimeoutSeconds, spillDirectory);
+    }
+
+    /**
+     * 不启动后台清理线程，空闲淘汰需显式调用evictIdleSessions
+     * @param clock 毫秒时钟，测试时可替换
+     */
+    public WorkbookSessionStore(ExcelService excelService, long maxResidentBytes, Duration idleTimeout,
+                                Path spillDirectory, LongSupplier clock) {
+        this.excelService = excelService;
+        this.maxResidentBytes = maxResidentBytes;
+        this.idleTimeoutMillis = idleTimeout.toMillis();
+        this.spillDirectory = spillDirectory;
+        this.clock = clock;
+    }
+
+    /**
+     * 对会话中工作簿的操作，可抛出IOException
+     */
+    @FunctionalInterface
+    public interface WorkbookCallback<T> {
+        T apply(Workbook workbook) throws IOException;
+    }
+
+    /**
+     * 解析上传的文件并创建会话
+     */
+    public WorkbookSession create(MultipartFile file) throws IOException {
+        Workbook workbook = excelService.loadWorkbook(file);
+        String id = UUID.randomUUID().toString();
+        WorkbookSession session = new WorkbookSession(id, file.getOriginalFilename(), clock.getAsLong(),
+            spillDirectory.resolve(SPILL_FILE_PREFIX + id));
+        session.workbook = workbook;
+        session.estimatedBytes = estimateBytes(workbook, file.getSize());
+        residentBytes.addAndGet(session.estimatedBytes);
+        sessions.put(id, session);
+        logger.info("Created workbook session {} for file {} (~{} KB)", id, session.getFileName(),
+            session.estimatedBytes / 1024);
+
+        enforceMemoryBudget(session);
+        return session;
+    }
+
+    /**
+     * 对会话及其工作簿的只读操作，可抛出IOException
+     */
+    @FunctionalInterface
+    public interface SessionCallback<T> {
+        T apply(WorkbookSession session, Workbook workbook) throws IOException;
+    }
+
+    /**
+     * 在会话锁内访问工作簿；工作簿已溢出到磁盘时先重新加载
+     * 回调对工作簿的修改保留在会话中，后续请求可见；会话缓存的行索引随之作废。
+     */
+    public <T> T withWorkbook(String sessionId, WorkbookCallback<T> callback) throws IOException {
+        return access(sessionId, true, (session, workbook) -> callback.apply(workbook));
+    }
+
+    /**
+     * 在会话锁内只读访问工作簿，回调不得修改工作簿
+     * 会话缓存的行索引保持有效，可通过WorkbookSession.getRowIndex复用。
+     */
+    public <T> T readWorkbook(String sessionId, SessionCallback<T> callback) throws IOException {
+        return access(sessionId, false, callback);
+    }
+
+    private <T> T access(String sessionId, boolean mayModify, SessionCallback<T> callback) throws IOException {
+        WorkbookSession session = getSession(sessionId);
+        session.lock.lock();
+        try {
+            if (session.closed) {
+                throw new WorkbookSessionNotFoundException(sessionId);
+            }
+            session.touch(clock.getAsLong());
+            if (session.workbook == null) {
+                reload(session);
+            }
+            if (mayModify) {
+                session.invalidateDerivedData();
+            }
+            // 回调内对工作簿的读写共享一个公式计算上下文（回调可能不在请求线程中，如流式响应）
+            try (EvaluationScope scope = excelService.openEvaluationScope()) {
+                return callback.apply(session, session.workbook);
+            }
+        } finally {
+            session.lock.unlock();
+            enforceMemoryBudget(session);
+        }
+    }
+
+    public WorkbookSession getSession(String sessionId) {
+        WorkbookSession session = sessionId == null ? null : sessions.get(sessionId);
+        if (session == null) {
+            throw new WorkbookSessionNotFoundException(sessionId);
+        }
+        return session;
+    }
+
+    /**
+     * 删除会话，释放内存并删除溢出文件
+     * @return 会话是否存在
+     */
+    public boolean remove(String sessionId) {
+        WorkbookSession session = sessions.remove(sessionId);
+        if (session == null) {
+            return false;
+        }
+        session.lock.lock();
+        try {
+            discard(session);
+        } finally {
+            session.lock.unlock();
+        }
+        logger.info("Removed workbook session {}", sessionId);
+        return true;
+    }
+
+    /**
+     * 删除空闲超时的会话；正在被使用的会话跳过
+     * @return 删除的会话数
+     */
+    public int evictIdleSessions() {
+        long cutoff = clock.getAsLong() - idleTimeoutMillis;
+        int evicted = 0;
+        for (WorkbookSession session : sessions.values()) {
+            if (session.getLastAccessTime() > cutoff || !session.lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (session.getLastAccessTime() <= cutoff && sessions.remove(session.getId(), session)) {
+                    discard(session);
+                    evicted++;
+                }
+            } finally {
+                session.lock.unlock();
+            }
+        }
+        if (evicted > 0) {
+            logger.info("Evicted {} idle workbook sessions", evicted);
+        }
+        return evicted;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 常驻内存的工作簿估算总字节数
+     */
+    public long getResidentBytes() {
+        return residentBytes.get();
+    }
+
+    @Override
+    public void close() {
+        if (cleaner != null) {
+            cleaner.shutdownNow();
+        }
+        for (String sessionId : new ArrayList<>(sessions.keySet())) {
+            remove(sessionId);
+        }
+    }
+
+    /**
+     * 超出内存上限时按最久未访问的顺序把工作簿溢出到磁盘
+     * 正在被其他请求使用的会话和刚访问的会话不溢出。
+     */
+    private void enforceMemoryBudget(WorkbookSession current) {
+        if (residentBytes.get() <= maxResidentBytes) {
+            return;
+        }
+        List<WorkbookSession> candidates = new ArrayList<>();
+        for (WorkbookSession session : sessions.values()) {
+            if (session != current && session.isResident()) {
+                candidates.add(session);
+            }
+        }
+        candidates.sort(Comparator.comparingLong(WorkbookSession::getLastAccessTime));
+
+        for (WorkbookSession session : candidates) {
+            if (residentBytes.get() <= maxResidentBytes) {
+                break;
+            }
+            if (!session.lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (!session.closed && session.workbook != null) {
+                    spill(session);
+                }
+            } catch (IOException e) {
+                logger.warn("Failed to spill workbook session {}: {}", session.getId(), e.getMessage());
+            } finally {
+                session.lock.unlock();
+            }
+        }
+    }
+
+    private void spill(WorkbookSession session) throws IOException {
+        Files.createDirectories(spillDirectory);
+        try (OutputStream out = Files.newOutputStream(session.getSpillFile())) {
+            session.workbook.write(out);
+        }
+        long released = session.estimatedBytes;
+        release(session);
+        logger.debug("Spilled workbook session {} to disk (~{} KB released)", session.getId(), released / 1024);
+    }
+
+    private void reload(WorkbookSession session) throws IOException {
+        Path spillFile = session.getSpillFile();
+        long fileSize = Files.size(spillFile);
+        Workbook workbook;
+        try (InputStream in = Files.newInputStream(spillFile)) {
+            workbook = excelService.loadWorkbook(in);
+        }
+        // 重新加载后工作簿可能再被修改，溢出文件作废，下次溢出时重写
+        Files.deleteIfExists(spillFile);
+        session.workbook = workbook;
+        session.estimatedBytes = estimateBytes(workbook, fileSize);
+        residentBytes.addAndGet(session.estimatedBytes);
+        logger.debug("Reloaded workbook session {} from disk", session.getId());
+    }
+
+    private void discard(WorkbookSession session) {
+        session.closed = true;
+        release(session);
+        try {
+            Files.deleteIfExists(session.getSpillFile());
+        } catch (IOException e) {
+            logger.warn("Failed to delete spill file for workbook session {}: {}", session.getId(), e.getMessage());
+        }
+    }
+
+    private void release(WorkbookSession session) {
+        if (session.workbook == null) {
+            return;
+        }
+        try {
+            session.workbook.close();
+        } catch (IOException e) {
+            logger.debug("Error closing workbook of session {}: {}", session.getId(), e.getMessage());
+        }
+        session.workbook = null;
+        session.invalidateDerivedData();
+        residentBytes.addAndGet(-session.estimatedBytes);
+        session.estimatedBytes = 0;
+    }
+
+    private static long estimateBytes(Workbook workbook, long sourceBytes) {
+        long cells = 0;
+        for (Sheet sheet : workbook) {
+            for (Row row : sheet) {
+                cells += row.getPhysicalNumberOfCells();
+            }
+        }
+        return sourceBytes + cells * BYTES_PER_CELL;
+    }
+
+    /**
+     * 上次运行留下的溢出文件对应的会话已不存在，启动时清理
+     */
+    private void deleteStaleSpillFiles() {
+        if (!Files.isDirectory(spillDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(spillDirectory, SPILL_FILE_PREFIX + "*")) {
+            for (Path path : stale) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to clean spill directory {}: {}", spillDirectory, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.aiexcel.service.excel.sort;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import com.example.aiexcel.service.excel.ValueWorkbookWriter;
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+import org.apache.poi.ss.util.CellReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 本地排序引擎
+ * 从行游标读取工作表数据到列式数据帧，对行下标数组按基本类型的排序键做稳定排序，不对行对象排序。
+ * 数据帧的估算大小超过内存预算时切换为外部排序：每读满一个预算的数据就排序并写入临时文件，
+ * 最后对各分块做多路归并；排序结果逐行读取，输出时内存占用与行数无关。
+ */
+@Component
+public class ExcelSorter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExcelSorter.class);
+
+    /**
+     * 每读取这么多行检查一次内存预算
+     */
+    private static final int BUDGET_CHECK_ROWS = 1024;
+
+    private final long memoryBudgetBytes;
+    private final Path spillDirectory;
+
+    @Autowired
+    public ExcelSorter(@Value("${excel.sort.memory-budget-mb:64}") long memoryBudgetMb,
+                       @Value("${excel.sort.spill-dir:}") String spillDir) {
+        this(memoryBudgetMb * 1024 * 1024,
+            spillDir.isEmpty() ? Path.of(System.getProperty("java.io.tmpdir"), "ai-excel-sort") : Path.of(spillDir));
+    }
+
+    /**
+     * @param memoryBudgetBytes 内存排序允许的数据帧大小，超过后使用外部归并
+     * @param spillDirectory 外部归并的临时文件目录
+     */
+    public ExcelSorter(long memoryBudgetBytes, Path spillDirectory) {
+        this.memoryBudgetBytes = memoryBudgetBytes;
+        this.spillDirectory = spillDirectory;
+    }
+
+    /**
+     * 对游标当前工作表的剩余行排序（调用前游标应已定位到该工作表）
+     * @param hasHeader 第一行是否为表头；表头不参与排序，可按表头文本指定排序列
+     * @param keys 排序键，按优先级排列
+     * @throws IllegalArgumentException 排序列不存在时
+     */
+    public SortedRows sort(ExcelRowCursor cursor, boolean hasHeader, List<SortKey> keys) throws IOException {
+        String sheetName = cursor.getSheetName();
+        Object[] headerValues = null;
+        SheetFrame.Builder headerFrame = new SheetFrame.Builder(sheetName);
+        if (hasHeader && cursor.nextRow()) {
+            headerValues = cursor.getRowValues();
+            headerFrame.setHeader(cursor.getRowIndex(), headerValues);
+        }
+        // 先按表头解析排序列，列名错误时不读取数据
+        RowOrdering ordering = resolve(headerFrame.build(), keys);
+
+        List<SpillFile> chunks = new ArrayList<>();
+        try {
+            SheetFrame.Builder chunk = new SheetFrame.Builder(sheetName);
+            int width = headerValues != null ? headerValues.length : 0;
+            int rowCount = 0;
+            while (cursor.nextRow()) {
+                Object[] values = cursor.getRowValues();
+                chunk.addRow(cursor.getRowIndex(), values);
+                width = Math.max(width, values.length);
+                rowCount++;
+                if (chunk.getRowCount() % BUDGET_CHECK_ROWS == 0 && chunk.estimateBytes() > memoryBudgetBytes) {
+                    chunks.add(spill(chunk.build(), ordering));
+                    chunk = new SheetFrame.Builder(sheetName);
+                }
+            }
+            SheetFrame last = chunk.build();
+            String[] headers = toHeaders(headerValues, width);
+            if (chunks.isEmpty()) {
+                return new FrameRows(last, ordering.sort(last), headers, headerValues != null);
+            }
+            if (last.getRowCount() > 0) {
+                chunks.add(spill(last, ordering));
+            }
+            logger.info("External sort of sheet '{}': {} rows in {} chunks, keys={}",
+                sheetName, rowCount, chunks.size(), keys);
+            return new MergedRows(sheetName, headers, headerValues != null, rowCount, chunks, ordering);
+        } catch (IOException | RuntimeException e) {
+            chunks.forEach(SpillFile::delete);
+            throw e;
+        }
+    }
+
+    private RowOrdering resolve(SheetFrame headerFrame, List<SortKey> keys) {
+        if (keys.isEmpty()) {
+            throw new IllegalArgumentException("Sort column is required");
+        }
+        int[] columns = new int[keys.size()];
+        boolean[] ascending = new boolean[keys.size()];
+        for (int i = 0; i < columns.length; i++) {
+            columns[i] = headerFrame.resolveColumnIndex(keys.get(i).getColumn());
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException("Unknown sort column: " + keys.get(i).getColumn());
+            }
+            ascending[i] = keys.get(i).isAscending();
+        }
+        return new RowOrdering(columns, ascending);
+    }
+
+    private SpillFile spill(SheetFrame chunk, RowOrdering ordering) throws IOException {
+        return SpillFile.write(spillDirectory, chunk, ordering.sort(chunk));
+    }
+
+    private static String[] toHeaders(Object[] headerValues, int width) {
+        String[] headers = new String[width];
+        for (int i = 0; i < width; i++) {
+            String header = headerValues != null && i < headerValues.length
+                ? ExcelRowCursor.formatValue(headerValues[i]).trim() : "";
+            headers[i] = header.isEmpty() ? CellReference.convertNumToColString(i) : header;
+        }
+        return headers;
+    }
+
+    /**
+     * 把排序结果写成只有一个工作表的XLSX，有表头时表头保留在第一行
+     */
+    public void writeWorkbook(SortedRows rows, OutputStream out) throws IOException {
+        ValueWorkbookWriter.write(rows.getSheetName(), rows.hasHeaderRow() ? rows.getHeaders() : null,
+            () -> rows.next() ? rows.getValues() : null, out);
+    }
+
+    /**
+     * 内存排序的结果：数据帧加排序后的行下标
+     */
+    private static final class FrameRows implements SortedRows {
+
+        private final SheetFrame frame;
+        private final int[] order;
+        private final String[] headers;
+        private final boolean hasHeaderRow;
+        private int position = -1;
+
+        private FrameRows(SheetFrame frame, int[] order, String[] headers, boolean hasHeaderRow) {
+            this.frame = frame;
+            this.order = order;
+            this.headers = headers;
+            this.hasHeaderRow = hasHeaderRow;
+        }
+
+        @Override
+        public String getSheetName() {
+            return frame.getSheetName();
+        }
+
+        @Override
+        public String[] getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public boolean hasHeaderRow() {
+            return hasHeaderRow;
+        }
+
+        @Override
+        public int getRowCount() {
+            return order.length;
+        }
+
+        @Override
+        public boolean isExternal() {
+            return false;
+        }
+
+        @Override
+        public boolean next() {
+            return ++position < order.length;
+        }
+
+        @Override
+        public int getRowNumber() {
+            return frame.getRowNumber(order[position]);
+        }
+
+        @Override
+        public Object[] getValues() {
+            return frame.getRow(order[position]);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * 外部排序的结果：对已排序的分块做多路归并
+     * 键相等时取分块序号小的行，分块按读取顺序编号且各自稳定排序，因此整体仍是稳定排序。
+     */
+    private static final class MergedRows implements SortedRows {
+
+        private final String sheetName;
+        private final String[] headers;
+        private final boolean hasHeaderRow;
+        private final int rowCount;
+        private final List<SpillFile> chunks;
+        private final RowOrdering ordering;
+        private PriorityQueue<ChunkHead> heads;
+        private final List<SpillFile.Reader> readers = new ArrayList<>();
+        private ChunkHead current;
+
+        private MergedRows(String sheetName, String[] headers, boolean hasHeaderRow, int rowCount,
+                           List<SpillFile> chunks, RowOrdering ordering) {
+            this.sheetName = sheetName;
+            this.headers = headers;
+            this.hasHeaderRow = hasHeaderRow;
+            this.rowCount = rowCount;
+            this.chunks = chunks;
+            this.ordering = ordering;
+        }
+
+        @Override
+        public String getSheetName() {
+            return sheetName;
+        }
+
+        @Override
+        public String[] getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public boolean hasHeaderRow() {
+            return hasHeaderRow;
+        }
+
+        @Override
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        @Override
+        public boolean isExternal() {
+            return true;
+        }
+
+        @Override
+        public boolean next() throws IOException {
+            if (heads == null) {
+                heads = new PriorityQueue<>(Math.max(1, chunks.size()), (left, right) -> {
+                    int compared = ordering.compareRows(left.reader.getValues(), right.reader.getValues());
+                    return compared != 0 ? compared : Integer.compare(left.chunkIndex, right.chunkIndex);
+                });
+                for (int i = 0; i < chunks.size(); i++) {
+                    SpillFile.Reader reader = chunks.get(i).open();
+                    readers.add(reader);
+                    if (reader.next()) {
+                        heads.add(new ChunkHead(i, reader));
+                    }
+                }
+            } else if (current != null && current.reader.next()) {
+                heads.add(current);
+            }
+            current = heads.poll();
+            return current != null;
+        }
+
+        @Override
+        public int getRowNumber() {
+            return current.reader.getRowNumber();
+        }
+
+        @Override
+        public Object[] getValues() {
+            return current.reader.getValues();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                for (SpillFile.Reader reader : readers) {
+                    reader.close();
+                }
+            } finally {
+                chunks.forEach(SpillFile::delete);
+            }
+        }
+    }
+
+    private static final class ChunkHead {
+
+        private final int chunkIndex;
+        private final SpillFile.Reader reader;
+
+        private ChunkHead(int chunkIndex, SpillFile.Reader reader) {
+            this.chunkIndex = chunkIndex;
+            this.reader = reader;
+        }
+    }
+}
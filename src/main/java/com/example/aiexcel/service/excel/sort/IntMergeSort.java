@@ -0,0 +1,66 @@
+package com.example.aiexcel.service.excel.sort;
+
+/**
+ * int数组的稳定归并排序，用于对行号排列排序
+ * 比较器直接读取基本类型的排序键数组，排序过程中不创建装箱对象；相等的元素保持原有顺序。
+ */
+final class IntMergeSort {
+
+    private static final int INSERTION_THRESHOLD = 32;
+
+    @FunctionalInterface
+    interface IntComparator {
+        int compare(int left, int right);
+    }
+
+    private IntMergeSort() {
+    }
+
+    static void sort(int[] values, IntComparator comparator) {
+        if (values.length < 2) {
+            return;
+        }
+        int[] buffer = values.clone();
+        // buffer和values内容相同，交替作为来源和目标，省去每层的复制
+        mergeSort(buffer, values, 0, values.length, comparator);
+    }
+
+    /**
+     * 把source[from, to)排序后写入target[from, to)
+     */
+    private static void mergeSort(int[] source, int[] target, int from, int to, IntComparator comparator) {
+        if (to - from <= INSERTION_THRESHOLD) {
+            insertionSort(target, from, to, comparator);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(target, source, from, middle, comparator);
+        mergeSort(target, source, middle, to, comparator);
+        // 两半已有序且首尾衔接时直接复制
+        if (comparator.compare(source[middle - 1], source[middle]) <= 0) {
+            System.arraycopy(source, from, target, from, to - from);
+            return;
+        }
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && comparator.compare(source[left], source[right]) <= 0)) {
+                target[i] = source[left++];
+            } else {
+                target[i] = source[right++];
+            }
+        }
+    }
+
+    private static void insertionSort(int[] values, int from, int to, IntComparator comparator) {
+        for (int i = from + 1; i < to; i++) {
+            int value = values[i];
+            int j = i - 1;
+            while (j >= from && comparator.compare(values[j], value) > 0) {
+                values[j + 1] = values[j];
+                j--;
+            }
+            values[j + 1] = value;
+        }
+    }
+}
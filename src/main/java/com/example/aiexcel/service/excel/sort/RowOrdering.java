@@ -0,0 +1,174 @@
+package com.example.aiexcel.service.excel.sort;
+
+import com.example.aiexcel.service.excel.frame.ColumnType;
+import com.example.aiexcel.service.excel.frame.FrameColumn;
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+
+import java.util.Comparator;
+import java.util.Date;
+
+/**
+ * 与Excel一致的排序规则
+ * <ul>
+ *   <li>升序时数值（含日期）在前，其次文本，最后布尔（false在true前）；降序时整体反转</li>
+ *   <li>文本忽略大小写比较，相同时再区分大小写</li>
+ *   <li>空单元格无论升降序都排在最后</li>
+ *   <li>所有键都相等的行保持原有顺序（稳定排序）</li>
+ * </ul>
+ * 内存排序从SheetFrame抽取基本类型的排序键（类别 + double值），外部归并比较还原出的行值，两者结果一致。
+ */
+final class RowOrdering {
+
+    static final byte NUMBER = 0;
+    static final byte TEXT = 1;
+    static final byte BOOLEAN = 2;
+    static final byte BLANK = 3;
+
+    private static final Comparator<String> TEXT_ORDER =
+        String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+
+    private final int[] columns;
+    private final boolean[] ascending;
+
+    /**
+     * @param columns 排序列的列索引，按优先级排列
+     * @param ascending 对应列是否升序
+     */
+    RowOrdering(int[] columns, boolean[] ascending) {
+        this.columns = columns;
+        this.ascending = ascending;
+    }
+
+    /**
+     * 对数据帧的行排序，返回排序后的帧内行下标
+     */
+    int[] sort(SheetFrame frame) {
+        int rowCount = frame.getRowCount();
+        int keyCount = 0;
+        byte[][] classes = new byte[columns.length][];
+        double[][] values = new double[columns.length][];
+        boolean[] keyAscending = new boolean[columns.length];
+        for (int k = 0; k < columns.length; k++) {
+            // 没有数据的列所有行都是空值，不影响顺序
+            if (columns[k] >= frame.getColumnCount()) {
+                continue;
+            }
+            FrameColumn column = frame.getColumn(columns[k]);
+            if (column.getType() == ColumnType.EMPTY) {
+                continue;
+            }
+            classes[keyCount] = new byte[rowCount];
+            values[keyCount] = new double[rowCount];
+            extractKeys(column, classes[keyCount], values[keyCount]);
+            keyAscending[keyCount] = ascending[k];
+            keyCount++;
+        }
+
+        int[] order = new int[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            order[i] = i;
+        }
+        int keys = keyCount;
+        IntMergeSort.sort(order, (left, right) -> {
+            for (int k = 0; k < keys; k++) {
+                int compared = compareKeys(classes[k][left], values[k][left],
+                    classes[k][right], values[k][right], keyAscending[k]);
+                if (compared != 0) {
+                    return compared;
+                }
+            }
+            return 0;
+        });
+        return order;
+    }
+
+    /**
+     * 把一列转换为排序键：文本取字典中的排序名次，日期取毫秒时间戳，布尔取0/1
+     */
+    private static void extractKeys(FrameColumn column, byte[] classes, double[] values) {
+        int[] ranks = column.getDictionary() != null ? column.getDictionary().sortRanks() : null;
+        for (int row = 0; row < classes.length; row++) {
+            switch (column.kindAt(row)) {
+                case NUMBER:
+                case DATE:
+                    classes[row] = NUMBER;
+                    values[row] = column.getNumber(row);
+                    break;
+                case TEXT:
+                    classes[row] = TEXT;
+                    values[row] = ranks[column.getCode(row)];
+                    break;
+                case BOOLEAN:
+                    classes[row] = BOOLEAN;
+                    values[row] = column.getBoolean(row) ? 1 : 0;
+                    break;
+                default:
+                    classes[row] = BLANK;
+                    break;
+            }
+        }
+    }
+
+    private static int compareKeys(byte leftClass, double leftValue, byte rightClass, double rightValue,
+                                   boolean ascending) {
+        if (leftClass != rightClass) {
+            if (leftClass == BLANK) {
+                return 1;
+            }
+            if (rightClass == BLANK) {
+                return -1;
+            }
+            return ascending ? leftClass - rightClass : rightClass - leftClass;
+        }
+        if (leftClass == BLANK) {
+            return 0;
+        }
+        int compared = Double.compare(leftValue, rightValue);
+        return ascending ? compared : -compared;
+    }
+
+    /**
+     * 比较两行的值，规则与sort相同，用于归并已排序的分块
+     */
+    int compareRows(Object[] left, Object[] right) {
+        for (int k = 0; k < columns.length; k++) {
+            Object leftValue = columns[k] < left.length ? left[columns[k]] : null;
+            Object rightValue = columns[k] < right.length ? right[columns[k]] : null;
+            byte leftClass = classOf(leftValue);
+            byte rightClass = classOf(rightValue);
+            int compared;
+            if (leftClass != rightClass || leftClass == BLANK) {
+                compared = compareKeys(leftClass, 0, rightClass, 0, ascending[k]);
+            } else if (leftClass == TEXT) {
+                compared = TEXT_ORDER.compare((String) leftValue, (String) rightValue);
+                compared = ascending[k] ? compared : -compared;
+            } else {
+                compared = compareKeys(leftClass, numberOf(leftValue), rightClass, numberOf(rightValue), ascending[k]);
+            }
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return 0;
+    }
+
+    private static byte classOf(Object value) {
+        if (value == null || "".equals(value)) {
+            return BLANK;
+        }
+        if (value instanceof Double || value instanceof Date) {
+            return NUMBER;
+        }
+        return value instanceof Boolean ? BOOLEAN : TEXT;
+    }
+
+    private static double numberOf(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).getTime();
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        return (Double) value;
+    }
+}
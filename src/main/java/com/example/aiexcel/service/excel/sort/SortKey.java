@@ -0,0 +1,88 @@
+package com.example.aiexcel.service.excel.sort;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 一个排序键：列（表头文本或列字母）和方向
+ */
+public final class SortKey {
+
+    private final String column;
+    private final boolean ascending;
+
+    public SortKey(String column, boolean ascending) {
+        this.column = column;
+        this.ascending = ascending;
+    }
+
+    /**
+     * 解析请求参数中的多列排序
+     * @param columns 逗号分隔的列，如"Region,Amount"或"A,C"
+     * @param orders 逗号分隔的方向，与列一一对应；只给一个时用于所有列，为空时按升序
+     */
+    public static List<SortKey> parse(String columns, String orders) {
+        if (columns == null || columns.trim().isEmpty()) {
+            throw new IllegalArgumentException("Sort column is required");
+        }
+        String[] names = columns.split(",");
+        String[] directions = orders == null || orders.trim().isEmpty() ? new String[0] : orders.split(",");
+        if (directions.length > 1 && directions.length != names.length) {
+            throw new IllegalArgumentException("Expected " + names.length + " sort orders but got " + directions.length);
+        }
+        List<SortKey> keys = new ArrayList<>(names.length);
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty sort column in: " + columns);
+            }
+            String direction = directions.length == 0 ? null : directions[directions.length == 1 ? 0 : i];
+            keys.add(new SortKey(name, parseAscending(direction)));
+        }
+        return keys;
+    }
+
+    /**
+     * 解析排序方向，支持asc/ascending/升序和desc/descending/降序，为空时按升序
+     */
+    public static boolean parseAscending(String order) {
+        if (order == null || order.trim().isEmpty()) {
+            return true;
+        }
+        switch (order.trim().toLowerCase(Locale.ROOT)) {
+            case "asc":
+            case "ascending":
+            case "升序":
+                return true;
+            case "desc":
+            case "descending":
+            case "降序":
+                return false;
+            default:
+                throw new IllegalArgumentException("Unknown sort order: " + order);
+        }
+    }
+
+    public String getColumn() {
+        return column;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("column", column);
+        map.put("order", ascending ? "asc" : "desc");
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return column + (ascending ? " asc" : " desc");
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.aiexcel.service.excel.sort;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 排序结果，按排序后的顺序逐行读取
+ * 外部归并时数据在临时文件中，使用完必须close以删除临时文件。
+ */
+public interface SortedRows extends Closeable {
+
+    String getSheetName();
+
+    /**
+     * 各列表头，没有表头行或表头为空的列使用列字母
+     */
+    String[] getHeaders();
+
+    /**
+     * 排序时是否把第一行作为表头（表头不参与排序）
+     */
+    boolean hasHeaderRow();
+
+    /**
+     * 数据行数（不含表头）
+     */
+    int getRowCount();
+
+    /**
+     * 是否因超出内存预算而使用了磁盘外部归并
+     */
+    boolean isExternal();
+
+    /**
+     * 移动到下一行，没有更多行时返回false
+     */
+    boolean next() throws IOException;
+
+    /**
+     * 当前行在原工作表中的行号（从0开始）
+     */
+    int getRowNumber();
+
+    /**
+     * 当前行的值：Double、Date、Boolean或String，空值为null
+     */
+    Object[] getValues();
+
+    @Override
+    void close() throws IOException;
+}
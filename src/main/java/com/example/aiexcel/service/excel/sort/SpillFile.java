@@ -0,0 +1,162 @@
+package com.example.aiexcel.service.excel.sort;
+
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+/**
+ * 外部排序中一个已排序分块的临时文件
+ * 每行依次写出：原行号、值个数、每个值的类型标记和内容（去掉行尾的空值）。
+ */
+final class SpillFile {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte NULL = 0;
+    private static final byte NUMBER = 1;
+    private static final byte DATE = 2;
+    private static final byte BOOLEAN = 3;
+    private static final byte TEXT = 4;
+
+    private final Path path;
+    private final int rowCount;
+
+    private SpillFile(Path path, int rowCount) {
+        this.path = path;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * 按order给出的顺序把数据帧的行写入新的临时文件
+     */
+    static SpillFile write(Path directory, SheetFrame frame, int[] order) throws IOException {
+        Files.createDirectories(directory);
+        Path path = Files.createTempFile(directory, "sort-", ".chunk");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE))) {
+            for (int row : order) {
+                out.writeInt(frame.getRowNumber(row));
+                Object[] values = frame.getRow(row);
+                int width = values.length;
+                while (width > 0 && values[width - 1] == null) {
+                    width--;
+                }
+                out.writeInt(width);
+                for (int i = 0; i < width; i++) {
+                    writeValue(out, values[i]);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+        return new SpillFile(path, order.length);
+    }
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Double) {
+            out.writeByte(NUMBER);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Date) {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else {
+            // 不用writeUTF：单元格文本编码后可能超过其65535字节的限制
+            byte[] bytes = value.toString().getBytes(StandardCharsets.UTF_8);
+            out.writeByte(TEXT);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    int getRowCount() {
+        return rowCount;
+    }
+
+    Reader open() throws IOException {
+        return new Reader(new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE)));
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // 临时目录中的残留文件不影响结果
+        }
+    }
+
+    /**
+     * 顺序读取分块中的行
+     */
+    static final class Reader implements Closeable {
+
+        private final DataInputStream in;
+        private int rowNumber;
+        private Object[] values;
+
+        private Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        boolean next() throws IOException {
+            try {
+                rowNumber = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            values = new Object[in.readInt()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = readValue();
+            }
+            return true;
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NULL:
+                    return null;
+                case NUMBER:
+                    return in.readDouble();
+                case DATE:
+                    return new Date(in.readLong());
+                case BOOLEAN:
+                    return in.readBoolean();
+                case TEXT:
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    return new String(bytes, StandardCharsets.UTF_8);
+                default:
+                    throw new IOException("Corrupted sort chunk: unknown value tag " + tag);
+            }
+        }
+
+        int getRowNumber() {
+            return rowNumber;
+        }
+
+        Object[] getValues() {
+            return values;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
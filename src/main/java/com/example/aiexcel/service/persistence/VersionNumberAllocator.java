@@ -0,0 +1,186 @@
+package com.example.aiexcel.service.persistence;
+
+import com.example.aiexcel.model.FileVersion;
+import com.example.aiexcel.repository.VersionRepository;
+import org.hibernate.exception.ConstraintViolationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 版本号分配器
+ * 每个文件一个内存原子计数器，首次使用时以数据库中的最大版本号为初值，分配版本号不加锁；
+ * 计数器按文件ID分散到固定数量的分段中，每段按最近使用保留有限个，淘汰的计数器下次使用时从数据库重新取初值。
+ * (file_id, version_number)上的唯一约束兜底：插入冲突（例如其他实例写入了同一版本号）时事务回滚。
+ * 插入加入调用方所在的事务（例如异步写入队列的一批），不单独刷新，插入语句随该事务按JDBC批量发送；
+ * 事务回滚时丢弃该文件的计数器，下次分配以数据库重新校准，跳过被占用的版本号。
+ * 版本号不保证连续：回滚的版本号只有在同一文件没有更大的版本号已提交时才会被重新分配，否则留下空缺。
+ * 冲突重试由事务的发起方负责：加入外层事务时冲突直接抛出，由外层整批重试；
+ * 没有外层事务时每次插入单独提交，只在版本号冲突时换号重试。
+ */
+@Component
+public class VersionNumberAllocator {
+
+    private static final Logger logger = LoggerFactory.getLogger(VersionNumberAllocator.class);
+
+    private final VersionRepository versionRepository;
+    private final TransactionTemplate insertTransaction;
+    private final int maxAttempts;
+    private final CounterStripe[] stripes;
+
+    @Autowired
+    public VersionNumberAllocator(VersionRepository versionRepository,
+                                  PlatformTransactionManager transactionManager,
+                                  @Value("${version.allocation.max-attempts:5}") int maxAttempts,
+                                  @Value("${version.allocation.stripes:16}") int stripeCount,
+                                  @Value("${version.allocation.max-counters:4096}") int maxCounters) {
+        this.versionRepository = versionRepository;
+        this.insertTransaction = new TransactionTemplate(transactionManager);
+        this.insertTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRED);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        int count = Math.max(1, stripeCount);
+        int perStripe = Math.max(1, maxCounters / count);
+        this.stripes = new CounterStripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new CounterStripe(perStripe);
+        }
+    }
+
+    public VersionNumberAllocator(VersionRepository versionRepository,
+                                  PlatformTransactionManager transactionManager, int maxAttempts) {
+        this(versionRepository, transactionManager, maxAttempts, 16, 4096);
+    }
+
+    /**
+     * 当前保留在内存中的计数器数量
+     */
+    public int getCounterCount() {
+        int count = 0;
+        for (CounterStripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 为版本分配下一个版本号并插入
+     * @return 已保存的版本，versionNumber为分配到的版本号
+     */
+    public FileVersion insert(FileVersion version) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return insertTransaction.execute(status -> allocateAndSave(version));
+        }
+        String fileId = version.getFileId();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return insertTransaction.execute(status -> allocateAndSave(version));
+            } catch (DataIntegrityViolationException e) {
+                if (!isVersionNumberConflict(e)) {
+                    throw e;
+                }
+                if (attempt >= maxAttempts) {
+                    logger.error("Giving up allocating a version number for file {} after {} attempts", fileId, attempt);
+                    throw e;
+                }
+                logger.warn("Version number {} of file {} already taken, retrying with a resynchronized counter",
+                    version.getVersionNumber(), fileId);
+            }
+        }
+    }
+
+    /**
+     * 是否为(file_id, version_number)唯一约束冲突；其他约束（例如任务键）冲突换号也无法解决
+     */
+    public static boolean isVersionNumberConflict(DataIntegrityViolationException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String constraint = cause instanceof ConstraintViolationException
+                ? ((ConstraintViolationException) cause).getConstraintName() : null;
+            if (constraint != null) {
+                return constraint.toUpperCase(Locale.ROOT)
+                    .contains(FileVersion.VERSION_NUMBER_CONSTRAINT.toUpperCase(Locale.ROOT));
+            }
+        }
+        return false;
+    }
+
+    private FileVersion allocateAndSave(FileVersion version) {
+        String fileId = version.getFileId();
+        AtomicInteger counter = counterFor(fileId);
+        version.setId(null);
+        version.setVersionNumber(counter.incrementAndGet());
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    removeCounter(fileId, counter);
+                }
+            }
+        });
+        return versionRepository.save(version);
+    }
+
+    private AtomicInteger counterFor(String fileId) {
+        CounterStripe stripe = stripeFor(fileId);
+        synchronized (stripe) {
+            AtomicInteger counter = stripe.get(fileId);
+            if (counter != null) {
+                return counter;
+            }
+        }
+        // 在锁外查询初值，并发初始化时只有一个计数器生效，两者读到的初值相同
+        AtomicInteger seeded = new AtomicInteger(maxVersionNumber(fileId));
+        synchronized (stripe) {
+            AtomicInteger existing = stripe.putIfAbsent(fileId, seeded);
+            return existing != null ? existing : seeded;
+        }
+    }
+
+    private void removeCounter(String fileId, AtomicInteger counter) {
+        CounterStripe stripe = stripeFor(fileId);
+        synchronized (stripe) {
+            stripe.remove(fileId, counter);
+        }
+    }
+
+    private CounterStripe stripeFor(String fileId) {
+        return stripes[Math.floorMod(fileId.hashCode(), stripes.length)];
+    }
+
+    private int maxVersionNumber(String fileId) {
+        Integer max = versionRepository.findMaxVersionNumberByFileId(fileId);
+        return max != null ? max : 0;
+    }
+
+    /**
+     * 一段计数器，按访问顺序淘汰最久未使用的文件；
+     * 被淘汰时仍在使用该计数器的插入照常完成，新计数器从数据库取初值，冲突由唯一约束兜底
+     */
+    private static class CounterStripe extends LinkedHashMap<String, AtomicInteger> {
+        private final int maxEntries;
+
+        CounterStripe(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, AtomicInteger> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
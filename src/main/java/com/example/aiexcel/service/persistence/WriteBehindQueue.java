@@ -0,0 +1,341 @@
+package com.example.aiexcel.service.persistence;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.persistence.FlushModeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 操作历史和版本记录的异步写入队列（write-behind）
+ * 请求线程只把写入任务放入有界队列即返回，由单个后台线程按提交顺序取出，
+ * 每批任务在一个事务中执行，事务提交时统一刷新，插入语句按JDBC批量发送。
+ * 同一文件的任务不会放进同一批，批内的查询因此不依赖尚未刷新的插入；
+ * 整批失败时事务回滚，再逐个任务单独重试，超过重试次数的任务记录错误后丢弃。
+ * 因此任务失败时必须抛出异常（不能吞掉异常返回），且必须幂等：同一任务可能被执行多次，
+ * 例如按提交时生成的任务键跳过已写入的记录。
+ * 队列满时提交方阻塞等待；关闭时先写完队列中的全部任务。
+ */
+@Component
+public class WriteBehindQueue implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindQueue.class);
+
+    private static final Duration DEFAULT_FLUSH_TIMEOUT = Duration.ofSeconds(30);
+
+    private final TransactionOperations transactions;
+    private final EntityManager entityManager;
+    private final BlockingQueue<Task> queue;
+    private final int capacity;
+    private final int batchSize;
+    private final int maxAttempts;
+    private final long retryDelayMillis;
+    private final Thread writer;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final Object submitLock = new Object();
+    private final Object progressMonitor = new Object();
+    // 已处理（成功或放弃）的最大任务序号，任务按序号顺序处理
+    private long processedThrough;
+    private volatile boolean closed;
+
+    @Autowired
+    public WriteBehindQueue(PlatformTransactionManager transactionManager,
+                            EntityManagerFactory entityManagerFactory,
+                            @Value("${persistence.write-behind.capacity:1000}") int capacity,
+                            @Value("${persistence.write-behind.batch-size:50}") int batchSize,
+                            @Value("${persistence.write-behind.max-attempts:3}") int maxAttempts,
+                            @Value("${persistence.write-behind.retry-delay-ms:200}") long retryDelayMillis) {
+        this(new TransactionTemplate(transactionManager),
+            SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory),
+            capacity, batchSize, maxAttempts, retryDelayMillis);
+        logger.info("Write-behind persistence: capacity={}, batchSize={}, maxAttempts={}",
+            capacity, batchSize, maxAttempts);
+    }
+
+    /**
+     * @param entityManager 为null时不调整刷新模式（测试时不使用JPA）
+     */
+    public WriteBehindQueue(TransactionOperations transactions, EntityManager entityManager,
+                            int capacity, int batchSize, int maxAttempts, long retryDelayMillis) {
+        this.transactions = transactions;
+        this.entityManager = entityManager;
+        this.capacity = capacity;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryDelayMillis = retryDelayMillis;
+        this.writer = new Thread(this::drain, "write-behind-persistence");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 提交写入任务
+     * @param key 任务所属的文件ID，同一文件的任务按提交顺序执行且不在同一批中
+     * @param description 任务描述，用于日志
+     * @param action 写入动作，失败时抛出异常，重复执行时不得重复写入
+     */
+    public void submit(String key, String description, Runnable action) {
+        if (closed) {
+            // 已关闭时不再排队，直接在调用线程写入
+            logger.warn("Write-behind queue closed, persisting {} synchronously", description);
+            transactions.executeWithoutResult(status -> action.run());
+            return;
+        }
+        try {
+            // 分配序号和入队在同一把锁内完成，保证队列顺序与序号一致
+            synchronized (submitLock) {
+                Task task = new Task(submitted.get() + 1, key, description, action);
+                if (!queue.offer(task)) {
+                    logger.warn("Write-behind queue full ({} tasks), waiting to enqueue {}", capacity, description);
+                    queue.put(task);
+                }
+                submitted.incrementAndGet();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while enqueuing " + description, e);
+        }
+    }
+
+    /**
+     * 等待调用前提交的任务全部处理完毕，最多等待30秒
+     */
+    public boolean flush() {
+        return flush(DEFAULT_FLUSH_TIMEOUT);
+    }
+
+    /**
+     * 等待调用前提交的任务全部处理完毕
+     * 需要读到刚提交的记录时调用（撤销、重做、分配版本号等）；在写入任务内部调用时直接返回
+     * @return 超时前处理完毕返回true
+     */
+    public boolean flush(Duration timeout) {
+        if (Thread.currentThread() == writer) {
+            return true;
+        }
+        long target = submitted.get();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (progressMonitor) {
+            while (processedThrough < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !writer.isAlive()) {
+                    logger.warn("Write-behind flush timed out, {} tasks pending", target - processedThrough);
+                    return false;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(progressMonitor, remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getPersistedCount() {
+        return persisted.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * 队列运行状态，供监控接口返回
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", getQueueDepth());
+        stats.put("capacity", capacity);
+        stats.put("submitted", submitted.get());
+        stats.put("persisted", getPersistedCount());
+        stats.put("failed", getFailedCount());
+        stats.put("retries", getRetryCount());
+        stats.put("batches", getBatchCount());
+        return stats;
+    }
+
+    /**
+     * 停止接收新任务，写完队列中剩余的任务后返回
+     */
+    @PreDestroy
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        int pending = queue.size();
+        // 不中断写入线程，避免打断进行中的JDBC写入；它写完剩余任务后自行退出
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 写入线程退出前刚入队的任务
+        for (Task task = queue.poll(); task != null; task = queue.poll()) {
+            writeWithRetry(task);
+            markProcessed(task.sequence);
+        }
+        logger.info("Write-behind queue closed, flushed {} pending tasks; persisted={}, failed={}",
+            pending, persisted.get(), failed.get());
+    }
+
+    private void drain() {
+        Task carry = null;
+        while (true) {
+            List<Task> batch = new ArrayList<>();
+            try {
+                Task first = carry != null ? carry : queue.poll(1, TimeUnit.SECONDS);
+                carry = null;
+                if (first == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                logger.warn("Write-behind writer interrupted, {} tasks left unpersisted", queue.size());
+                return;
+            }
+
+            Set<String> keys = new HashSet<>();
+            keys.add(batch.get(0).key);
+            while (batch.size() < batchSize) {
+                Task next = queue.poll();
+                if (next == null) {
+                    break;
+                }
+                if (!keys.add(next.key)) {
+                    carry = next;
+                    break;
+                }
+                batch.add(next);
+            }
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<Task> batch) {
+        batches.incrementAndGet();
+        try {
+            transactions.executeWithoutResult(status -> {
+                useCommitFlushMode();
+                for (Task task : batch) {
+                    task.action.run();
+                }
+            });
+            persisted.addAndGet(batch.size());
+            logger.debug("Persisted write-behind batch of {} tasks", batch.size());
+        } catch (RuntimeException e) {
+            logger.warn("Write-behind batch of {} tasks failed, retrying individually: {}", batch.size(), e.getMessage());
+            for (Task task : batch) {
+                writeWithRetry(task);
+            }
+        }
+        markProcessed(batch.get(batch.size() - 1).sequence);
+    }
+
+    private void writeWithRetry(Task task) {
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                transactions.executeWithoutResult(status -> task.action.run());
+                persisted.incrementAndGet();
+                return;
+            } catch (RuntimeException e) {
+                retries.incrementAndGet();
+                if (attempt == maxAttempts) {
+                    failed.incrementAndGet();
+                    logger.error("Giving up persisting {} for file {} after {} attempts",
+                        task.description, task.key, maxAttempts, e);
+                    return;
+                }
+                logger.warn("Persisting {} for file {} failed (attempt {}): {}",
+                    task.description, task.key, attempt, e.getMessage());
+                sleepBeforeRetry(attempt);
+            }
+        }
+    }
+
+    private void sleepBeforeRetry(int attempt) {
+        try {
+            Thread.sleep(retryDelayMillis * attempt);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 事务提交时才刷新，避免批内查询提前刷出插入语句而打断JDBC批量
+     */
+    private void useCommitFlushMode() {
+        if (entityManager != null) {
+            entityManager.setFlushMode(FlushModeType.COMMIT);
+        }
+    }
+
+    private void markProcessed(long sequence) {
+        synchronized (progressMonitor) {
+            processedThrough = sequence;
+            progressMonitor.notifyAll();
+        }
+    }
+
+    private static final class Task {
+        final long sequence;
+        final String key;
+        final String description;
+        final Runnable action;
+
+        Task(long sequence, String key, String description, Runnable action) {
+            this.sequence = sequence;
+            this.key = key;
+            this.description = description;
+            this.action = action;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.aiexcel.service.storage;
+
+/**
+ * 内容哈希对应的数据块不存在或已被删除
+ */
+public class BlobNotFoundException extends RuntimeException {
+
+    public BlobNotFoundException(String hash) {
+        super("Blob not found: " + hash);
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.aiexcel.service.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 按内容寻址的本地数据块存储
+ * 文件内容以SHA-256哈希为键、GZIP压缩后写入磁盘，相同内容只存一份；
+ * 每个数据块带引用计数，引用它的记录删除时调用release，计数归零时删除文件。
+ * 数据库实体只保存哈希和原始大小。
+ */
+@Component
+public class BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(BlobStore.class);
+
+    private static final String BLOB_SUFFIX = ".gz";
+    private static final String REFS_SUFFIX = ".refs";
+
+    /**
+     * 按哈希分段加锁，同一数据块的引用计数修改串行进行
+     */
+    private static final int LOCK_STRIPES = 64;
+
+    private final Path rootDirectory;
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    @Autowired
+    public BlobStore(@Value("${storage.blob.dir:data/blobs}") String blobDir) {
+        this(Path.of(blobDir));
+        logger.info("Blob store directory: {}", rootDirectory.toAbsolutePath());
+    }
+
+    public BlobStore(Path rootDirectory) {
+        this.rootDirectory = rootDirectory;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 保存内容并增加一次引用
+     * @return 内容的SHA-256哈希（十六进制）
+     */
+    public String put(byte[] content) {
+        String hash = hash(content);
+        synchronized (lockFor(hash)) {
+            try {
+                Path blob = blobPath(hash);
+                if (!Files.exists(blob)) {
+                    write(blob, content);
+                    writeReferenceCount(hash, 1);
+                    logger.debug("Stored blob {} ({} bytes, {} compressed)", hash, content.length, Files.size(blob));
+                } else {
+                    writeReferenceCount(hash, readReferenceCount(hash) + 1);
+                    logger.debug("Blob {} already stored, reference added", hash);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to store blob " + hash, e);
+            }
+        }
+        return hash;
+    }
+
+    public String put(String content) {
+        return put(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 为已存在的数据块增加一次引用，例如新记录复用旧记录的内容
+     */
+    public void retain(String hash) {
+        synchronized (lockFor(hash)) {
+            try {
+                if (!Files.exists(blobPath(hash))) {
+                    throw new BlobNotFoundException(hash);
+                }
+                writeReferenceCount(hash, readReferenceCount(hash) + 1);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to retain blob " + hash, e);
+            }
+        }
+    }
+
+    /**
+     * 读取并解压数据块内容
+     */
+    public byte[] get(String hash) {
+        Path blob = blobPath(hash);
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(blob))) {
+            return in.readAllBytes();
+        } catch (NoSuchFileException e) {
+            throw new BlobNotFoundException(hash);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read blob " + hash, e);
+        }
+    }
+
+    public String getString(String hash) {
+        return new String(get(hash), StandardCharsets.UTF_8);
+    }
+
+    public boolean exists(String hash) {
+        return hash != null && Files.exists(blobPath(hash));
+    }
+
+    /**
+     * 释放一次引用，引用计数归零时删除数据块
+     * @return 数据块是否已被删除
+     */
+    public boolean release(String hash) {
+        if (hash == null) {
+            return false;
+        }
+        synchronized (lockFor(hash)) {
+            try {
+                Path blob = blobPath(hash);
+                if (!Files.exists(blob)) {
+                    logger.warn("Release of missing blob {}", hash);
+                    return false;
+                }
+                long count = readReferenceCount(hash) - 1;
+                if (count > 0) {
+                    writeReferenceCount(hash, count);
+                    return false;
+                }
+                Files.deleteIfExists(blob);
+                Files.deleteIfExists(refsPath(hash));
+                logger.debug("Deleted blob {}", hash);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to release blob " + hash, e);
+            }
+        }
+    }
+
+    /**
+     * 当前引用计数，数据块不存在时为0
+     */
+    public long getReferenceCount(String hash) {
+        synchronized (lockFor(hash)) {
+            try {
+                return Files.exists(blobPath(hash)) ? readReferenceCount(hash) : 0;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to read reference count of blob " + hash, e);
+            }
+        }
+    }
+
+    public static String hash(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * 先写临时文件再原子移动，读取方不会看到写了一半的数据块
+     */
+    private void write(Path blob, byte[] content) throws IOException {
+        Files.createDirectories(blob.getParent());
+        Path temp = Files.createTempFile(blob.getParent(), "blob-", ".tmp");
+        try {
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(temp))) {
+                out.write(content);
+            }
+            Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private long readReferenceCount(String hash) throws IOException {
+        Path refs = refsPath(hash);
+        if (!Files.exists(refs)) {
+            return 1; // 数据块存在但计数文件丢失时，至少按一次引用处理，避免误删
+        }
+        return Long.parseLong(Files.readString(refs).trim());
+    }
+
+    private void writeReferenceCount(String hash, long count) throws IOException {
+        Path refs = refsPath(hash);
+        Path temp = Files.createTempFile(refs.getParent(), "refs-", ".tmp");
+        try {
+            Files.writeString(temp, Long.toString(count));
+            Files.move(temp, refs, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private Path blobPath(String hash) {
+        return directoryFor(hash).resolve(hash + BLOB_SUFFIX);
+    }
+
+    private Path refsPath(String hash) {
+        return directoryFor(hash).resolve(hash + REFS_SUFFIX);
+    }
+
+    /**
+     * 按哈希前两位分子目录，避免单个目录下文件过多
+     */
+    private Path directoryFor(String hash) {
+        if (hash.length() < 3 || !hash.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            throw new IllegalArgumentException("Invalid blob hash: " + hash);
+        }
+        return rootDirectory.resolve(hash.substring(0, 2));
+    }
+
+    private Object lockFor(String hash) {
+        return locks[Math.floorMod(hash.hashCode(), LOCK_STRIPES)];
+    }
+}
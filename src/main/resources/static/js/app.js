@@ -2,11 +2,17 @@
 let currentFile = null;
 let currentWorkspace = null;
 let currentFileId = null;
+let currentSessionId = null; // 服务端工作簿会话ID，文件只上传和解析一次
 let ws = null;
 let wsConnected = false;
 let hotInstance = null; // Handsontable实例
 let currentExcelData = [];
 
+// 窗口预览：按可视区域分块加载会话工作簿的行，避免一次传输整个工作表
+const PREVIEW_WINDOW_ROWS = 200;
+let previewLoadedWindows = new Set(); // 已加载（或加载中）的窗口起始行
+let previewGeneration = 0; // 重新加载预览后作废尚未返回的窗口请求
+
 // DOM元素映射
 const elements = {
     // 文件管理
@@ -192,6 +198,9 @@ function initializeHandsontable() {
         manualColumnMove: true,
         licenseKey: 'non-commercial-and-evaluation',
         contextMenu: true,
+        afterScrollVertically: function() {
+            loadVisiblePreviewWindows();
+        },
         afterChange: function(changes, source) {
             if (source !== 'loadData' && wsConnected && ws) {
                 // 如果启用了WebSocket，发送数据变更
@@ -271,25 +280,11 @@ async function uploadAndPreviewFile(file) {
             currentFileId = result.data.id; // 使用数据库中的文件ID
             addResponseMessage(`✅ 文件上传成功: ${file.name}`, 'system');
 
-            // 使用文件预览API获取数据并显示在表格中
-            const previewResponse = await fetch('/api/excel/preview', {
-                method: 'POST',
-                body: formData
-            });
-
-            const previewResult = await previewResponse.json();
+            // 创建工作簿会话，后续预览和格式操作都通过会话ID访问
+            await openWorkbookSession(file);
 
-            if (previewResult.success) {
-                currentExcelData = previewResult.data || [];
-
-                if (hotInstance) {
-                    hotInstance.loadData(currentExcelData);
-                    hotInstance.render();
-                    addResponseMessage(`✅ 加载了 ${currentExcelData.length} 行数据`, 'system');
-                }
-            } else {
-                addResponseMessage(`❌ 预览加载失败: ${previewResult.error}`, 'system');
-            }
+            // 使用文件预览API获取数据并显示在表格中
+            await loadExcelPreview(currentFileId);
 
             // 刷新文件列表
             await loadFileList();
@@ -301,10 +296,61 @@ async function uploadAndPreviewFile(file) {
     }
 }
 
+// 创建工作簿会话（关闭上一个文件的会话）
+async function openWorkbookSession(file) {
+    if (currentSessionId) {
+        fetch(`/api/excel/sessions/${currentSessionId}`, { method: 'DELETE' }).catch(() => {});
+        currentSessionId = null;
+    }
+
+    const formData = new FormData();
+    formData.append('file', file);
+
+    try {
+        const response = await fetch('/api/excel/sessions', {
+            method: 'POST',
+            body: formData
+        });
+        const result = await response.json();
+        if (result.success) {
+            currentSessionId = result.sessionId;
+        } else {
+            addResponseMessage(`❌ 创建会话失败: ${result.error}`, 'system');
+        }
+    } catch (error) {
+        addResponseMessage(`❌ 创建会话错误: ${error.message}`, 'system');
+    }
+}
+
 // 加载Excel预览
 async function loadExcelPreview(fileId) {
     if (!fileId) return;
 
+    if (currentSessionId) {
+        try {
+            // 先取第一个窗口获得工作表总尺寸，其余行在滚动到时再加载
+            const generation = ++previewGeneration;
+            previewLoadedWindows = new Set([0]);
+            const result = await fetchPreviewWindow(0);
+
+            if (result.success) {
+                currentExcelData = Array.from({ length: result.totalRows }, () => []);
+                fillPreviewWindow(result);
+
+                if (hotInstance && generation === previewGeneration) {
+                    hotInstance.loadData(currentExcelData);
+                    hotInstance.render();
+                    addResponseMessage(`✅ 加载了 ${result.totalRows} 行 × ${result.totalColumns} 列数据`, 'system');
+                }
+                return;
+            }
+            // 会话已过期时回退到重新上传文件
+            currentSessionId = null;
+        } catch (error) {
+            currentSessionId = null;
+        }
+    }
+
     // 由于后端没有直接通过ID获取文件数据的API，我们从文件对象中加载
     // 这里需要重新上传文件以获取预览数据
     if (currentFile) {
@@ -336,6 +382,53 @@ async function loadExcelPreview(fileId) {
     }
 }
 
+// 获取会话工作簿从offset开始的一个窗口
+async function fetchPreviewWindow(offset) {
+    const params = new URLSearchParams({
+        sessionId: currentSessionId,
+        offset: offset,
+        limit: PREVIEW_WINDOW_ROWS
+    });
+    const response = await fetch(`/api/excel/preview/window?${params}`);
+    return response.json();
+}
+
+// 把窗口数据写入预览数据的对应行
+function fillPreviewWindow(result) {
+    const rows = result.data || [];
+    for (let i = 0; i < rows.length; i++) {
+        currentExcelData[result.rowOffset + i] = rows[i];
+    }
+}
+
+// 加载当前可视区域内尚未加载的窗口
+async function loadVisiblePreviewWindows() {
+    if (!hotInstance || !currentSessionId || currentExcelData.length === 0) return;
+
+    const firstRow = hotInstance.view.getFirstVisibleRow();
+    const lastRow = hotInstance.view.getLastVisibleRow();
+    if (firstRow < 0 || lastRow < 0) return;
+
+    const generation = previewGeneration;
+    const firstWindow = Math.floor(firstRow / PREVIEW_WINDOW_ROWS) * PREVIEW_WINDOW_ROWS;
+    for (let offset = firstWindow; offset <= lastRow; offset += PREVIEW_WINDOW_ROWS) {
+        if (previewLoadedWindows.has(offset)) continue;
+        previewLoadedWindows.add(offset);
+        try {
+            const result = await fetchPreviewWindow(offset);
+            if (generation !== previewGeneration) return;
+            if (result.success) {
+                fillPreviewWindow(result);
+                hotInstance.render();
+            } else {
+                previewLoadedWindows.delete(offset);
+            }
+        } catch (error) {
+            previewLoadedWindows.delete(offset);
+        }
+    }
+}
+
 // 加载文件列表
 async function loadFileList() {
     if (!currentWorkspace) {
@@ -448,8 +541,13 @@ async function sendAiCommandHttp(command) {
 
     addResponseMessage('🤖 AI正在处理...', 'ai');
 
+    // 有会话时直接修改服务端会话中的工作簿，不再重新上传文件
     const formData = new FormData();
-    formData.append('file', currentFile);
+    if (currentSessionId) {
+        formData.append('sessionId', currentSessionId);
+    } else {
+        formData.append('file', currentFile);
+    }
     formData.append('command', command);
 
     try {
@@ -463,6 +561,11 @@ async function sendAiCommandHttp(command) {
         if (result.success) {
             addResponseMessage(result.aiResponse, 'ai');
 
+            // 会话中的工作簿已被修改，刷新预览
+            if (currentSessionId) {
+                await loadExcelPreview(currentFileId);
+            }
+
             // 如果AI返回了需要更新表格的指令，执行它们
             if (result.excelInstruction) {
                 executeExcelInstruction(result.excelInstruction);
@@ -729,19 +832,8 @@ async function applyCellFormat(range, formatOptions) {
         // 解析范围
         const rangeObj = parseRange(range);
 
-        const formData = new FormData();
-        formData.append('file', currentFile);
-        formData.append('sheetName', 'Sheet1'); // 默认工作表名称
-        formData.append('startRow', rangeObj.startRow);
-        formData.append('startCol', rangeObj.startCol);
-        formData.append('endRow', rangeObj.endRow);
-        formData.append('endCol', rangeObj.endCol);
-
-        // 以JSON格式发送格式选项
-        const response = await fetch('/api/excel/format-range', {
-            method: 'POST',
-            body: formData
-        });
+        // 以JSON格式发送格式选项，工作簿通过会话ID引用
+        const response = await postFormatRange(rangeObj, formatOptions);
 
         const result = await response.json();
 
@@ -803,23 +895,7 @@ async function confirmFormatChanges() {
             fontSize: fontSize
         };
 
-        const formData = new FormData();
-        formData.append('file', currentFile);
-        formData.append('sheetName', 'Sheet1'); // 默认工作表名称
-        formData.append('startRow', rangeObj.startRow);
-        formData.append('startCol', rangeObj.startCol);
-        formData.append('endRow', rangeObj.endRow);
-        formData.append('endCol', rangeObj.endCol);
-
-        // 添加格式选项作为JSON字符串
-        for (const [key, value] of Object.entries(formatOptions)) {
-            formData.append(key, value);
-        }
-
-        const response = await fetch('/api/excel/format-range', {
-            method: 'POST',
-            body: formData
-        });
+        const response = await postFormatRange(rangeObj, formatOptions);
 
         const result = await response.json();
 
@@ -852,15 +928,16 @@ async function handleApplyFormatting() {
         return;
     }
 
-    // 获取当前选中范围的格式信息（批量获取）
-    const formData = new FormData();
-    formData.append('file', currentFile);
-    formData.append('range', JSON.stringify(parseRange(range)));
+    if (!currentSessionId) {
+        await openWorkbookSession(currentFile);
+    }
 
+    // 获取当前选中范围的格式信息（批量获取）
     try {
-        const response = await fetch('/api/excel/bulk-cell-format', {
+        const response = await fetch(`/api/excel/bulk-cell-format?sessionId=${encodeURIComponent(currentSessionId)}`, {
             method: 'POST',
-            body: formData
+            headers: { 'Content-Type': 'application/json' },
+            body: JSON.stringify({ range: parseRange(range) })
         });
 
         const result = await response.json();
@@ -876,6 +953,28 @@ async function handleApplyFormatting() {
     }
 }
 
+// 提交范围格式设置，会话不存在时先创建
+async function postFormatRange(rangeObj, formatOptions) {
+    if (!currentSessionId) {
+        await openWorkbookSession(currentFile);
+    }
+
+    const params = new URLSearchParams({
+        sessionId: currentSessionId,
+        sheetName: 'Sheet1', // 默认工作表名称
+        startRow: rangeObj.startRow,
+        startCol: rangeObj.startCol,
+        endRow: rangeObj.endRow,
+        endCol: rangeObj.endCol
+    });
+
+    return fetch(`/api/excel/format-range?${params}`, {
+        method: 'POST',
+        headers: { 'Content-Type': 'application/json' },
+        body: JSON.stringify(formatOptions || {})
+    });
+}
+
 // 解析范围字符串
 function parseRange(rangeStr) {
     // 解析类似 "A1:B5" 的范围字符串
@@ -0,0 +1,231 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelCommandParser;
+import com.example.aiexcel.service.excel.formula.ExpressionEngine;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.common.usermodel.HyperlinkType;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.DataValidationHelper;
+import org.apache.poi.ss.usermodel.FillPatternType;
+import org.apache.poi.ss.usermodel.Drawing;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Hyperlink;
+import org.apache.poi.ss.usermodel.IndexedColors;
+import org.apache.poi.ss.usermodel.RichTextString;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.SheetConditionalFormatting;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellRangeAddressList;
+import org.apache.poi.xssf.usermodel.XSSFRichTextString;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试AI命令按出现顺序解析和执行
+ */
+public class AiExcelCommandParserTest {
+
+    private final AiExcelCommandParser parser = new AiExcelCommandParser(new ExcelServiceImpl(), new ExpressionEngine());
+
+    @Test
+    public void testCommandsExecuteInEmissionOrder() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            sheet.createRow(0).createCell(0).setCellValue(1);
+            sheet.createRow(1).createCell(0).setCellValue(2);
+
+            String response = "First [APPLY_FORMULA:C1:A1+B1*2] then [SET_CELL:B1:5]\n"
+                + "[DELETE_ROW:x] is ignored, [UNKNOWN:1] too, [SET_CELL:A2:broken\n]"
+                + " finally [INSERT_ROW:1:7,8] and [DELETE_COLUMN:3]";
+            List<AiExcelCommandParser.CommandResult> results = parser.parseAndExecuteCommands(workbook, response);
+
+            assertEquals(4, results.size());
+            assertEquals("APPLY_FORMULA", results.get(0).getCommandType());
+            assertEquals("SET_CELL", results.get(1).getCommandType());
+            assertEquals("INSERT_ROW", results.get(2).getCommandType());
+            assertEquals("DELETE_COLUMN", results.get(3).getCommandType());
+            assertTrue(results.stream().allMatch(AiExcelCommandParser.CommandResult::isSuccess));
+
+            // 公式在其他命令之后计算，结果按位置回填
+            assertEquals(11.0, sheet.getRow(0).getCell(2).getNumericCellValue());
+            assertTrue(results.get(0).getMessage().contains("11.0"));
+            assertEquals(7.0, sheet.getRow(1).getCell(0).getNumericCellValue());
+            assertEquals(2.0, sheet.getRow(2).getCell(0).getNumericCellValue());
+        }
+    }
+
+    @Test
+    public void testStructuralEditsAreCoalesced() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            for (int i = 0; i < 6; i++) {
+                sheet.createRow(i).createCell(0).setCellValue(i + 1);
+            }
+            sheet.getRow(0).createCell(1).setCellFormula("SUM(A1:A6)");
+            sheet.getRow(5).createCell(2).setCellFormula("A6*2");
+
+            String response = "[DELETE_ROW:1][DELETE_ROW:1][INSERT_ROW:0:10] then [SET_CELL:D1:done]";
+            List<AiExcelCommandParser.CommandResult> results = parser.parseAndExecuteCommands(workbook, response);
+
+            assertEquals(4, results.size());
+            assertTrue(results.stream().allMatch(AiExcelCommandParser.CommandResult::isSuccess));
+
+            // 与逐条执行的结果一致：A列为 10,1,4,5,6
+            double[] expected = {10, 1, 4, 5, 6};
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], sheet.getRow(i).getCell(0).getNumericCellValue());
+            }
+            assertNull(sheet.getRow(5));
+
+            // 公式引用按最终位置重写
+            assertEquals("SUM(A2:A5)", sheet.getRow(1).getCell(1).getCellFormula());
+            assertEquals("A5*2", sheet.getRow(4).getCell(2).getCellFormula());
+            assertEquals("done", sheet.getRow(0).getCell(3).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void testStructuralEditsCarryCellAnnotations() throws Exception {
+        byte[] bytes;
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            CreationHelper helper = workbook.getCreationHelper();
+            Drawing<?> drawing = sheet.createDrawingPatriarch();
+            for (int i = 0; i < 6; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i + 1);
+                if (i == 1 || i == 3) {
+                    ClientAnchor anchor = helper.createClientAnchor();
+                    anchor.setRow1(i);
+                    anchor.setCol1(0);
+                    Comment comment = drawing.createCellComment(anchor);
+                    comment.setString(helper.createRichTextString("note " + (i + 1)));
+                    row.getCell(0).setCellComment(comment);
+                    Hyperlink link = helper.createHyperlink(HyperlinkType.URL);
+                    link.setAddress("https://example.com/" + (i + 1));
+                    row.getCell(0).setHyperlink(link);
+                }
+            }
+            Font bold = workbook.createFont();
+            bold.setBold(true);
+            RichTextString rich = helper.createRichTextString("bold plain");
+            rich.applyFont(0, 4, bold);
+            sheet.getRow(3).createCell(1).setCellValue(rich);
+
+            DataValidationHelper validationHelper = sheet.getDataValidationHelper();
+            sheet.addValidationData(validationHelper.createValidation(
+                validationHelper.createExplicitListConstraint(new String[]{"1", "4", "5"}),
+                new CellRangeAddressList(2, 5, 0, 0)));
+            SheetConditionalFormatting formatting = sheet.getSheetConditionalFormatting();
+            formatting.addConditionalFormatting(new CellRangeAddress[]{CellRangeAddress.valueOf("C1:C6")},
+                formatting.createConditionalFormattingRule("$A1>3"));
+
+            // 原第2、3行被删除，顶部插入一行：原第4行移到第3行
+            parser.parseAndExecuteCommands(workbook, "[DELETE_ROW:1][DELETE_ROW:1][INSERT_ROW:0:10]");
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            bytes = out.toByteArray();
+        }
+
+        try (Workbook workbook = new XSSFWorkbook(new ByteArrayInputStream(bytes))) {
+            Sheet sheet = workbook.getSheet("Sheet1");
+            assertEquals(4.0, sheet.getRow(2).getCell(0).getNumericCellValue());
+
+            assertEquals(1, sheet.getCellComments().size());
+            assertEquals("note 4", sheet.getCellComment(new CellAddress(2, 0)).getString().getString());
+            assertEquals(1, sheet.getHyperlinkList().size());
+            assertEquals("https://example.com/4", sheet.getRow(2).getCell(0).getHyperlink().getAddress());
+
+            XSSFRichTextString rich = (XSSFRichTextString) sheet.getRow(2).getCell(1).getRichStringCellValue();
+            assertEquals("bold plain", rich.getString());
+            assertEquals(2, rich.numFormattingRuns());
+            assertTrue(rich.getFontAtIndex(0).getBold());
+
+            assertArrayEquals(new CellRangeAddress[]{CellRangeAddress.valueOf("A3:A5")},
+                sheet.getDataValidations().get(0).getRegions().getCellRangeAddresses());
+            assertArrayEquals(new CellRangeAddress[]{CellRangeAddress.valueOf("C2:C5")},
+                sheet.getSheetConditionalFormatting().getConditionalFormattingAt(0).getFormattingRanges());
+        }
+    }
+
+    @Test
+    public void testRangeCommandsFillInOnePass() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            for (int i = 0; i < 5; i++) {
+                sheet.createRow(i).createCell(0).setCellValue(i + 1);
+            }
+
+            String response = "[FILL_SERIES:B1:B5:10,5][SET_RANGE:C1:C5:=A1*B1][FILL_DOWN:D1:D5:D1+SUM($C$1:C1)-D1]"
+                + "[SET_RANGE:E1:F2:x][FILL_SERIES:A7:C7:1]";
+            List<AiExcelCommandParser.CommandResult> results = parser.parseAndExecuteCommands(workbook, response);
+
+            assertEquals(5, results.size());
+            assertTrue(results.stream().allMatch(AiExcelCommandParser.CommandResult::isSuccess));
+
+            double runningTotal = 0;
+            for (int i = 0; i < 5; i++) {
+                double series = 10 + 5 * i;
+                double product = (i + 1) * series;
+                runningTotal += product;
+                assertEquals(series, sheet.getRow(i).getCell(1).getNumericCellValue());
+                assertEquals(product, sheet.getRow(i).getCell(2).getNumericCellValue());
+                // 区域内已算出的值对后续行可见
+                assertEquals(runningTotal, sheet.getRow(i).getCell(3).getNumericCellValue());
+            }
+            assertEquals("x", sheet.getRow(1).getCell(5).getStringCellValue());
+            assertEquals(3.0, sheet.getRow(6).getCell(2).getNumericCellValue());
+        }
+    }
+
+    @Test
+    public void testInsertedAndShiftedRowsKeepTheirOwnFormatting() throws Exception {
+        for (Workbook workbook : List.of(new XSSFWorkbook(), new HSSFWorkbook())) {
+            try (workbook) {
+                Sheet sheet = workbook.createSheet("Sheet1");
+                CellStyle shaded = workbook.createCellStyle();
+                shaded.setFillForegroundColor(IndexedColors.YELLOW.getIndex());
+                shaded.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+                for (int i = 0; i < 4; i++) {
+                    sheet.createRow(i).createCell(0).setCellValue("row" + i);
+                }
+                // 第1、3行是加高、带行样式的行，第2行没有格式
+                for (int i : new int[]{1, 3}) {
+                    sheet.getRow(i).setRowStyle(shaded);
+                    sheet.getRow(i).setHeight((short) 900);
+                }
+                short defaultHeight = sheet.getDefaultRowHeight();
+
+                parser.parseAndExecuteCommands(workbook, "[INSERT_ROW:1:new]");
+
+                // 插入的行复用了原第1行的行对象，但不继承它的格式
+                assertEquals("new", sheet.getRow(1).getCell(0).getStringCellValue());
+                assertNull(sheet.getRow(1).getRowStyle());
+                assertEquals(defaultHeight, sheet.getRow(1).getHeight());
+                assertEquals("row1", sheet.getRow(2).getCell(0).getStringCellValue());
+                assertEquals(shaded.getIndex(), sheet.getRow(2).getRowStyle().getIndex());
+                assertEquals(900, sheet.getRow(2).getHeight());
+                // 没有格式的行移到原来带格式的位置上
+                assertEquals("row2", sheet.getRow(3).getCell(0).getStringCellValue());
+                assertNull(sheet.getRow(3).getRowStyle());
+                assertEquals(defaultHeight, sheet.getRow(3).getHeight());
+                assertEquals(shaded.getIndex(), sheet.getRow(4).getRowStyle().getIndex());
+                assertEquals(900, sheet.getRow(4).getHeight());
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.storage.BlobNotFoundException;
+import com.example.aiexcel.service.storage.BlobStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试按内容寻址的数据块存储：相同内容只存一份、压缩存储、引用计数归零时删除
+ */
+public class BlobStoreTest {
+
+    @TempDir
+    Path blobDir;
+
+    @Test
+    public void testIdenticalContentIsStoredOnce() throws Exception {
+        BlobStore store = new BlobStore(blobDir);
+        byte[] content = "same workbook bytes ".repeat(1000).getBytes(StandardCharsets.UTF_8);
+
+        String first = store.put(content);
+        String second = store.put(content.clone());
+
+        assertEquals(first, second);
+        assertEquals(BlobStore.hash(content), first);
+        assertEquals(2, store.getReferenceCount(first));
+        assertArrayEquals(content, store.get(first));
+
+        Path[] blobs = listBlobFiles();
+        assertEquals(1, blobs.length);
+        assertTrue(Files.size(blobs[0]) < content.length);
+    }
+
+    @Test
+    public void testBlobIsDeletedWhenLastReferenceIsReleased() throws Exception {
+        BlobStore store = new BlobStore(blobDir);
+        String hash = store.put("journal");
+        store.retain(hash);
+
+        assertFalse(store.release(hash));
+        assertEquals("journal", store.getString(hash));
+        assertTrue(store.release(hash));
+
+        assertFalse(store.exists(hash));
+        assertEquals(0, store.getReferenceCount(hash));
+        assertEquals(0, listBlobFiles().length);
+        assertThrows(BlobNotFoundException.class, () -> store.get(hash));
+        assertThrows(BlobNotFoundException.class, () -> store.retain(hash));
+        assertFalse(store.release(null));
+    }
+
+    private Path[] listBlobFiles() throws Exception {
+        try (Stream<Path> files = Files.walk(blobDir)) {
+            return files.filter(path -> path.toString().endsWith(".gz")).toArray(Path[]::new);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.cache.AiResponseCache;
+import com.example.aiexcel.service.ai.cache.LocalAiResponseCache;
+import com.example.aiexcel.service.ai.impl.CachingAiService;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试AI响应缓存：按请求内容命中、TTL过期、LRU淘汰以及共享缓存回填
+ */
+public class CachingAiServiceTest {
+
+    @Test
+    public void testIdenticalRequestsHitCache() {
+        CountingAiService delegate = new CountingAiService();
+        CachingAiService service = new CachingAiService(delegate, new LocalAiResponseCache(10), null,
+            Duration.ofMinutes(5), "qwen-max");
+
+        AiResponse first = service.generateResponse(request(null, "analyze file A"));
+        // 显式写出默认模型与省略模型是同一个请求
+        AiResponse second = service.generateResponse(request("qwen-max", "analyze file A"));
+        AiResponse third = service.generateResponse(request(null, "analyze file B"));
+
+        assertEquals(2, delegate.calls.get());
+        assertEquals(first.getChoices()[0].getMessage().getContent(), second.getChoices()[0].getMessage().getContent());
+        assertNotEquals(first.getChoices()[0].getMessage().getContent(), third.getChoices()[0].getMessage().getContent());
+        assertEquals(1, service.getHitCount());
+        assertEquals(2, service.getMissCount());
+    }
+
+    @Test
+    public void testTtlAndLruEviction() {
+        AtomicLong now = new AtomicLong(0);
+        LocalAiResponseCache cache = new LocalAiResponseCache(2, now::get);
+        cache.put("a", "A", Duration.ofSeconds(10));
+        cache.put("b", "B", Duration.ofSeconds(10));
+        assertEquals("A", cache.get("a"));
+        cache.put("c", "C", Duration.ofSeconds(10));
+
+        // b最久未访问，被淘汰
+        assertNull(cache.get("b"));
+        assertEquals("A", cache.get("a"));
+        now.set(10_000);
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testSharedCacheIsConsultedAndBackfilled() {
+        MapCache shared = new MapCache();
+        CountingAiService delegate = new CountingAiService();
+        CachingAiService writer = new CachingAiService(delegate, new LocalAiResponseCache(10), shared,
+            Duration.ofMinutes(5), "qwen-max");
+        writer.generateResponse(request(null, "rfm"));
+        assertEquals(1, shared.values.size());
+
+        // 另一个实例的本地缓存为空，从共享缓存命中
+        CachingAiService reader = new CachingAiService(delegate, new LocalAiResponseCache(10), shared,
+            Duration.ofMinutes(5), "qwen-max");
+        StringBuilder streamed = new StringBuilder();
+        AiResponse response = reader.generateStreamingResponse(request(null, "rfm"), streamed::append);
+
+        assertEquals(1, delegate.calls.get());
+        assertEquals("answer to rfm", response.getChoices()[0].getMessage().getContent());
+        assertEquals("answer to rfm", streamed.toString());
+    }
+
+    private static AiRequest request(String model, String content) {
+        AiRequest request = new AiRequest();
+        request.setModel(model);
+        request.setTemperature(0.2);
+        request.setMessages(Arrays.asList(new AiRequest.Message("user", content)));
+        return request;
+    }
+
+    private static class CountingAiService implements AiService {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public AiResponse generateResponse(AiRequest request) {
+            calls.incrementAndGet();
+            return new AiResponse("answer to " + request.getMessages().get(0).getContent());
+        }
+
+        @Override
+        public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+            return CompletableFuture.completedFuture(generateResponse(request));
+        }
+
+        @Override
+        public AiResponse generateStreamingResponse(AiRequest request) {
+            return generateResponse(request);
+        }
+
+        @Override
+        public AiResponse generateStreamingResponse(AiRequest request, Consumer<String> onDelta) {
+            AiResponse response = generateResponse(request);
+            onDelta.accept(response.getChoices()[0].getMessage().getContent());
+            return response;
+        }
+
+        @Override
+        public boolean testConnection() {
+            return true;
+        }
+    }
+
+    /**
+     * 代替Redis的内存共享缓存
+     */
+    private static class MapCache implements AiResponseCache {
+        final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void put(String key, String responseJson, Duration ttl) {
+            values.put(key, responseJson);
+        }
+    }
+}
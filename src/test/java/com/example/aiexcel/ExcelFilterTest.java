@@ -0,0 +1,201 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelIntegrationService;
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import com.example.aiexcel.service.excel.filter.FilterCondition;
+import com.example.aiexcel.service.excel.filter.FilterContext;
+import com.example.aiexcel.service.excel.filter.FilterParser;
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.excel.session.WorkbookSession;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试本地筛选：类型化的单列比较、AND/OR组合、会话中的位图缓存和结果输出
+ */
+public class ExcelFilterTest {
+
+    @TempDir
+    Path spillDir;
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+
+    /**
+     * 表头 + 1000行：Region（4个取值）、Amount（第i行为i，每10行缺一个）、Date（2024-01-01起每天一行）、
+     * Active（偶数行为true）、Note（3的倍数行为文本"Item i"，其余为数值i）
+     */
+    private MockMultipartFile createFile() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Sheet sheet = workbook.createSheet("Orders");
+            String[] headers = {"Region", "Amount", "Date", "Active", "Note"};
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < headers.length; i++) {
+                header.createCell(i).setCellValue(headers[i]);
+            }
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            String[] regions = {"North", "south", "East", "West"};
+            LocalDate first = LocalDate.of(2024, 1, 1);
+            for (int i = 1; i <= 1000; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(regions[i % 4]);
+                if (i % 10 != 0) {
+                    row.createCell(1).setCellValue(i);
+                }
+                Date date = Date.from(first.plusDays(i - 1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+                row.createCell(2).setCellValue(date);
+                row.getCell(2).setCellStyle(dateStyle);
+                row.createCell(3).setCellValue(i % 2 == 0);
+                if (i % 3 == 0) {
+                    row.createCell(4).setCellValue("Item " + i);
+                } else {
+                    row.createCell(4).setCellValue(i);
+                }
+            }
+            workbook.write(out);
+            return new MockMultipartFile("file", "orders.xlsx",
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+        }
+    }
+
+    private int count(FilterContext context, String column, String condition, String value) {
+        return context.evaluate(FilterParser.comparison(column, condition, value)).cardinality();
+    }
+
+    @Test
+    public void testTypedComparisonsAndCompoundFilters() throws Exception {
+        SheetFrame frame;
+        try (ExcelRowCursor cursor = excelService.openRowCursor(createFile())) {
+            assertTrue(cursor.nextSheet());
+            frame = SheetFrame.read(cursor, true);
+        }
+        FilterContext context = FilterContext.uncached(frame);
+
+        // 文本比较忽略大小写
+        assertEquals(250, count(context, "Region", "equals", "SOUTH"));
+        assertEquals(750, count(context, "region", "!=", "south"));
+        assertEquals(500, count(context, "A", "contains", "st"));
+        assertEquals(250, count(context, "Region", "starts_with", "n"));
+        // 数值比较只匹配数值单元格，空单元格不满足任何比较但满足“不等于”
+        assertEquals(900 - 810, count(context, "Amount", ">", "900"));
+        assertEquals(100, count(context, "Amount", "is_empty", null));
+        assertEquals(100, count(context, "Amount", "equals", ""));
+        assertEquals(1000, count(context, "Amount", "not_equals", "5000"));
+        // 日期值表示整天
+        assertEquals(1, count(context, "Date", "equals", "2024-01-31"));
+        assertEquals(31, count(context, "Date", "<=", "2024-01-31"));
+        assertEquals(31, count(context, "Date", "less_than", "2024-02-01"));
+        assertEquals(500, count(context, "Active", "等于", "TRUE"));
+        // 混合列：数值比较只看数值单元格，包含按展示文本匹配所有单元格
+        assertEquals(333, count(context, "Note", "starts_with", "item"));
+        assertEquals(667, count(context, "Note", "<=", "1000"));
+        // 1..1000中不含数字9的有9^3个（1000代替0）
+        assertEquals(1000 - 729, count(context, "Note", "contains", "9"));
+
+        String json = "{\"and\": ["
+            + "{\"column\": \"Region\", \"condition\": \"equals\", \"value\": \"North\"},"
+            + "{\"or\": [{\"column\": \"Amount\", \"condition\": \">=\", \"value\": 990},"
+            + "          {\"column\": \"Amount\", \"condition\": \"is_empty\"}]}]}";
+        BitSet rows = context.evaluate(FilterParser.parse(json));
+        // North为4的倍数行：992、996、1000（Amount为空）以及其余20的倍数行
+        BitSet expected = new BitSet();
+        for (int i = 4; i <= 1000; i += 4) {
+            if (i >= 990 || i % 10 == 0) {
+                expected.set(i - 1);
+            }
+        }
+        assertEquals(expected, rows);
+        assertEquals("(Region equals \"North\" AND (Amount greater_or_equal \"990\" OR Amount is_empty))",
+            FilterParser.parse(json).describe());
+
+        assertThrows(IllegalArgumentException.class, () -> count(context, "Missing", "equals", "x"));
+        assertThrows(IllegalArgumentException.class, () -> FilterCondition.parse("like"));
+        assertThrows(IllegalArgumentException.class, () -> FilterParser.comparison("Amount", ">", " "));
+        assertThrows(IllegalArgumentException.class, () -> FilterParser.parse("{\"and\": []}"));
+        assertEquals(FilterCondition.GREATER_OR_EQUAL, FilterCondition.parse("Greater Or Equal"));
+    }
+
+    @Test
+    public void testSessionFiltersReuseBitmapsUntilWorkbookChanges() throws Exception {
+        AiExcelIntegrationService integrationService = new AiExcelIntegrationService();
+        ReflectionTestUtils.setField(integrationService, "excelService", excelService);
+        MockMultipartFile file = createFile();
+
+        try (WorkbookSessionStore store = new WorkbookSessionStore(excelService, Long.MAX_VALUE,
+                Duration.ofMinutes(30), spillDir, System::currentTimeMillis)) {
+            ReflectionTestUtils.setField(integrationService, "workbookSessionStore", store);
+            WorkbookSession session = store.create(file);
+            String id = session.getId();
+
+            Map<String, Object> first = integrationService.filterExcelData(null, id,
+                FilterParser.comparison("Region", "equals", "North"), 0, true, 10, 5);
+            assertEquals(250, first.get("matchedRows"));
+            assertEquals(1000, first.get("totalRows"));
+            assertEquals(0, first.get("cachedBitmaps"));
+            assertEquals(5, first.get("rowCount"));
+            assertEquals(Arrays.asList(44, 48, 52, 56, 60), first.get("sourceRows"));
+            @SuppressWarnings("unchecked")
+            List<String[]> data = (List<String[]>) first.get("data");
+            assertEquals("North", data.get(0)[0]);
+            assertEquals("44", data.get(0)[1]);
+
+            // 组合筛选复用Region的位图，结果与从文件筛选一致
+            String json = "{\"and\": [{\"column\": \"Region\", \"condition\": \"=\", \"value\": \"North\"},"
+                + "{\"column\": \"Active\", \"condition\": \"=\", \"value\": true}]}";
+            Map<String, Object> second = integrationService.filterExcelData(null, id,
+                FilterParser.parse(json), 0, true, 0, 100);
+            assertEquals(1, second.get("cachedBitmaps"));
+            assertEquals(250, second.get("matchedRows"));
+            Map<String, Object> fromFile = integrationService.filterExcelData(file, null,
+                FilterParser.parse(json), 0, true, 0, 100);
+            assertEquals(fromFile.get("sourceRows"), second.get("sourceRows"));
+
+            // 修改工作簿后缓存失效，重新扫描
+            store.withWorkbook(id, workbook -> {
+                workbook.getSheetAt(0).getRow(1).getCell(0).setCellValue("North");
+                return null;
+            });
+            Map<String, Object> third = integrationService.filterExcelData(null, id,
+                FilterParser.comparison("Region", "equals", "North"), 0, true, 0, 1);
+            assertEquals(0, third.get("cachedBitmaps"));
+            assertEquals(251, third.get("matchedRows"));
+            assertEquals(List.of(1), third.get("sourceRows"));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            integrationService.streamFilteredWorkbook(null, id,
+                FilterParser.comparison("Amount", ">", "995"), 0, true).writeTo(out);
+            try (Workbook filtered = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+                Sheet sheet = filtered.getSheet("Orders");
+                assertEquals("Amount", sheet.getRow(0).getCell(1).getStringCellValue());
+                // 996..999，第1000行Amount为空
+                assertEquals(4, sheet.getLastRowNum());
+                assertEquals(996.0, sheet.getRow(1).getCell(1).getNumericCellValue());
+                assertTrue(sheet.getRow(1).getCell(3).getBooleanCellValue());
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.EvaluationScope;
+import com.example.aiexcel.service.excel.FormulaDependencyGraph;
+import com.example.aiexcel.service.excel.WorkbookEvaluationContext;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试同一请求内公式计算上下文的共享与缓存失效
+ */
+public class ExcelFormulaEvaluationTest {
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+
+    @BeforeEach
+    public void bindRequest() {
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    }
+
+    @AfterEach
+    public void resetRequest() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    private Workbook createWorkbook() {
+        Workbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Sheet1");
+        Row row = sheet.createRow(0);
+        row.createCell(0).setCellValue(2);
+        row.createCell(1).setCellValue(3);
+        row.createCell(2).setCellFormula("A1*B1");
+        return workbook;
+    }
+
+    @Test
+    public void testContextIsSharedWithinRequest() throws Exception {
+        try (Workbook workbook = createWorkbook()) {
+            WorkbookEvaluationContext first = excelService.getEvaluationContext(workbook);
+            assertSame(first, excelService.getEvaluationContext(workbook));
+            assertSame(first.getEvaluator(), excelService.getEvaluationContext(workbook).getEvaluator());
+        }
+    }
+
+    @Test
+    public void testScopeSharesContextOutsideRequest() throws Exception {
+        RequestContextHolder.resetRequestAttributes();
+        try (Workbook workbook = createWorkbook()) {
+            // 没有请求也没有作用范围时每次调用各自创建
+            assertNotSame(excelService.getEvaluationContext(workbook), excelService.getEvaluationContext(workbook));
+
+            WorkbookEvaluationContext scoped;
+            try (EvaluationScope scope = excelService.openEvaluationScope()) {
+                scoped = excelService.getEvaluationContext(workbook);
+                try (EvaluationScope nested = excelService.openEvaluationScope()) {
+                    assertSame(scoped, excelService.getEvaluationContext(workbook));
+                }
+                // 内层关闭不影响外层
+                assertSame(scoped, excelService.getEvaluationContext(workbook));
+                assertEquals("6", excelService.getCellValue(workbook, "Sheet1", 0, 2));
+                excelService.updateCell(workbook, "Sheet1", 0, 0, 5);
+                assertEquals("15", excelService.getCellValue(workbook, "Sheet1", 0, 2));
+            }
+            assertNotSame(scoped, excelService.getEvaluationContext(workbook));
+        }
+    }
+
+    @Test
+    public void testUpdateCellInvalidatesCachedResult() throws Exception {
+        try (Workbook workbook = createWorkbook()) {
+            assertEquals("6", excelService.getCellValue(workbook, "Sheet1", 0, 2));
+
+            excelService.updateCell(workbook, "Sheet1", 0, 0, 5);
+            assertEquals("15", excelService.getCellValue(workbook, "Sheet1", 0, 2));
+
+            excelService.insertRow(workbook, "Sheet1", 0, new Object[]{"x"});
+            assertEquals("15", excelService.getCellValue(workbook, "Sheet1", 1, 2));
+        }
+    }
+
+    private Workbook loadTrackedWorkbook() throws Exception {
+        try (Workbook source = new XSSFWorkbook()) {
+            Sheet sheet = source.createSheet("Sheet1");
+            for (int i = 0; i < 5; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(i + 1);
+                row.createCell(1).setCellFormula("A" + (i + 1) + "*2");
+                row.createCell(3).setCellValue(10);
+                row.createCell(4).setCellFormula("D" + (i + 1) + "+1");
+            }
+            sheet.createRow(5).createCell(0).setCellFormula("SUM(A1:A5)");
+            source.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            return excelService.loadWorkbook(new ByteArrayInputStream(excelService.getWorkbookAsBytes(source)));
+        }
+    }
+
+    @Test
+    public void testOnlyAffectedFormulasAreRecalculated() throws Exception {
+        try (Workbook workbook = loadTrackedWorkbook()) {
+            Sheet sheet = workbook.getSheet("Sheet1");
+            // 绕过服务直接修改，不会被跟踪：其依赖公式不应被重新计算
+            sheet.getRow(0).getCell(3).setCellValue(100);
+
+            excelService.updateCell(workbook, "Sheet1", 0, 0, 7);
+            excelService.evaluateAllFormulasInWorkbook(workbook);
+
+            assertEquals(14.0, sheet.getRow(0).getCell(1).getNumericCellValue());
+            assertEquals(21.0, sheet.getRow(5).getCell(0).getNumericCellValue());
+            assertEquals(11.0, sheet.getRow(0).getCell(4).getNumericCellValue());
+            assertEquals("A1*2", sheet.getRow(0).getCell(1).getCellFormula());
+        }
+    }
+
+    @Test
+    public void testStructuralChangesMarkAffectedRegions() throws Exception {
+        try (Workbook workbook = loadTrackedWorkbook()) {
+            Sheet sheet = workbook.getSheet("Sheet1");
+
+            excelService.insertRow(workbook, "Sheet1", 2, new Object[]{100});
+            excelService.evaluateAllFormulasInWorkbook(workbook);
+            assertEquals("SUM(A1:A6)", sheet.getRow(6).getCell(0).getCellFormula());
+            assertEquals(115.0, sheet.getRow(6).getCell(0).getNumericCellValue());
+
+            excelService.deleteRow(workbook, "Sheet1", 1);
+            excelService.evaluateAllFormulasInWorkbook(workbook);
+            assertEquals("SUM(A1:A5)", sheet.getRow(5).getCell(0).getCellFormula());
+            assertEquals(113.0, sheet.getRow(5).getCell(0).getNumericCellValue());
+        }
+    }
+
+    @Test
+    public void testDependencyGraphIsUpdatedIncrementally() throws Exception {
+        try (Workbook workbook = loadTrackedWorkbook()) {
+            Sheet sheet = workbook.getSheet("Sheet1");
+            excelService.updateCell(workbook, "Sheet1", 0, 0, 7);
+            excelService.evaluateAllFormulasInWorkbook(workbook);
+            WorkbookEvaluationContext context = excelService.getEvaluationContext(workbook);
+            FormulaDependencyGraph graph = context.getDependencyGraph();
+
+            // 改写公式、插入行、删除列都不会丢弃依赖图
+            sheet.getRow(2).getCell(1).setCellFormula("D3*3");
+            context.notifyUpdateCell(sheet.getRow(2).getCell(1));
+            excelService.insertRow(workbook, "Sheet1", 1, new Object[]{100});
+            excelService.deleteColumn(workbook, "Sheet1", 5);
+            assertSame(graph, context.getDependencyGraph());
+            assertEquals(11, graph.getFormulaCount());
+
+            // 增量维护的依赖边与重新解析整本得到的结果一致
+            FormulaDependencyGraph rebuilt = FormulaDependencyGraph.build(workbook);
+            for (CellRangeAddress region : List.of(CellRangeAddress.valueOf("A1"), CellRangeAddress.valueOf("C4"),
+                    CellRangeAddress.valueOf("A2:A3"), CellRangeAddress.valueOf("C1:C6"))) {
+                Map<String, List<CellRangeAddress>> changed = Map.of("Sheet1", List.of(region));
+                assertEquals(rebuilt.collectAffectedFormulaCells(changed), graph.collectAffectedFormulaCells(changed),
+                    region.formatAsString());
+            }
+
+            excelService.evaluateAllFormulasInWorkbook(workbook);
+            assertEquals("D4*3", sheet.getRow(3).getCell(1).getCellFormula());
+            assertEquals(30.0, sheet.getRow(3).getCell(1).getNumericCellValue());
+            assertEquals("SUM(A1:A6)", sheet.getRow(6).getCell(0).getCellFormula());
+            assertEquals(121.0, sheet.getRow(6).getCell(0).getNumericCellValue());
+        }
+    }
+}
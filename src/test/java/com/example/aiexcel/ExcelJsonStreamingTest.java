@@ -0,0 +1,134 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelIntegrationService;
+import com.example.aiexcel.service.ExcelPreviewService;
+import com.example.aiexcel.service.excel.ExcelJsonStreamWriter;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.excel.session.WorkbookSession;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Date;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试流式JSON输出：与一次性序列化的结果一致，缺失的行和单元格补齐
+ */
+public class ExcelJsonStreamingTest {
+
+    @TempDir
+    Path spillDir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+    private final ExcelJsonStreamWriter jsonStreamWriter = new ExcelJsonStreamWriter(objectMapper);
+
+    /**
+     * 表头第1列为空、第3行缺失、第4行比表头宽，含日期、布尔和公式
+     */
+    private MockMultipartFile createXlsxFile() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Sheet sheet = workbook.createSheet("Data");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(2).setCellValue("Amount");
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            for (int i = 1; i <= 1200; i++) {
+                if (i == 3) {
+                    continue;
+                }
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("item" + i);
+                row.createCell(1).setCellValue(i % 2 == 0);
+                row.createCell(2).setCellFormula(i + "*1.5");
+                if (i == 4) {
+                    row.createCell(4).setCellValue(new Date(0));
+                    row.getCell(4).setCellStyle(dateStyle);
+                }
+            }
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            workbook.write(out);
+            return new MockMultipartFile("file", "data.xlsx",
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testStreamedDataMatchesArraySerialization() throws Exception {
+        AiExcelIntegrationService integrationService = new AiExcelIntegrationService();
+        ReflectionTestUtils.setField(integrationService, "excelService", excelService);
+        ReflectionTestUtils.setField(integrationService, "jsonStreamWriter", jsonStreamWriter);
+        MockMultipartFile file = createXlsxFile();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        integrationService.streamExcelData(file).writeTo(out);
+
+        JsonNode streamed = objectMapper.readTree(out.toByteArray());
+        JsonNode expected = objectMapper.valueToTree(Map.of(
+            "success", true,
+            "data", excelService.getExcelDataAsArray(file)
+        ));
+        assertEquals(expected, streamed);
+        assertEquals(1201, streamed.get("data").size());
+        // 行宽取表头宽度，缺失的行为null
+        assertEquals(3, streamed.get("data").get(4).size());
+        assertTrue(streamed.get("data").get(3).get(0).isNull());
+    }
+
+    @Test
+    public void testStreamedPreviewFromFileAndSessionAgree() throws Exception {
+        ExcelPreviewService previewService = new ExcelPreviewService();
+        ReflectionTestUtils.setField(previewService, "excelService", excelService);
+        ReflectionTestUtils.setField(previewService, "jsonStreamWriter", jsonStreamWriter);
+        MockMultipartFile file = createXlsxFile();
+
+        ByteArrayOutputStream fileOut = new ByteArrayOutputStream();
+        previewService.streamExcelPreviewData(file).writeTo(fileOut);
+        JsonNode fromFile = objectMapper.readTree(fileOut.toByteArray());
+
+        assertTrue(fromFile.get("success").asBoolean());
+        assertEquals("Data", fromFile.get("sheetName").asText());
+        assertEquals(1201, fromFile.get("rowCount").asInt());
+        assertEquals(3, fromFile.get("columnCount").asInt());
+        assertEquals("[\"Name\",\"B\",\"Amount\"]", fromFile.get("headers").toString());
+        // 数据补齐到最宽一行的列数，缺失的行和单元格为空字符串
+        JsonNode data = fromFile.get("data");
+        assertEquals(1201, data.size());
+        assertEquals("[\"\",\"\",\"\",\"\",\"\"]", data.get(3).toString());
+        assertEquals("[\"item1\",\"false\",\"1.5\",\"\",\"\"]", data.get(1).toString());
+
+        try (WorkbookSessionStore store = new WorkbookSessionStore(excelService, Long.MAX_VALUE,
+                Duration.ofMinutes(30), spillDir, System::currentTimeMillis)) {
+            WorkbookSession session = store.create(file);
+            // 会话锁内只复制数据，响应体在释放锁之后写出
+            StreamingResponseBody body = store.readWorkbook(session.getId(),
+                (s, workbook) -> previewService.snapshotExcelPreviewData(s, workbook));
+            ByteArrayOutputStream sessionOut = new ByteArrayOutputStream();
+            body.writeTo(sessionOut);
+            assertEquals(fromFile, objectMapper.readTree(sessionOut.toByteArray()));
+
+            // 再次预览复用会话中缓存的数据帧
+            ByteArrayOutputStream again = new ByteArrayOutputStream();
+            store.readWorkbook(session.getId(), (s, workbook) -> previewService.snapshotExcelPreviewData(s, workbook))
+                .writeTo(again);
+            assertEquals(fromFile, objectMapper.readTree(again.toByteArray()));
+        }
+    }
+}
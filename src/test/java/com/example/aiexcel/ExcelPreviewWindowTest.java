@@ -0,0 +1,127 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.ExcelPreviewService;
+import com.example.aiexcel.service.excel.SheetRowIndex;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.excel.session.WorkbookSession;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试窗口预览：只返回指定行列范围和工作表总尺寸，会话中的行索引在修改前复用
+ */
+public class ExcelPreviewWindowTest {
+
+    @TempDir
+    Path spillDir;
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+
+    private ExcelPreviewService createPreviewService() {
+        ExcelPreviewService previewService = new ExcelPreviewService();
+        ReflectionTestUtils.setField(previewService, "excelService", excelService);
+        return previewService;
+    }
+
+    /**
+     * 第二个工作表：表头行、1000行数据（每10行缺一行）、第1500行有一个更宽的行
+     */
+    private MockMultipartFile createXlsxFile() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            workbook.createSheet("Summary").createRow(0).createCell(0).setCellValue("summary");
+            Sheet sheet = workbook.createSheet("Data");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(2).setCellValue("Score");
+            for (int i = 1; i <= 1000; i++) {
+                if (i % 10 == 0) {
+                    continue;
+                }
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("item" + i);
+                row.createCell(1).setCellFormula("C" + (i + 1) + "*2");
+                row.createCell(2).setCellValue(i);
+            }
+            sheet.createRow(1500).createCell(5).setCellValue("wide");
+            // 写入公式的缓存结果，流式读取时返回缓存值
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            workbook.write(out);
+            return new MockMultipartFile("file", "data.xlsx",
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testWindowReturnsViewportAndTotalDimensions() throws Exception {
+        ExcelPreviewService previewService = createPreviewService();
+        try (WorkbookSessionStore store = new WorkbookSessionStore(excelService, Long.MAX_VALUE,
+                Duration.ofMinutes(30), spillDir, System::currentTimeMillis)) {
+            WorkbookSession session = store.create(createXlsxFile());
+
+            Map<String, Object> window = store.readWorkbook(session.getId(), (s, workbook) ->
+                previewService.getExcelPreviewWindow(workbook, s.getRowIndex(1), 1, 8, 4, 1, 2));
+
+            assertEquals("Data", window.get("sheetName"));
+            assertEquals(1501, window.get("totalRows"));
+            assertEquals(6, window.get("totalColumns"));
+            assertEquals(4, window.get("rowCount"));
+            assertEquals(2, window.get("columnCount"));
+            // 表头取第0行，空表头使用列字母
+            assertArrayEquals(new String[]{"B", "Score"}, (String[]) window.get("headers"));
+            Object[][] data = (Object[][]) window.get("data");
+            assertArrayEquals(new Object[]{"16", "8"}, data[0]);
+            assertArrayEquals(new Object[]{"", ""}, data[2]);
+            assertArrayEquals(new Object[]{"22", "11"}, data[3]);
+
+            // 窗口超出总行数时截断
+            Map<String, Object> tail = store.readWorkbook(session.getId(), (s, workbook) ->
+                previewService.getExcelPreviewWindow(workbook, s.getRowIndex(1), 1, 1490, 100, 0, null));
+            assertEquals(11, tail.get("rowCount"));
+            assertEquals("wide", ((Object[][]) tail.get("data"))[10][5]);
+
+            // 上传文件流式读取得到相同的窗口
+            Map<String, Object> streamed = previewService.getExcelPreviewWindow(createXlsxFile(), 1, 8, 4, 1, 2);
+            assertEquals(1501, streamed.get("totalRows"));
+            assertEquals(6, streamed.get("totalColumns"));
+            assertArrayEquals((String[]) window.get("headers"), (String[]) streamed.get("headers"));
+            assertArrayEquals((Object[][]) window.get("data"), (Object[][]) streamed.get("data"));
+        }
+    }
+
+    @Test
+    public void testRowIndexIsReusedUntilWorkbookIsModified() throws Exception {
+        try (WorkbookSessionStore store = new WorkbookSessionStore(excelService, Long.MAX_VALUE,
+                Duration.ofMinutes(30), spillDir, System::currentTimeMillis)) {
+            WorkbookSession session = store.create(createXlsxFile());
+
+            SheetRowIndex first = store.readWorkbook(session.getId(), (s, workbook) -> s.getRowIndex(1));
+            SheetRowIndex second = store.readWorkbook(session.getId(), (s, workbook) -> s.getRowIndex(1));
+            assertSame(first, second);
+            assertEquals(1501, first.getTotalRows());
+            assertEquals(902, first.getPhysicalRowCount());
+            assertArrayEquals(new int[]{8, 9, 11}, first.rowNumbersInWindow(8, 4));
+
+            store.withWorkbook(session.getId(), workbook -> workbook.getSheetAt(1).createRow(2999));
+            SheetRowIndex rebuilt = store.readWorkbook(session.getId(), (s, workbook) -> s.getRowIndex(1));
+            assertNotSame(first, rebuilt);
+            assertEquals(3000, rebuilt.getTotalRows());
+
+            // 会话锁外不能访问行索引
+            assertThrows(IllegalStateException.class, () -> session.getRowIndex(1));
+        }
+    }
+}
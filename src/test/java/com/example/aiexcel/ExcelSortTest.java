@@ -0,0 +1,196 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelIntegrationService;
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.excel.sort.ExcelSorter;
+import com.example.aiexcel.service.excel.sort.SortKey;
+import com.example.aiexcel.service.excel.sort.SortedRows;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试本地排序：Excel排序规则、多列排序、稳定性，以及超出内存预算时的外部归并
+ */
+public class ExcelSortTest {
+
+    @TempDir
+    Path spillDir;
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+
+    /**
+     * 表头Name、Score；Score包含数值、文本、布尔和空值
+     */
+    private MockMultipartFile createMixedFile() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Sheet sheet = workbook.createSheet("Scores");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(1).setCellValue("Score");
+            Object[][] rows = {
+                {"a", 10.0}, {"b", "beta"}, {"c", null}, {"d", true}, {"e", 2.0},
+                {"f", "Alpha"}, {"g", 10.0}, {"h", false}, {"i", "alpha"}
+            };
+            for (int i = 0; i < rows.length; i++) {
+                Row row = sheet.createRow(i + 1);
+                row.createCell(0).setCellValue((String) rows[i][0]);
+                Object score = rows[i][1];
+                if (score instanceof Double) {
+                    row.createCell(1).setCellValue((Double) score);
+                } else if (score instanceof Boolean) {
+                    row.createCell(1).setCellValue((Boolean) score);
+                } else if (score != null) {
+                    row.createCell(1).setCellValue((String) score);
+                }
+            }
+            workbook.write(out);
+            return new MockMultipartFile("file", "scores.xlsx",
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+        }
+    }
+
+    private List<String> sortNames(MockMultipartFile file, ExcelSorter sorter, List<SortKey> keys) throws Exception {
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            assertTrue(cursor.nextSheet());
+            try (SortedRows rows = sorter.sort(cursor, true, keys)) {
+                List<String> names = new ArrayList<>();
+                while (rows.next()) {
+                    names.add(rows.getValues()[0].toString());
+                }
+                return names;
+            }
+        }
+    }
+
+    @Test
+    public void testExcelOrderingRulesInMemoryAndExternal() throws Exception {
+        MockMultipartFile file = createMixedFile();
+        ExcelSorter inMemory = new ExcelSorter(Long.MAX_VALUE, spillDir);
+
+        // 数值 < 文本（忽略大小写，相同时区分大小写）< 布尔，相等的键保持原顺序，空值最后
+        List<String> ascending = Arrays.asList("e", "a", "g", "f", "i", "b", "h", "d", "c");
+        assertEquals(ascending, sortNames(file, inMemory, SortKey.parse("Score", "asc")));
+        // 降序整体反转，空值仍在最后，相等的键仍保持原顺序
+        List<String> descending = Arrays.asList("d", "h", "b", "i", "f", "a", "g", "e", "c");
+        assertEquals(descending, sortNames(file, inMemory, SortKey.parse("score", "降序")));
+        // 第二个键：Score相同的a、g按Name降序
+        assertEquals(Arrays.asList("e", "g", "a", "f", "i", "b", "h", "d", "c"),
+            sortNames(file, inMemory, SortKey.parse("B,A", "asc,desc")));
+
+        assertThrows(IllegalArgumentException.class, () -> sortNames(file, inMemory, SortKey.parse("Missing", null)));
+        assertThrows(IllegalArgumentException.class, () -> SortKey.parse("A,B", "asc,desc,asc"));
+        assertThrows(IllegalArgumentException.class, () -> SortKey.parse("A", "sideways"));
+    }
+
+    /**
+     * 5000行CSV：Region取4个值，Amount有重复值和空值
+     */
+    private MockMultipartFile createCsvFile() {
+        StringBuilder csv = new StringBuilder("Region,Amount,Id\n");
+        String[] regions = {"North", "south", "East", "west"};
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            String amount = random.nextInt(10) == 0 ? "" : String.valueOf(random.nextInt(200));
+            csv.append(regions[random.nextInt(regions.length)]).append(',').append(amount).append(',').append(i).append('\n');
+        }
+        return new MockMultipartFile("file", "large.csv", "text/csv", csv.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testExternalMergeMatchesInMemorySort() throws Exception {
+        MockMultipartFile file = createCsvFile();
+        List<SortKey> keys = SortKey.parse("Region,Amount", "asc,desc");
+
+        List<Integer> expected = new ArrayList<>();
+        List<Integer> actual = new ArrayList<>();
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            assertTrue(cursor.nextSheet());
+            try (SortedRows rows = new ExcelSorter(Long.MAX_VALUE, spillDir).sort(cursor, true, keys)) {
+                assertFalse(rows.isExternal());
+                while (rows.next()) {
+                    expected.add(rows.getRowNumber());
+                }
+            }
+        }
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            assertTrue(cursor.nextSheet());
+            // 预算极小：每1024行写出一个分块
+            SortedRows rows = new ExcelSorter(1, spillDir).sort(cursor, true, keys);
+            try (rows) {
+                assertTrue(rows.isExternal());
+                assertEquals(5000, rows.getRowCount());
+                assertArrayEquals(new String[]{"Region", "Amount", "Id"}, rows.getHeaders());
+                try (Stream<Path> chunks = Files.list(spillDir)) {
+                    assertEquals(5, chunks.count());
+                }
+                Object[] previous = null;
+                while (rows.next()) {
+                    Object[] values = rows.getValues();
+                    actual.add(rows.getRowNumber());
+                    if (previous != null && previous[0].equals(values[0]) && values[1] != null) {
+                        // 同一Region内Amount降序，空值在最后
+                        assertNotNull(previous[1]);
+                        assertTrue((Double) previous[1] >= (Double) values[1]);
+                    }
+                    previous = values;
+                }
+            }
+            try (Stream<Path> chunks = Files.list(spillDir)) {
+                assertEquals(0, chunks.count());
+            }
+        }
+        assertEquals(5000, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testSortPreviewAndWorkbookOutput() throws Exception {
+        AiExcelIntegrationService integrationService = new AiExcelIntegrationService();
+        ReflectionTestUtils.setField(integrationService, "excelService", excelService);
+        ReflectionTestUtils.setField(integrationService, "excelSorter", new ExcelSorter(Long.MAX_VALUE, spillDir));
+        MockMultipartFile file = createMixedFile();
+
+        Map<String, Object> page = integrationService.sortExcelData(file, "Score", "asc", true, 1, 3);
+        assertEquals(true, page.get("success"));
+        assertEquals(9, page.get("totalRows"));
+        assertEquals(3, page.get("rowCount"));
+        assertArrayEquals(new String[]{"Name", "Score"}, (String[]) page.get("headers"));
+        @SuppressWarnings("unchecked")
+        List<String[]> data = (List<String[]>) page.get("data");
+        assertArrayEquals(new String[]{"a", "10"}, data.get(0));
+        assertEquals(Arrays.asList(1, 7, 6), page.get("sourceRows"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        integrationService.streamSortedWorkbook(file, "Score", "desc", true).writeTo(out);
+        try (Workbook sorted = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+            Sheet sheet = sorted.getSheet("Scores");
+            assertEquals("Score", sheet.getRow(0).getCell(1).getStringCellValue());
+            assertEquals("d", sheet.getRow(1).getCell(0).getStringCellValue());
+            assertTrue(sheet.getRow(1).getCell(1).getBooleanCellValue());
+            assertEquals("c", sheet.getRow(9).getCell(0).getStringCellValue());
+            assertNull(sheet.getRow(9).getCell(1));
+        }
+    }
+}
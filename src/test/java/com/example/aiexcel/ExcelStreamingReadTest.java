@@ -0,0 +1,123 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试基于事件模型的流式读取与DOM读取结果一致
+ */
+public class ExcelStreamingReadTest {
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+
+    private MockMultipartFile createXlsxFile() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Sheet sheet = workbook.createSheet("Sales");
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("Name");
+            header.createCell(1).setCellValue("Qty");
+            header.createCell(2).setCellValue("Price");
+            header.createCell(3).setCellValue("Total");
+
+            Row row1 = sheet.createRow(1);
+            row1.createCell(0).setCellValue("Apple");
+            row1.createCell(1).setCellValue(3);
+            row1.createCell(2).setCellValue(2.5);
+            row1.createCell(3).setCellFormula("B2*C2");
+
+            // 第3行留空，第4行只有部分单元格
+            Row row3 = sheet.createRow(3);
+            row3.createCell(0).setCellValue("Pear");
+            row3.createCell(2).setCellValue(true);
+
+            workbook.getCreationHelper().createFormulaEvaluator().evaluateAll();
+            workbook.write(out);
+            return new MockMultipartFile("file", "sales.xlsx",
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testRowCursorReadsValuesWithoutWorkbook() throws Exception {
+        MockMultipartFile file = createXlsxFile();
+
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            assertTrue(cursor.nextSheet());
+            assertEquals("Sales", cursor.getSheetName());
+
+            assertTrue(cursor.nextRow());
+            assertEquals(0, cursor.getRowIndex());
+            assertArrayEquals(new Object[]{"Name", "Qty", "Price", "Total"}, cursor.getRowValues());
+
+            assertTrue(cursor.nextRow());
+            assertEquals(1, cursor.getRowIndex());
+            assertArrayEquals(new Object[]{"Apple", 3.0, 2.5, 7.5}, cursor.getRowValues());
+
+            assertTrue(cursor.nextRow());
+            assertEquals(3, cursor.getRowIndex());
+            assertArrayEquals(new Object[]{"Pear", null, true}, cursor.getRowValues());
+
+            assertFalse(cursor.nextRow());
+            assertFalse(cursor.nextSheet());
+        }
+    }
+
+    @Test
+    public void testStreamingArrayMatchesDomArray() throws Exception {
+        MockMultipartFile file = createXlsxFile();
+
+        Object[][] streamed = excelService.getExcelDataAsArray(file);
+        Object[][] loaded = excelService.getExcelDataAsArray(excelService.loadWorkbook(file));
+
+        assertEquals(loaded.length, streamed.length);
+        for (int i = 0; i < loaded.length; i++) {
+            assertArrayEquals(loaded[i], streamed[i], "Row " + i + " should match");
+        }
+        assertArrayEquals(new String[]{"Name", "Qty", "Price", "Total"}, excelService.getExcelHeaders(file));
+    }
+
+    @Test
+    public void testCursorsCountFormulaCells() throws Exception {
+        MockMultipartFile file = createXlsxFile();
+        int[] streamed = new int[4];
+        try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+            assertTrue(cursor.nextSheet());
+            while (cursor.nextRow()) {
+                streamed[cursor.getRowIndex()] = cursor.getRowFormulaCount();
+            }
+        }
+        int[] loaded = new int[4];
+        try (Workbook workbook = excelService.loadWorkbook(file);
+             ExcelRowCursor cursor = excelService.openRowCursor(workbook)) {
+            assertTrue(cursor.nextSheet());
+            while (cursor.nextRow()) {
+                loaded[cursor.getRowIndex()] = cursor.getRowFormulaCount();
+            }
+        }
+        // 公式单元格的值是计算结果，公式数单独给出
+        assertArrayEquals(new int[]{0, 1, 0, 0}, streamed);
+        assertArrayEquals(streamed, loaded);
+    }
+
+    @Test
+    public void testCsvCursor() throws Exception {
+        MockMultipartFile csv = new MockMultipartFile("file", "data.csv", "text/csv",
+            "Name,Amount\n\"Doe, John\",100\nJane,abc\n".getBytes());
+
+        String text = excelService.getExcelDataAsString(csv);
+        assertTrue(text.startsWith("Sheet: Sheet1\n"));
+        assertTrue(text.contains("Doe, John\t100.0\t"));
+        assertTrue(text.contains("Jane\tabc\t"));
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.WorkbookEvaluationContext;
+import com.example.aiexcel.service.excel.formula.ExpressionEngine;
+import com.example.aiexcel.service.excel.formula.NumericColumn;
+import com.example.aiexcel.service.excel.formula.SheetExpressionContext;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试APPLY_FORMULA使用的表达式引擎
+ */
+public class ExpressionEngineTest {
+
+    private final ExpressionEngine engine = new ExpressionEngine();
+    private Workbook workbook;
+    private WorkbookEvaluationContext evaluationContext;
+    private SheetExpressionContext context;
+
+    @BeforeEach
+    public void setUp() {
+        workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Sheet1");
+        for (int i = 0; i < 5000; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue(i + 1);
+            row.createCell(1).setCellValue(i % 2 == 0 ? "even" : "odd");
+        }
+        sheet.getRow(0).createCell(2).setCellValue(3);
+        sheet.getRow(0).createCell(3).setCellFormula("A1*10");
+        evaluationContext = new WorkbookEvaluationContext(workbook);
+        context = new SheetExpressionContext(sheet, evaluationContext);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        workbook.close();
+    }
+
+    @Test
+    public void testOperatorPrecedenceAndParentheses() {
+        assertEquals(7.0, engine.evaluate("A1+A2*C1", context));
+        assertEquals(9.0, engine.evaluate("=(A1+A2)*C1", context));
+        assertEquals(-8.0, engine.evaluate("-2^3", context));
+        assertEquals(2.5, engine.evaluate("(A5 - A1) / (C1 - 1) + 0.5", context));
+        assertEquals(13.0, engine.evaluate("D1+C1", context));
+    }
+
+    @Test
+    public void testRangeFunctions() {
+        assertEquals(12502500.0, engine.evaluate("SUM(A1:A5000)", context));
+        assertEquals(3.0, engine.evaluate("AVERAGE(A1:A5)", context));
+        assertEquals(1.0, engine.evaluate("MIN(A1:A5000)", context));
+        assertEquals(5000.0, engine.evaluate("MAX(A1:B5000)", context));
+        assertEquals(5000.0, engine.evaluate("COUNT(A1:B5000)", context));
+        assertEquals(16.0, engine.evaluate("SUM(A1:A3, C1, 7)", context));
+    }
+
+    @Test
+    public void testIfAndComparisons() {
+        assertEquals("big", engine.evaluate("IF(SUM(A1:A3)>5,\"big\",\"small\")", context));
+        assertEquals("even", engine.evaluate("IF(B1=\"EVEN\",B1,B2)", context));
+        assertEquals(Boolean.FALSE, engine.evaluate("IF(A1<>1,1)", context));
+        assertEquals("1-odd", engine.evaluate("A1&\"-\"&B2", context));
+    }
+
+    @Test
+    public void testUpdatedCellsAreVisibleToLaterFormulas() {
+        assertEquals(15.0, engine.evaluate("SUM(A1:A5)", context));
+        workbook.getSheet("Sheet1").getRow(2).getCell(0).setCellValue(100);
+        context.notifyCellUpdated(2, 0, 100.0);
+        assertEquals(112.0, engine.evaluate("SUM(A1:A5)", context));
+    }
+
+    @Test
+    public void testOnlyDependentFormulaColumnsAreInvalidated() {
+        Sheet sheet = workbook.getSheet("Sheet1");
+        NumericColumn formulaColumn = context.getNumericColumn(3);
+        assertEquals(10.0, engine.evaluate("SUM(D1:D2)", context));
+
+        // 写入公式未引用的列不影响公式列快照
+        sheet.getRow(0).getCell(2).setCellValue(5);
+        context.notifyCellUpdated(0, 2, 5.0);
+        assertSame(formulaColumn, context.getNumericColumn(3));
+
+        // 写入被引用的列后公式列重建
+        Cell cell = sheet.getRow(0).getCell(0);
+        cell.setCellValue(7);
+        evaluationContext.notifyUpdateCell(cell);
+        context.notifyCellUpdated(0, 0, 7.0);
+        assertEquals(70.0, engine.evaluate("SUM(D1:D2)", context));
+
+        // 区域填充期间依赖列保持填充前的快照，填充结束后统一重建
+        formulaColumn = context.getNumericColumn(3);
+        Object[][] values = engine.evaluateRange("SUM(D1:D1)+A1", context, 0, 0, 2, 0);
+        assertEquals(77.0, values[0][0]);
+        assertEquals(2.0, values[1][0]);
+        assertNotSame(formulaColumn, context.getNumericColumn(3));
+    }
+
+    @Test
+    public void testCompiledExpressionIsCachedAndErrorsAreReported() {
+        assertSame(engine.compile("SUM(A1:A10)"), engine.compile("=SUM(A1:A10)"));
+        assertThrows(IllegalArgumentException.class, () -> engine.compile("A1+"));
+        assertThrows(IllegalArgumentException.class, () -> engine.compile("VLOOKUP(A1,B1:C2,2)"));
+        assertThrows(ArithmeticException.class, () -> engine.evaluate("A1/0", context));
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.model.FileVersion;
+import com.example.aiexcel.model.OperationHistory;
+import com.example.aiexcel.repository.FileVersionSummary;
+import com.example.aiexcel.repository.OperationHistoryContentRefs;
+import com.example.aiexcel.repository.OperationHistoryRepository;
+import com.example.aiexcel.repository.OperationHistorySummary;
+import com.example.aiexcel.repository.VersionRepository;
+import com.example.aiexcel.service.OperationHistoryService;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.data.domain.PageRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试历史和版本列表：投影只含元数据，键集分页，批量删除
+ */
+@DataJpaTest
+public class HistoryListingRepositoryTest {
+
+    @Autowired
+    private OperationHistoryRepository operationHistoryRepository;
+
+    @Autowired
+    private VersionRepository versionRepository;
+
+    @Test
+    public void testHistoryIsListedInPagesAndDeletedInBulk() {
+        for (int i = 0; i < 25; i++) {
+            OperationHistory history = new OperationHistory("file", "AI_PROCESSING", "command=" + i);
+            history.setChangeJournalHash("journal" + i);
+            history.setReversible(i % 2 == 0);
+            operationHistoryRepository.save(history);
+        }
+        operationHistoryRepository.save(new OperationHistory("other", "AI_PROCESSING", "command"));
+
+        List<Long> ids = new ArrayList<>();
+        List<OperationHistorySummary> page = operationHistoryRepository.findByFileIdOrderByIdDesc("file", PageRequest.of(0, 10));
+        while (!page.isEmpty()) {
+            page.forEach(summary -> ids.add(summary.getId()));
+            Long last = page.get(page.size() - 1).getId();
+            page = operationHistoryRepository.findByFileIdAndIdLessThanOrderByIdDesc("file", last, PageRequest.of(0, 10));
+        }
+        assertEquals(25, ids.size());
+        for (int i = 1; i < ids.size(); i++) {
+            assertTrue(ids.get(i - 1) > ids.get(i));
+        }
+
+        List<OperationHistorySummary> reversible = operationHistoryRepository
+            .findByFileIdAndReversibleTrueOrderByIdDesc("file", PageRequest.of(0, 100));
+        assertEquals(13, reversible.size());
+        assertTrue(reversible.stream().allMatch(OperationHistorySummary::isReversible));
+
+        List<OperationHistoryContentRefs> refs = operationHistoryRepository.findContentRefsByFileId("file");
+        assertEquals(25, refs.size());
+        assertTrue(refs.stream().allMatch(ref -> ref.getChangeJournalHash().startsWith("journal")));
+
+        assertEquals(25, operationHistoryRepository.bulkDeleteByFileId("file"));
+        assertTrue(operationHistoryRepository.findByFileIdOrderByIdDesc("file", PageRequest.of(0, 10)).isEmpty());
+        assertEquals(1, operationHistoryRepository.findByFileIdOrderByIdDesc("other", PageRequest.of(0, 10)).size());
+    }
+
+    @Test
+    public void testOldVersionsArePrunedInBulk() {
+        for (int number = 1; number <= 12; number++) {
+            FileVersion version = new FileVersion("file", number, "v" + number + ".xlsx", "hash" + number,
+                100L, "version " + number, "user");
+            if (number > 1) {
+                version.setBaseVersionNumber(number - 1);
+                version.setDeltaDepth(number - 1);
+            }
+            version.setIsCurrent(number == 3);
+            versionRepository.save(version);
+        }
+
+        List<FileVersionSummary> latest = versionRepository.findByFileIdOrderByVersionNumberDesc("file", PageRequest.of(0, 5));
+        assertEquals(List.of(12, 11, 10, 9, 8), latest.stream().map(FileVersionSummary::getVersionNumber).toList());
+        List<FileVersionSummary> next = versionRepository
+            .findByFileIdAndVersionNumberLessThanOrderByVersionNumberDesc("file", 8, PageRequest.of(0, 5));
+        assertEquals(7, next.get(0).getVersionNumber());
+
+        // 保留最新的5个版本：版本号不大于7的非当前版本将被删除
+        Integer maxDeleted = versionRepository.findByFileIdOrderByVersionNumberDesc("file", PageRequest.of(5, 1))
+            .get(0).getVersionNumber();
+        assertEquals(7, maxDeleted);
+        List<FileVersion> retainedDeltas = versionRepository.findRetainedDeltasBasedAtOrBelow("file", maxDeleted);
+        assertEquals(List.of(3, 8), retainedDeltas.stream().map(FileVersion::getVersionNumber).toList());
+
+        List<String> hashes = versionRepository.findPrunableContentHashes("file", maxDeleted);
+        assertEquals(6, hashes.size());
+        assertFalse(hashes.contains("hash3"));
+        assertEquals(6, versionRepository.bulkDeletePrunable("file", maxDeleted));
+        assertEquals(6, versionRepository.findByFileIdOrderByVersionNumberDesc("file", PageRequest.of(0, 100)).size());
+    }
+
+    @Test
+    public void testWriteTasksAreFoundByTaskKey() {
+        String parameters = OperationHistoryService.truncateParameters("command=" + "x".repeat(20000));
+        assertEquals(OperationHistory.MAX_PARAMETERS_LENGTH, parameters.length());
+
+        OperationHistory history = new OperationHistory("file", "AI_PROCESSING", parameters);
+        history.setTaskKey("task-1");
+        operationHistoryRepository.saveAndFlush(history);
+        FileVersion version = new FileVersion("file", 1, "book.xlsx", "hash", 10L, "edit", "system");
+        version.setTaskKey("task-1");
+        versionRepository.saveAndFlush(version);
+
+        // 重试的任务据此跳过已写入的记录
+        assertEquals(history.getId(), operationHistoryRepository.findByTaskKey("task-1").getId());
+        assertEquals(1, versionRepository.findByTaskKey("task-1").getVersionNumber());
+        assertNull(operationHistoryRepository.findByTaskKey("task-2"));
+        assertNull(versionRepository.findByTaskKey("task-2"));
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.excel.prompt.PromptContextBuilder;
+import com.example.aiexcel.service.excel.prompt.TokenEstimator;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试AI提示词表格上下文在Token预算内生成
+ */
+public class PromptContextBuilderTest {
+
+    @Test
+    public void testSmallSheetKeepsAllRows() throws Exception {
+        PromptContextBuilder builder = new PromptContextBuilder(new ExcelServiceImpl(), 2000, 20);
+        try (Workbook workbook = createWorkbook(10)) {
+            String context = builder.build(workbook);
+
+            assertTrue(context.contains("Sheet: Sales (10 data rows, 3 columns, header in row 1)"));
+            assertTrue(context.contains("- B Amount: number; 10 values; min 10, max 100, mean 55, sum 550"));
+            assertTrue(context.contains("- C Region: text; 10 values; 2 distinct; top: East (5), West (5)"));
+            assertTrue(context.contains("All 10 rows:"));
+            assertTrue(context.contains("row 11:\tItem 10\t100\tWest"));
+        }
+    }
+
+    @Test
+    public void testLargeSheetStaysWithinBudget() throws Exception {
+        PromptContextBuilder builder = new PromptContextBuilder(new ExcelServiceImpl(), 1500, 30);
+        try (Workbook workbook = createWorkbook(20000)) {
+            String context = builder.build(workbook);
+
+            assertTrue(TokenEstimator.estimate(context) <= 1500);
+            // 统计覆盖全部行
+            assertTrue(context.contains("Sheet: Sales (20000 data rows"));
+            assertTrue(context.contains("max 200000"));
+            assertTrue(context.contains("row 2:\tItem 1\t10\tEast"));
+            assertTrue(context.contains("more rows not shown"));
+            // 相同输入输出相同
+            assertEquals(context, builder.build(workbook));
+        }
+    }
+
+    private Workbook createWorkbook(int rows) {
+        Workbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Sales");
+        Row header = sheet.createRow(0);
+        header.createCell(0).setCellValue("Item");
+        header.createCell(1).setCellValue("Amount");
+        header.createCell(2).setCellValue("Region");
+        for (int i = 1; i <= rows; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue("Item " + i);
+            row.createCell(1).setCellValue(i * 10);
+            row.createCell(2).setCellValue(i % 2 == 1 ? "East" : "West");
+        }
+        return workbook;
+    }
+}
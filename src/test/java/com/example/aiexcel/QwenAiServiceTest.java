@@ -1,17 +1,29 @@
 package com.example.aiexcel;
 
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.impl.AiHttpTransport;
 import com.example.aiexcel.service.ai.impl.QwenAiService;
+import com.sun.net.httpserver.HttpServer;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.TestPropertySource;
 
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
  * 测试QwenAiService中API Key的加载
  */
-@SpringBootTest(classes = {QwenAiService.class})
+@SpringBootTest(classes = {QwenAiService.class, AiHttpTransport.class})
 @TestPropertySource(properties = {
     "qwen.api.api-key=sk-08ea3abd973c4add89bf79d88929067d",
     "qwen.api.base-url=https://dashscope.aliyuncs.com/compatible-mode/v1",
@@ -32,4 +44,68 @@ public class QwenAiServiceTest {
         
         System.out.println("QwenAiService initialized successfully with proper API Key handling");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testStreamingResponseRelaysEachDelta() throws Exception {
+        // 本地HTTP服务模拟OpenAI兼容的 text/event-stream 响应
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            String body = ": keep-alive\n\n"
+                + "data: {\"id\":\"c1\",\"model\":\"qwen-max\",\"choices\":[{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"}}]}\n\n"
+                + "data: {\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\"你好\"}}]}\n\n"
+                + "data: {\"id\":\"c1\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\", world\"},\"finish_reason\":\"stop\"}]}\n\n"
+                + "data: [DONE]\n\n";
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+        try (AiHttpTransport transport = new AiHttpTransport()) {
+            QwenAiService service = new QwenAiService("sk-test",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/v1", "qwen-max", transport);
+            AiRequest request = new AiRequest();
+            request.setMessages(Arrays.asList(new AiRequest.Message("user", "hi")));
+
+            List<String> deltas = new ArrayList<>();
+            AiResponse response = service.generateStreamingResponse(request, deltas::add);
+
+            assertEquals(Arrays.asList("你好", ", world"), deltas);
+            assertEquals("你好, world", response.getChoices()[0].getMessage().getContent());
+            assertEquals("c1", response.getId());
+            assertEquals("stop", response.getChoices()[0].getFinish_reason());
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testAsyncResponseCompletesWithoutBlocking() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            byte[] bytes = ("{\"id\":\"c2\",\"choices\":[{\"index\":0,"
+                + "\"message\":{\"role\":\"assistant\",\"content\":\"ok\"},\"finish_reason\":\"stop\"}]}")
+                .getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+            exchange.close();
+        });
+        server.start();
+        try (AiHttpTransport transport = new AiHttpTransport()) {
+            QwenAiService service = new QwenAiService("sk-test",
+                "http://127.0.0.1:" + server.getAddress().getPort() + "/v1", "qwen-max", transport);
+            AiRequest request = new AiRequest();
+            request.setMessages(Arrays.asList(new AiRequest.Message("user", "hi")));
+
+            CompletableFuture<AiResponse> future = service.generateResponseAsync(request);
+            AiResponse response = future.get(10, TimeUnit.SECONDS);
+            assertEquals("ok", response.getChoices()[0].getMessage().getContent());
+            // 同步调用走同一传输
+            assertEquals("c2", service.generateResponse(request).getId());
+        } finally {
+            server.stop(0);
+        }
+    }
+}
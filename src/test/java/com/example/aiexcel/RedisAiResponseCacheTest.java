@@ -0,0 +1,139 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.dto.AiRequest;
+import com.example.aiexcel.dto.AiResponse;
+import com.example.aiexcel.service.ai.AiService;
+import com.example.aiexcel.service.ai.cache.LocalAiResponseCache;
+import com.example.aiexcel.service.ai.cache.RedisAiResponseCache;
+import com.example.aiexcel.service.ai.impl.CachingAiService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * 测试Redis共享AI响应缓存：键前缀与TTL、响应序列化往返、未命中与Redis故障，以及聊天请求不进入缓存
+ */
+public class RedisAiResponseCacheTest {
+
+    private final Map<String, String> store = new HashMap<>();
+    private StringRedisTemplate redisTemplate;
+    private ValueOperations<String, String> valueOperations;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        redisTemplate = mock(StringRedisTemplate.class);
+        valueOperations = mock(ValueOperations.class);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(anyString())).thenAnswer(invocation -> store.get(invocation.<String>getArgument(0)));
+        doAnswer(invocation -> store.put(invocation.getArgument(0), invocation.getArgument(1)))
+            .when(valueOperations).set(anyString(), anyString(), any(Duration.class));
+    }
+
+    @Test
+    public void testPutUsesPrefixAndTtl() {
+        RedisAiResponseCache cache = new RedisAiResponseCache(redisTemplate, "ai:response:");
+        cache.put("k1", "{\"id\":1}", Duration.ofSeconds(90));
+
+        verify(valueOperations).set("ai:response:k1", "{\"id\":1}", Duration.ofSeconds(90));
+        assertEquals("{\"id\":1}", cache.get("k1"));
+        // 未命中返回null
+        assertNull(cache.get("missing"));
+        verify(valueOperations).get("ai:response:missing");
+    }
+
+    @Test
+    public void testRedisFailureIsTreatedAsMiss() {
+        when(valueOperations.get(anyString())).thenThrow(new RedisConnectionFailureException("down"));
+        doThrow(new RedisConnectionFailureException("down"))
+            .when(valueOperations).set(anyString(), anyString(), any(Duration.class));
+        RedisAiResponseCache cache = new RedisAiResponseCache(redisTemplate, "ai:response:");
+
+        assertDoesNotThrow(() -> cache.put("k1", "{}", Duration.ofSeconds(1)));
+        assertNull(cache.get("k1"));
+    }
+
+    @Test
+    public void testResponsesRoundTripThroughRedis() {
+        CountingAiService delegate = new CountingAiService();
+        RedisAiResponseCache shared = new RedisAiResponseCache(redisTemplate, "ai:response:");
+        new CachingAiService(delegate, new LocalAiResponseCache(10), shared, Duration.ofMinutes(5), "qwen-max")
+            .generateResponse(request("summarize", true));
+        assertEquals(1, store.size());
+        assertTrue(store.keySet().iterator().next().startsWith("ai:response:"));
+        verify(valueOperations).set(anyString(), anyString(), eq(Duration.ofMinutes(5)));
+
+        // 另一个实例从Redis读取并反序列化出相同的响应
+        CachingAiService reader = new CachingAiService(delegate, new LocalAiResponseCache(10), shared,
+            Duration.ofMinutes(5), "qwen-max");
+        AiResponse response = reader.generateResponse(request("summarize", true));
+        assertEquals(1, delegate.calls.get());
+        assertEquals("answer to summarize", response.getChoices()[0].getMessage().getContent());
+    }
+
+    @Test
+    public void testNonCacheableRequestsBypassCache() {
+        CountingAiService delegate = new CountingAiService();
+        CachingAiService service = new CachingAiService(delegate, new LocalAiResponseCache(10),
+            new RedisAiResponseCache(redisTemplate, "ai:response:"), Duration.ofMinutes(5), "qwen-max");
+
+        service.generateResponse(request("hello", false));
+        service.generateStreamingResponse(request("hello", false), delta -> { });
+        assertEquals(2, delegate.calls.get());
+        assertTrue(store.isEmpty());
+        verifyNoInteractions(valueOperations);
+    }
+
+    private static AiRequest request(String content, boolean cacheable) {
+        AiRequest request = new AiRequest();
+        request.setMessages(Arrays.asList(new AiRequest.Message("user", content)));
+        request.setCacheable(cacheable);
+        return request;
+    }
+
+    private static class CountingAiService implements AiService {
+        final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public AiResponse generateResponse(AiRequest request) {
+            calls.incrementAndGet();
+            return new AiResponse("answer to " + request.getMessages().get(0).getContent());
+        }
+
+        @Override
+        public CompletableFuture<AiResponse> generateResponseAsync(AiRequest request) {
+            return CompletableFuture.completedFuture(generateResponse(request));
+        }
+
+        @Override
+        public AiResponse generateStreamingResponse(AiRequest request) {
+            return generateResponse(request);
+        }
+
+        @Override
+        public AiResponse generateStreamingResponse(AiRequest request, Consumer<String> onDelta) {
+            AiResponse response = generateResponse(request);
+            onDelta.accept(response.getChoices()[0].getMessage().getContent());
+            return response;
+        }
+
+        @Override
+        public boolean testConnection() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.ExcelRowCursor;
+import com.example.aiexcel.service.excel.frame.ColumnStats;
+import com.example.aiexcel.service.excel.frame.ColumnType;
+import com.example.aiexcel.service.excel.frame.FrameColumn;
+import com.example.aiexcel.service.excel.frame.SheetFrame;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.util.BitSet;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试列式数据帧：按类型存储、混合类型列、字典编码的文本扫描、列统计
+ */
+public class SheetFrameTest {
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+
+    /**
+     * 表头 + 1000行：Region（4个取值）、Amount（数值，每7行缺一个）、Date、Active、Code（数值和文本混合）
+     * 第500行缺失
+     */
+    private SheetFrame readFrame() throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Sheet sheet = workbook.createSheet("Sales");
+            String[] headers = {"Region", "Amount", "Date", "Active", "Code"};
+            Row header = sheet.createRow(0);
+            for (int i = 0; i < headers.length; i++) {
+                header.createCell(i).setCellValue(headers[i]);
+            }
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.getCreationHelper().createDataFormat().getFormat("yyyy-mm-dd"));
+            String[] regions = {"North", "South", "East", "West"};
+            for (int i = 1; i <= 1001; i++) {
+                if (i == 500) {
+                    continue;
+                }
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue(regions[i % 4]);
+                if (i % 7 != 0) {
+                    row.createCell(1).setCellValue(i);
+                }
+                row.createCell(2).setCellValue(new Date(86_400_000L * i));
+                row.getCell(2).setCellStyle(dateStyle);
+                row.createCell(3).setCellValue(i % 2 == 0);
+                if (i % 3 == 0) {
+                    row.createCell(4).setCellValue("X" + i);
+                } else {
+                    row.createCell(4).setCellValue(i);
+                }
+            }
+            workbook.write(out);
+            MockMultipartFile file = new MockMultipartFile("file", "sales.xlsx",
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+            try (ExcelRowCursor cursor = excelService.openRowCursor(file)) {
+                assertTrue(cursor.nextSheet());
+                return SheetFrame.read(cursor, true);
+            }
+        }
+    }
+
+    @Test
+    public void testColumnsAreTypedAndMappedToSheetRows() throws Exception {
+        SheetFrame frame = readFrame();
+
+        assertEquals("Sales", frame.getSheetName());
+        assertEquals(0, frame.getHeaderRowNumber());
+        assertEquals(1000, frame.getRowCount());
+        assertArrayEquals(new String[]{"Region", "Amount", "Date", "Active", "Code"}, frame.getHeaders());
+        // 缺失的第500行被跳过，帧中第499行对应工作表第501行
+        assertEquals(499, frame.getRowNumber(498));
+        assertEquals(501, frame.getRowNumber(499));
+
+        assertEquals(ColumnType.TEXT, frame.findColumn("region").getType());
+        assertEquals(ColumnType.NUMBER, frame.findColumn("Amount").getType());
+        assertEquals(ColumnType.DATE, frame.findColumn("C").getType());
+        assertEquals(ColumnType.BOOLEAN, frame.findColumn("Active").getType());
+        assertEquals(ColumnType.MIXED, frame.findColumn("Code").getType());
+        assertNull(frame.findColumn("Missing"));
+
+        FrameColumn region = frame.findColumn("Region");
+        assertEquals(4, region.getDictionary().size());
+        assertEquals("South", region.getValue(0));
+
+        FrameColumn code = frame.findColumn("Code");
+        assertEquals(ColumnType.NUMBER, code.kindAt(0));
+        assertEquals(1.0, code.getValue(0));
+        assertEquals(ColumnType.TEXT, code.kindAt(2));
+        assertEquals("X3", code.getValue(2));
+        assertEquals(new Date(86_400_000L), frame.findColumn("Date").getValue(0));
+        assertArrayEquals(new Object[]{"West", null, new Date(86_400_000L * 7), false, 7.0}, frame.getRow(6));
+    }
+
+    @Test
+    public void testScansAndAggregates() throws Exception {
+        SheetFrame frame = readFrame();
+        FrameColumn region = frame.findColumn("Region");
+        FrameColumn amount = frame.findColumn("Amount");
+
+        BitSet north = region.scanText("North"::equals);
+        assertEquals(249, north.cardinality());
+        BitSet large = amount.scanNumbers(value -> value > 900);
+        // 901..1001中不是7的倍数的值
+        assertEquals(101 - 15, large.cardinality());
+
+        BitSet northLarge = (BitSet) north.clone();
+        northLarge.and(large);
+        ColumnStats stats = amount.stats(northLarge);
+        assertEquals(northLarge.cardinality(), stats.getNumberCount());
+        assertTrue(stats.getMin() > 900);
+        assertEquals(0, stats.getNullCount());
+
+        ColumnStats all = amount.stats();
+        assertEquals(143, all.getNullCount());
+        assertEquals(1000, all.getMax());
+        assertEquals(all.getSum() / all.getNumberCount(), all.getMean());
+
+        assertEquals(499, frame.findColumn("Active").scanBooleans(true).cardinality());
+        assertEquals(10, frame.findColumn("Date").scanDates(millis -> millis <= 86_400_000L * 10).cardinality());
+
+        ColumnStats codeStats = frame.findColumn("Code").stats();
+        assertEquals(333, codeStats.getTextCount());
+        assertEquals(333, codeStats.getDistinctTextCount());
+        assertEquals(667, codeStats.getNumberCount());
+        assertEquals(333, frame.findColumn("Code").scanText(text -> text.startsWith("X")).cardinality());
+
+        // 列式存储小于每格一个装箱对象加引用
+        assertTrue(frame.estimateBytes() < 1000L * 5 * 24);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.model.FileVersion;
+import com.example.aiexcel.repository.VersionRepository;
+import com.example.aiexcel.service.persistence.VersionNumberAllocator;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试版本号分配：并发插入得到连续不重复的版本号，版本号冲突时校准后重试，当前版本一条语句切换
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class VersionNumberAllocatorTest {
+
+    @Autowired
+    private VersionRepository versionRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @AfterEach
+    public void cleanUp() {
+        versionRepository.deleteAll();
+    }
+
+    private static FileVersion newVersion(String fileId) {
+        return new FileVersion(fileId, null, "book.xlsx", null, 0L, "edit", "user");
+    }
+
+    @Test
+    public void testConcurrentInsertsGetGapFreeNumbers() throws Exception {
+        VersionNumberAllocator allocator = new VersionNumberAllocator(versionRepository, transactionManager, 5);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < 80; i++) {
+                String fileId = i % 4 == 0 ? "cold" : "hot";
+                Callable<Integer> insert = () -> allocator.insert(newVersion(fileId)).getVersionNumber();
+                results.add(executor.submit(insert));
+            }
+            for (Future<Integer> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(60, versionRepository.findMaxVersionNumberByFileId("hot"));
+        assertEquals(20, versionRepository.findMaxVersionNumberByFileId("cold"));
+        assertEquals(60, versionRepository.findByFileIdOrderByVersionNumberDesc("hot").size());
+    }
+
+    @Test
+    public void testConflictingNumberIsSkipped() {
+        VersionNumberAllocator allocator = new VersionNumberAllocator(versionRepository, transactionManager, 5);
+        assertEquals(1, allocator.insert(newVersion("file")).getVersionNumber());
+
+        // 其他实例写入了计数器尚不知道的版本2、3
+        FileVersion foreign = newVersion("file");
+        foreign.setVersionNumber(2);
+        versionRepository.save(foreign);
+        foreign = newVersion("file");
+        foreign.setVersionNumber(3);
+        versionRepository.save(foreign);
+
+        assertEquals(4, allocator.insert(newVersion("file")).getVersionNumber());
+        // 新建的分配器以数据库中的最大版本号为初值
+        assertEquals(5, new VersionNumberAllocator(versionRepository, transactionManager, 5)
+            .insert(newVersion("file")).getVersionNumber());
+    }
+
+    @Test
+    public void testRolledBackBatchReturnsNumberAndRetriesConflictAtBatchLevel() {
+        VersionNumberAllocator allocator = new VersionNumberAllocator(versionRepository, transactionManager, 5);
+        TransactionTemplate batch = new TransactionTemplate(transactionManager);
+
+        // 插入加入外层事务，外层回滚后版本号归还
+        batch.executeWithoutResult(status -> {
+            assertEquals(1, allocator.insert(newVersion("file")).getVersionNumber());
+            status.setRollbackOnly();
+        });
+        assertEquals(1, allocator.insert(newVersion("file")).getVersionNumber());
+
+        // 外层事务中的冲突不在分配器内重试，整批回滚后由外层重试
+        FileVersion foreign = newVersion("file");
+        foreign.setVersionNumber(2);
+        versionRepository.save(foreign);
+        DataIntegrityViolationException conflict = assertThrows(DataIntegrityViolationException.class,
+            () -> batch.executeWithoutResult(status -> allocator.insert(newVersion("file"))));
+        assertTrue(VersionNumberAllocator.isVersionNumberConflict(conflict));
+        assertEquals(3, batch.execute(status -> allocator.insert(newVersion("file"))).getVersionNumber());
+    }
+
+    @Test
+    public void testIdleCountersAreEvicted() {
+        VersionNumberAllocator allocator = new VersionNumberAllocator(versionRepository, transactionManager, 5, 2, 4);
+        for (int i = 0; i < 20; i++) {
+            allocator.insert(newVersion("file" + i));
+        }
+        assertTrue(allocator.getCounterCount() <= 4);
+
+        // 被淘汰的计数器从数据库重新取初值
+        for (int i = 0; i < 20; i++) {
+            assertEquals(2, allocator.insert(newVersion("file" + i)).getVersionNumber());
+        }
+    }
+
+    @Test
+    public void testOtherConstraintViolationsAreNotRetried() {
+        VersionNumberAllocator allocator = new VersionNumberAllocator(versionRepository, transactionManager, 5);
+        FileVersion first = newVersion("file");
+        first.setTaskKey("task");
+        allocator.insert(first);
+
+        FileVersion duplicate = newVersion("file");
+        duplicate.setTaskKey("task");
+        DataIntegrityViolationException e = assertThrows(DataIntegrityViolationException.class,
+            () -> allocator.insert(duplicate));
+        assertFalse(VersionNumberAllocator.isVersionNumberConflict(e));
+        assertEquals(1, versionRepository.findMaxVersionNumberByFileId("file"));
+        assertEquals(2, allocator.insert(newVersion("file")).getVersionNumber());
+    }
+
+    @Test
+    public void testSwitchCurrentVersion() {
+        VersionNumberAllocator allocator = new VersionNumberAllocator(versionRepository, transactionManager, 5);
+        for (int i = 0; i < 3; i++) {
+            allocator.insert(newVersion("file"));
+        }
+        allocator.insert(newVersion("other"));
+        versionRepository.switchCurrentVersion("other", 1);
+
+        assertEquals(1, versionRepository.switchCurrentVersion("file", 2));
+        assertEquals(2, versionRepository.findByFileIdAndIsCurrentTrue("file").getVersionNumber());
+        // 原当前版本取消、新当前版本设置，两行由同一条语句更新
+        assertEquals(2, versionRepository.switchCurrentVersion("file", 3));
+        assertEquals(3, versionRepository.findByFileIdAndIsCurrentTrue("file").getVersionNumber());
+        assertEquals(1, versionRepository.findByFileIdAndIsCurrentTrue("other").getVersionNumber());
+    }
+}
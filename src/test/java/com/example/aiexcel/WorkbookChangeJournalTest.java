@@ -0,0 +1,188 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.AiExcelCommandParser;
+import com.example.aiexcel.service.excel.WorkbookChangeJournal;
+import com.example.aiexcel.service.excel.formula.ExpressionEngine;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试变更日志：只记录被修改的单元格，修改后的文件加日志可还原出修改前的工作簿
+ */
+public class WorkbookChangeJournalTest {
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+    private final AiExcelCommandParser parser = new AiExcelCommandParser(excelService, new ExpressionEngine());
+
+    @Test
+    public void testRevertRestoresOriginalWorkbook() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            for (int i = 0; i < 8; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("item" + i);
+                row.createCell(1).setCellValue(i * 10);
+            }
+            sheet.getRow(0).createCell(2).setCellFormula("SUM(B1:B8)");
+            sheet.getRow(3).createCell(2).setCellFormula("B4*2");
+            sheet.addMergedRegion(CellRangeAddress.valueOf("D6:E7"));
+            Map<String, String> original = snapshot(workbook);
+
+            excelService.beginChangeJournal(workbook);
+            String response = "[SET_CELL:A1:changed][DELETE_ROW:4][INSERT_COLUMN:1:x,y]"
+                + "[SET_RANGE:A2:A3:filled][SET_CELL:A1:again]";
+            parser.parseAndExecuteCommands(workbook, response);
+            WorkbookChangeJournal journal = excelService.endChangeJournal(workbook);
+            assertNotEquals(original, snapshot(workbook));
+            assertFalse(journal.isEmpty());
+            assertTrue(journal.getCellCount() < 40);
+
+            // 模拟持久化：只保存修改后的文件和日志
+            byte[] after = excelService.getWorkbookAsBytes(workbook);
+            WorkbookChangeJournal restored = WorkbookChangeJournal.fromJson(journal.toJson());
+            assertEquals(journal.getCellCount(), restored.getCellCount());
+
+            try (Workbook reconstructed = excelService.loadWorkbook(new ByteArrayInputStream(after))) {
+                restored.revert(reconstructed, excelService);
+                assertEquals(original, snapshot(reconstructed));
+                assertEquals("D6:E7", reconstructed.getSheet("Sheet1").getMergedRegion(0).formatAsString());
+            }
+        }
+    }
+
+    @Test
+    public void testUndoThenRedoByReplayingCommandLog() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            for (int i = 0; i < 6; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("item" + i);
+                row.createCell(1).setCellValue(i);
+            }
+            Map<String, String> original = snapshot(workbook);
+
+            excelService.beginChangeJournal(workbook);
+            List<AiExcelCommandParser.CommandResult> results = parser.parseAndExecuteCommands(workbook,
+                "[SET_CELL:A1:title][INSERT_ROW:2:new,99][DELETE_COLUMN:0][INSERT_COLUMN:0:a,b]"
+                    + "[SET_RANGE:C1:C3:=B1*2][FILL_SERIES:D1:D4:5,5][APPLY_FORMULA:E1:B2+B3]");
+            WorkbookChangeJournal journal = excelService.endChangeJournal(workbook);
+            Map<String, String> modified = snapshot(workbook);
+
+            // 撤销：回放逆操作
+            journal.revert(workbook, excelService);
+            assertEquals(original, snapshot(workbook));
+
+            // 重做：按序列化后的命令列表重新执行成功的命令
+            ObjectMapper mapper = new ObjectMapper();
+            List<AiExcelCommandParser.CommandResult> log = mapper.readValue(mapper.writeValueAsString(results),
+                new TypeReference<List<AiExcelCommandParser.CommandResult>>() {});
+            String replay = log.stream()
+                .filter(AiExcelCommandParser.CommandResult::isSuccess)
+                .map(AiExcelCommandParser.CommandResult::toCommandText)
+                .collect(Collectors.joining("\n"));
+            assertEquals(results.size(), replay.split("\n").length);
+
+            excelService.beginChangeJournal(workbook);
+            parser.parseAndExecuteCommands(workbook, replay);
+            WorkbookChangeJournal redoJournal = excelService.endChangeJournal(workbook);
+            assertEquals(modified, snapshot(workbook));
+
+            // 重做产生的日志可再次撤销
+            redoJournal.revert(workbook, excelService);
+            assertEquals(original, snapshot(workbook));
+        }
+    }
+
+    @Test
+    public void testWritesOutsideJournalAreNotRecorded() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            workbook.createSheet("Sheet1");
+            excelService.updateCell(workbook, "Sheet1", 0, 0, "before");
+
+            WorkbookChangeJournal journal = excelService.beginChangeJournal(workbook);
+            excelService.updateCell(workbook, "Sheet1", 0, 0, "first");
+            excelService.updateCell(workbook, "Sheet1", 0, 0, "second");
+            assertSame(journal, excelService.endChangeJournal(workbook));
+            excelService.updateCell(workbook, "Sheet1", 1, 0, "untracked");
+
+            // 同一单元格只记录第一次修改前的内容
+            assertEquals(1, journal.getCellCount());
+            journal.revert(workbook, excelService);
+            assertEquals("before", workbook.getSheet("Sheet1").getRow(0).getCell(0).getStringCellValue());
+        }
+    }
+
+    @Test
+    public void testUndoRecalculatesOnlyDependentsOfJournaledCells() throws Exception {
+        try (Workbook workbook = new XSSFWorkbook()) {
+            Sheet sheet = workbook.createSheet("Sheet1");
+            Row row = sheet.createRow(0);
+            row.createCell(0).setCellValue(1);
+            row.createCell(1).setCellFormula("A1*2");
+            row.createCell(2).setCellValue(5);
+            row.createCell(3).setCellFormula("C1+1");
+            excelService.evaluateAllFormulasInWorkbook(workbook);
+
+            excelService.beginChangeJournal(workbook);
+            excelService.updateCell(workbook, "Sheet1", 0, 0, 10.0);
+            excelService.updateCell(workbook, "Sheet1", 1, 0, "new");
+            WorkbookChangeJournal journal = excelService.endChangeJournal(workbook);
+            excelService.evaluateFormulasAffectedBy(workbook, journal);
+            assertEquals(20.0, row.getCell(1).getNumericCellValue());
+
+            // 不依赖日志中单元格的公式不会被重算：故意写入错误的缓存结果
+            row.getCell(3).setCellValue(99);
+            journal.revert(workbook, excelService);
+            excelService.evaluateFormulasAffectedBy(workbook, journal);
+
+            assertEquals(1.0, row.getCell(0).getNumericCellValue());
+            assertEquals(2.0, row.getCell(1).getNumericCellValue());
+            assertEquals(99.0, row.getCell(3).getNumericCellValue());
+            assertNull(sheet.getRow(1).getCell(0));
+        }
+    }
+
+    private static Map<String, String> snapshot(Workbook workbook) {
+        Map<String, String> cells = new TreeMap<>();
+        for (Sheet sheet : workbook) {
+            for (Row row : sheet) {
+                for (Cell cell : row) {
+                    String key = sheet.getSheetName() + "!" + cell.getAddress().formatAsString();
+                    switch (cell.getCellType()) {
+                        case FORMULA:
+                            cells.put(key, "=" + cell.getCellFormula());
+                            break;
+                        case NUMERIC:
+                            cells.put(key, String.valueOf(cell.getNumericCellValue()));
+                            break;
+                        case STRING:
+                            cells.put(key, cell.getStringCellValue());
+                            break;
+                        case BLANK:
+                            break;
+                        default:
+                            cells.put(key, cell.toString());
+                            break;
+                    }
+                }
+            }
+        }
+        return cells;
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.WorkbookDelta;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.common.usermodel.HyperlinkType;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.ClientAnchor;
+import org.apache.poi.ss.usermodel.Comment;
+import org.apache.poi.ss.usermodel.CreationHelper;
+import org.apache.poi.ss.usermodel.DataValidationHelper;
+import org.apache.poi.ss.usermodel.HorizontalAlignment;
+import org.apache.poi.ss.usermodel.Hyperlink;
+import org.apache.poi.ss.usermodel.Name;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.SheetConditionalFormatting;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.ss.util.CellAddress;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.ss.util.CellRangeAddressList;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试版本增量：只记录变化的单元格，应用到上一版本后与新版本一致；无法按单元格表达的变化返回null
+ */
+public class WorkbookDeltaTest {
+
+    private final ExcelServiceImpl excelService = new ExcelServiceImpl();
+
+    private Workbook createWorkbook() {
+        Workbook workbook = new XSSFWorkbook();
+        Sheet sheet = workbook.createSheet("Data");
+        for (int i = 0; i < 500; i++) {
+            Row row = sheet.createRow(i);
+            row.createCell(0).setCellValue("item" + i);
+            row.createCell(1).setCellValue(i);
+        }
+        return workbook;
+    }
+
+    private Workbook copy(Workbook workbook) throws Exception {
+        return excelService.loadWorkbook(new ByteArrayInputStream(excelService.getWorkbookAsBytes(workbook)));
+    }
+
+    @Test
+    public void testDeltaReproducesTargetVersion() throws Exception {
+        try (Workbook previous = createWorkbook(); Workbook next = copy(previous)) {
+            Sheet sheet = next.getSheet("Data");
+            sheet.getRow(3).getCell(1).setCellValue(999);
+            sheet.getRow(4).removeCell(sheet.getRow(4).getCell(0));
+            Cell total = sheet.getRow(0).createCell(2);
+            total.setCellFormula("SUM(B1:B500)");
+            excelService.evaluateAllFormulasInWorkbook(next);
+            sheet.createRow(600).createCell(0).setCellValue(true);
+
+            WorkbookDelta delta = WorkbookDelta.compute(previous, next);
+            assertNotNull(delta);
+            assertEquals(4, delta.getCellCount());
+            byte[] bytes = delta.toBytes();
+            assertTrue(bytes.length < excelService.getWorkbookAsBytes(next).length);
+
+            try (Workbook rebuilt = copy(previous)) {
+                WorkbookDelta.fromBytes(bytes).apply(rebuilt);
+                WorkbookDelta remaining = WorkbookDelta.compute(rebuilt, next);
+                assertNotNull(remaining);
+                assertTrue(remaining.isEmpty());
+
+                Cell rebuiltTotal = rebuilt.getSheet("Data").getRow(0).getCell(2);
+                assertEquals("SUM(B1:B500)", rebuiltTotal.getCellFormula());
+                assertEquals(total.getNumericCellValue(), rebuiltTotal.getNumericCellValue());
+            }
+        }
+    }
+
+    @Test
+    public void testUnrepresentableChangesRequireKeyframe() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            try (Workbook renamed = copy(previous)) {
+                renamed.setSheetName(0, "Renamed");
+                assertNull(WorkbookDelta.compute(previous, renamed));
+            }
+            try (Workbook merged = copy(previous)) {
+                merged.getSheet("Data").addMergedRegion(CellRangeAddress.valueOf("A1:B1"));
+                assertNull(WorkbookDelta.compute(previous, merged));
+            }
+            try (Workbook styled = copy(previous)) {
+                styled.getSheet("Data").getRow(0).getCell(0).setCellStyle(styled.createCellStyle());
+                assertNull(WorkbookDelta.compute(previous, styled));
+            }
+        }
+    }
+
+    /**
+     * 按版本服务的方式保存新版本再还原：能表达为差异时应用到上一版本，否则保存完整文件
+     * 断言单元格以外的变化走关键帧，且还原后保留该变化
+     */
+    private void assertKeyframeRoundTrip(Workbook previous, Consumer<Workbook> edit, Consumer<Workbook> verify)
+            throws Exception {
+        byte[] content;
+        try (Workbook next = copy(previous)) {
+            edit.accept(next);
+            content = excelService.getWorkbookAsBytes(next);
+        }
+        try (Workbook target = excelService.loadWorkbook(new ByteArrayInputStream(content))) {
+            assertNull(WorkbookDelta.compute(previous, target));
+        }
+        try (Workbook restored = excelService.loadWorkbook(new ByteArrayInputStream(content))) {
+            verify.accept(restored);
+        }
+        // 未变化时仍然可以只存差异
+        try (Workbook unchanged = copy(previous)) {
+            WorkbookDelta delta = WorkbookDelta.compute(previous, unchanged);
+            assertNotNull(delta);
+            assertTrue(delta.isEmpty());
+        }
+    }
+
+    @Test
+    public void testColumnWidthChangeRoundTrips() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            assertKeyframeRoundTrip(previous,
+                next -> next.getSheet("Data").setColumnWidth(1, 8000),
+                restored -> assertEquals(8000, restored.getSheet("Data").getColumnWidth(1)));
+        }
+    }
+
+    @Test
+    public void testRowHeightChangeRoundTrips() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            assertKeyframeRoundTrip(previous,
+                next -> next.getSheet("Data").getRow(2).setHeight((short) 900),
+                restored -> assertEquals(900, restored.getSheet("Data").getRow(2).getHeight()));
+        }
+    }
+
+    @Test
+    public void testCommentChangeRoundTrips() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            assertKeyframeRoundTrip(previous,
+                next -> {
+                    CreationHelper helper = next.getCreationHelper();
+                    ClientAnchor anchor = helper.createClientAnchor();
+                    anchor.setRow1(1);
+                    Comment comment = next.getSheet("Data").createDrawingPatriarch().createCellComment(anchor);
+                    comment.setString(helper.createRichTextString("check this"));
+                    next.getSheet("Data").getRow(1).getCell(0).setCellComment(comment);
+                },
+                restored -> assertEquals("check this",
+                    restored.getSheet("Data").getCellComment(new CellAddress(1, 0)).getString().getString()));
+        }
+    }
+
+    @Test
+    public void testHyperlinkChangeRoundTrips() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            assertKeyframeRoundTrip(previous,
+                next -> {
+                    Hyperlink link = next.getCreationHelper().createHyperlink(HyperlinkType.URL);
+                    link.setAddress("https://example.com/item1");
+                    next.getSheet("Data").getRow(1).getCell(0).setHyperlink(link);
+                },
+                restored -> assertEquals("https://example.com/item1",
+                    restored.getSheet("Data").getRow(1).getCell(0).getHyperlink().getAddress()));
+        }
+    }
+
+    @Test
+    public void testDataValidationChangeRoundTrips() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            assertKeyframeRoundTrip(previous,
+                next -> {
+                    Sheet sheet = next.getSheet("Data");
+                    DataValidationHelper helper = sheet.getDataValidationHelper();
+                    sheet.addValidationData(helper.createValidation(
+                        helper.createExplicitListConstraint(new String[]{"a", "b"}), new CellRangeAddressList(0, 9, 2, 2)));
+                },
+                restored -> {
+                    assertEquals(1, restored.getSheet("Data").getDataValidations().size());
+                    assertArrayEquals(new CellRangeAddress[]{CellRangeAddress.valueOf("C1:C10")},
+                        restored.getSheet("Data").getDataValidations().get(0).getRegions().getCellRangeAddresses());
+                });
+        }
+    }
+
+    @Test
+    public void testConditionalFormattingChangeRoundTrips() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            assertKeyframeRoundTrip(previous,
+                next -> {
+                    SheetConditionalFormatting formatting = next.getSheet("Data").getSheetConditionalFormatting();
+                    formatting.addConditionalFormatting(new CellRangeAddress[]{CellRangeAddress.valueOf("B1:B500")},
+                        formatting.createConditionalFormattingRule("$B1>100"));
+                },
+                restored -> {
+                    SheetConditionalFormatting formatting = restored.getSheet("Data").getSheetConditionalFormatting();
+                    assertEquals(1, formatting.getNumConditionalFormattings());
+                    assertEquals("$B1>100", formatting.getConditionalFormattingAt(0).getRule(0).getFormula1());
+                });
+        }
+    }
+
+    @Test
+    public void testDefinedNameChangeRoundTrips() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            assertKeyframeRoundTrip(previous,
+                next -> {
+                    Name name = next.createName();
+                    name.setNameName("Amounts");
+                    name.setRefersToFormula("Data!$B$1:$B$500");
+                },
+                restored -> assertEquals("Data!$B$1:$B$500", restored.getName("Amounts").getRefersToFormula()));
+        }
+    }
+
+    @Test
+    public void testStyleDefinitionEditRoundTrips() throws Exception {
+        try (Workbook previous = createWorkbook()) {
+            CellStyle style = previous.createCellStyle();
+            previous.getSheet("Data").getRow(0).getCell(0).setCellStyle(style);
+            try (Workbook base = copy(previous)) {
+                // 修改已有样式不改变样式数量，只能通过比较样式定义发现
+                assertKeyframeRoundTrip(base,
+                    next -> next.getSheet("Data").getRow(0).getCell(0).getCellStyle()
+                        .setAlignment(HorizontalAlignment.CENTER),
+                    restored -> assertEquals(HorizontalAlignment.CENTER,
+                        restored.getSheet("Data").getRow(0).getCell(0).getCellStyle().getAlignment()));
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.diff.CellChange;
+import com.example.aiexcel.service.excel.diff.WorkbookDiffEngine;
+import com.example.aiexcel.service.excel.diff.WorkbookDiffResult;
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试版本比较：行对齐识别插入和删除的行，只输出变化的单元格，结果分页
+ */
+public class WorkbookDiffEngineTest {
+
+    private final WorkbookDiffEngine engine = new WorkbookDiffEngine(new ExcelServiceImpl(), 1000);
+
+    private byte[] toBytes(List<Object[]> rows, boolean extraSheet) throws Exception {
+        try (Workbook workbook = new XSSFWorkbook(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Sheet sheet = workbook.createSheet("Data");
+            for (int i = 0; i < rows.size(); i++) {
+                Row row = sheet.createRow(i);
+                Object[] values = rows.get(i);
+                for (int c = 0; c < values.length; c++) {
+                    if (values[c] instanceof String) {
+                        row.createCell(c).setCellValue((String) values[c]);
+                    } else if (values[c] instanceof Number) {
+                        row.createCell(c).setCellValue(((Number) values[c]).doubleValue());
+                    }
+                }
+            }
+            if (extraSheet) {
+                workbook.createSheet("Notes").createRow(0).createCell(0).setCellValue("added");
+            }
+            workbook.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    private List<Object[]> baseRows() {
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            rows.add(new Object[]{"item" + i, i});
+        }
+        return rows;
+    }
+
+    @Test
+    public void testInsertedDeletedAndModifiedRowsAreAligned() throws Exception {
+        List<Object[]> oldRows = baseRows();
+        List<Object[]> newRows = baseRows();
+        newRows.remove(10);                                   // 删除旧第11行
+        newRows.add(500, new Object[]{"inserted", -1});       // 插入新第501行
+        newRows.set(1500, new Object[]{"item1500", 9999});    // 修改一个单元格
+
+        WorkbookDiffResult result = engine.diff(toBytes(oldRows, false), toBytes(newRows, true), 0, 100);
+
+        assertEquals(1, result.getRowsRemoved());
+        assertEquals(2, result.getRowsAdded());               // 插入的行和新工作表中的行
+        assertEquals(1, result.getRowsModified());
+        assertEquals(List.of("Notes"), result.getSheetsAdded());
+        assertTrue(result.getSheetsRemoved().isEmpty());
+        assertTrue(result.getApproximateSheets().isEmpty());
+        assertEquals(6, result.getTotalChanges());
+
+        List<CellChange> changes = result.getChanges();
+        assertEquals(CellChange.Type.REMOVED, changes.get(0).getType());
+        assertEquals("A11", changes.get(0).getAddress());
+        assertEquals("item10", changes.get(0).getOldValue());
+        assertEquals(CellChange.Type.ADDED, changes.get(2).getType());
+        assertEquals("A501", changes.get(2).getAddress());
+
+        CellChange modified = changes.get(4);
+        assertEquals(CellChange.Type.MODIFIED, modified.getType());
+        assertEquals(1501, modified.getOldRow());
+        assertEquals(1501, modified.getNewRow());
+        assertEquals("B", modified.getColumn());
+        assertEquals("1500", modified.getOldValue());
+        assertEquals("9999", modified.getNewValue());
+
+        assertEquals("Notes", changes.get(5).getSheet());
+    }
+
+    @Test
+    public void testResultsArePaged() throws Exception {
+        List<Object[]> oldRows = baseRows();
+        List<Object[]> newRows = baseRows();
+        for (int i = 0; i < 50; i++) {
+            newRows.set(i * 10, new Object[]{"changed" + i, i * 10});
+        }
+
+        byte[] oldContent = toBytes(oldRows, false);
+        byte[] newContent = toBytes(newRows, false);
+        WorkbookDiffResult first = engine.diff(oldContent, newContent, 0, 20);
+        WorkbookDiffResult last = engine.diff(oldContent, newContent, 40, 20);
+
+        assertEquals(50, first.getTotalChanges());
+        assertEquals(20, first.getChanges().size());
+        assertTrue(first.isHasMore());
+        assertEquals(10, last.getChanges().size());
+        assertFalse(last.isHasMore());
+        assertEquals("changed40", last.getChanges().get(0).getNewValue());
+    }
+
+    @Test
+    public void testPagesAreCutFromCollectedResult() throws Exception {
+        List<Object[]> oldRows = baseRows();
+        List<Object[]> newRows = baseRows();
+        for (int i = 0; i < 50; i++) {
+            newRows.set(i * 10, new Object[]{"changed" + i, i * 10});
+        }
+
+        byte[] oldContent = toBytes(oldRows, false);
+        byte[] newContent = toBytes(newRows, false);
+        WorkbookDiffResult collected = engine.diff(oldContent, newContent, 0, 30);
+        assertTrue(collected.covers(10, 20));
+        assertFalse(collected.covers(20, 20));
+
+        WorkbookDiffResult page = collected.page(10, 20);
+        WorkbookDiffResult direct = engine.diff(oldContent, newContent, 10, 20);
+        assertEquals(direct.getTotalChanges(), page.getTotalChanges());
+        assertEquals(direct.getRowsModified(), page.getRowsModified());
+        assertEquals(direct.isHasMore(), page.isHasMore());
+        assertEquals(direct.getChanges().size(), page.getChanges().size());
+        for (int i = 0; i < page.getChanges().size(); i++) {
+            assertEquals(direct.getChanges().get(i).getNewValue(), page.getChanges().get(i).getNewValue());
+        }
+
+        // 全部变化都已收集时，任意页都可直接截取
+        WorkbookDiffResult complete = engine.diff(oldContent, newContent, 0, 100);
+        assertTrue(complete.covers(40, 20));
+        assertEquals(10, complete.page(40, 20).getChanges().size());
+        assertFalse(complete.page(40, 20).isHasMore());
+    }
+
+    @Test
+    public void testIdenticalVersionsHaveNoChanges() throws Exception {
+        byte[] content = toBytes(baseRows(), false);
+        WorkbookDiffResult result = engine.diff(content, content, 0, 100);
+        assertEquals(0, result.getTotalChanges());
+        assertEquals(0, result.getRowsModified());
+    }
+}
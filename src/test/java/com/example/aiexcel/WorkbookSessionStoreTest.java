@@ -0,0 +1,116 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.service.excel.impl.ExcelServiceImpl;
+import com.example.aiexcel.service.excel.session.WorkbookSession;
+import com.example.aiexcel.service.excel.session.WorkbookSessionNotFoundException;
+import com.example.aiexcel.service.excel.session.WorkbookSessionStore;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试工作簿会话：只解析一次、超出内存上限时溢出到磁盘并在访问时恢复、空闲超时删除
+ */
+public class WorkbookSessionStoreTest {
+
+    @TempDir
+    Path spillDir;
+
+    private final AtomicLong now = new AtomicLong(0);
+
+    private MockMultipartFile createXlsxFile(String name) throws Exception {
+        try (XSSFWorkbook workbook = new XSSFWorkbook();
+             ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            Sheet sheet = workbook.createSheet("Data");
+            for (int i = 0; i < 20; i++) {
+                Row row = sheet.createRow(i);
+                row.createCell(0).setCellValue("item" + i);
+                row.createCell(1).setCellValue(i);
+            }
+            workbook.write(out);
+            return new MockMultipartFile("file", name,
+                "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", out.toByteArray());
+        }
+    }
+
+    @Test
+    public void testWorkbookIsParsedOnceAndChangesPersist() throws Exception {
+        WorkbookSessionStore store = new WorkbookSessionStore(new ExcelServiceImpl(), Long.MAX_VALUE,
+            Duration.ofMinutes(30), spillDir, now::get);
+        WorkbookSession session = store.create(createXlsxFile("a.xlsx"));
+
+        Workbook first = store.withWorkbook(session.getId(), workbook -> {
+            workbook.getSheet("Data").getRow(0).getCell(0).setCellValue("changed");
+            return workbook;
+        });
+        Workbook second = store.withWorkbook(session.getId(), workbook -> workbook);
+
+        assertSame(first, second);
+        assertEquals("changed", second.getSheet("Data").getRow(0).getCell(0).getStringCellValue());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSessionSpillsAndReloads() throws Exception {
+        // 上限只够容纳一个工作簿
+        WorkbookSessionStore store = new WorkbookSessionStore(new ExcelServiceImpl(), 1,
+            Duration.ofMinutes(30), spillDir, now::get);
+        WorkbookSession a = store.create(createXlsxFile("a.xlsx"));
+        store.withWorkbook(a.getId(), workbook -> {
+            workbook.getSheet("Data").getRow(1).getCell(1).setCellValue(42);
+            return null;
+        });
+
+        now.set(1_000);
+        WorkbookSession b = store.create(createXlsxFile("b.xlsx"));
+        assertFalse(a.isResident());
+        assertTrue(b.isResident());
+        assertEquals(1, countSpillFiles());
+
+        // 访问a时从磁盘恢复，修改仍在；b随之溢出
+        now.set(2_000);
+        double value = store.withWorkbook(a.getId(),
+            workbook -> workbook.getSheet("Data").getRow(1).getCell(1).getNumericCellValue());
+        assertEquals(42, value);
+        assertTrue(a.isResident());
+        assertFalse(b.isResident());
+        assertEquals(a.getEstimatedBytes(), store.getResidentBytes());
+    }
+
+    @Test
+    public void testIdleSessionsAreEvicted() throws Exception {
+        WorkbookSessionStore store = new WorkbookSessionStore(new ExcelServiceImpl(), Long.MAX_VALUE,
+            Duration.ofSeconds(60), spillDir, now::get);
+        WorkbookSession idle = store.create(createXlsxFile("idle.xlsx"));
+        now.set(30_000);
+        WorkbookSession active = store.create(createXlsxFile("active.xlsx"));
+
+        now.set(61_000);
+        assertEquals(1, store.evictIdleSessions());
+        assertEquals(1, store.size());
+        assertThrows(WorkbookSessionNotFoundException.class,
+            () -> store.withWorkbook(idle.getId(), workbook -> workbook));
+        assertNotNull(store.withWorkbook(active.getId(), workbook -> workbook.getSheet("Data")));
+
+        store.close();
+        assertEquals(0, store.size());
+        assertEquals(0, store.getResidentBytes());
+    }
+
+    private long countSpillFiles() throws Exception {
+        try (var files = Files.list(spillDir)) {
+            return files.count();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.aiexcel;
+
+import com.example.aiexcel.model.OperationHistory;
+import com.example.aiexcel.repository.OperationHistoryRepository;
+import com.example.aiexcel.service.OperationHistoryService;
+import com.example.aiexcel.service.persistence.WriteBehindQueue;
+import com.example.aiexcel.service.storage.BlobStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionOperations;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * 测试异步写入队列：按提交顺序分批写入，同一文件不进同一批，失败重试，关闭时写完剩余任务
+ */
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class WriteBehindQueueTest {
+
+    @Autowired
+    private OperationHistoryRepository operationHistoryRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @TempDir
+    Path blobDir;
+
+    @AfterEach
+    public void cleanUp() {
+        operationHistoryRepository.deleteAll();
+    }
+
+    /**
+     * 记录每个事务中执行了哪些任务
+     */
+    private static class RecordingTransactions implements TransactionOperations {
+        final List<List<String>> transactions = Collections.synchronizedList(new ArrayList<>());
+        List<String> current;
+
+        @Override
+        public <T> T execute(org.springframework.transaction.support.TransactionCallback<T> action) {
+            current = new ArrayList<>();
+            T result = action.doInTransaction(null);
+            transactions.add(current);
+            return result;
+        }
+    }
+
+    @Test
+    public void testTasksAreBatchedInOrderWithoutRepeatingFiles() throws Exception {
+        RecordingTransactions transactions = new RecordingTransactions();
+        CountDownLatch release = new CountDownLatch(1);
+        try (WriteBehindQueue queue = new WriteBehindQueue(transactions, null, 100, 10, 3, 1)) {
+            // 第一个任务阻塞写入线程，使后续任务积压后成批取出
+            block(queue, release);
+            for (String key : List.of("a", "b", "c", "a", "d")) {
+                queue.submit(key, key, () -> transactions.current.add(key));
+            }
+            assertEquals(5, queue.getQueueDepth());
+            release.countDown();
+
+            assertTrue(queue.flush(Duration.ofSeconds(5)));
+            assertEquals(0, queue.getQueueDepth());
+            assertEquals(6, queue.getPersistedCount());
+            // 第二个a开始新的一批
+            assertEquals(List.of(List.of(), List.of("a", "b", "c"), List.of("a", "d")), transactions.transactions);
+            assertEquals(3, queue.getBatchCount());
+        }
+    }
+
+    @Test
+    public void testFailedBatchIsRetriedPerTask() throws Exception {
+        RecordingTransactions transactions = new RecordingTransactions();
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger flakyAttempts = new AtomicInteger();
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        try (WriteBehindQueue queue = new WriteBehindQueue(transactions, null, 100, 10, 3, 1)) {
+            block(queue, release);
+            queue.submit("a", "ok", () -> written.add("a"));
+            queue.submit("b", "flaky", () -> {
+                if (flakyAttempts.incrementAndGet() < 3) {
+                    throw new IllegalStateException("transient");
+                }
+                written.add("b");
+            });
+            queue.submit("c", "broken", () -> {
+                throw new IllegalStateException("permanent");
+            });
+            queue.submit("d", "ok", () -> written.add("d"));
+            release.countDown();
+
+            assertTrue(queue.flush(Duration.ofSeconds(5)));
+            assertEquals(4, queue.getPersistedCount());
+            assertEquals(1, queue.getFailedCount());
+            // 整批失败后逐个重试：flaky单独执行失败一次后成功，broken单独执行三次都失败
+            assertEquals(4, queue.getRetryCount());
+            assertTrue(written.containsAll(List.of("a", "b", "d")));
+            assertEquals(3, flakyAttempts.get());
+        }
+    }
+
+    @Test
+    public void testCloseFlushesPendingTasks() throws Exception {
+        RecordingTransactions transactions = new RecordingTransactions();
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> written = Collections.synchronizedList(new ArrayList<>());
+        WriteBehindQueue queue = new WriteBehindQueue(transactions, null, 100, 2, 3, 1);
+        block(queue, release);
+        for (int i = 0; i < 7; i++) {
+            String key = "file" + i;
+            queue.submit(key, key, () -> written.add(key));
+        }
+        release.countDown();
+        queue.close();
+
+        assertEquals(7, written.size());
+        assertEquals(0, queue.getQueueDepth());
+        // 关闭后提交的任务直接同步写入
+        queue.submit("late", "late", () -> written.add("late"));
+        assertEquals("late", written.get(7));
+    }
+
+    @Test
+    public void testDiscardedRedoStackIsReleasedOnceWhenBatchIsRetried() throws Exception {
+        BlobStore blobStore = new BlobStore(blobDir);
+        OperationHistoryService historyService = new OperationHistoryService();
+        ReflectionTestUtils.setField(historyService, "operationHistoryRepository", operationHistoryRepository);
+        ReflectionTestUtils.setField(historyService, "blobStore", blobStore);
+
+        // 已撤销记录的操作后内容与版本关键帧是同一个数据块
+        byte[] shared = "shared workbook bytes".getBytes(StandardCharsets.UTF_8);
+        String sharedHash = blobStore.put(shared);
+        OperationHistory undone = new OperationHistory("file", "AI_PROCESSING", "command=undone");
+        undone.setContentAfterHash(blobStore.put(shared));
+        undone.setUndone(true);
+        operationHistoryRepository.save(undone);
+        assertEquals(2, blobStore.getReferenceCount(sharedHash));
+
+        byte[] after = "new workbook bytes".getBytes(StandardCharsets.UTF_8);
+        AtomicInteger siblingAttempts = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        try (WriteBehindQueue queue = new WriteBehindQueue(new TransactionTemplate(transactionManager), null,
+                100, 10, 3, 1)) {
+            block(queue, release);
+            queue.submit("file", "history", () -> historyService.recordOperationWithJournal(
+                "task", "file", "AI_PROCESSING", "command=new", null, null, after));
+            // 同一批的另一个任务第一次失败，整批回滚后逐个重试
+            queue.submit("other", "sibling", () -> {
+                if (siblingAttempts.incrementAndGet() == 1) {
+                    throw new IllegalStateException("transient");
+                }
+            });
+            release.countDown();
+            assertTrue(queue.flush(Duration.ofSeconds(5)));
+            assertEquals(0, queue.getFailedCount());
+        }
+
+        // 回滚的那一批没有释放被丢弃的记录，重试提交后只释放一次
+        assertEquals(2, siblingAttempts.get());
+        assertTrue(operationHistoryRepository.findByFileIdAndUndoneTrue("file").isEmpty());
+        assertEquals(1, blobStore.getReferenceCount(sharedHash));
+        assertArrayEquals(shared, blobStore.get(sharedHash));
+        assertEquals(1, blobStore.getReferenceCount(BlobStore.hash(after)));
+        assertNotNull(operationHistoryRepository.findByTaskKey("task"));
+    }
+
+    /**
+     * 提交一个阻塞写入线程的任务，返回时写入线程已开始执行它
+     */
+    private static void block(WriteBehindQueue queue, CountDownLatch release) throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        queue.submit("blocker", "blocker", () -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}